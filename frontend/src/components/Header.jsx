@@ -46,7 +46,8 @@ const Header = () => {
             let isMounted = true;
 
             const loadImage = async () => {
-                const imageUrl = await getAuthenticatedImageUrl(user.profileImageUrl);
+                // The small thumbnail has an immutable URL, so the browser cache serves it on every page
+                const imageUrl = await getAuthenticatedImageUrl(user.profileThumbnailUrl || user.profileImageUrl);
                 if (isMounted && imageUrl) {
                     setProfileImage(imageUrl);
                 }
@@ -1,7 +1,9 @@
-import React, { useState, useEffect, useContext } from 'react';
+import React, { useState, useEffect, useContext, useRef } from 'react';
 import { AuthContext } from '../context/AuthContext';
 import UserForm from '../components/UserForm';
 
+const PAGE_SIZE = 50;
+
 const AdminPanel = () => {
     const { user } = useContext(AuthContext);
     const [users, setUsers] = useState([]);
@@ -11,11 +13,19 @@ const AdminPanel = () => {
     const [editingUser, setEditingUser] = useState(null);
     const [grades, setGrades] = useState([]);
     const [subjects, setSubjects] = useState([]);
+    const [nextCursor, setNextCursor] = useState(null);
+    const [importing, setImporting] = useState(false);
+    const [importReport, setImportReport] = useState(null);
+    const importInputRef = useRef(null);
 
-    const fetchUsers = async () => {
+    // Загружает страницу пользователей; без курсора - список заново с первой страницы
+    const fetchUsers = async (cursor = null) => {
         setLoading(true);
         try {
-            const response = await fetch('/api/admin/users', {
+            const params = new URLSearchParams({ size: PAGE_SIZE });
+            if (cursor) params.append('cursor', cursor);
+
+            const response = await fetch(`/api/admin/users/page?${params}`, {
                 headers: {
                     'Authorization': `${user.token}`
                 }
@@ -25,8 +35,9 @@ const AdminPanel = () => {
                 throw new Error('Ошибка загрузки пользователей');
             }
 
-            const data = await response.json();
-            setUsers(data);
+            const page = await response.json();
+            setUsers(prev => cursor ? [...prev, ...page.items] : page.items);
+            setNextCursor(page.hasMore ? page.nextCursor : null);
         } catch (err) {
             setError(err.message || 'Ошибка загрузки данных');
         } finally {
@@ -86,9 +97,9 @@ const AdminPanel = () => {
             fullName: userData.fullName,
             email: userData.email,
             role: userData.role,
-            gradeName: userData.grade ? userData.grade.fullName : null,
-            subjectNames: userData.subjects ? userData.subjects.map(s => s.name) : [],
-            teachingGradeNames: userData.teachingGrades ? userData.teachingGrades.map(g => g.fullName) : [], // Добавьте эту строку
+            gradeName: userData.gradeName || null,
+            subjectNames: userData.subjectNames ? [...userData.subjectNames] : [],
+            teachingGradeNames: userData.teachingGradeNames || [],
             active: userData.active
         };
 
@@ -169,6 +180,40 @@ const AdminPanel = () => {
         }
     };
 
+    // Массовый импорт из CSV/XLSX; в ответе - число созданных и ошибки по строкам
+    const handleImportUsers = async (event) => {
+        const file = event.target.files[0];
+        event.target.value = '';
+        if (!file) return;
+
+        setImporting(true);
+        setImportReport(null);
+        try {
+            const formData = new FormData();
+            formData.append('file', file);
+
+            const response = await fetch('/api/admin/users/import', {
+                method: 'POST',
+                headers: {
+                    'Authorization': user.token
+                },
+                body: formData
+            });
+
+            const data = await response.json();
+            if (!response.ok) {
+                throw new Error(data.message || 'Ошибка импорта пользователей');
+            }
+
+            setImportReport(data);
+            fetchUsers();
+        } catch (err) {
+            setError(err.message || 'Ошибка импорта пользователей');
+        } finally {
+            setImporting(false);
+        }
+    };
+
     if (loading && users.length === 0) {
         return <p>Загрузка...</p>;
     }
@@ -191,9 +236,46 @@ const AdminPanel = () => {
 
             <div style={{ marginBottom: '1rem', display: 'flex', justifyContent: 'space-between', alignItems: 'center' }}>
                 <h3>Управление пользователями</h3>
-                <button onClick={handleCreateUser}>Добавить пользователя</button>
+                <div style={{ display: 'flex', gap: '0.5rem' }}>
+                    <input
+                        ref={importInputRef}
+                        type="file"
+                        accept=".csv,.xlsx"
+                        style={{ display: 'none' }}
+                        onChange={handleImportUsers}
+                    />
+                    <button
+                        className="secondary"
+                        onClick={() => importInputRef.current.click()}
+                        disabled={importing}
+                    >
+                        {importing ? 'Импорт...' : 'Импорт из CSV/XLSX'}
+                    </button>
+                    <button onClick={handleCreateUser}>Добавить пользователя</button>
+                </div>
             </div>
 
+            {importReport && (
+                <div style={{
+                    backgroundColor: importReport.errors.length ? '#fff3cd' : '#d4edda',
+                    padding: '0.75rem',
+                    borderRadius: '4px',
+                    margin: '1rem 0'
+                }}>
+                    <p>Создано пользователей: {importReport.created} из {importReport.totalRows}</p>
+                    {importReport.errors.length > 0 && (
+                        <ul>
+                            {importReport.errors.map(e => (
+                                <li key={e.row}>
+                                    Строка {e.row}{e.username ? ` (${e.username})` : ''}: {e.message}
+                                </li>
+                            ))}
+                        </ul>
+                    )}
+                    <button className="secondary" onClick={() => setImportReport(null)}>Закрыть</button>
+                </div>
+            )}
+
             {showForm && (
                 <UserForm
                     user={editingUser}
@@ -226,9 +308,9 @@ const AdminPanel = () => {
                         <td>{u.email}</td>
                         <td>{u.role}</td>
                         <td>
-                            {u.role === 'STUDENT' && u.grade ? u.grade.fullName : null}
-                            {u.role === 'TEACHER' && u.subjects ?
-                                u.subjects.map(s => s.name).join(', ') : null}
+                            {u.role === 'STUDENT' && u.gradeName ? u.gradeName : null}
+                            {u.role === 'TEACHER' && u.subjectNames ?
+                                u.subjectNames.join(', ') : null}
                         </td>
                         <td>{u.active ? 'Активен' : 'Неактивен'}</td>
                         <td style={{ display: 'flex', gap: '0.5rem' }}>
@@ -252,6 +334,14 @@ const AdminPanel = () => {
                 ))}
                 </tbody>
             </table>
+
+            {nextCursor && (
+                <div style={{ marginTop: '1rem', textAlign: 'center' }}>
+                    <button onClick={() => fetchUsers(nextCursor)} disabled={loading}>
+                        {loading ? 'Загрузка...' : 'Загрузить ещё'}
+                    </button>
+                </div>
+            )}
         </div>
     );
 };
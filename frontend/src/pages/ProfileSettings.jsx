@@ -2,6 +2,7 @@ import React, { useState, useContext, useEffect } from 'react';
 import { AuthContext } from '../context/AuthContext';
 import { Camera, Save, Eye, EyeOff, Check, AlertCircle } from 'lucide-react';
 import axios from 'axios';
+import UploadService from '../services/UploadService';
 
 const ProfileSettings = () => {
     const { user, updateUserInfo, getAuthenticatedImageUrl } = useContext(AuthContext);
@@ -64,13 +65,12 @@ const ProfileSettings = () => {
     const uploadProfileImage = async () => {
         if (!selectedFile || !user) return null;
 
-        const formData = new FormData();
-        formData.append('file', selectedFile);
-
         try {
-            const response = await axios.post('/api/profile/image', formData, {
+            // The image is streamed to the server in chunks, then attached to the profile
+            const uploadId = await UploadService.uploadFile(selectedFile);
+            const response = await axios.put('/api/profile/image', null, {
+                params: { uploadId },
                 headers: {
-                    'Content-Type': 'multipart/form-data',
                     'Authorization': user.token
                 }
             });
@@ -80,7 +80,7 @@ const ProfileSettings = () => {
         } catch (error) {
             setMessage({
                 type: 'error',
-                text: error.response?.data?.message || 'Ошибка при загрузке изображения'
+                text: error.response?.data?.message || error.message || 'Ошибка при загрузке изображения'
             });
             return null;
         }
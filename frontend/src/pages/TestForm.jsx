@@ -2,6 +2,7 @@
 import React, {useState, useEffect, useContext} from 'react';
 import { useNavigate, useParams } from 'react-router-dom';
 import TestService from '../services/TestService';
+import UploadService from '../services/UploadService';
 import {AuthContext} from "../context/AuthContext.jsx";
 import './TestForm.css'; // Импортируем CSS файл
 
@@ -447,17 +448,17 @@ const TestForm = () => {
                 }))
             };
 
-            // Determine if we should use the multipart/form-data endpoint
-            // based on whether a reference material exists or needs to be removed
-            if (referenceMaterials || removeReferenceMaterials) {
+            // A new file is streamed to the server in chunks first and attached by its uploadId
+            if (referenceMaterials) {
+                testCreateRequest.referenceMaterialsUploadId = await UploadService.uploadFile(referenceMaterials);
+            }
+
+            // Removing materials without a replacement still goes through the multipart/form-data endpoint
+            if (removeReferenceMaterials && !referenceMaterials) {
                 // Create form data object
                 const formDataObj = new FormData();
                 formDataObj.append('test', new Blob([JSON.stringify(testCreateRequest)], { type: 'application/json' }));
 
-                if (referenceMaterials) {
-                    formDataObj.append('referenceMaterials', referenceMaterials);
-                }
-
                 if (isEditing) {
                     await TestService.updateTestWithFile(
                         testId,
@@ -468,7 +469,7 @@ const TestForm = () => {
                     await TestService.createTestWithFile(formDataObj);
                 }
             } else {
-                // Use JSON endpoint if no file operations
+                // Use JSON endpoint otherwise
                 if (isEditing) {
                     await TestService.updateTest(testId, testCreateRequest);
                 } else {
@@ -788,27 +789,62 @@ const TestForm = () => {
                                 </div>
                             ) : (
                                 <div className="answers-container">
-                                    <h5>Правильный ответ</h5>
-                                    <input
-                                        type="text"
-                                        value={question.answers?.[0]?.text || ''}
-                                        onChange={(e) => {
+                                    <h5>Правильные ответы</h5>
+                                    {(question.answers?.length ? question.answers : [{ text: '', isCorrect: true }]).map((answer, aIndex) => (
+                                        <div key={aIndex} className="answer-item">
+                                            <div className="answer-text">
+                                                <input
+                                                    type="text"
+                                                    value={answer.text || ''}
+                                                    onChange={(e) => {
+                                                        const updatedQuestions = [...formData.questions];
+                                                        if (!updatedQuestions[qIndex].answers || updatedQuestions[qIndex].answers.length === 0) {
+                                                            updatedQuestions[qIndex].answers = [{ text: '', isCorrect: true }];
+                                                        }
+                                                        updatedQuestions[qIndex].answers[aIndex].text = e.target.value;
+                                                        updatedQuestions[qIndex].answers[aIndex].isCorrect = true;
+                                                        setFormData(prev => ({
+                                                            ...prev,
+                                                            questions: updatedQuestions
+                                                        }));
+                                                    }}
+                                                    placeholder={aIndex === 0 ? 'Введите правильный ответ' : 'Другой допустимый вариант'}
+                                                    className="form-control"
+                                                />
+                                            </div>
+                                            {aIndex > 0 && (
+                                                <div className="answer-actions">
+                                                    <button
+                                                        type="button"
+                                                        onClick={() => removeAnswer(qIndex, aIndex)}
+                                                        className="btn btn-danger btn-sm"
+                                                    >
+                                                        Удалить
+                                                    </button>
+                                                </div>
+                                            )}
+                                        </div>
+                                    ))}
+                                    <button
+                                        type="button"
+                                        onClick={() => {
                                             const updatedQuestions = [...formData.questions];
-                                            if (!updatedQuestions[qIndex].answers || updatedQuestions[qIndex].answers.length === 0) {
-                                                updatedQuestions[qIndex].answers = [{ text: '', isCorrect: true }];
-                                            }
-                                            updatedQuestions[qIndex].answers[0].text = e.target.value;
-                                            updatedQuestions[qIndex].answers[0].isCorrect = true;
+                                            updatedQuestions[qIndex].answers = [
+                                                ...(updatedQuestions[qIndex].answers || []),
+                                                { text: '', isCorrect: true }
+                                            ];
                                             setFormData(prev => ({
                                                 ...prev,
                                                 questions: updatedQuestions
                                             }));
                                         }}
-                                        placeholder="Введите правильный ответ"
-                                        className="form-control"
-                                    />
+                                        className="btn btn-primary"
+                                    >
+                                        Добавить вариант ответа
+                                    </button>
                                     <p className="form-text">
-                                        Ответ студента будет проверяться на точное соответствие (без учета регистра)
+                                        Засчитывается любой вариант. Регистр, ё/е, знаки препинания и лишние пробелы не учитываются,
+                                        в словах длиннее 4 букв допускаются 1–2 опечатки; числа проверяются точно
                                     </p>
                                 </div>
                             )}
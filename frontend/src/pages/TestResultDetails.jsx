@@ -107,88 +107,97 @@ const TestResultDetails = () => {
             {/* Ответы на вопросы */}
             <h3 style={{ marginTop: '2rem' }}>Ответы на вопросы</h3>
 
-            {resultDetails.studentAnswers && resultDetails.studentAnswers.map((answer, index) => (
-                <div key={answer.id || index} style={{
-                    backgroundColor: answer.correct ? 'rgba(76, 175, 80, 0.1)' : 'rgba(244, 67, 54, 0.1)',
-                    padding: '1.5rem',
-                    borderRadius: '8px',
-                    boxShadow: '0 0 10px rgba(0,0,0,0.1)',
-                    marginTop: '1rem',
-                    borderLeft: `5px solid ${answer.correct ? '#4CAF50' : '#F44336'}`
-                }}>
-                    <h4 style={{ margin: '0 0 1rem 0' }}>
-                        Вопрос {index + 1}: {answer.questionText}
-                    </h4>
-
-                    <div style={{ marginBottom: '1rem' }}>
-                        <p style={{ margin: '0', fontWeight: 'bold' }}>Тип вопроса:</p>
-                        <p style={{ margin: '0.5rem 0' }}>
-                            {answer.questionType === 'TEXT_ANSWER' ? 'Текстовый ответ' :
-                                answer.questionType === 'SINGLE_CHOICE' ? 'Одиночный выбор' :
-                                    'Множественный выбор'}
-                        </p>
-                    </div>
-
-                    {answer.questionType === 'TEXT_ANSWER' ? (
-                        <div>
-                            <p style={{ margin: '0', fontWeight: 'bold' }}>Ответ студента:</p>
-                            <p style={{ margin: '0.5rem 0' }}>{answer.textAnswer || '(не указан)'}</p>
-
-                            <p style={{ margin: '1rem 0 0 0', fontWeight: 'bold' }}>Правильный ответ:</p>
+            {resultDetails.studentAnswers && resultDetails.studentAnswers.map((answer, index) => {
+                // Варианты приходят по id, тексты - в общей таблице options
+                const optionsOf = (ids) => (ids || [])
+                    .map(id => resultDetails.options?.[id])
+                    .filter(Boolean);
+                const selectedAnswers = optionsOf(answer.selectedAnswerIds);
+                const correctAnswers = optionsOf(answer.correctAnswerIds);
+
+                return (
+                    <div key={answer.id || index} style={{
+                        backgroundColor: answer.correct ? 'rgba(76, 175, 80, 0.1)' : 'rgba(244, 67, 54, 0.1)',
+                        padding: '1.5rem',
+                        borderRadius: '8px',
+                        boxShadow: '0 0 10px rgba(0,0,0,0.1)',
+                        marginTop: '1rem',
+                        borderLeft: `5px solid ${answer.correct ? '#4CAF50' : '#F44336'}`
+                    }}>
+                        <h4 style={{ margin: '0 0 1rem 0' }}>
+                            Вопрос {index + 1}: {answer.questionText}
+                        </h4>
+
+                        <div style={{ marginBottom: '1rem' }}>
+                            <p style={{ margin: '0', fontWeight: 'bold' }}>Тип вопроса:</p>
                             <p style={{ margin: '0.5rem 0' }}>
-                                {answer.correctAnswers && answer.correctAnswers.length > 0
-                                    ? answer.correctAnswers[0].text
-                                    : '(нет правильного ответа)'}
+                                {answer.questionType === 'TEXT_ANSWER' ? 'Текстовый ответ' :
+                                    answer.questionType === 'SINGLE_CHOICE' ? 'Одиночный выбор' :
+                                        'Множественный выбор'}
                             </p>
                         </div>
-                    ) : (
-                        <div>
-                            <p style={{ margin: '0', fontWeight: 'bold' }}>Выбранные ответы:</p>
-                            {answer.selectedAnswers && answer.selectedAnswers.length > 0 ? (
-                                <ul style={{ margin: '0.5rem 0' }}>
-                                    {answer.selectedAnswers.map((selectedAnswer, ansIdx) => (
-                                        <li key={selectedAnswer.id || `sel-${ansIdx}`} style={{
-                                            color: selectedAnswer.isCorrect ? '#4CAF50' : '#F44336'
-                                        }}>
-                                            {selectedAnswer.text}
-                                            {selectedAnswer.isCorrect ? ' ✓' : ' ✗'}
-                                        </li>
-                                    ))}
-                                </ul>
-                            ) : (
-                                <p style={{ margin: '0.5rem 0', fontStyle: 'italic' }}>
-                                    Ответ не выбран
-                                </p>
-                            )}
-
-                            <p style={{ margin: '1rem 0 0 0', fontWeight: 'bold' }}>Правильные ответы:</p>
-                            {answer.correctAnswers && answer.correctAnswers.length > 0 ? (
-                                <ul style={{ margin: '0.5rem 0', color: '#4CAF50' }}>
-                                    {answer.correctAnswers.map((correctAnswer, ansIdx) => (
-                                        <li key={correctAnswer.id || `corr-${ansIdx}`}>{correctAnswer.text}</li>
-                                    ))}
-                                </ul>
-                            ) : (
-                                <p style={{ margin: '0.5rem 0', fontStyle: 'italic' }}>
-                                    Нет правильных ответов
+
+                        {answer.questionType === 'TEXT_ANSWER' ? (
+                            <div>
+                                <p style={{ margin: '0', fontWeight: 'bold' }}>Ответ студента:</p>
+                                <p style={{ margin: '0.5rem 0' }}>{answer.textAnswer || '(не указан)'}</p>
+
+                                <p style={{ margin: '1rem 0 0 0', fontWeight: 'bold' }}>Правильный ответ:</p>
+                                <p style={{ margin: '0.5rem 0' }}>
+                                    {correctAnswers.length > 0
+                                        ? correctAnswers[0].text
+                                        : '(нет правильного ответа)'}
                                 </p>
-                            )}
+                            </div>
+                        ) : (
+                            <div>
+                                <p style={{ margin: '0', fontWeight: 'bold' }}>Выбранные ответы:</p>
+                                {selectedAnswers.length > 0 ? (
+                                    <ul style={{ margin: '0.5rem 0' }}>
+                                        {selectedAnswers.map((selectedAnswer, ansIdx) => (
+                                            <li key={selectedAnswer.id || `sel-${ansIdx}`} style={{
+                                                color: selectedAnswer.isCorrect ? '#4CAF50' : '#F44336'
+                                            }}>
+                                                {selectedAnswer.text}
+                                                {selectedAnswer.isCorrect ? ' ✓' : ' ✗'}
+                                            </li>
+                                        ))}
+                                    </ul>
+                                ) : (
+                                    <p style={{ margin: '0.5rem 0', fontStyle: 'italic' }}>
+                                        Ответ не выбран
+                                    </p>
+                                )}
+
+                                <p style={{ margin: '1rem 0 0 0', fontWeight: 'bold' }}>Правильные ответы:</p>
+                                {correctAnswers.length > 0 ? (
+                                    <ul style={{ margin: '0.5rem 0', color: '#4CAF50' }}>
+                                        {correctAnswers.map((correctAnswer, ansIdx) => (
+                                            <li key={correctAnswer.id || `corr-${ansIdx}`}>{correctAnswer.text}</li>
+                                        ))}
+                                    </ul>
+                                ) : (
+                                    <p style={{ margin: '0.5rem 0', fontStyle: 'italic' }}>
+                                        Нет правильных ответов
+                                    </p>
+                                )}
+                            </div>
+                        )}
+
+                        <div style={{ marginTop: '1rem', textAlign: 'right' }}>
+                            <span style={{
+                                backgroundColor: answer.correct ? '#4CAF50' : '#F44336',
+                                color: 'white',
+                                padding: '0.3rem 0.8rem',
+                                borderRadius: '4px',
+                                fontSize: '0.9rem'
+                            }}>
+                                {answer.correct ? 'Верно' : 'Неверно'} • {answer.earnedPoints} / {answer.maxPoints} баллов
+                            </span>
                         </div>
-                    )}
-
-                    <div style={{ marginTop: '1rem', textAlign: 'right' }}>
-                        <span style={{
-                            backgroundColor: answer.correct ? '#4CAF50' : '#F44336',
-                            color: 'white',
-                            padding: '0.3rem 0.8rem',
-                            borderRadius: '4px',
-                            fontSize: '0.9rem'
-                        }}>
-                            {answer.correct ? 'Верно' : 'Неверно'} • {answer.earnedPoints} / {answer.maxPoints} баллов
-                        </span>
                     </div>
-                </div>
-            ))}
+                );
+            })}
 
             {/* Кнопка возврата */}
             <div style={{ marginTop: '2rem' }}>
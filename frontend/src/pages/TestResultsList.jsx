@@ -3,6 +3,8 @@ import { Link, useParams } from 'react-router-dom';
 import { AuthContext } from '../context/AuthContext';
 import TestService from '../services/TestService';
 
+const PAGE_SIZE = 20;
+
 const TestResultsList = () => {
     const { testId } = useParams();
     const { user } = useContext(AuthContext);
@@ -21,6 +23,29 @@ const TestResultsList = () => {
     // Состояние для отслеживания развернутых учеников
     const [expandedStudents, setExpandedStudents] = useState({});
 
+    // Курсор следующей страницы результатов (null - всё загружено)
+    const [nextCursor, setNextCursor] = useState(null);
+    const [loadingMore, setLoadingMore] = useState(false);
+
+    // Попытки, начатые прямо сейчас (resultId -> имя ученика), по данным live-потока
+    const [inProgress, setInProgress] = useState({});
+
+    const isTeacherView = testId && (user?.role === 'TEACHER' || user?.role === 'ADMIN');
+
+    // Загружает одну страницу результатов и дописывает её к уже загруженным
+    const fetchResultsPage = async (cursor) => {
+        const page = isTeacherView
+            ? await TestService.getTestResultsPage(testId, cursor, PAGE_SIZE)
+            : await TestService.getStudentResultsPage(cursor, PAGE_SIZE);
+
+        const items = Array.isArray(page?.items)
+            ? page.items.filter(item => item !== null && item !== undefined)
+            : [];
+
+        setResults(prev => cursor ? [...prev, ...items] : items);
+        setNextCursor(page?.hasMore ? page.nextCursor : null);
+    };
+
     useEffect(() => {
         const fetchData = async () => {
             try {
@@ -28,76 +53,26 @@ const TestResultsList = () => {
                 setError(null);
 
                 // For teachers and admins - get results for a specific test
-                if (testId && (user?.role === 'TEACHER' || user?.role === 'ADMIN')) {
+                if (isTeacherView) {
                     try {
                         // First try to get the test details
                         const testResponse = await TestService.getTestById(parseInt(testId));
-                        console.log("Received test data:", testResponse?.data);
 
                         if (testResponse?.data) {
                             setTest(testResponse.data);
                         }
 
-                        // Then get the test results
-                        const resultsResponse = await TestService.getTestResults(testId);
-                        console.log("Raw teacher results response:", resultsResponse);
-
-                        // Handle the results data - ensure it's an array
-                        let resultsData;
-
-                        // Check if response is already an array
-                        if (Array.isArray(resultsResponse)) {
-                            resultsData = resultsResponse;
-                        } else if (resultsResponse?.data && Array.isArray(resultsResponse.data)) {
-                            resultsData = resultsResponse.data;
-                        } else if (resultsResponse?.data?.results && Array.isArray(resultsResponse.data.results)) {
-                            resultsData = resultsResponse.data.results;
-                        } else if (resultsResponse?.data && typeof resultsResponse.data === 'object') {
-                            // Convert object to array if needed (handling numbered keys)
-                            resultsData = Object.values(resultsResponse.data).filter(item => item !== null && typeof item === 'object');
-                        } else {
-                            resultsData = [];
-                        }
-
-                        // Filter out any null or undefined entries
-                        const validResults = resultsData.filter(item => item !== null && item !== undefined);
-                        console.log("Processed results data:", validResults);
-                        setResults(validResults);
-
+                        // Then get the first page of test results
+                        await fetchResultsPage(null);
                     } catch (err) {
                         console.error("Error fetching test data:", err);
                         setError("Ошибка при загрузке результатов: " + (err.response?.data?.message || err.message));
                     }
                 }
-                // For students - get all their results
+                // For students - get their results page by page
                 else if (user?.role === 'STUDENT') {
                     try {
-                        const response = await TestService.getStudentResults();
-                        console.log("Received student results:", response?.data);
-
-                        // Handle the results data - ensure it's an array
-                        if (response?.data) {
-                            let resultsData;
-
-                            // Check if data is already an array or needs to be extracted
-                            if (Array.isArray(response.data)) {
-                                resultsData = response.data;
-                            } else if (response.data.results && Array.isArray(response.data.results)) {
-                                resultsData = response.data.results;
-                            } else if (typeof response.data === 'object') {
-                                // Convert object to array if needed (handling numbered keys)
-                                resultsData = Object.values(response.data).filter(item => item !== null && typeof item === 'object');
-                            } else {
-                                resultsData = [];
-                            }
-
-                            // Filter out any null or undefined entries
-                            const validResults = resultsData.filter(item => item !== null && item !== undefined);
-                            console.log("Processed student results data:", validResults);
-                            setResults(validResults);
-                        } else {
-                            setResults([]);
-                        }
+                        await fetchResultsPage(null);
                     } catch (err) {
                         console.error("Error fetching student results:", err);
                         setError("Ошибка при загрузке результатов: " + (err.response?.data?.message || err.message));
@@ -113,6 +88,37 @@ const TestResultsList = () => {
         fetchData();
     }, [testId, user?.role, user?.id]);
 
+    // Live-обновления: новые завершённые попытки появляются без перезагрузки страницы
+    useEffect(() => {
+        if (!isTeacherView) return undefined;
+
+        const source = TestService.openProgressStream(testId, ({ type, result }) => {
+            if (type === 'STARTED') {
+                setInProgress(prev => ({ ...prev, [result.id]: result.studentName }));
+                return;
+            }
+            setInProgress(prev => {
+                const { [result.id]: _, ...rest } = prev;
+                return rest;
+            });
+            setResults(prev => [result, ...prev.filter(r => r.id !== result.id)]);
+        });
+
+        return () => source.close();
+    }, [testId, isTeacherView]);
+
+    const handleLoadMore = async () => {
+        if (!nextCursor || loadingMore) return;
+        try {
+            setLoadingMore(true);
+            await fetchResultsPage(nextCursor);
+        } catch (err) {
+            setError("Ошибка при загрузке результатов: " + (err.response?.data?.message || err.message));
+        } finally {
+            setLoadingMore(false);
+        }
+    };
+
     // Calculate percentage of correct answers
     const calculatePercentage = (correctAnswers, totalQuestions) => {
         if (totalQuestions === 0) return 0;
@@ -431,9 +437,15 @@ const TestResultsList = () => {
 
 
 
+    const inProgressNames = Object.values(inProgress);
+
     return (
         <div>
-
+            {isTeacherView && inProgressNames.length > 0 && (
+                <div style={{ marginBottom: '1rem', color: '#2196F3' }}>
+                    Сейчас проходят тест ({inProgressNames.length}): {inProgressNames.join(', ')}
+                </div>
+            )}
 
             {/* Control panel */}
             <div style={styles.controlPanel}>
@@ -805,6 +817,14 @@ const TestResultsList = () => {
                 </div>
             )}
 
+            {nextCursor && (
+                <div style={{ marginTop: '1rem', textAlign: 'center' }}>
+                    <button onClick={handleLoadMore} disabled={loadingMore}>
+                        {loadingMore ? 'Загрузка...' : 'Загрузить ещё'}
+                    </button>
+                </div>
+            )}
+
             <div style={{ marginTop: '1.5rem' }}>
                 <Link
                     to="/tests"
@@ -1,4 +1,4 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import { useParams, useNavigate } from 'react-router-dom';
 import TestService from '../services/TestService';
 
@@ -16,6 +16,10 @@ const TestTaking = () => {
     const [error, setError] = useState(null);
     const [submitting, setSubmitting] = useState(false);
     const [timeExpired, setTimeExpired] = useState(false);
+    // Автоотправка по времени должна случиться ровно один раз (локальный таймер или time-up с сервера)
+    const autoSubmittedRef = useRef(false);
+    // Обработчики событий SSE создаются один раз, поэтому вызывают актуальную версию отправки через ref
+    const submitRef = useRef(null);
 
     // Загрузка теста и начало прохождения
     useEffect(() => {
@@ -124,7 +128,7 @@ const TestTaking = () => {
                     clearInterval(timer);
                     setTimeExpired(true);
                     // Автоматическая отправка теста при истечении времени
-                    handleSubmitTest(true);
+                    autoSubmit();
                     return 0;
                 }
                 return prevTime - 1;
@@ -134,6 +138,35 @@ const TestTaking = () => {
         return () => clearInterval(timer);
     }, [timeLeft]);
 
+    // Серверный таймер: поправка оставшегося времени, time-up в момент дедлайна
+    // и finished, если сервер завершил попытку сам (ответы не успели дойти)
+    useEffect(() => {
+        if (!testResult?.id) return undefined;
+
+        const source = TestService.openDeadlineStream(testResult.id, {
+            remaining: ({ remainingSeconds }) => setTimeLeft(remainingSeconds),
+            'time-up': () => {
+                setTimeExpired(true);
+                setTimeLeft(0);
+                autoSubmit();
+            },
+            finished: ({ type, resultId }) => {
+                source.close();
+                if (type === 'EXPIRED') {
+                    navigate(`/tests/result/${resultId}`);
+                }
+            },
+        });
+
+        return () => source.close();
+    }, [testResult?.id]);
+
+    const autoSubmit = () => {
+        if (autoSubmittedRef.current) return;
+        autoSubmittedRef.current = true;
+        submitRef.current?.(true);
+    };
+
     // Обработчик ответа на вопрос
     const handleAnswerChange = (questionId, value, isMultiple = false, isText = false) => {
         if (timeExpired) return; // Не позволяем менять ответы после истечения времени
@@ -256,6 +289,8 @@ const TestTaking = () => {
         }
     };
 
+    submitRef.current = handleSubmitTest;
+
     // Проверка, отвечен ли вопрос
     const isQuestionAnswered = (questionId) => {
         const answer = answers[questionId];
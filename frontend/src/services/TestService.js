@@ -46,6 +46,73 @@ class TestService {
         return api.get(`/tests/results`);
     }
 
+    // Paged results: completed attempts from newest to oldest.
+    // Pass nextCursor from the previous page to load the next one.
+    getTestResultsPage(testId, cursor = null, size = 20) {
+        const params = new URLSearchParams({ size });
+        if (cursor) params.append('cursor', cursor);
+        return api.get(`/tests/${testId}/results/page?${params}`);
+    }
+
+    getStudentResultsPage(cursor = null, size = 20) {
+        const params = new URLSearchParams({ size });
+        if (cursor) params.append('cursor', cursor);
+        return api.get(`/tests/results/page?${params}`);
+    }
+
+    // EventSource cannot send headers, so each connection is opened with a one-time ticket
+    // from POST /auth/stream-ticket instead of the session token. A used ticket cannot reconnect:
+    // when the browser gives up on the stream it is reopened with a fresh ticket, backing off on repeated failures.
+    openTicketStream(path, attach) {
+        let source = null;
+        let closed = false;
+        let retry = null;
+        let delay = 1000;
+
+        const reopen = () => {
+            if (closed) return;
+            retry = setTimeout(open, delay);
+            delay = Math.min(delay * 2, 60000);
+        };
+        const open = async () => {
+            try {
+                const { data } = await api.post('/auth/stream-ticket');
+                if (closed) return;
+                source = new EventSource(`${path}?${new URLSearchParams({ ticket: data.ticket })}`);
+                source.onopen = () => { delay = 1000; };
+                source.onerror = () => {
+                    if (source.readyState === EventSource.CLOSED) reopen();
+                };
+                attach(source);
+            } catch (err) {
+                reopen();
+            }
+        };
+
+        open();
+        return {
+            close() {
+                closed = true;
+                clearTimeout(retry);
+                source?.close();
+            },
+        };
+    }
+
+    // Live stream of started and submitted attempts for a test (teachers and admins).
+    openProgressStream(testId, onAttempt) {
+        return this.openTicketStream(`/api/tests/${testId}/progress/stream`, (source) =>
+            source.addEventListener('attempt', (event) => onAttempt(JSON.parse(event.data))));
+    }
+
+    // Server-side countdown for an attempt: 'remaining' syncs the timer,
+    // 'time-up' asks the client to submit now, 'finished' reports the attempt is closed.
+    openDeadlineStream(resultId, handlers) {
+        return this.openTicketStream(`/api/tests/results/${resultId}/deadline/stream`, (source) =>
+            Object.entries(handlers).forEach(([name, handler]) =>
+                source.addEventListener(name, (event) => handler(JSON.parse(event.data)))));
+    }
+
     // Get a specific test result by ID
     getResultById(resultId) {
         return api.get(`/tests/results/${resultId}`);
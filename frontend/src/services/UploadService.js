@@ -0,0 +1,64 @@
+import axios from 'axios';
+
+const CHUNK_SIZE = 4 * 1024 * 1024;
+const MAX_RETRIES = 5;
+
+const authHeaders = () => {
+    const storedUser = JSON.parse(localStorage.getItem('user') || 'null');
+    return storedUser?.token ? { Authorization: storedUser.token } : {};
+};
+
+const errorMessage = (error) =>
+    error.response?.data?.message || 'Ошибка сети или сервер недоступен';
+
+class UploadService {
+    // Uploads a file in chunks straight to server storage and returns the uploadId
+    // to attach it to a test (referenceMaterialsUploadId) or a profile.
+    // After a dropped connection the upload resumes from the offset the server has accepted.
+    async uploadFile(file, onProgress) {
+        const params = new URLSearchParams({ filename: file.name, size: file.size });
+        let status;
+        try {
+            status = (await axios.post(`/api/uploads?${params}`, null, { headers: authHeaders() })).data;
+        } catch (error) {
+            throw new Error(errorMessage(error));
+        }
+
+        let retries = 0;
+        while (!status.complete) {
+            const start = status.offset;
+            const end = Math.min(start + CHUNK_SIZE, file.size) - 1;
+            try {
+                status = (await axios.put(`/api/uploads/${status.uploadId}`, file.slice(start, end + 1), {
+                    headers: {
+                        ...authHeaders(),
+                        'Content-Type': 'application/octet-stream',
+                        'Content-Range': `bytes ${start}-${end}/${file.size}`
+                    }
+                })).data;
+                retries = 0;
+            } catch (error) {
+                if (error.response?.status === 409 && error.response.data.upload) {
+                    // The server holds a different offset: continue from it
+                    status = error.response.data.upload;
+                } else if (!error.response && retries < MAX_RETRIES) {
+                    retries++;
+                    await new Promise(resolve => setTimeout(resolve, 1000 * retries));
+                    status = await this.getStatus(status.uploadId).catch(() => status);
+                } else {
+                    throw new Error(errorMessage(error));
+                }
+            }
+            if (onProgress) {
+                onProgress(file.size ? status.offset / file.size : 1);
+            }
+        }
+        return status.uploadId;
+    }
+
+    async getStatus(uploadId) {
+        return (await axios.get(`/api/uploads/${uploadId}`, { headers: authHeaders() })).data;
+    }
+}
+
+export default new UploadService();
@@ -0,0 +1,64 @@
+// Нагрузочный тест "экзамен + выгрузка отчёта".
+// Дешёвые запросы каталога (/api/tests) идут с постоянной частотой, параллельно
+// несколько администраторов выгружают полный Excel-отчёт. Сравниваются пропускная
+// способность и p99 каталога при APP_VIRTUAL_THREADS=false и true.
+//
+//   k6 run -e BASE_URL=http://localhost:8080 -e STUDENT=student1 -e STUDENT_PASSWORD=1 \
+//          -e ADMIN=admin -e ADMIN_PASSWORD=1 loadtest/exam-burst.js
+import http from 'k6/http';
+import { check } from 'k6';
+
+const BASE_URL = __ENV.BASE_URL || 'http://localhost:8080';
+const CATALOG_RATE = parseInt(__ENV.CATALOG_RATE || '200');
+const EXPORT_VUS = parseInt(__ENV.EXPORT_VUS || '5');
+
+export const options = {
+    scenarios: {
+        catalog: {
+            executor: 'constant-arrival-rate',
+            exec: 'catalog',
+            rate: CATALOG_RATE,
+            timeUnit: '1s',
+            duration: '2m',
+            preAllocatedVUs: 100,
+            maxVUs: 1000,
+        },
+        export: {
+            executor: 'constant-vus',
+            exec: 'exportWorkbook',
+            vus: EXPORT_VUS,
+            duration: '2m',
+        },
+    },
+    summaryTrendStats: ['avg', 'p(50)', 'p(95)', 'p(99)', 'max'],
+    thresholds: {
+        'http_req_duration{scenario:catalog}': ['p(99)<500'],
+        'http_req_failed{scenario:catalog}': ['rate<0.01'],
+    },
+};
+
+function login(username, password) {
+    const res = http.post(`${BASE_URL}/api/auth/login`,
+        JSON.stringify({ username, password }),
+        { headers: { 'Content-Type': 'application/json' } });
+    check(res, { 'login 200': r => r.status === 200 });
+    return res.json('token');
+}
+
+export function setup() {
+    return {
+        studentToken: login(__ENV.STUDENT || 'student1', __ENV.STUDENT_PASSWORD || '1'),
+        adminToken: login(__ENV.ADMIN || 'admin', __ENV.ADMIN_PASSWORD || '1'),
+    };
+}
+
+export function catalog(data) {
+    const res = http.get(`${BASE_URL}/api/tests`, { headers: { Authorization: data.studentToken } });
+    check(res, { 'catalog 200': r => r.status === 200 });
+}
+
+export function exportWorkbook(data) {
+    const res = http.get(`${BASE_URL}/api/statistics/export/excel`,
+        { headers: { Authorization: data.adminToken }, timeout: '120s' });
+    check(res, { 'export 200/429': r => r.status === 200 || r.status === 429 });
+}
@@ -0,0 +1,53 @@
+package org.ineydlis.schooltest.config;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ограничение параллелизма с очередью фиксированной длины.
+ * Кто не поместился в очередь или не дождался за timeout - получает отказ.
+ */
+public class Bulkhead {
+
+    private final Semaphore permits;
+    private final int maxWaiting;
+    private final long timeoutMs;
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    public Bulkhead(int maxConcurrent, int maxWaiting, long timeoutMs) {
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxWaiting = maxWaiting;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * @return true, если разрешение получено и его нужно вернуть через {@link #release()}
+     */
+    public boolean tryAcquire() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return true;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            return false;
+        }
+        try {
+            return permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS);
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getAvailablePermits() {
+        return permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+}
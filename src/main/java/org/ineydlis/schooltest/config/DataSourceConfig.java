@@ -0,0 +1,123 @@
+package org.ineydlis.schooltest.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+@Configuration
+public class DataSourceConfig {
+
+    @Value("${app.db-bulkhead.enabled:false}")
+    private boolean bulkheadEnabled;
+
+    @Value("${app.db-bulkhead.max-waiting:200}")
+    private int bulkheadMaxWaiting;
+
+    @Value("${app.db-bulkhead.acquire-timeout-ms:2000}")
+    private long bulkheadAcquireTimeoutMs;
+
+    // Пул для прохождения тестов настраивается как обычно, через spring.datasource.*
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryPool(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    // Отдельный небольшой пул для статистики и выгрузок (app.datasource.reporting.hikari.*)
+    @Bean
+    @ConfigurationProperties("app.datasource.reporting.hikari")
+    public HikariDataSource reportingPool(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    // Реплика для чтения (app.datasource.replica.hikari.jdbc-url и т.д.); без настройки не создаётся
+    @Bean
+    @ConditionalOnProperty("app.datasource.replica.hikari.jdbc-url")
+    @ConfigurationProperties("app.datasource.replica.hikari")
+    public HikariDataSource replicaPool() {
+        return new HikariDataSource();
+    }
+
+    @Bean
+    public ReplicaLagMonitor replicaLagMonitor(@Qualifier("replicaPool") ObjectProvider<HikariDataSource> replicaPool,
+                                               @Value("${app.datasource.replica.lag-query}") String lagQuery,
+                                               @Value("${app.datasource.replica.max-lag-seconds:5}") double maxLagSeconds) {
+        return new ReplicaLagMonitor(replicaPool.getIfAvailable(), lagQuery, maxLagSeconds);
+    }
+
+    // Пул выбирается по классу нагрузки запроса ({@link WorkloadClass})
+    @Bean
+    public WorkloadRoutingDataSource workloadDataSource(HikariDataSource primaryPool, HikariDataSource reportingPool) {
+        return new WorkloadRoutingDataSource(withBulkhead(primaryPool), withBulkhead(reportingPool));
+    }
+
+    /**
+     * DataSource для JPA: readOnly-транзакции читают с реплики, пока она не отстаёт,
+     * остальное идёт в пул своего класса нагрузки.
+     * При app.db-bulkhead.enabled=true выдача соединений каждого пула ограничена его размером,
+     * а очередь ожидающих - app.db-bulkhead.max-waiting.
+     * Выполненные запросы считаются для бюджетов эндпоинтов ({@link QueryCountingDataSource})
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(WorkloadRoutingDataSource workloadDataSource,
+                                 @Qualifier("replicaPool") ObjectProvider<HikariDataSource> replicaPool,
+                                 ReplicaLagMonitor replicaLagMonitor) {
+        HikariDataSource replica = replicaPool.getIfAvailable();
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(
+                workloadDataSource, replica != null ? withBulkhead(replica) : null, replicaLagMonitor);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(new QueryCountingDataSource(routing));
+    }
+
+    private DataSource withBulkhead(HikariDataSource pool) {
+        if (!bulkheadEnabled) {
+            return pool;
+        }
+        return new BulkheadDataSource(pool, pool.getMaximumPoolSize(), bulkheadMaxWaiting, bulkheadAcquireTimeoutMs);
+    }
+
+    @Bean
+    public MeterBinder replicaMetrics(ReplicaLagMonitor replicaLagMonitor) {
+        return registry -> {
+            Gauge.builder("schooltest.db.replica.lag", replicaLagMonitor, ReplicaLagMonitor::getLagSeconds)
+                    .description("Отставание реплики, секунд")
+                    .baseUnit("seconds")
+                    .register(registry);
+            Gauge.builder("schooltest.db.replica.usable", replicaLagMonitor, m -> m.isReplicaUsable() ? 1 : 0)
+                    .description("1 - чтение идёт с реплики, 0 - с основной базы")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder bulkheadMetrics(WorkloadRoutingDataSource workloadDataSource) {
+        return registry -> {
+            workloadDataSource.getResolvedDataSources().forEach((key, target) -> {
+                if (target instanceof BulkheadDataSource bulkhead) {
+                    String workload = key.toString().toLowerCase();
+                    Gauge.builder("schooltest.db.bulkhead.available", bulkhead, BulkheadDataSource::getAvailablePermits)
+                            .description("Свободных разрешений на соединение")
+                            .tag("workload", workload)
+                            .register(registry);
+                    Gauge.builder("schooltest.db.bulkhead.waiting", bulkhead, BulkheadDataSource::getWaiting)
+                            .description("Потоков в очереди за соединением")
+                            .tag("workload", workload)
+                            .register(registry);
+                }
+            });
+        };
+    }
+}
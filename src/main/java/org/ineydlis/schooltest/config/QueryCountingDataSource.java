@@ -0,0 +1,67 @@
+package org.ineydlis.schooltest.config;
+
+import org.ineydlis.schooltest.interceptor.QueryCounter;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Отмечает в {@link QueryCounter} каждый выполненный JDBC-запрос (execute*, включая executeBatch).
+ * Стоит под JPA и JdbcTemplate сразу, поэтому бюджеты {@link org.ineydlis.schooltest.interceptor.QueryBudget}
+ * учитывают и запросы сервисов на JdbcTemplate, которых не видит Hibernate.
+ */
+public class QueryCountingDataSource extends DelegatingDataSource {
+
+    public QueryCountingDataSource(DataSource target) {
+        super(target);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return countingConnection(super.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return countingConnection(super.getConnection(username, password));
+    }
+
+    // createStatement, prepareStatement и prepareCall отдают Statement, который считает свои выполнения
+    private static Connection countingConnection(Connection connection) {
+        return proxy(Connection.class, connection, (method, result) ->
+                result instanceof Statement statement && Statement.class.isAssignableFrom(method.getReturnType())
+                        ? countingStatement(method.getReturnType(), statement)
+                        : result);
+    }
+
+    private static Object countingStatement(Class<?> type, Statement statement) {
+        return proxy(type, statement, (method, result) -> result);
+    }
+
+    private static <T> T proxy(Class<T> type, Object target, ResultWrapper wrapper) {
+        return type.cast(Proxy.newProxyInstance(
+                type.getClassLoader(),
+                new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    if (target instanceof Statement && method.getName().startsWith("execute")) {
+                        QueryCounter.record();
+                    }
+                    try {
+                        return wrapper.wrap(method, method.invoke(target, args));
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                }));
+    }
+
+    @FunctionalInterface
+    private interface ResultWrapper {
+        Object wrap(Method method, Object result);
+    }
+}
@@ -0,0 +1,71 @@
+package org.ineydlis.schooltest.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+/**
+ * Периодически измеряет отставание реплики. Пока отставание не превышает допустимое
+ * (app.datasource.replica.max-lag-seconds), чтение в readOnly-транзакциях идёт на реплику,
+ * иначе - на основную базу.
+ */
+@Slf4j
+public class ReplicaLagMonitor {
+
+    private final DataSource replica;
+    private final String lagQuery;
+    private final double maxLagSeconds;
+
+    private volatile boolean usable;
+    private volatile double lagSeconds = Double.NaN;
+
+    /**
+     * @param replica пул реплики или null, если реплика не настроена
+     */
+    public ReplicaLagMonitor(DataSource replica, String lagQuery, double maxLagSeconds) {
+        this.replica = replica;
+        this.lagQuery = lagQuery;
+        this.maxLagSeconds = maxLagSeconds;
+    }
+
+    public boolean isReplicaUsable() {
+        return usable;
+    }
+
+    public double getLagSeconds() {
+        return lagSeconds;
+    }
+
+    @Scheduled(fixedDelayString = "${app.datasource.replica.check-interval-ms:1000}")
+    public void check() {
+        if (replica == null) {
+            return;
+        }
+
+        boolean wasUsable = usable;
+        try (Connection connection = replica.getConnection();
+             Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(lagQuery)) {
+            lagSeconds = rs.next() ? rs.getDouble(1) : Double.NaN;
+            usable = lagSeconds <= maxLagSeconds;
+        } catch (Exception e) {
+            lagSeconds = Double.NaN;
+            usable = false;
+            if (wasUsable) {
+                log.warn("Реплика недоступна, чтение переключено на основную базу: {}", e.getMessage());
+            }
+            return;
+        }
+
+        if (wasUsable && !usable) {
+            log.warn("Отставание реплики {} с превышает {} с, чтение переключено на основную базу",
+                    lagSeconds, maxLagSeconds);
+        } else if (!wasUsable && usable) {
+            log.info("Реплика догнала основную базу (отставание {} с), чтение снова идёт с реплики", lagSeconds);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package org.ineydlis.schooltest.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Отправляет соединения readOnly-транзакций на реплику, если она не отстаёт.
+ * Флаг readOnly выставляется уже после начала транзакции, поэтому поверх этого
+ * DataSource нужен LazyConnectionDataSourceProxy: соединение берётся при первом запросе.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    enum Target {
+        PRIMARY,
+        REPLICA
+    }
+
+    private final ReplicaLagMonitor lagMonitor;
+
+    /**
+     * @param replicaDataSource пул реплики или null - тогда всё идёт на основную базу
+     */
+    public ReplicaRoutingDataSource(DataSource primaryDataSource, DataSource replicaDataSource,
+                                    ReplicaLagMonitor lagMonitor) {
+        this.lagMonitor = lagMonitor;
+        Map<Object, Object> targets = new HashMap<>();
+        targets.put(Target.PRIMARY, primaryDataSource);
+        if (replicaDataSource != null) {
+            targets.put(Target.REPLICA, replicaDataSource);
+        }
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primaryDataSource);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly() && lagMonitor.isReplicaUsable()) {
+            return Target.REPLICA;
+        }
+        return Target.PRIMARY;
+    }
+}
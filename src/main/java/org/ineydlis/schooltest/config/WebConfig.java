@@ -1,10 +1,15 @@
 package org.ineydlis.schooltest.config;
 
 import org.ineydlis.schooltest.interceptor.AuthInterceptor;
+import org.ineydlis.schooltest.interceptor.ConditionalGetInterceptor;
+import org.ineydlis.schooltest.interceptor.QueryMetricsInterceptor;
+import org.ineydlis.schooltest.interceptor.WorkloadBulkheadInterceptor;
+import jakarta.persistence.EntityManagerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
 import org.springframework.http.converter.HttpMessageConverter;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 
@@ -35,14 +40,48 @@ public class WebConfig implements WebMvcConfigurer {
 
     private AuthInterceptor authInterceptor;
 
+    private QueryMetricsInterceptor queryMetricsInterceptor;
+
+    private WorkloadBulkheadInterceptor workloadBulkheadInterceptor;
+
+    private ConditionalGetInterceptor conditionalGetInterceptor;
+
+    private EntityManagerFactory entityManagerFactory;
+
     @Autowired
-    public WebConfig(AuthInterceptor authInterceptor) {
+    public WebConfig(AuthInterceptor authInterceptor,
+                     QueryMetricsInterceptor queryMetricsInterceptor,
+                     WorkloadBulkheadInterceptor workloadBulkheadInterceptor,
+                     ConditionalGetInterceptor conditionalGetInterceptor,
+                     EntityManagerFactory entityManagerFactory) {
         this.authInterceptor = authInterceptor;
+        this.queryMetricsInterceptor = queryMetricsInterceptor;
+        this.workloadBulkheadInterceptor = workloadBulkheadInterceptor;
+        this.conditionalGetInterceptor = conditionalGetInterceptor;
+        this.entityManagerFactory = entityManagerFactory;
     }
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
+        // Open-in-view везде, кроме чтения с реплики: там соединение должно браться
+        // внутри readOnly-транзакции сервиса, а не удерживаться с проверки токена.
+        // SSE-потоки живут десятки минут - EntityManager не должен держать соединение всё это время.
+        // Вход ждёт проверки пароля BCrypt - без соединения с базой
+        // Части загрузок читаются из сети сколько угодно долго - тоже без соединения
+        OpenEntityManagerInViewInterceptor openInView = new OpenEntityManagerInViewInterceptor();
+        openInView.setEntityManagerFactory(entityManagerFactory);
+        registry.addWebRequestInterceptor(openInView)
+                .excludePathPatterns("/api/statistics/**", "/api/tests", "/api/tests/*/progress/stream",
+                        "/api/tests/results/*/deadline/stream", "/api/auth/login",
+                        "/api/uploads/**");
+
+        // Первым, чтобы в счётчик попал и поиск пользователя по токену
+        registry.addInterceptor(queryMetricsInterceptor);
+        // До авторизации: поиск по токену уже идёт через пул своего класса нагрузки
+        registry.addInterceptor(workloadBulkheadInterceptor);
         registry.addInterceptor(authInterceptor);
+        // После авторизации: ETag зависит от пользователя
+        registry.addInterceptor(conditionalGetInterceptor);
     }
 
     @Override
@@ -0,0 +1,30 @@
+package org.ineydlis.schooltest.config;
+
+/**
+ * Класс нагрузки запроса. У каждого класса свой лимит параллельных запросов
+ * и свой пул соединений, чтобы отчёты не замедляли прохождение тестов.
+ */
+public enum WorkloadClass {
+    // Прохождение тестов и всё интерактивное
+    EXAM,
+    // Статистика и выгрузки в Excel
+    REPORTING;
+
+    private static final ThreadLocal<WorkloadClass> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Класс нагрузки текущего запроса, вне запроса - EXAM
+     */
+    public static WorkloadClass current() {
+        WorkloadClass workload = CURRENT.get();
+        return workload != null ? workload : EXAM;
+    }
+
+    public static void set(WorkloadClass workload) {
+        CURRENT.set(workload);
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+}
@@ -0,0 +1,24 @@
+package org.ineydlis.schooltest.config;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Выбирает пул соединений по классу нагрузки текущего запроса
+ */
+public class WorkloadRoutingDataSource extends AbstractRoutingDataSource {
+
+    public WorkloadRoutingDataSource(DataSource examDataSource, DataSource reportingDataSource) {
+        setTargetDataSources(Map.of(
+                WorkloadClass.EXAM, examDataSource,
+                WorkloadClass.REPORTING, reportingDataSource));
+        setDefaultTargetDataSource(examDataSource);
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return WorkloadClass.current();
+    }
+}
@@ -1,6 +1,11 @@
 package org.ineydlis.schooltest.controller;
 
+import org.ineydlis.schooltest.config.WorkloadClass;
+import org.ineydlis.schooltest.dto.CursorPageDto;
+import org.ineydlis.schooltest.dto.UserImportReport;
 import org.ineydlis.schooltest.dto.UserDto;
+import org.ineydlis.schooltest.interceptor.QueryBudget;
+import org.ineydlis.schooltest.interceptor.Workload;
 import org.ineydlis.schooltest.model.Grade;
 import org.ineydlis.schooltest.model.Subject;
 import org.ineydlis.schooltest.model.User;
@@ -8,11 +13,23 @@ import org.ineydlis.schooltest.model.UserRole;
 import org.ineydlis.schooltest.repository.GradeRepository;
 import org.ineydlis.schooltest.repository.SubjectRepository;
 import org.ineydlis.schooltest.repository.UserRepository;
+import org.ineydlis.schooltest.service.AnswerVectorMigrationService;
 import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.DataVersions;
+import org.ineydlis.schooltest.service.ItemAnalysisService;
+import org.ineydlis.schooltest.service.ProfileService;
+import org.ineydlis.schooltest.service.ScoreDistributionService;
+import org.ineydlis.schooltest.service.UserImportService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
@@ -35,14 +52,57 @@ public class AdminController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private DataVersions dataVersions;
+
+    @Autowired
+    private UserImportService userImportService;
+
+    @Autowired
+    private ProfileService profileService;
+
+    @Autowired
+    private AnswerVectorMigrationService answerVectorMigrationService;
+
+    @Autowired
+    private ItemAnalysisService itemAnalysisService;
+
+    @Autowired
+    private ScoreDistributionService scoreDistributionService;
+
+    @Value("${app.pagination.max-page-size:100}")
+    private int maxPageSize;
+
+    @QueryBudget(20)
     @GetMapping("/users")
-    public ResponseEntity<List<User>> getAllUsers() {
-        return ResponseEntity.ok(userRepository.findAll());
+    public ResponseEntity<List<UserDto>> getAllUsers() {
+        return ResponseEntity.ok(userRepository.findAll().stream()
+                .map(UserDto::fromEntity)
+                .collect(Collectors.toList()));
+    }
+
+    // Постраничный список пользователей; cursor - id последнего пользователя предыдущей страницы
+    @QueryBudget(6)
+    @GetMapping("/users/page")
+    public ResponseEntity<CursorPageDto<UserDto>> getUsersPage(
+            @RequestParam(required = false) Long cursor,
+            @RequestParam(defaultValue = "50") int size) {
+        int pageSize = Math.max(1, Math.min(size, maxPageSize));
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+        List<User> users = cursor == null
+                ? userRepository.findByOrderByIdAsc(limit)
+                : userRepository.findByIdGreaterThanOrderByIdAsc(cursor, limit);
+
+        List<UserDto> rows = users.stream()
+                .map(UserDto::fromEntity)
+                .collect(Collectors.toList());
+        return ResponseEntity.ok(CursorPageDto.of(rows, pageSize, u -> String.valueOf(u.getId())));
     }
 
     // Modify AdminController.java - createUser method
+    @QueryBudget(15)
     @PostMapping("/users")
-    public ResponseEntity<User> createUser(@RequestBody UserDto userDto) {
+    public ResponseEntity<UserDto> createUser(@RequestBody UserDto userDto) {
         User user = new User();
         user.setUsername(userDto.getUsername());
         user.setPassword(authService.encodePassword(userDto.getPassword()));
@@ -82,9 +142,23 @@ public class AdminController {
             }
         }
 
-        return ResponseEntity.ok(userRepository.save(user));
+        User saved = userRepository.save(user);
+        dataVersions.bump(DataVersions.Scope.CATALOG);
+        return ResponseEntity.ok(UserDto.fromEntity(saved));
     }
 
+    // Массовый импорт из CSV/XLSX; строки с ошибками пропускаются и перечисляются в отчёте
+    @QueryBudget(20)
+    @PostMapping(value = "/users/import", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public ResponseEntity<UserImportReport> importUsers(@RequestParam("file") MultipartFile file) {
+        UserImportReport report = userImportService.importUsers(file);
+        if (report.getCreated() > 0) {
+            dataVersions.bump(DataVersions.Scope.CATALOG);
+        }
+        return ResponseEntity.ok(report);
+    }
+
+    @QueryBudget(15)
     @PutMapping("/users/{id}")
     public ResponseEntity<?> updateUser(@PathVariable Long id, @RequestBody UserDto userDto) {
         Optional<User> userOpt = userRepository.findById(id);
@@ -139,15 +213,56 @@ public class AdminController {
             }
         }
 
-        return ResponseEntity.ok(userRepository.save(user));
+        User saved = userRepository.save(user);
+        dataVersions.bump(DataVersions.Scope.CATALOG);
+        return ResponseEntity.ok(UserDto.fromEntity(saved));
     }
 
+    @QueryBudget(5)
     @DeleteMapping("/users/{id}")
-    public ResponseEntity<?> deleteUser(@PathVariable Long id) {
-        if (!userRepository.existsById(id)) {
+    public ResponseEntity<?> deleteUser(@PathVariable Long id) throws IOException {
+        Optional<User> user = userRepository.findById(id);
+        if (user.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
         userRepository.deleteById(id);
+        profileService.releaseProfileImage(user.get().getProfileImagePath());
+        dataVersions.bump(DataVersions.Scope.CATALOG);
         return ResponseEntity.ok().build();
     }
-}
\ No newline at end of file
+
+    // Перенос ответов старых попыток из строк student_answers в answer_vector; вызывать, пока done = false
+    @QueryBudget(80)
+    @PostMapping("/answers/migrate")
+    public ResponseEntity<AnswerVectorMigrationService.Report> migrateAnswers(
+            @RequestHeader("Authorization") String token,
+            @RequestParam(defaultValue = "10") int batches) {
+        if (authService.getCurrentUser(token).getRole() != UserRole.ADMIN) {
+            throw new RuntimeException("Перенос ответов доступен только администратору");
+        }
+        return ResponseEntity.ok(answerVectorMigrationService.migrate(Math.max(1, Math.min(batches, 10))));
+    }
+
+    // Пересчёт анализа вопросов из всей истории попыток (параллельно по тестам, на пуле отчётов)
+    @QueryBudget(10)
+    @PostMapping("/item-analysis/rebuild")
+    public ResponseEntity<ItemAnalysisService.RebuildReport> rebuildItemAnalysis(
+            @RequestHeader("Authorization") String token) {
+        if (authService.getCurrentUser(token).getRole() != UserRole.ADMIN) {
+            throw new RuntimeException("Пересчёт анализа вопросов доступен только администратору");
+        }
+        return ResponseEntity.ok(itemAnalysisService.rebuild());
+    }
+
+    // Пересчёт распределений результатов по тестам, классам и предметам из всей истории попыток
+    @QueryBudget(10)
+    @Workload(WorkloadClass.REPORTING)
+    @PostMapping("/score-distributions/rebuild")
+    public ResponseEntity<ScoreDistributionService.RebuildReport> rebuildScoreDistributions(
+            @RequestHeader("Authorization") String token) {
+        if (authService.getCurrentUser(token).getRole() != UserRole.ADMIN) {
+            throw new RuntimeException("Пересчёт распределений результатов доступен только администратору");
+        }
+        return ResponseEntity.ok(scoreDistributionService.rebuild());
+    }
+}
@@ -2,8 +2,12 @@ package org.ineydlis.schooltest.controller;
 
 import org.ineydlis.schooltest.dto.LoginRequest;
 import org.ineydlis.schooltest.dto.LoginResponse;
+import org.ineydlis.schooltest.interceptor.QueryBudget;
 import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.PasswordHasher;
+import org.ineydlis.schooltest.service.StreamTicketService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -17,6 +21,9 @@ public class AuthController {
 
     @Autowired
     private AuthService authService;
+
+    @Autowired
+    private StreamTicketService streamTicketService;
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<Map<String, Object>> handleException(RuntimeException ex) {
         Map<String, Object> body = new HashMap<>();
@@ -27,18 +34,41 @@ public class AuthController {
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(body);
     }
+    // Очередь проверки паролей переполнена: 503 с Retry-After, как при перегрузке прохождения тестов
+    @ExceptionHandler(PasswordHasher.BusyException.class)
+    public ResponseEntity<Map<String, Object>> handleBusy(PasswordHasher.BusyException ex) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("status", 503);
+        return ResponseEntity
+                .status(503)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(ex.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    @QueryBudget(4)
     @PostMapping("/login")
     public ResponseEntity<LoginResponse> login(@RequestBody LoginRequest request) {
         LoginResponse response = authService.login(request);
         return ResponseEntity.ok(response);
     }
 
+    @QueryBudget(4)
     @PostMapping("/logout")
     public ResponseEntity<Void> logout(@RequestHeader("Authorization") String token) {
         authService.logout(token);
         return ResponseEntity.ok().build();
     }
 
+    // Одноразовый билет для открытия SSE-потока (EventSource не передаёт заголовок Authorization)
+    @QueryBudget(2)
+    @PostMapping("/stream-ticket")
+    public ResponseEntity<Map<String, String>> issueStreamTicket(@RequestHeader("Authorization") String token) {
+        return ResponseEntity.ok(Map.of("ticket", streamTicketService.issue(authService.getCurrentUser(token))));
+    }
+
+    @QueryBudget(3)
     @GetMapping("/check")
     public ResponseEntity<String> checkAuth(@RequestHeader("Authorization") String token) {
         if (authService.findByToken(token).isPresent()) {
@@ -1,5 +1,6 @@
 package org.ineydlis.schooltest.controller;
 
+import org.ineydlis.schooltest.interceptor.QueryBudget;
 import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.model.UserRole;
 import org.ineydlis.schooltest.service.AuthService;
@@ -29,6 +30,7 @@ public class MainController {
         return "index"; // Will serve your frontend SPA
     }
 
+    @QueryBudget(10)
     @GetMapping("/api/user/dashboard")
     public ResponseEntity<Map<String, Object>> getDashboard(
             @RequestHeader("Authorization") String token) {
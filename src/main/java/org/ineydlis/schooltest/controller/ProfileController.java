@@ -2,18 +2,23 @@ package org.ineydlis.schooltest.controller;
 
 import org.ineydlis.schooltest.dto.ProfileDto;
 import org.ineydlis.schooltest.dto.UserDto;
+import org.ineydlis.schooltest.interceptor.QueryBudget;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.ineydlis.schooltest.service.BlobStore;
+import org.ineydlis.schooltest.service.FileDeliveryService;
 import org.ineydlis.schooltest.service.ProfileService;
+import org.ineydlis.schooltest.service.ThumbnailService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
-import org.springframework.http.HttpHeaders;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
@@ -25,6 +30,17 @@ public class ProfileController {
     @Autowired
     private ProfileService profileService;
 
+    @Autowired
+    private FileDeliveryService fileDeliveryService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
+    @Value("${app.thumbnails.wait-ms:2000}")
+    private long thumbnailWaitMs;
+
+    private static final String IMMUTABLE = "private, max-age=31536000, immutable";
+
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<Map<String, Object>> handleException(RuntimeException ex) {
         Map<String, Object> body = new HashMap<>();
@@ -36,12 +52,14 @@ public class ProfileController {
                 .body(body);
     }
 
+    @QueryBudget(5)
     @GetMapping
     public ResponseEntity<UserDto> getProfile(@RequestHeader("Authorization") String token) {
         UserDto profile = profileService.getUserProfile(token);
         return ResponseEntity.ok(profile);
     }
 
+    @QueryBudget(6)
     @PutMapping
     public ResponseEntity<Map<String, String>> updateProfile(
             @RequestHeader("Authorization") String token,
@@ -54,6 +72,7 @@ public class ProfileController {
         return ResponseEntity.ok(response);
     }
 
+    @QueryBudget(6)
     @PostMapping("/image")
     public ResponseEntity<Map<String, String>> uploadProfileImage(
             @RequestHeader("Authorization") String token,
@@ -71,22 +90,52 @@ public class ProfileController {
         }
     }
 
+    // Изображение, загруженное по частям через /api/uploads
+    @QueryBudget(6)
+    @PutMapping("/image")
+    public ResponseEntity<Map<String, String>> attachUploadedProfileImage(
+            @RequestHeader("Authorization") String token,
+            @RequestParam String uploadId) throws IOException {
+        String imagePath = profileService.attachUploadedProfileImage(token, uploadId);
+
+        Map<String, String> response = new HashMap<>();
+        response.put("message", "Изображение профиля успешно загружено");
+        response.put("imagePath", imagePath);
+        return ResponseEntity.ok(response);
+    }
+
+    @QueryBudget(2)
     @GetMapping("/image/{filename:.+}")
-    public ResponseEntity<Resource> getProfileImage(@PathVariable String filename) {
-        try {
-            Path filePath = profileService.getProfileImagePath(filename);
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists() || resource.isReadable()) {
-                return ResponseEntity.ok()
-                        .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + resource.getFilename() + "\"")
-                        .contentType(MediaType.IMAGE_JPEG) // Можно добавить определение типа по расширению
-                        .body(resource);
-            } else {
-                throw new RuntimeException("Не удалось прочитать файл");
-            }
-        } catch (MalformedURLException e) {
-            throw new RuntimeException("Ошибка: " + e.getMessage());
+    public void getProfileImage(@PathVariable String filename,
+                                HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        Path filePath = profileService.getProfileImagePath(filename);
+        MediaType contentType = ProfileService.imageMediaType(filename);
+
+        // Имя из хэша содержимого по этому адресу не меняется; старые имена сверяются по ETag
+        fileDeliveryService.serve(request, response, filePath, contentType,
+                ContentDisposition.inline().filename(filename, StandardCharsets.UTF_8).build().toString(),
+                BlobStore.keyFromFilename(filename) != null ? IMMUTABLE : "private, no-cache");
+    }
+
+    @QueryBudget(2)
+    @GetMapping("/thumbnail/{filename:.+}")
+    public void getProfileThumbnail(@PathVariable String filename,
+                                    HttpServletRequest request,
+                                    HttpServletResponse response) throws IOException {
+        String key = ThumbnailService.keyFromThumbnailFilename(filename);
+        if (key == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        Path thumbnail = thumbnailService.getThumbnail(key, thumbnailWaitMs);
+        if (thumbnail == null) {
+            // Миниатюры пока нет - отдаём оригинал, но без долгого кэширования, чтобы браузер спросил снова
+            fileDeliveryService.serve(request, response, profileService.getProfileImagePath(key),
+                    MediaType.APPLICATION_OCTET_STREAM, null, "private, no-cache");
+            return;
         }
+        fileDeliveryService.serve(request, response, thumbnail, MediaType.IMAGE_JPEG, null, IMMUTABLE);
     }
-}
\ No newline at end of file
+}
@@ -1,15 +1,19 @@
 package org.ineydlis.schooltest.controller;
 
+import org.ineydlis.schooltest.interceptor.QueryBudget;
 import org.ineydlis.schooltest.model.Grade;
 import org.ineydlis.schooltest.model.Subject;
 import org.ineydlis.schooltest.repository.GradeRepository;
 import org.ineydlis.schooltest.repository.SubjectRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.CacheControl;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.time.Duration;
 import java.util.List;
 
 @RestController
@@ -22,13 +26,27 @@ public class ReferenceController {
     @Autowired
     private SubjectRepository subjectRepository;
 
+    @Value("${app.reference.cache-max-age:3600}")
+    private long cacheMaxAgeSeconds;
+
+    // Справочники отдаются из кэша второго уровня Hibernate, браузер может их кэшировать
+    @QueryBudget(2)
     @GetMapping("/grades")
     public ResponseEntity<List<Grade>> getAllGrades() {
-        return ResponseEntity.ok(gradeRepository.findAll());
+        return ResponseEntity.ok()
+                .cacheControl(referenceCacheControl())
+                .body(gradeRepository.findAll());
     }
 
+    @QueryBudget(2)
     @GetMapping("/subjects")
     public ResponseEntity<List<Subject>> getAllSubjects() {
-        return ResponseEntity.ok(subjectRepository.findAll());
+        return ResponseEntity.ok()
+                .cacheControl(referenceCacheControl())
+                .body(subjectRepository.findAll());
+    }
+
+    private CacheControl referenceCacheControl() {
+        return CacheControl.maxAge(Duration.ofSeconds(cacheMaxAgeSeconds)).cachePublic();
     }
-}
\ No newline at end of file
+}
@@ -1,8 +1,14 @@
 package org.ineydlis.schooltest.controller;
 
 import lombok.RequiredArgsConstructor;
+import org.ineydlis.schooltest.config.WorkloadClass;
 import org.ineydlis.schooltest.dto.StatisticViewDto;
 import org.ineydlis.schooltest.dto.TestResultDetailsDto;
+import org.ineydlis.schooltest.interceptor.QueryBudget;
+import org.ineydlis.schooltest.interceptor.Versioned;
+import org.ineydlis.schooltest.interceptor.Workload;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.service.DataVersions;
 import org.ineydlis.schooltest.service.StatisticsService;
 import org.ineydlis.schooltest.service.ExcelExportService;
 import org.springframework.core.io.ByteArrayResource;
@@ -20,8 +26,13 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Пользователь берётся из атрибута запроса, который выставил AuthInterceptor после проверки токена
+ * на основной базе. Сервисы статистики читают с реплики и токен повторно не ищут
+ */
 @RestController
 @RequestMapping("/api/statistics")
+@Workload(WorkloadClass.REPORTING)
 @RequiredArgsConstructor
 public class StatisticsController {
 
@@ -45,80 +56,94 @@ public class StatisticsController {
     /**
      * Get detailed information about a specific test result
      */
+    @QueryBudget(8)
     @GetMapping("/test-result/{testResultId}")
     public ResponseEntity<TestResultDetailsDto> getTestResultDetails(
-            @RequestHeader("Authorization") String token,
+            @RequestAttribute("user") User currentUser,
             @PathVariable Long testResultId) {
-        return ResponseEntity.ok(statisticsService.getTestResultDetails(token, testResultId));
+        return ResponseEntity.ok(statisticsService.getTestResultDetails(currentUser.getId(), testResultId));
     }
 
     /**
      * Get statistics for a specific test (all students' best attempts)
      */
+    @QueryBudget(15)
+    @Versioned(scope = DataVersions.Scope.TEST_RESULTS, key = "testId")
     @GetMapping("/test/{testId}")
     public ResponseEntity<StatisticViewDto> getTestStatistics(
-            @RequestHeader("Authorization") String token,
+            @RequestAttribute("user") User currentUser,
             @PathVariable Long testId) {
-        return ResponseEntity.ok(statisticsService.getTestStatistics(token, testId));
+        return ResponseEntity.ok(statisticsService.getTestStatistics(currentUser.getId(), testId));
     }
 
     /**
      * Get statistics for a specific grade (all students' best test attempts)
      */
+    @QueryBudget(25)
+    @Versioned(scope = DataVersions.Scope.GRADE_RESULTS, key = "gradeId")
     @GetMapping("/grade/{gradeId}")
     public ResponseEntity<StatisticViewDto> getGradeStatistics(
-            @RequestHeader("Authorization") String token,
+            @RequestAttribute("user") User currentUser,
             @PathVariable Long gradeId) {
-        return ResponseEntity.ok(statisticsService.getGradeStatistics(token, gradeId));
+        return ResponseEntity.ok(statisticsService.getGradeStatistics(currentUser.getId(), gradeId));
     }
 
     /**
      * Get statistics for a specific subject (all students' best test attempts)
      */
+    @QueryBudget(25)
+    @Versioned(scope = DataVersions.Scope.ALL_RESULTS)
     @GetMapping("/subject/{subjectId}")
     public ResponseEntity<StatisticViewDto> getSubjectStatistics(
-            @RequestHeader("Authorization") String token,
+            @RequestAttribute("user") User currentUser,
             @PathVariable Long subjectId) {
-        return ResponseEntity.ok(statisticsService.getSubjectStatistics(token, subjectId));
+        return ResponseEntity.ok(statisticsService.getSubjectStatistics(currentUser.getId(), subjectId));
     }
 
     /**
      * Get student's statistics for a specific subject
      */
+    @QueryBudget(15)
+    @Versioned(scope = DataVersions.Scope.STUDENT_RESULTS, key = "studentId")
     @GetMapping("/student/{studentId}/subject/{subjectId}")
     public ResponseEntity<StatisticViewDto> getStudentSubjectStatistics(
-            @RequestHeader("Authorization") String token,
+            @RequestAttribute("user") User currentUser,
             @PathVariable Long studentId,
             @PathVariable Long subjectId) {
-        return ResponseEntity.ok(statisticsService.getStudentSubjectStatistics(token, studentId, subjectId));
+        return ResponseEntity.ok(statisticsService.getStudentSubjectStatistics(currentUser.getId(), studentId, subjectId));
     }
 
     /**
      * Get student's overall performance across all subjects
      */
+    @QueryBudget(25)
+    @Versioned(scope = DataVersions.Scope.STUDENT_RESULTS, key = "studentId")
     @GetMapping("/student/{studentId}/performance")
     public ResponseEntity<Map<String, StatisticViewDto>> getStudentOverallPerformance(
-            @RequestHeader("Authorization") String token,
+            @RequestAttribute("user") User currentUser,
             @PathVariable Long studentId) {
-        return ResponseEntity.ok(statisticsService.getStudentOverallPerformance(token, studentId));
+        return ResponseEntity.ok(statisticsService.getStudentOverallPerformance(currentUser.getId(), studentId));
     }
 
     /**
      * Get top students in school across all subjects
      */
+    @QueryBudget(30)
+    @Versioned(scope = DataVersions.Scope.ALL_RESULTS)
     @GetMapping("/school/top-students")
     public ResponseEntity<StatisticViewDto> getTopStudentsInSchool(
-            @RequestHeader("Authorization") String token) {
-        return ResponseEntity.ok(statisticsService.getTopStudentsInSchool(token));
+            @RequestAttribute("user") User currentUser) {
+        return ResponseEntity.ok(statisticsService.getTopStudentsInSchool(currentUser.getId()));
     }
     /**
      * Export all statistics to Excel file
      */
+    @QueryBudget(100)
     @GetMapping("/export/excel")
     public ResponseEntity<Resource> exportAllStatisticsToExcel(
-            @RequestHeader("Authorization") String token) {
+            @RequestAttribute("user") User currentUser) {
         try {
-            byte[] excelFile = excelExportService.generateCompleteStatisticsWorkbook(token);
+            byte[] excelFile = excelExportService.generateCompleteStatisticsWorkbook(currentUser.getId());
 
             ByteArrayResource resource = new ByteArrayResource(excelFile);
 
@@ -140,12 +165,13 @@ public class StatisticsController {
     /**
      * Export student statistics to Excel file
      */
+    @QueryBudget(40)
     @GetMapping("/export/student/{studentId}")
     public ResponseEntity<Resource> exportStudentStatisticsToExcel(
-            @RequestHeader("Authorization") String token,
+            @RequestAttribute("user") User currentUser,
             @PathVariable Long studentId) {
         try {
-            byte[] excelFile = excelExportService.generateStudentStatisticsWorkbook(token, studentId);
+            byte[] excelFile = excelExportService.generateStudentStatisticsWorkbook(currentUser.getId(), studentId);
 
             ByteArrayResource resource = new ByteArrayResource(excelFile);
 
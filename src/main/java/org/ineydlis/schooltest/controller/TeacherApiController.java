@@ -2,6 +2,7 @@ package org.ineydlis.schooltest.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.ineydlis.schooltest.dto.TeacherSubjectsAndGradesDTO;
+import org.ineydlis.schooltest.interceptor.QueryBudget;
 import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.repository.UserRepository;
 import org.ineydlis.schooltest.service.AuthService;
@@ -21,6 +22,7 @@ public class TeacherApiController {
     private final AuthService authService;
     private final UserRepository userRepository;
 
+    @QueryBudget(8)
     @GetMapping("/subjects-and-grades")
     public ResponseEntity<TeacherSubjectsAndGradesDTO> getTeacherSubjectsAndGrades(
             @RequestHeader("Authorization") String token) {
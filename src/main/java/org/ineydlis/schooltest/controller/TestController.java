@@ -1,24 +1,37 @@
 package org.ineydlis.schooltest.controller;
 
+import org.ineydlis.schooltest.config.WorkloadClass;
 import org.ineydlis.schooltest.dto.*;
+import org.ineydlis.schooltest.interceptor.QueryBudget;
+import org.ineydlis.schooltest.interceptor.Versioned;
+import org.ineydlis.schooltest.interceptor.Workload;
 import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.service.AttemptDeadlineService;
 import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.DataVersions;
+import org.ineydlis.schooltest.service.FileDeliveryService;
+import org.ineydlis.schooltest.service.ItemAnalysisService;
+import org.ineydlis.schooltest.service.TestProgressHub;
 import org.ineydlis.schooltest.service.TestService;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import org.springframework.core.io.Resource;
 @RestController
 @RequestMapping("/api/tests")
 public class TestController {
@@ -29,6 +42,18 @@ public class TestController {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private TestProgressHub testProgressHub;
+
+    @Autowired
+    private AttemptDeadlineService attemptDeadlineService;
+
+    @Autowired
+    private FileDeliveryService fileDeliveryService;
+
+    @Autowired
+    private ItemAnalysisService itemAnalysisService;
+
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<Map<String, Object>> handleException(RuntimeException ex) {
         Map<String, Object> body = new HashMap<>();
@@ -43,6 +68,7 @@ public class TestController {
 
     // Create a new test
 
+    @QueryBudget(value = 10, perItem = 1)
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<TestDto> createTest(
             @RequestPart("test") TestCreateRequest request,  // Changed from TestMultipartWrapper wrapper
@@ -59,6 +85,8 @@ public class TestController {
     }
 
     // Get all tests (for admins)
+    @QueryBudget(15)
+    @Versioned(scope = DataVersions.Scope.STUDENT_RESULTS)
     @GetMapping
     public ResponseEntity<List<TestDto>> getAllTests(@RequestHeader("Authorization") String token) {
         User currentUser = authService.getCurrentUser(token);
@@ -78,35 +106,28 @@ public class TestController {
         return ResponseEntity.ok(tests);
     }
 
+    @QueryBudget(4)
     @GetMapping("/{testId}/reference-materials")
-    public ResponseEntity<Resource> getReferenceMaterials(
+    public void getReferenceMaterials(
             @PathVariable Long testId,
-            @RequestHeader("Authorization") String token) {
+            @RequestHeader("Authorization") String token,
+            HttpServletRequest request,
+            HttpServletResponse response) throws IOException {
         User currentUser = authService.getCurrentUser(token);
 
-        // Get the reference materials resource
-        Resource resource = testService.getReferenceMaterialsFile(testId, currentUser.getId());
+        // Проверка доступа и путь к файлу
+        Path file = testService.getReferenceMaterialsFile(testId, currentUser.getId());
 
         // Get the original filename
         String filename = testService.getReferenceMaterialsFilename(testId);
 
-        // Проверка на наличие ресурса
-        if (resource == null || !resource.exists()) {
-            return ResponseEntity.notFound().build();
-        }
-
-        try {
-            return ResponseEntity.ok()
-                    .contentType(MediaType.APPLICATION_PDF) // Явно указываем тип содержимого
-                    .contentLength(resource.contentLength()) // Добавляем размер файла
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "inline; filename=\"" + filename + "\"")
-                    .body(resource);
-        } catch (IOException e) {
-            // Обработка ошибки
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+        // Материалы доступны только по токену: браузер хранит копию, но сверяет её по ETag
+        fileDeliveryService.serve(request, response, file, MediaType.APPLICATION_PDF,
+                ContentDisposition.inline().filename(filename, StandardCharsets.UTF_8).build().toString(),
+                "private, no-cache");
     }
 
+    @QueryBudget(8)
     @GetMapping("/result/{resultId}")
     public ResponseEntity<TestResultDetailsDto> getTestResultDetails(
             @PathVariable Long resultId,
@@ -121,6 +142,7 @@ public class TestController {
         TestResultDetailsDto resultDetails = testService.getTestResultDetails(resultId, currentUser.getId());
         return ResponseEntity.ok(resultDetails);
     }
+    @QueryBudget(50)
     @DeleteMapping("/{testId}/permanent")
     public ResponseEntity<?> permanentlyDeleteTest(
             @PathVariable Long testId,
@@ -130,6 +152,7 @@ public class TestController {
         testService.permanentlyDeleteTest(testId, currentUser.getId());
         return ResponseEntity.ok().build();
     }
+    @QueryBudget(6)
     @PostMapping("/{testId}/reactivate")
     public ResponseEntity<TestDto> reactivateTest(
             @PathVariable Long testId,
@@ -145,6 +168,7 @@ public class TestController {
         return ResponseEntity.ok(reactivatedTest);
     }
     // Get test by ID with questions
+    @QueryBudget(10)
     @GetMapping("/{testId}")
     public ResponseEntity<TestDto> getTestById(
             @PathVariable Long testId,
@@ -155,6 +179,7 @@ public class TestController {
         TestDto test = testService.getTestWithQuestions(testId, currentUser.getId(), includeAnswers);
         return ResponseEntity.ok(test);
     }
+    @QueryBudget(value = 10, perItem = 1)
     @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<TestDto> createTestWithoutFile(
             @RequestBody TestCreateRequest request,
@@ -168,6 +193,7 @@ public class TestController {
         return ResponseEntity.status(HttpStatus.CREATED).body(createdTest);
     }
 
+    @QueryBudget(value = 20, perItem = 1)
     @PutMapping(value = "/{testId}", consumes = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<TestDto> updateTestWithoutFile(
             @PathVariable Long testId,
@@ -184,6 +210,7 @@ public class TestController {
         return ResponseEntity.ok(updatedTest);
     }
     // Update a test
+    @QueryBudget(value = 20, perItem = 1)
     @PutMapping(value = "/{testId}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
     public ResponseEntity<TestDto> updateTest(
             @PathVariable Long testId,
@@ -202,6 +229,7 @@ public class TestController {
     }
 
     // Delete a test
+    @QueryBudget(6)
     @DeleteMapping("/{testId}")
     public ResponseEntity<Void> deleteTest(
             @PathVariable Long testId,
@@ -217,6 +245,7 @@ public class TestController {
     }
 
     // Get questions for a test (for students taking the test)
+    @QueryBudget(10)
     @GetMapping("/{testId}/questions")
     public ResponseEntity<List<QuestionDto>> getTestQuestions(
             @PathVariable Long testId,
@@ -232,6 +261,7 @@ public class TestController {
                 testId, testResultId, currentUser.getId());
         return ResponseEntity.ok(questions);
     }
+    @QueryBudget(5)
     @GetMapping("/{testId}/in-progress")
     public ResponseEntity<TestResultDto> getInProgressTest(
             @PathVariable Long testId,
@@ -247,6 +277,7 @@ public class TestController {
     }
 
     // Start a test (for students)
+    @QueryBudget(10)
     @PostMapping("/{testId}/start")
     public ResponseEntity<TestResultDto> startTest(
             @PathVariable Long testId,
@@ -262,6 +293,7 @@ public class TestController {
     }
 
     // Submit answers for a test
+    @QueryBudget(value = 40, perItem = 1)
     @PostMapping("/submit")
     public ResponseEntity<TestResultDto> submitTest(
             @RequestBody TestSubmissionRequest request,
@@ -277,6 +309,7 @@ public class TestController {
     }
 
     // Get test results for a student
+    @QueryBudget(8)
     @GetMapping("/results")
     public ResponseEntity<List<TestResultDto>> getStudentResults(
             @RequestHeader("Authorization") String token) {
@@ -289,7 +322,23 @@ public class TestController {
         List<TestResultDto> results = testService.getStudentResults(currentUser.getId());
         return ResponseEntity.ok(results);
     }
+    // Paged (keyset) completed results for a student
+    @QueryBudget(4)
+    @GetMapping("/results/page")
+    public ResponseEntity<CursorPageDto<TestResultDto>> getStudentResultsPage(
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestHeader("Authorization") String token) {
+        User currentUser = authService.getCurrentUser(token);
+
+        if (currentUser.getRole() != UserRole.STUDENT) {
+            throw new RuntimeException("Это API предназначено только для учеников");
+        }
+
+        return ResponseEntity.ok(testService.getStudentResultsPage(currentUser.getId(), cursor, size));
+    }
     // Get specific test result by ID
+    @QueryBudget(6)
     @GetMapping("/results/{resultId}")
     public ResponseEntity<TestResultDto> getTestResultById(
             @PathVariable Long resultId,
@@ -300,6 +349,7 @@ public class TestController {
         return ResponseEntity.ok(result);
     }
     // Get test results for a specific test (for teachers and admins)
+    @QueryBudget(8)
     @GetMapping("/{testId}/results")
     public ResponseEntity<List<TestResultDto>> getTestResults(
             @PathVariable Long testId,
@@ -313,5 +363,73 @@ public class TestController {
         List<TestResultDto> results = testService.getTestResults(testId, currentUser.getId());
         return ResponseEntity.ok(results);
     }
-}
+    // Paged (keyset) completed results for a specific test
+    @QueryBudget(5)
+    @GetMapping("/{testId}/results/page")
+    public ResponseEntity<CursorPageDto<TestResultDto>> getTestResultsPage(
+            @PathVariable Long testId,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "20") int size,
+            @RequestHeader("Authorization") String token) {
+        User currentUser = authService.getCurrentUser(token);
+
+        if (currentUser.getRole() != UserRole.TEACHER && currentUser.getRole() != UserRole.ADMIN) {
+            throw new RuntimeException("У вас нет прав на просмотр результатов теста");
+        }
 
+        return ResponseEntity.ok(testService.getTestResultsPage(testId, currentUser.getId(), cursor, size));
+    }
+
+    // Анализ вопросов теста: трудность и различающая способность (для учителей и администраторов)
+    @QueryBudget(12)
+    @Workload(WorkloadClass.REPORTING)
+    @GetMapping("/{testId}/item-analysis")
+    public ResponseEntity<List<QuestionStatsDto>> getItemAnalysis(
+            @PathVariable Long testId,
+            @RequestHeader("Authorization") String token) {
+        User currentUser = authService.getCurrentUser(token);
+
+        testService.checkTestResultsAccess(testId, currentUser.getId());
+        return ResponseEntity.ok(itemAnalysisService.getTestItemAnalysis(testId));
+    }
+
+    // Сколько раз выбирали каждый вариант вопросов с выбором ответа (для учителей и администраторов)
+    @QueryBudget(12)
+    @Workload(WorkloadClass.REPORTING)
+    @GetMapping("/{testId}/answer-distribution")
+    public ResponseEntity<List<AnswerDistributionDto>> getAnswerDistribution(
+            @PathVariable Long testId,
+            @RequestHeader("Authorization") String token) {
+        User currentUser = authService.getCurrentUser(token);
+
+        testService.checkTestResultsAccess(testId, currentUser.getId());
+        return ResponseEntity.ok(itemAnalysisService.getAnswerDistribution(testId));
+    }
+
+    // Live-поток начатых и завершённых попыток по тесту (Server-Sent Events, для учителей и администраторов)
+    @QueryBudget(4)
+    @GetMapping(value = "/{testId}/progress/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamTestProgress(
+            @PathVariable Long testId,
+            @RequestAttribute("user") User currentUser) {
+        if (currentUser.getRole() != UserRole.TEACHER && currentUser.getRole() != UserRole.ADMIN) {
+            throw new RuntimeException("У вас нет прав на просмотр результатов теста");
+        }
+
+        testService.checkTestResultsAccess(testId, currentUser.getId());
+        return testProgressHub.subscribe(testId);
+    }
+
+    // Оставшееся время попытки и уведомление о принудительной отправке (Server-Sent Events, для ученика)
+    @QueryBudget(2)
+    @GetMapping(value = "/results/{resultId}/deadline/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamAttemptDeadline(
+            @PathVariable Long resultId,
+            @RequestAttribute("user") User currentUser) {
+        if (currentUser.getRole() != UserRole.STUDENT) {
+            throw new RuntimeException("Только ученики могут проходить тесты");
+        }
+
+        return attemptDeadlineService.subscribe(resultId, currentUser.getId());
+    }
+}
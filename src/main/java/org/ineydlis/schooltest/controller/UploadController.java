@@ -0,0 +1,114 @@
+package org.ineydlis.schooltest.controller;
+
+import org.ineydlis.schooltest.dto.UploadStatusDto;
+import org.ineydlis.schooltest.interceptor.QueryBudget;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.UploadSessionService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Загрузка файлов по частям: POST открывает сессию, PUT с Content-Range дописывает часть
+ * (тело - сырые байты, application/octet-stream), GET возвращает принятый offset для продолжения.
+ * Загруженный файл прикрепляется к тесту (referenceMaterialsUploadId) или профилю по uploadId.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+public class UploadController {
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    @Autowired
+    private AuthService authService;
+
+    @ExceptionHandler(RuntimeException.class)
+    public ResponseEntity<Map<String, Object>> handleException(RuntimeException ex) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("status", 400);
+        return ResponseEntity
+                .status(400)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    // Часть пришла не с того места: клиент продолжает с offset из тела ответа
+    @ExceptionHandler(UploadSessionService.OffsetMismatchException.class)
+    public ResponseEntity<Map<String, Object>> handleOffsetMismatch(UploadSessionService.OffsetMismatchException ex) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("status", 409);
+        body.put("upload", ex.getStatus());
+        return ResponseEntity
+                .status(409)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    @ExceptionHandler(UploadSessionService.TooLargeException.class)
+    public ResponseEntity<Map<String, Object>> handleTooLarge(UploadSessionService.TooLargeException ex) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("message", ex.getMessage());
+        body.put("status", 413);
+        body.put("maxBytes", ex.getMaxBytes());
+        return ResponseEntity
+                .status(413)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body);
+    }
+
+    @QueryBudget(2)
+    @PostMapping
+    public ResponseEntity<UploadStatusDto> startUpload(
+            @RequestHeader("Authorization") String token,
+            @RequestParam String filename,
+            @RequestParam long size) throws IOException {
+        User currentUser = authService.getCurrentUser(token);
+        return ResponseEntity.ok(uploadSessionService.start(currentUser.getId(), filename, size));
+    }
+
+    @QueryBudget(2)
+    @PutMapping("/{uploadId}")
+    public ResponseEntity<UploadStatusDto> uploadChunk(
+            @PathVariable String uploadId,
+            @RequestHeader("Authorization") String token,
+            @RequestHeader(value = HttpHeaders.CONTENT_RANGE, required = false) String contentRange,
+            HttpServletRequest request) throws IOException {
+        User currentUser = authService.getCurrentUser(token);
+
+        // Тело читается прямо из сокета во временный файл хранилища
+        try (InputStream body = request.getInputStream()) {
+            return ResponseEntity.ok(uploadSessionService.append(uploadId, currentUser.getId(), contentRange, body));
+        }
+    }
+
+    @QueryBudget(2)
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<UploadStatusDto> getUploadStatus(
+            @PathVariable String uploadId,
+            @RequestHeader("Authorization") String token) {
+        User currentUser = authService.getCurrentUser(token);
+        return ResponseEntity.ok(uploadSessionService.getStatus(uploadId, currentUser.getId()));
+    }
+
+    @QueryBudget(2)
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<Void> abortUpload(
+            @PathVariable String uploadId,
+            @RequestHeader("Authorization") String token) throws IOException {
+        User currentUser = authService.getCurrentUser(token);
+        uploadSessionService.abort(uploadId, currentUser.getId());
+        return ResponseEntity.noContent().build();
+    }
+}
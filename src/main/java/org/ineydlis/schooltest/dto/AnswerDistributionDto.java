@@ -0,0 +1,23 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.Data;
+import org.ineydlis.schooltest.model.QuestionType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Распределение выбора вариантов по вопросу с выбором ответа.
+ * attempts - сколько раз вопрос был показан, share - доля показов, в которых выбрали вариант
+ */
+@Data
+public class AnswerDistributionDto {
+    private Long questionId;
+    private String questionText;
+    private QuestionType questionType;
+    private long attempts;
+    private List<OptionPicks> options = new ArrayList<>();
+
+    public record OptionPicks(Long answerId, String text, boolean correct, long picks, Double share) {
+    }
+}
@@ -0,0 +1,32 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Страница списка с курсорной (keyset) пагинацией.
+ * nextCursor передаётся в следующий запрос как есть; null - больше страниц нет.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorPageDto<T> {
+    private List<T> items = new ArrayList<>();
+    private String nextCursor;
+    private boolean hasMore;
+
+    /**
+     * Собирает страницу из выборки размером size + 1: лишний элемент означает, что есть продолжение.
+     */
+    public static <T> CursorPageDto<T> of(List<T> fetched, int size, Function<T, String> cursorOf) {
+        boolean hasMore = fetched.size() > size;
+        List<T> items = hasMore ? new ArrayList<>(fetched.subList(0, size)) : fetched;
+        String nextCursor = hasMore ? cursorOf.apply(items.get(items.size() - 1)) : null;
+        return new CursorPageDto<>(items, nextCursor, hasMore);
+    }
+}
@@ -22,5 +22,6 @@ public class LoginResponse {
     private String gradeName; // Изменено: теперь это полное имя класса
     private Set<String> subjectNames; // Изменено: теперь это имена предметов
     private String profileImageUrl;
+    private String profileThumbnailUrl;
     private List<String> teachingGradeNames;
 }
\ No newline at end of file
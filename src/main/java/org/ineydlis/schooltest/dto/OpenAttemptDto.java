@@ -0,0 +1,16 @@
+package org.ineydlis.schooltest.dto;
+
+import java.time.LocalDateTime;
+
+/**
+ * Незавершённая попытка и момент, когда истекает её время
+ */
+public record OpenAttemptDto(Long resultId, Long testId, Long studentId, LocalDateTime deadline) {
+
+    /**
+     * Конструктор для JPQL-проекции (SELECT new ...)
+     */
+    public OpenAttemptDto(Long resultId, Long testId, Long studentId, LocalDateTime startedAt, Integer timeLimit) {
+        this(resultId, testId, studentId, startedAt.plusMinutes(timeLimit));
+    }
+}
@@ -0,0 +1,40 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.Data;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.util.ItemStatistics;
+
+/**
+ * Анализ вопроса для учителя. difficulty - доля правильных ответов (низкая - вопрос трудный),
+ * discrimination - точечно-бисериальная корреляция с результатом по остальным вопросам
+ * (около нуля или отрицательная - вопрос плохо различает сильных и слабых, возможно неоднозначен).
+ * Пока данных нет, показатели равны null
+ */
+@Data
+public class QuestionStatsDto {
+    private Long questionId;
+    private String questionText;
+    private QuestionType questionType;
+    private long attempts;
+    private long correctCount;
+    private Double difficulty;
+    private Double meanRatio;
+    private Double discrimination;
+
+    public static QuestionStatsDto of(TestSnapshot.QuestionSnapshot question, ItemStatistics statistics) {
+        QuestionStatsDto dto = new QuestionStatsDto();
+        dto.setQuestionId(question.id());
+        dto.setQuestionText(question.text());
+        dto.setQuestionType(question.type());
+        dto.setAttempts(statistics.attempts());
+        dto.setCorrectCount(statistics.correctCount());
+        dto.setDifficulty(round(statistics.difficulty()));
+        dto.setMeanRatio(round(statistics.meanRatio()));
+        dto.setDiscrimination(round(statistics.pointBiserial()));
+        return dto;
+    }
+
+    private static Double round(Double value) {
+        return value != null ? Math.round(value * 1000) / 1000.0 : null;
+    }
+}
@@ -35,6 +35,12 @@ public class StatisticViewDto {
     private double averageScore;
     private double averagePercentage;
 
+    // Score distribution of best results in percent (tests, grades and subjects only)
+    private Double p10;
+    private Double p50;
+    private Double p90;
+    private List<Long> scoreHistogram;
+
     // Lists for detailed views
     private List<UserStatDto> userStats = new ArrayList<>();
     private List<SubjectStatDto> testStats = new ArrayList<>();
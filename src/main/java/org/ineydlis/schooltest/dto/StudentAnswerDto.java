@@ -3,9 +3,12 @@ package org.ineydlis.schooltest.dto;
 import lombok.Getter;
 import lombok.Setter;
 import org.ineydlis.schooltest.model.*;
-import java.util.HashSet;
+import org.ineydlis.schooltest.util.AnswerVectorCodec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
-import java.util.stream.Collectors;
 
 @Setter
 @Getter
@@ -16,52 +19,52 @@ public class StudentAnswerDto {
     private String questionText;
     private QuestionType questionType;
     private String textAnswer;
-    private Set<AnswerDto> selectedAnswers = new HashSet<>();
-    private Set<AnswerDto> correctAnswers = new HashSet<>();
+    // Варианты передаются по id, тексты - один раз в общей таблице TestResultDetailsDto.options
+    private List<Long> selectedAnswerIds = new ArrayList<>();
+    private Set<Long> correctAnswerIds = Set.of();
     private boolean correct;
     private int earnedPoints;
     private int maxPoints;
 
-    // Factory method to create from entity
-    public static StudentAnswerDto fromEntity(StudentAnswer studentAnswer) {
+    // Factory method to create from entity and the compiled question of the test snapshot
+    public static StudentAnswerDto fromEntity(StudentAnswer studentAnswer, TestSnapshot.QuestionSnapshot question) {
         StudentAnswerDto dto = new StudentAnswerDto();
 
         dto.setId(studentAnswer.getId());
-        dto.setQuestionId(studentAnswer.getQuestion().getId());
-        dto.setQuestionText(studentAnswer.getQuestion().getText());
-        dto.setQuestionType(studentAnswer.getQuestion().getType());
+        dto.setQuestionId(question.id());
+        dto.setQuestionText(question.text());
+        dto.setQuestionType(question.type());
         dto.setTextAnswer(studentAnswer.getTextAnswer());
         dto.setCorrect(studentAnswer.isCorrect());
         dto.setEarnedPoints(studentAnswer.getEarnedPoints());
-        dto.setMaxPoints(studentAnswer.getQuestion().getPoints());
+        dto.setMaxPoints(question.points());
 
-        // Устанавливаем выбранные ответы
         if (studentAnswer.getSelectedAnswers() != null) {
-            Set<AnswerDto> selectedAnswerDtos = studentAnswer.getSelectedAnswers().stream()
-                    .map(answer -> {
-                        AnswerDto answerDto = new AnswerDto();
-                        answerDto.setId(answer.getId());
-                        answerDto.setText(answer.getText());
-                        answerDto.setIsCorrect(answer.isCorrect());
-                        return answerDto;
-                    })
-                    .collect(Collectors.toSet());
-            dto.setSelectedAnswers(selectedAnswerDtos);
+            for (Answer answer : studentAnswer.getSelectedAnswers()) {
+                dto.getSelectedAnswerIds().add(answer.getId());
+            }
+            // По возрастанию id, как и у ответов из закодированного вектора
+            Collections.sort(dto.getSelectedAnswerIds());
         }
+        dto.setCorrectAnswerIds(question.correctAnswerIds());
+
+        return dto;
+    }
+
+    // The same from an answer stored in the encoded answer vector of the attempt (no row id there)
+    public static StudentAnswerDto fromVectorEntry(AnswerVectorCodec.Entry entry, TestSnapshot.QuestionSnapshot question) {
+        StudentAnswerDto dto = new StudentAnswerDto();
 
-        // Устанавливаем правильные ответы
-        Set<AnswerDto> correctAnswerDtos = studentAnswer.getQuestion().getAnswers().stream()
-                .filter(Answer::isCorrect)
-                .map(answer -> {
-                    AnswerDto answerDto = new AnswerDto();
-                    answerDto.setId(answer.getId());
-                    answerDto.setText(answer.getText());
-                    answerDto.setIsCorrect(true);
-                    return answerDto;
-                })
-                .collect(Collectors.toSet());
-        dto.setCorrectAnswers(correctAnswerDtos);
+        dto.setQuestionId(question.id());
+        dto.setQuestionText(question.text());
+        dto.setQuestionType(question.type());
+        dto.setTextAnswer(entry.text());
+        dto.setCorrect(entry.correct());
+        dto.setEarnedPoints(entry.earnedPoints());
+        dto.setMaxPoints(question.points());
+        dto.getSelectedAnswerIds().addAll(AnswerVectorCodec.fromMask(question.optionIds(), entry.selected()));
+        dto.setCorrectAnswerIds(question.correctAnswerIds());
 
         return dto;
     }
-}
\ No newline at end of file
+}
@@ -21,5 +21,7 @@ public class TestCreateRequest {
     private Integer maxAttempts = 1; // Default to 1 attempt
     private Integer questionsToShow;
     private MultipartFile referenceMaterials;
+    // Справочные материалы, загруженные заранее через /api/uploads
+    private String referenceMaterialsUploadId;
     private boolean removeReferenceMaterials;
 }
@@ -3,10 +3,14 @@ package org.ineydlis.schooltest.dto;
 import lombok.Getter;
 import lombok.Setter;
 import org.ineydlis.schooltest.model.*;
+import org.ineydlis.schooltest.util.AnswerVectorCodec;
 import java.time.LocalDateTime;
-import java.util.List;
 import java.util.ArrayList;
-import java.util.stream.Collectors;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Getter
 @Setter
@@ -24,6 +28,8 @@ public class TestResultDetailsDto {
     private int maxScore;
     private int attemptNumber;
     private List<StudentAnswerDto> studentAnswers = new ArrayList<>();
+    // Общая таблица вариантов ответа (id -> текст и правильность), на которую ссылаются studentAnswers
+    private Map<Long, AnswerDto> options = new LinkedHashMap<>();
 
     private Long gradeId;
     private String gradeName;
@@ -34,8 +40,8 @@ public class TestResultDetailsDto {
     private int totalQuestionsCount;
     private double percentageCorrect;
 
-    // Factory method to create from entity
-    public static TestResultDetailsDto fromEntity(TestResult testResult) {
+    // Factory method to create from entity: one pass over the answers (encoded vector or rows), question data from the test snapshot
+    public static TestResultDetailsDto fromEntity(TestResult testResult, TestSnapshot snapshot) {
         TestResultDetailsDto dto = new TestResultDetailsDto();
 
         dto.setId(testResult.getId());
@@ -50,33 +56,68 @@ public class TestResultDetailsDto {
         dto.setMaxScore(testResult.getMaxScore());
         dto.setAttemptNumber(testResult.getAttemptNumber());
 
-        // Преобразуем студенческие ответы
-        List<StudentAnswerDto> answerDtos = testResult.getStudentAnswers().stream()
-                .map(StudentAnswerDto::fromEntity)
-                .collect(Collectors.toList());
-        dto.setStudentAnswers(answerDtos);
+        List<Long> selectedQuestionIds = snapshot.selectedQuestionIds(testResult);
+        Set<Long> shownQuestions = selectedQuestionIds != null ? new HashSet<>(selectedQuestionIds) : null;
+
+        // Статистика считается по всем ответам, в список попадают только показанные вопросы
+        int correctCount = 0;
+        if (testResult.getAnswerVector() != null) {
+            List<AnswerVectorCodec.Entry> entries = AnswerVectorCodec.decode(testResult.getAnswerVector());
+            for (AnswerVectorCodec.Entry entry : entries) {
+                if (entry.correct()) {
+                    correctCount++;
+                }
+                TestSnapshot.QuestionSnapshot question = shownQuestion(snapshot, shownQuestions, entry.questionId());
+                if (question != null) {
+                    dto.addAnswer(snapshot, StudentAnswerDto.fromVectorEntry(entry, question));
+                }
+            }
+            dto.setTotalQuestionsCount(entries.size());
+        } else {
+            // Граф TestResult.details соединяет ответы с выбранными вариантами - ответ с несколькими
+            // вариантами приходит в списке несколько раз
+            Set<Long> seen = new HashSet<>();
+            for (StudentAnswer answer : testResult.getStudentAnswers()) {
+                if (!seen.add(answer.getId())) {
+                    continue;
+                }
+                if (answer.isCorrect()) {
+                    correctCount++;
+                }
+                TestSnapshot.QuestionSnapshot question = shownQuestion(snapshot, shownQuestions, answer.getQuestion().getId());
+                if (question != null) {
+                    dto.addAnswer(snapshot, StudentAnswerDto.fromEntity(answer, question));
+                }
+            }
+            dto.setTotalQuestionsCount(seen.size());
+        }
 
-        // Рассчитываем статистику
-        int correctCount = (int) testResult.getStudentAnswers().stream()
-                .filter(StudentAnswer::isCorrect)
-                .count();
         dto.setCorrectAnswersCount(correctCount);
-        dto.setTotalQuestionsCount(testResult.getStudentAnswers().size());
 
         if (dto.getTotalQuestionsCount() > 0) {
             dto.setPercentageCorrect(Math.round(((double) dto.getScore() / dto.getMaxScore()) * 100 * 100.0) / 100.0);
         }
 
-        List<Long> selectedQuestionIds = testResult.getSelectedQuestionIds();
-        boolean hasSelectedQuestions = selectedQuestionIds != null && !selectedQuestionIds.isEmpty();
+        return dto;
+    }
 
+    private static TestSnapshot.QuestionSnapshot shownQuestion(TestSnapshot snapshot, Set<Long> shownQuestions, Long questionId) {
+        if (shownQuestions != null && !shownQuestions.contains(questionId)) {
+            return null;
+        }
+        return snapshot.questions().get(questionId);
+    }
 
-        List<StudentAnswerDto> studentAnswers = testResult.getStudentAnswers().stream()
-                .filter(answer -> !hasSelectedQuestions || selectedQuestionIds.contains(answer.getQuestion().getId()))
-                .map(StudentAnswerDto::fromEntity)
-                .collect(Collectors.toList());
+    private void addAnswer(TestSnapshot snapshot, StudentAnswerDto answerDto) {
+        answerDto.getSelectedAnswerIds().forEach(id -> addOption(snapshot, id));
+        answerDto.getCorrectAnswerIds().forEach(id -> addOption(snapshot, id));
+        studentAnswers.add(answerDto);
+    }
 
-        dto.setStudentAnswers(studentAnswers);
-        return dto;
+    private void addOption(TestSnapshot snapshot, Long answerId) {
+        AnswerDto option = snapshot.options().get(answerId);
+        if (option != null) {
+            options.putIfAbsent(answerId, option);
+        }
     }
-}
\ No newline at end of file
+}
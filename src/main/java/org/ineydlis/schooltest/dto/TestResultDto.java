@@ -27,6 +27,31 @@ public class TestResultDto {
     private Integer maxScore;  // Maximum possible score for this attempt
     private double percentage; // Added for convenience
     private String message;    // For any system messages
+    private LocalDateTime deadlineAt; // Когда истекает время незавершённой попытки
+
+    /**
+     * Конструктор для JPQL-проекции (SELECT new ...) в постраничных списках результатов
+     */
+    public TestResultDto(Long id, Long testId, String testTitle, String subjectName,
+                         Long studentId, String studentName,
+                         LocalDateTime startedAt, LocalDateTime completedAt,
+                         Integer attemptNumber, boolean completed, Integer score, Integer maxScore) {
+        this.id = id;
+        this.testId = testId;
+        this.testTitle = testTitle;
+        this.subjectName = subjectName;
+        this.studentId = studentId;
+        this.studentName = studentName;
+        this.startedAt = startedAt;
+        this.completedAt = completedAt;
+        this.attemptNumber = attemptNumber;
+        this.completed = completed;
+        this.score = score;
+        this.maxScore = maxScore;
+        if (completed && score != null && maxScore != null && maxScore > 0) {
+            this.percentage = Math.round((double) score / maxScore * 1000) / 10.0;
+        }
+    }
 
     public static TestResultDto fromEntity(TestResult result) {
         TestResultDtoBuilder builder = TestResultDto.builder()
@@ -49,6 +74,10 @@ public class TestResultDto {
             builder.percentage(Math.round(percentage * 10) / 10.0); // Round to 1 decimal place
         }
 
+        if (!result.isCompleted() && result.getStartedAt() != null && result.getTest().getTimeLimit() != null) {
+            builder.deadlineAt(result.getStartedAt().plusMinutes(result.getTest().getTimeLimit()));
+        }
+
         return builder.build();
     }
 }
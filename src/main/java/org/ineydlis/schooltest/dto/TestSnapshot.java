@@ -0,0 +1,105 @@
+package org.ineydlis.schooltest.dto;
+
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.model.Test;
+import org.ineydlis.schooltest.model.TestResult;
+import org.ineydlis.schooltest.util.AnswerVectorCodec;
+import org.ineydlis.schooltest.util.QuestionSelection;
+import org.ineydlis.schooltest.util.TextAnswerMatcher;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Неизменяемый «скомпилированный» снимок вопросов и вариантов теста.
+ * Строится один раз на версию теста (updatedAt) и переиспользуется при разборе результатов,
+ * чтобы не пересобирать множества правильных ответов и варианты текстовых ответов для каждого ответа ученика.
+ *
+ * @param questionOrder   id всех вопросов версии по возрастанию - основа выборки вопросов попытки
+ * @param questionsToShow сколько вопросов показывать; 0 - все
+ */
+public record TestSnapshot(Long testId,
+                           LocalDateTime version,
+                           Map<Long, QuestionSnapshot> questions,
+                           Map<Long, AnswerDto> options,
+                           List<Long> questionOrder,
+                           int questionsToShow) {
+
+    /**
+     * @param optionIds   id вариантов по возрастанию - позиции в маске выбранных вариантов ({@link AnswerVectorCodec})
+     * @param textMatcher скомпилированные варианты текстового ответа, для остальных типов null
+     */
+    public record QuestionSnapshot(Long id, String text, QuestionType type, int points, Set<Long> correctAnswerIds,
+                                   List<Long> optionIds, TextAnswerMatcher textMatcher) {
+    }
+
+    /**
+     * Вопросы попытки в порядке показа, null - показываются все вопросы теста.
+     * Выборка вычисляется из зерна попытки и набора вопросов этой версии; у попыток, начатых
+     * до появления зерна, используется сохранённый список id
+     */
+    public List<Long> selectedQuestionIds(TestResult result) {
+        if (questionsToShow <= 0 || questionsToShow >= questionOrder.size()) {
+            return null;
+        }
+        if (result.getQuestionSeed() != null) {
+            return QuestionSelection.select(questionOrder, questionsToShow, result.getQuestionSeed());
+        }
+        List<Long> stored = result.getSelectedQuestionIds();
+        return stored != null && !stored.isEmpty() ? stored : null;
+    }
+
+    /**
+     * Максимальный балл за вопросы попытки (null - за все вопросы)
+     */
+    public int maxScore(List<Long> selectedQuestionIds) {
+        if (selectedQuestionIds == null) {
+            return questions.values().stream().mapToInt(QuestionSnapshot::points).sum();
+        }
+        return selectedQuestionIds.stream()
+                .map(questions::get)
+                .filter(Objects::nonNull)
+                .mapToInt(QuestionSnapshot::points)
+                .sum();
+    }
+
+    public static LocalDateTime versionOf(Test test) {
+        return test.getUpdatedAt() != null ? test.getUpdatedAt() : test.getCreatedAt();
+    }
+
+    public static TestSnapshot compile(Test test) {
+        Map<Long, QuestionSnapshot> questions = new HashMap<>();
+        Map<Long, AnswerDto> options = new HashMap<>();
+        for (Question question : test.getQuestions()) {
+            Set<Long> correctAnswerIds = new HashSet<>();
+            for (Answer answer : question.getAnswers()) {
+                options.put(answer.getId(), AnswerDto.fromEntity(answer, true));
+                if (answer.isCorrect()) {
+                    correctAnswerIds.add(answer.getId());
+                }
+            }
+            // Для текстового вопроса принятые варианты - ответы, отмеченные правильными; остальные не засчитываются
+            TextAnswerMatcher textMatcher = question.getType() == QuestionType.TEXT_ANSWER
+                    ? TextAnswerMatcher.compile(question.getAnswers().stream()
+                            .filter(Answer::isCorrect)
+                            .map(Answer::getText)
+                            .toList())
+                    : null;
+            questions.put(question.getId(), new QuestionSnapshot(question.getId(), question.getText(),
+                    question.getType(), question.getPoints() != null ? question.getPoints() : 0,
+                    Set.copyOf(correctAnswerIds), question.getAnswers().stream().map(Answer::getId).sorted().toList(),
+                    textMatcher));
+        }
+        List<Long> questionOrder = questions.keySet().stream().sorted().toList();
+        int questionsToShow = test.getQuestionsToShow() != null ? test.getQuestionsToShow() : 0;
+        return new TestSnapshot(test.getId(), versionOf(test), Map.copyOf(questions), Map.copyOf(options),
+                questionOrder, questionsToShow);
+    }
+}
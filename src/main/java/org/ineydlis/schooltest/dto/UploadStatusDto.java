@@ -0,0 +1,20 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Состояние загрузки по частям: offset - сколько байт уже принято, с него клиент продолжает
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UploadStatusDto {
+    private String uploadId;
+    private String filename;
+    private long size;
+    private long offset;
+    private boolean complete;
+    private String hash;
+}
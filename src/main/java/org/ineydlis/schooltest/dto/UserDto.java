@@ -4,10 +4,15 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.Subject;
+import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.service.ThumbnailService;
 
 import java.util.List;
 import java.util.Set;
+import java.util.stream.Collectors;
 
 @Data
 @Builder
@@ -23,6 +28,30 @@ public class UserDto {
     private String gradeName; // Изменено: теперь это имя класса (например, "1А")
     private Set<String> subjectNames; // Изменено: теперь это набор имён предметов
     private String profileImageUrl;
+    private String profileThumbnailUrl; // Миниатюра для аватаров, адрес не меняется вместе с содержимым
     private boolean active;
     private List<String> teachingGradeNames;
+
+    /**
+     * Данные пользователя для списков администратора - без пароля и токена
+     */
+    public static UserDto fromEntity(User user) {
+        return UserDto.builder()
+                .id(user.getId())
+                .username(user.getUsername())
+                .fullName(user.getFullName())
+                .email(user.getEmail())
+                .role(user.getRole())
+                .gradeName(user.getGrade() != null ? user.getGrade().getFullName() : null)
+                .subjectNames(user.getSubjects().stream()
+                        .map(Subject::getName)
+                        .collect(Collectors.toSet()))
+                .teachingGradeNames(user.getTeachingGrades().stream()
+                        .map(Grade::getFullName)
+                        .collect(Collectors.toList()))
+                .profileImageUrl(user.getProfileImagePath())
+                .profileThumbnailUrl(ThumbnailService.thumbnailUrl(user.getProfileImagePath()))
+                .active(user.isActive())
+                .build();
+    }
 }
@@ -0,0 +1,26 @@
+package org.ineydlis.schooltest.dto;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Итог импорта пользователей: сколько строк прочитано и создано, и построчные ошибки
+ */
+@Data
+public class UserImportReport {
+    private int totalRows;
+    private int created;
+    private List<RowError> errors = new ArrayList<>();
+
+    /**
+     * @param row номер строки в файле, считая заголовок первой строкой
+     */
+    public record RowError(int row, String username, String message) {
+    }
+
+    public void addError(int row, String username, String message) {
+        errors.add(new RowError(row, username, message));
+    }
+}
@@ -3,6 +3,8 @@ package org.ineydlis.schooltest.interceptor;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.service.AuthService;
+import org.ineydlis.schooltest.service.StreamTicketService;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,11 +18,13 @@ import java.util.Map;
 public class AuthInterceptor implements HandlerInterceptor {
 
    private AuthService authService;
+   private StreamTicketService streamTicketService;
    private ObjectMapper objectMapper;
 
     @Autowired
-    public AuthInterceptor(AuthService authService, ObjectMapper objectMapper) {
+    public AuthInterceptor(AuthService authService, StreamTicketService streamTicketService, ObjectMapper objectMapper) {
         this.authService = authService;
+        this.streamTicketService = streamTicketService;
         this.objectMapper = objectMapper;
     }
 
@@ -31,8 +35,29 @@ public class AuthInterceptor implements HandlerInterceptor {
             return true;
         }
 
+        // Эндпоинты actuator работают на отдельном локальном порту (management.server.*)
+        if (request.getRequestURI().startsWith("/actuator")) {
+            return true;
+        }
+
+        // Повторная обработка после завершения асинхронного ответа (SSE): запрос уже авторизован,
+        // а одноразовый билет погашен при первой обработке
+        if (request.getDispatcherType() == DispatcherType.ASYNC && request.getAttribute("user") != null) {
+            return true;
+        }
+
         // Получаем токен из заголовка
         String token = request.getHeader("Authorization");
+        // EventSource в браузере не умеет передавать заголовки, поэтому SSE-потоки открываются
+        // по одноразовому билету в параметре; сам токен в адрес не попадает
+        if ((token == null || token.isEmpty()) && request.getRequestURI().endsWith("/stream")) {
+            String ticket = request.getParameter("ticket");
+            User user = ticket != null ? streamTicketService.redeem(ticket).orElse(null) : null;
+            if (user != null) {
+                request.setAttribute("user", user);
+                return true;
+            }
+        }
 
         if (token != null && !token.isEmpty()) {
             // Находим пользователя по токену
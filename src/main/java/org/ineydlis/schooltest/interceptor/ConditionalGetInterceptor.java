@@ -0,0 +1,69 @@
+package org.ineydlis.schooltest.interceptor;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.service.DataVersions;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.Map;
+
+/**
+ * Условные GET для эндпоинтов с {@link Versioned}: ETag строится из счётчиков {@link DataVersions},
+ * поэтому 304 отдаётся до вызова контроллера и сервиса. Должен стоять после AuthInterceptor.
+ */
+@Component
+public class ConditionalGetInterceptor implements HandlerInterceptor {
+
+    // Браузер хранит ответ, но каждый раз сверяет ETag
+    private static final String REVALIDATE = CacheControl.noCache().cachePrivate().getHeaderValue();
+
+    private final DataVersions dataVersions;
+
+    @Autowired
+    public ConditionalGetInterceptor(DataVersions dataVersions) {
+        this.dataVersions = dataVersions;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        if (!"GET".equals(request.getMethod()) || !(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        Versioned versioned = handlerMethod.getMethodAnnotation(Versioned.class);
+        if (versioned == null || !(request.getAttribute("user") instanceof User user)) {
+            return true;
+        }
+
+        String etag = dataVersions.etag(user.getId(), versioned.scope(), scopeId(request, versioned, user));
+        if (etag == null) {
+            return true;
+        }
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, REVALIDATE);
+        // Ставит ETag в ответ и при совпадении с If-None-Match выставляет 304
+        return !new ServletWebRequest(request, response).checkNotModified(etag);
+    }
+
+    private static Long scopeId(HttpServletRequest request, Versioned versioned, User user) {
+        if (versioned.key().isEmpty()) {
+            return versioned.scope() == DataVersions.Scope.STUDENT_RESULTS ? user.getId() : null;
+        }
+        @SuppressWarnings("unchecked")
+        Map<String, String> variables =
+                (Map<String, String>) request.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+        String value = variables != null ? variables.get(versioned.key()) : null;
+        try {
+            return value != null ? Long.valueOf(value) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.ineydlis.schooltest.interceptor;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Допустимое число SQL-запросов на один вызов эндпоинта, включая проверку токена.
+ * Превышение логируется и считается в метрике schooltest.query.budget.exceeded;
+ * при app.query-budget.fail-on-exceed=true запрос завершается ошибкой (для тестов).
+ * Без аннотации действует app.query-budget.default.
+ * Для обработчиков, которые пишут строки по одной, бюджет растёт на {@link #perItem()}
+ * за каждую строку, объявленную через {@link QueryCounter#addItems(int)}.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface QueryBudget {
+    int value();
+
+    /**
+     * Дополнительные запросы на каждую объявленную строку: вставки с IDENTITY-ключами
+     * Hibernate не объединяет в батчи, поэтому вопрос теста с вариантами - это запрос на строку
+     */
+    int perItem() default 0;
+}
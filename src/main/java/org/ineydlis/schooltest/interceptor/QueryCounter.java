@@ -0,0 +1,68 @@
+package org.ineydlis.schooltest.interceptor;
+
+/**
+ * Считает SQL-запросы, выполненные в текущем потоке между start() и stop().
+ * Запросы отмечает {@link org.ineydlis.schooltest.config.QueryCountingDataSource} на уровне JDBC,
+ * поэтому видны все: репозитории, ленивая загрузка, JdbcTemplate; батч считается одним запросом.
+ */
+public final class QueryCounter {
+
+    // [0] - выполненные запросы, [1] - объявленные строки для QueryBudget.perItem
+    private static final ThreadLocal<int[]> COUNTER = new ThreadLocal<>();
+
+    /**
+     * Начать подсчёт для текущего потока (обнуляет предыдущее значение)
+     */
+    public static void start() {
+        COUNTER.set(new int[2]);
+    }
+
+    /**
+     * Объявить строки, которые текущий запрос пишет или удаляет по одной.
+     * Вне подсчёта (фоновые задачи, тесты сервисов) ничего не делает
+     */
+    public static void addItems(int items) {
+        int[] counter = COUNTER.get();
+        if (counter != null) {
+            counter[1] += items;
+        }
+    }
+
+    /**
+     * Число строк, объявленных через addItems
+     */
+    public static int items() {
+        int[] counter = COUNTER.get();
+        return counter != null ? counter[1] : 0;
+    }
+
+    /**
+     * Текущее число запросов, или 0, если подсчёт не запущен
+     */
+    public static int current() {
+        int[] counter = COUNTER.get();
+        return counter != null ? counter[0] : 0;
+    }
+
+    /**
+     * Завершить подсчёт и вернуть итоговое число запросов
+     */
+    public static int stop() {
+        int count = current();
+        COUNTER.remove();
+        return count;
+    }
+
+    /**
+     * Отметить выполненный запрос, если подсчёт в текущем потоке запущен
+     */
+    public static void record() {
+        int[] counter = COUNTER.get();
+        if (counter != null) {
+            counter[0]++;
+        }
+    }
+
+    private QueryCounter() {
+    }
+}
@@ -0,0 +1,98 @@
+package org.ineydlis.schooltest.interceptor;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Записывает число SQL-запросов на каждый HTTP-запрос в метрику schooltest.http.queries
+ * с тегом handler (Контроллер.метод) и сверяет его с бюджетом {@link QueryBudget}.
+ */
+@Slf4j
+@Component
+public class QueryMetricsInterceptor implements AsyncHandlerInterceptor {
+
+    private final MeterRegistry meterRegistry;
+    private final int defaultBudget;
+    private final boolean failOnExceed;
+
+    @Autowired
+    public QueryMetricsInterceptor(MeterRegistry meterRegistry,
+                                   @Value("${app.query-budget.default:20}") int defaultBudget,
+                                   @Value("${app.query-budget.fail-on-exceed:false}") boolean failOnExceed) {
+        this.meterRegistry = meterRegistry;
+        this.defaultBudget = defaultBudget;
+        this.failOnExceed = failOnExceed;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        QueryCounter.start();
+        return true;
+    }
+
+    // Тело ответа REST-контроллера уже сериализовано, поэтому ленивые загрузки учтены
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return;
+        }
+
+        int queries = QueryCounter.current();
+        int budget = budgetOf(handlerMethod);
+        if (queries <= budget) {
+            return;
+        }
+
+        String handlerName = handlerName(handlerMethod);
+        meterRegistry.counter("schooltest.query.budget.exceeded", "handler", handlerName).increment();
+        String message = String.format("%s: %d SQL-запросов при бюджете %d", handlerName, queries, budget);
+        if (failOnExceed) {
+            // Error, а не RuntimeException: не перехватывается @ExceptionHandler и валит тест
+            throw new AssertionError(message);
+        }
+        log.warn("Превышен бюджет запросов - {}", message);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        int queries = QueryCounter.stop();
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return;
+        }
+
+        DistributionSummary.builder("schooltest.http.queries")
+                .description("SQL-запросов на один HTTP-запрос")
+                .tag("handler", handlerName(handlerMethod))
+                .register(meterRegistry)
+                .record(queries);
+    }
+
+    // Для асинхронного ответа afterCompletion на этом потоке не будет - снимаем счётчик здесь
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        afterCompletion(request, response, handler, null);
+    }
+
+    int budgetOf(HandlerMethod handlerMethod) {
+        QueryBudget budget = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), QueryBudget.class);
+        if (budget == null) {
+            budget = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), QueryBudget.class);
+        }
+        return budget != null ? budget.value() + budget.perItem() * QueryCounter.items() : defaultBudget;
+    }
+
+    static String handlerName(HandlerMethod handlerMethod) {
+        return handlerMethod.getBeanType().getSimpleName() + "." + handlerMethod.getMethod().getName();
+    }
+}
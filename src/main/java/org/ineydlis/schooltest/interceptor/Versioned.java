@@ -0,0 +1,24 @@
+package org.ineydlis.schooltest.interceptor;
+
+import org.ineydlis.schooltest.service.DataVersions;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * GET-эндпоинт, чей ответ определяется версией каталога и области {@link #scope()}.
+ * По If-None-Match с совпавшим ETag отвечаем 304, не вызывая контроллер.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Versioned {
+    DataVersions.Scope scope();
+
+    /**
+     * Имя path-переменной с id области; пусто - id текущего пользователя для STUDENT_RESULTS
+     * и вся область для остальных
+     */
+    String key() default "";
+}
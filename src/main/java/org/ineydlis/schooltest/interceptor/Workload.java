@@ -0,0 +1,17 @@
+package org.ineydlis.schooltest.interceptor;
+
+import org.ineydlis.schooltest.config.WorkloadClass;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Класс нагрузки эндпоинта; без аннотации - {@link WorkloadClass#EXAM}
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Workload {
+    WorkloadClass value();
+}
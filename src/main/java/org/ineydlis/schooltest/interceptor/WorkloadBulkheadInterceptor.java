@@ -0,0 +1,132 @@
+package org.ineydlis.schooltest.interceptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.ineydlis.schooltest.config.Bulkhead;
+import org.ineydlis.schooltest.config.WorkloadClass;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ограничивает число одновременных запросов каждого класса нагрузки ({@link Workload})
+ * и запоминает класс для выбора пула соединений. Не дождавшиеся очереди отчёты
+ * получают 429, запросы прохождения тестов - 503; в обоих случаях с Retry-After.
+ */
+@Component
+public class WorkloadBulkheadInterceptor implements AsyncHandlerInterceptor {
+
+    private static final String ACQUIRED_ATTRIBUTE = WorkloadBulkheadInterceptor.class.getName() + ".acquired";
+
+    private final Map<WorkloadClass, Bulkhead> bulkheads = new EnumMap<>(WorkloadClass.class);
+    private final MeterRegistry meterRegistry;
+    private final ObjectMapper objectMapper;
+    private final int retryAfterSeconds;
+
+    @Autowired
+    public WorkloadBulkheadInterceptor(MeterRegistry meterRegistry,
+                                       ObjectMapper objectMapper,
+                                       @Value("${app.workload.exam.max-concurrent:200}") int examMaxConcurrent,
+                                       @Value("${app.workload.exam.max-waiting:1000}") int examMaxWaiting,
+                                       @Value("${app.workload.exam.queue-timeout-ms:5000}") long examQueueTimeoutMs,
+                                       @Value("${app.workload.reporting.max-concurrent:2}") int reportingMaxConcurrent,
+                                       @Value("${app.workload.reporting.max-waiting:4}") int reportingMaxWaiting,
+                                       @Value("${app.workload.reporting.queue-timeout-ms:10000}") long reportingQueueTimeoutMs,
+                                       @Value("${app.workload.retry-after-seconds:10}") int retryAfterSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.objectMapper = objectMapper;
+        this.retryAfterSeconds = retryAfterSeconds;
+        bulkheads.put(WorkloadClass.EXAM, new Bulkhead(examMaxConcurrent, examMaxWaiting, examQueueTimeoutMs));
+        bulkheads.put(WorkloadClass.REPORTING,
+                new Bulkhead(reportingMaxConcurrent, reportingMaxWaiting, reportingQueueTimeoutMs));
+
+        bulkheads.forEach((workload, bulkhead) -> {
+            String tag = workload.name().toLowerCase();
+            Gauge.builder("schooltest.workload.available", bulkhead, Bulkhead::getAvailablePermits)
+                    .tag("workload", tag)
+                    .register(meterRegistry);
+            Gauge.builder("schooltest.workload.waiting", bulkhead, Bulkhead::getWaiting)
+                    .tag("workload", tag)
+                    .register(meterRegistry);
+        });
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+
+        WorkloadClass workload = workloadOf(handlerMethod);
+        WorkloadClass.set(workload);
+
+        boolean acquired;
+        try {
+            acquired = bulkheads.get(workload).tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+
+        if (!acquired) {
+            WorkloadClass.clear();
+            meterRegistry.counter("schooltest.workload.rejected", "workload", workload.name().toLowerCase()).increment();
+            reject(response, workload);
+            return false;
+        }
+
+        request.setAttribute(ACQUIRED_ATTRIBUTE, workload);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object acquired = request.getAttribute(ACQUIRED_ATTRIBUTE);
+        if (acquired instanceof WorkloadClass workload) {
+            request.removeAttribute(ACQUIRED_ATTRIBUTE);
+            bulkheads.get(workload).release();
+        }
+        WorkloadClass.clear();
+    }
+
+    // Асинхронный ответ (SSE) может жить долго: разрешение возвращаем сразу, afterCompletion для него не вызывается
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        afterCompletion(request, response, handler, null);
+    }
+
+    static WorkloadClass workloadOf(HandlerMethod handlerMethod) {
+        Workload workload = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getMethod(), Workload.class);
+        if (workload == null) {
+            workload = AnnotatedElementUtils.findMergedAnnotation(handlerMethod.getBeanType(), Workload.class);
+        }
+        return workload != null ? workload.value() : WorkloadClass.EXAM;
+    }
+
+    private void reject(HttpServletResponse response, WorkloadClass workload) throws Exception {
+        int status = workload == WorkloadClass.REPORTING ? 429 : 503;
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.setStatus(status);
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+
+        Map<String, Object> error = new HashMap<>();
+        error.put("status", status);
+        error.put("message", workload == WorkloadClass.REPORTING
+                ? "Сервер занят построением отчётов, повторите запрос позже"
+                : "Сервер перегружен, повторите запрос позже");
+
+        response.getWriter().write(objectMapper.writeValueAsString(error));
+    }
+}
@@ -0,0 +1,30 @@
+package org.ineydlis.schooltest.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Сколько раз выбирали вариант ответа. Увеличивается при отправке попытки по маске выбранных вариантов
+ * и пересчитывается вместе с анализом вопросов (ItemAnalysisService.rebuild)
+ */
+@Entity
+@Table(name = "answer_pick_counts", indexes = @Index(name = "idx_answer_pick_counts_test", columnList = "test_id"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class AnswerPickCount {
+    @Id
+    @Column(name = "answer_id")
+    private Long answerId;
+
+    @Column(name = "question_id", nullable = false)
+    private Long questionId;
+
+    @Column(name = "test_id", nullable = false)
+    private Long testId;
+
+    @Column(nullable = false)
+    private long picks;
+}
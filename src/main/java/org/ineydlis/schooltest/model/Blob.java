@@ -0,0 +1,33 @@
+package org.ineydlis.schooltest.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Учёт ссылок на файл в хранилище по содержимому. Ключ - SHA-256 содержимого,
+ * refCount - сколько тестов и профилей указывают на файл.
+ */
+@Entity
+@Table(name = "blobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Blob {
+    @Id
+    @Column(length = 64)
+    private String hash;
+
+    @Column(nullable = false)
+    private long size;
+
+    @Column(nullable = false)
+    private int refCount;
+
+    // Время последнего изменения счётчика: сборщик не трогает недавно освободившиеся файлы
+    @Column(nullable = false)
+    private LocalDateTime updatedAt;
+}
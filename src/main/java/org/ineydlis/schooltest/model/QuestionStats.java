@@ -0,0 +1,48 @@
+package org.ineydlis.schooltest.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.ineydlis.schooltest.util.ItemStatistics;
+
+/**
+ * Накопленные суммы анализа вопроса ({@link ItemStatistics}). Обновляются приращениями при каждой
+ * отправке попытки и пересчитываются целиком из истории (ItemAnalysisService.rebuild).
+ * Строки вопросов прежних версий теста остаются до пересчёта, но не показываются.
+ */
+@Entity
+@Table(name = "question_stats", indexes = @Index(name = "idx_question_stats_test", columnList = "test_id"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class QuestionStats {
+    @Id
+    @Column(name = "question_id")
+    private Long questionId;
+
+    @Column(name = "test_id", nullable = false)
+    private Long testId;
+
+    @Column(nullable = false)
+    private long attempts;
+
+    @Column(nullable = false)
+    private long correctCount;
+
+    @Column(nullable = false)
+    private double ratioSum;
+
+    @Column(nullable = false)
+    private double restSum;
+
+    @Column(nullable = false)
+    private double restSquareSum;
+
+    @Column(nullable = false)
+    private double correctRestSum;
+
+    public ItemStatistics toStatistics() {
+        return new ItemStatistics(attempts, correctCount, ratioSum, restSum, restSquareSum, correctRestSum);
+    }
+}
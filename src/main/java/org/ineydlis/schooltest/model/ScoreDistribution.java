@@ -0,0 +1,47 @@
+package org.ineydlis.schooltest.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.Serializable;
+
+/**
+ * Распределение лучших результатов учеников ({@link org.ineydlis.schooltest.util.ScoreHistogram}) по тесту,
+ * классу или предмету. Обновляется при завершении попытки и пересчитывается ScoreDistributionService.rebuild
+ */
+@Entity
+@Table(name = "score_distributions")
+@IdClass(ScoreDistribution.Key.class)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ScoreDistribution {
+
+    public enum Scope {
+        TEST,
+        GRADE,
+        SUBJECT
+    }
+
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private Scope scope;
+
+    @Id
+    @Column(name = "scope_id")
+    private Long scopeId;
+
+    @Column(nullable = false, columnDefinition = "bytea")
+    private byte[] sketch;
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Key implements Serializable {
+        private Scope scope;
+        private Long scopeId;
+    }
+}
@@ -18,7 +18,7 @@ public class StudentAnswer {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "question_id", nullable = false)
     private Question question;
 
@@ -31,7 +31,7 @@ public class StudentAnswer {
     private String textAnswer;
 
     // For SINGLE_CHOICE and MULTIPLE_CHOICE types
-    @ManyToMany(fetch = FetchType.EAGER)
+    @ManyToMany(fetch = FetchType.LAZY)
     @JoinTable(
             name = "student_answer_choices",
             joinColumns = @JoinColumn(name = "student_answer_id"),
@@ -14,6 +14,12 @@ import java.util.Set;
 
 @Entity
 @Table(name = "tests")
+// Каталог тестов: предмет и автор нужны для TestDto, коллекции подгружаются пачками
+@NamedEntityGraph(name = "Test.catalog",
+        attributeNodes = {
+                @NamedAttributeNode("subject"),
+                @NamedAttributeNode("creator")
+        })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -27,11 +33,11 @@ public class Test {
 
     private String description;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "subject_id", nullable = false)
     private Subject subject;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "creator_id", nullable = false)
     private User creator;
 
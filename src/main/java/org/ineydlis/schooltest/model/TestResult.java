@@ -12,6 +12,34 @@ import java.util.List;
 
 @Entity
 @Table(name = "test_results")
+@NamedEntityGraphs({
+        // Списки результатов: название теста, предмет, ученик и его класс
+        @NamedEntityGraph(name = "TestResult.list",
+                attributeNodes = {
+                        @NamedAttributeNode(value = "test", subgraph = "test"),
+                        @NamedAttributeNode(value = "student", subgraph = "student")
+                },
+                subgraphs = {
+                        @NamedSubgraph(name = "test", attributeNodes = @NamedAttributeNode("subject")),
+                        @NamedSubgraph(name = "student", attributeNodes = @NamedAttributeNode("grade"))
+                }),
+        // Детали результата: ответы ученика вместе с вопросами и выбранными вариантами
+        @NamedEntityGraph(name = "TestResult.details",
+                attributeNodes = {
+                        @NamedAttributeNode("test"),
+                        @NamedAttributeNode(value = "student", subgraph = "student"),
+                        @NamedAttributeNode(value = "studentAnswers", subgraph = "answers")
+                },
+                subgraphs = {
+                        @NamedSubgraph(name = "student", attributeNodes = @NamedAttributeNode("grade")),
+                        @NamedSubgraph(name = "answers",
+                                attributeNodes = {@NamedAttributeNode("question"), @NamedAttributeNode("selectedAnswers")})
+                }),
+        // Статистика: достаточно ученика и его класса, тест используется только по id
+        @NamedEntityGraph(name = "TestResult.statistics",
+                attributeNodes = @NamedAttributeNode(value = "student", subgraph = "student"),
+                subgraphs = @NamedSubgraph(name = "student", attributeNodes = @NamedAttributeNode("grade")))
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -20,11 +48,11 @@ public class TestResult {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "test_id", nullable = false)
     private Test test;
 
-    @ManyToOne(fetch = FetchType.EAGER)
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "student_id", nullable = false)
     private User student;
 
@@ -44,12 +72,21 @@ public class TestResult {
 
     @Column(nullable = false)
     private Integer attemptNumber = 1;
+
+    // Зерно выборки вопросов (questionsToShow): сами вопросы вычисляются по нему и версии теста
+    private Long questionSeed;
+
+    // Список выбранных вопросов сохранялся до появления questionSeed - читается только у старых попыток
     @ElementCollection
     @CollectionTable(name = "test_result_selected_questions",
             joinColumns = @JoinColumn(name = "test_result_id"))
     @Column(name = "question_id")
     private List<Long> selectedQuestionIds = new ArrayList<>();
 
+    // Ответы попытки одним значением (AnswerVectorCodec); null - ответы лежат строками в student_answers
+    @Column(name = "answer_vector", columnDefinition = "bytea")
+    private byte[] answerVector;
+
     @OneToMany(mappedBy = "testResult", cascade = CascadeType.ALL, orphanRemoval = true)
     private List<StudentAnswer> studentAnswers = new ArrayList<>();
 }
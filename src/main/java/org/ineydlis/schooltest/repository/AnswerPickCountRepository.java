@@ -0,0 +1,13 @@
+package org.ineydlis.schooltest.repository;
+
+import org.ineydlis.schooltest.model.AnswerPickCount;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface AnswerPickCountRepository extends JpaRepository<AnswerPickCount, Long> {
+
+    List<AnswerPickCount> findByTestId(Long testId);
+}
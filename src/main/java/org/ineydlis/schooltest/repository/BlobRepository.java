@@ -0,0 +1,49 @@
+package org.ineydlis.schooltest.repository;
+
+import org.ineydlis.schooltest.model.Blob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface BlobRepository extends JpaRepository<Blob, String> {
+
+    // Строка с нулевым счётчиком, если её ещё нет: при параллельной вставке Postgres ждёт первую транзакцию
+    // и пропускает вторую, после чего обе увеличивают счётчик через incrementRefCount
+    @Modifying
+    @Transactional
+    @Query(value = "INSERT INTO blobs (hash, size, ref_count, updated_at) VALUES (:hash, :size, 0, :now) " +
+            "ON CONFLICT DO NOTHING", nativeQuery = true)
+    int insertIfAbsent(@Param("hash") String hash, @Param("size") long size, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Blob b SET b.refCount = b.refCount + 1, b.updatedAt = :now WHERE b.hash = :hash")
+    int incrementRefCount(@Param("hash") String hash, @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Transactional
+    @Query("UPDATE Blob b SET b.refCount = b.refCount - 1, b.updatedAt = :now WHERE b.hash = :hash AND b.refCount > 0")
+    int decrementRefCount(@Param("hash") String hash, @Param("now") LocalDateTime now);
+
+    // Хэши из списка, по которым есть строка учёта ссылок (в том числе с нулевым счётчиком)
+    @Query("SELECT b.hash FROM Blob b WHERE b.hash IN :hashes")
+    List<String> findKnown(@Param("hashes") Collection<String> hashes);
+
+    // Блокирует строки без ссылок, освободившиеся раньше cutoff. Строки, которые сейчас меняет acquire,
+    // пропускаются: сборщик вернётся к ним в следующий раз
+    @Query(value = "SELECT hash FROM blobs WHERE hash IN (:hashes) AND ref_count = 0 AND updated_at < :cutoff " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<String> lockUnreferenced(@Param("hashes") Collection<String> hashes, @Param("cutoff") LocalDateTime cutoff);
+
+    @Modifying
+    @Query("DELETE FROM Blob b WHERE b.hash IN :hashes AND b.refCount <= 0")
+    int deleteUnreferenced(@Param("hashes") Collection<String> hashes);
+}
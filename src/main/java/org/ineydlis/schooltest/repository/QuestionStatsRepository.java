@@ -0,0 +1,13 @@
+package org.ineydlis.schooltest.repository;
+
+import org.ineydlis.schooltest.model.QuestionStats;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface QuestionStatsRepository extends JpaRepository<QuestionStats, Long> {
+
+    List<QuestionStats> findByTestId(Long testId);
+}
@@ -0,0 +1,9 @@
+package org.ineydlis.schooltest.repository;
+
+import org.ineydlis.schooltest.model.ScoreDistribution;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ScoreDistributionRepository extends JpaRepository<ScoreDistribution, ScoreDistribution.Key> {
+}
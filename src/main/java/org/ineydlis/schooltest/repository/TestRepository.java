@@ -5,6 +5,7 @@ import org.ineydlis.schooltest.model.Grade;
 import org.ineydlis.schooltest.model.Subject;
 import org.ineydlis.schooltest.model.Test;
 import org.ineydlis.schooltest.model.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -15,10 +16,16 @@ import java.util.Set;
 
 @Repository
 public interface TestRepository extends JpaRepository<Test, Long> {
+    @Override
+    @EntityGraph("Test.catalog")
+    List<Test> findAll();
+
+    @EntityGraph("Test.catalog")
     List<Test> findByCreator(User creator);
 
     List<Test> findBySubjectIn(List<Subject> subjects);
 
+    @EntityGraph("Test.catalog")
     @Query("SELECT t FROM Test t JOIN t.availableGrades g WHERE g = :grade AND t.isActive = true")
     List<Test> findByAvailableGradesAndActive(@Param("grade") Grade grade);
 
@@ -1,17 +1,22 @@
 package org.ineydlis.schooltest.repository;
 
 import jakarta.persistence.LockModeType;
+import org.ineydlis.schooltest.dto.OpenAttemptDto;
+import org.ineydlis.schooltest.dto.TestResultDto;
 import org.ineydlis.schooltest.model.Test;
 import org.ineydlis.schooltest.model.TestResult;
 import org.ineydlis.schooltest.model.User;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 import org.springframework.data.domain.Pageable;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -26,14 +31,51 @@ public interface TestResultRepository extends JpaRepository<TestResult, Long> {
     Optional<TestResult> findByTestAndStudentAndCompletedFalse(Test test, User student);
 
     // Method to find all results for a given test
+    @EntityGraph("TestResult.list")
     List<TestResult> findByTest(Test test);
 
     // Method to find all results for a given student
+    @EntityGraph("TestResult.list")
     List<TestResult> findByStudent(User student);
 
+    // Постраничные списки завершённых результатов: keyset по (completedAt, id), от новых к старым.
+    // Выбираются только поля TestResultDto, без загрузки сущностей
+    String RESULT_ROW = "SELECT new org.ineydlis.schooltest.dto.TestResultDto(" +
+            "tr.id, t.id, t.title, s.name, st.id, st.fullName, tr.startedAt, tr.completedAt, " +
+            "tr.attemptNumber, tr.completed, tr.score, tr.maxScore) " +
+            "FROM TestResult tr JOIN tr.test t JOIN t.subject s JOIN tr.student st ";
+    String AFTER_CURSOR = "AND (tr.completedAt < :completedAt OR (tr.completedAt = :completedAt AND tr.id < :id)) ";
+    String NEWEST_FIRST = "ORDER BY tr.completedAt DESC, tr.id DESC";
+
+    @Query(RESULT_ROW + "WHERE st.id = :studentId AND tr.completed = true " + NEWEST_FIRST)
+    List<TestResultDto> findCompletedRowsByStudent(@Param("studentId") Long studentId, Pageable pageable);
+
+    @Query(RESULT_ROW + "WHERE st.id = :studentId AND tr.completed = true " + AFTER_CURSOR + NEWEST_FIRST)
+    List<TestResultDto> findCompletedRowsByStudentAfter(@Param("studentId") Long studentId,
+                                                        @Param("completedAt") LocalDateTime completedAt,
+                                                        @Param("id") Long id,
+                                                        Pageable pageable);
+
+    @Query(RESULT_ROW + "WHERE t.id = :testId AND tr.completed = true " + NEWEST_FIRST)
+    List<TestResultDto> findCompletedRowsByTest(@Param("testId") Long testId, Pageable pageable);
+
+    @Query(RESULT_ROW + "WHERE t.id = :testId AND tr.completed = true " + AFTER_CURSOR + NEWEST_FIRST)
+    List<TestResultDto> findCompletedRowsByTestAfter(@Param("testId") Long testId,
+                                                     @Param("completedAt") LocalDateTime completedAt,
+                                                     @Param("id") Long id,
+                                                     Pageable pageable);
+
+    // Результат вместе с ответами ученика и вопросами - для страницы деталей
+    @EntityGraph("TestResult.details")
+    @Query("SELECT tr FROM TestResult tr WHERE tr.id = :id")
+    Optional<TestResult> findDetailsById(@Param("id") Long id);
+
     // Method to find all results for a given test and student
     List<TestResult> findByTestAndStudent(Test test, User student);
 
+    // Попытки ученика сразу по всем тестам каталога - одним запросом вместо запроса на тест
+    List<TestResult> findByStudentAndTestIn(User student, Collection<Test> tests);
+
     @Lock(LockModeType.PESSIMISTIC_WRITE)
     @Query("SELECT tr FROM TestResult tr WHERE tr.test = :test AND tr.student = :student AND tr.completed = :completed")
     List<TestResult> findByTestAndStudentAndCompletedForUpdate(
@@ -41,10 +83,16 @@ public interface TestResultRepository extends JpaRepository<TestResult, Long> {
             @Param("student") User student,
             @Param("completed") boolean completed);
 
+    // Попытка под блокировкой строки: отправка и завершение по дедлайну (completeIfOpen) идут строго по очереди
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT tr FROM TestResult tr WHERE tr.id = :id")
+    Optional<TestResult> findByIdForUpdate(@Param("id") Long id);
+
     @Query("SELECT tr FROM TestResult tr WHERE tr.student.id = :studentId AND tr.test.subject.id = :subjectId AND tr.completed = true")
     List<TestResult> findByStudentIdAndTestSubjectId(Long studentId, Long subjectId);
 
     // Найти все результаты тестов для конкретного класса
+    @EntityGraph("TestResult.statistics")
     @Query("SELECT tr FROM TestResult tr WHERE tr.student.grade.id = :gradeId AND tr.completed = true")
     List<TestResult> findByStudentGradeId(Long gradeId);
 
@@ -56,6 +104,7 @@ public interface TestResultRepository extends JpaRepository<TestResult, Long> {
     List<TestResult> findByTestIdAndCompleted(Long testId, boolean completed);
 
     // Найти все попытки конкретного ученика по конкретному тесту
+    @EntityGraph("TestResult.statistics")
     List<TestResult> findByStudentIdAndTestId(Long studentId, Long testId);
 
 
@@ -97,9 +146,44 @@ public interface TestResultRepository extends JpaRepository<TestResult, Long> {
     List<TestResult> findBySuccessPercentageGreaterThanEqual(@Param("percentage") Integer percentage);
 
     // Найти все результаты по ID теста
+    @EntityGraph("TestResult.statistics")
     @Query("SELECT tr FROM TestResult tr WHERE tr.test.id = :testId")
     List<TestResult> findByTestId(@Param("testId") Long testId);
 
+    @EntityGraph("TestResult.statistics")
     @Query("SELECT tr FROM TestResult tr WHERE tr.student.id = :studentId")
     List<TestResult> findByStudentId(@Param("studentId") Long studentId);
+
+    // Незавершённые попытки с их дедлайнами - для восстановления таймеров после перезапуска
+    @Query("SELECT new org.ineydlis.schooltest.dto.OpenAttemptDto(tr.id, t.id, st.id, tr.startedAt, t.timeLimit) " +
+            "FROM TestResult tr JOIN tr.test t JOIN tr.student st WHERE tr.completed = false")
+    List<OpenAttemptDto> findOpenAttempts();
+
+    // Удаление всех попыток теста четырьмя запросами вместо запроса на каждую попытку и каждый ответ.
+    // Порядок важен: сначала строки, которые ссылаются на test_results
+    @Modifying(flushAutomatically = true)
+    @Query(value = "DELETE FROM student_answer_choices WHERE student_answer_id IN (SELECT sa.id FROM student_answers sa " +
+            "JOIN test_results tr ON tr.id = sa.test_result_id WHERE tr.test_id = :testId)", nativeQuery = true)
+    int deleteAnswerChoicesByTestId(@Param("testId") Long testId);
+
+    @Modifying
+    @Query(value = "DELETE FROM student_answers WHERE test_result_id IN " +
+            "(SELECT tr.id FROM test_results tr WHERE tr.test_id = :testId)", nativeQuery = true)
+    int deleteStudentAnswersByTestId(@Param("testId") Long testId);
+
+    @Modifying
+    @Query(value = "DELETE FROM test_result_selected_questions WHERE test_result_id IN " +
+            "(SELECT tr.id FROM test_results tr WHERE tr.test_id = :testId)", nativeQuery = true)
+    int deleteSelectedQuestionsByTestId(@Param("testId") Long testId);
+
+    @Modifying
+    @Query(value = "DELETE FROM test_results WHERE test_id = :testId", nativeQuery = true)
+    int deleteAllByTestId(@Param("testId") Long testId);
+
+    // Завершает попытку, только если её ещё не отправили: submitTest держит блокировку строки
+    // (findByIdForUpdate) до конца транзакции, поэтому завершается ровно один из двух
+    @Modifying(clearAutomatically = true)
+    @Query("UPDATE TestResult tr SET tr.completed = true, tr.completedAt = :completedAt, tr.score = 0 " +
+            "WHERE tr.id = :id AND tr.completed = false")
+    int completeIfOpen(@Param("id") Long id, @Param("completedAt") LocalDateTime completedAt);
 }
@@ -2,9 +2,15 @@ package org.ineydlis.schooltest.repository;
 
 import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.model.UserRole;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,7 +18,36 @@ import java.util.Optional;
 public interface UserRepository extends JpaRepository<User, Long> {
     Optional<User> findByUsername(String username);
     Optional<User> findByToken(String token);
+
+    // Вход: класс, предметы и классы учителя нужны для ответа, а сессии после проверки пароля уже нет
+    @EntityGraph(attributePaths = {"grade", "subjects", "teachingGrades"})
+    Optional<User> findForLoginByUsername(String username);
     boolean existsByUsername(String username);
     List<User> findByGradeId(Long gradeId);
     List<User> findByRole(UserRole role);
+
+    // Постраничный список пользователей для администратора (keyset по id);
+    // предметы и классы учителей догружаются пачками через default_batch_fetch_size
+    @EntityGraph(attributePaths = "grade")
+    List<User> findByOrderByIdAsc(Pageable pageable);
+
+    @EntityGraph(attributePaths = "grade")
+    List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
+
+    // Какие из логинов уже заняты - одним запросом на пачку импорта
+    @Query("select u.username from User u where u.username in :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
+
+    // Узкие обновления при входе и выходе: без перезаписи всей строки users и её связей
+    @Modifying
+    @Query("update User u set u.token = :token where u.id = :id")
+    int updateToken(@Param("id") Long id, @Param("token") String token);
+
+    @Modifying
+    @Query("update User u set u.password = :password where u.id = :id")
+    int updatePassword(@Param("id") Long id, @Param("password") String password);
+
+    @Modifying
+    @Query("update User u set u.token = null where u.token = :token")
+    int clearToken(@Param("token") String token);
 }
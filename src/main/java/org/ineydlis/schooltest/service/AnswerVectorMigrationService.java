@@ -0,0 +1,136 @@
+package org.ineydlis.schooltest.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ineydlis.schooltest.util.AnswerVectorCodec;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Перенос ответов завершённых попыток из строк student_answers / student_answer_choices
+ * в test_results.answer_vector ({@link AnswerVectorCodec}). Попытки обрабатываются пачками
+ * по app.answers.migration-batch-size в порядке id; каждая пачка - своя транзакция:
+ * вектор записывается, строки удаляются. Повторный запуск продолжает с оставшихся попыток.
+ */
+@Slf4j
+@Service
+public class AnswerVectorMigrationService {
+
+    private static final String NEXT_RESULTS =
+            "select tr.id from test_results tr where tr.answer_vector is null and tr.id > ? " +
+                    "and exists (select 1 from student_answers sa where sa.test_result_id = tr.id) " +
+                    "order by tr.id limit ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+    private final boolean enabled;
+
+    /**
+     * @param results попыток переведено в этом запуске
+     * @param answers строк student_answers перенесено и удалено
+     * @param done    строковых ответов больше не осталось
+     */
+    public record Report(int results, int answers, boolean done) {
+    }
+
+    private record Row(long id, long resultId, long questionId, boolean correct, int earnedPoints, String text) {
+    }
+
+    @Autowired
+    public AnswerVectorMigrationService(JdbcTemplate jdbcTemplate,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${app.answers.migration-batch-size:500}") int batchSize,
+                                        @Value("${app.answers.vector-storage:false}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Переводит не больше maxBatches пачек попыток
+     */
+    public Report migrate(int maxBatches) {
+        // Перенос необратим: без включённого хранения векторами строки не трогаем
+        if (!enabled) {
+            throw new RuntimeException("Хранение ответов векторами выключено (app.answers.vector-storage=false)");
+        }
+        int results = 0;
+        int answers = 0;
+        long lastId = 0;
+        for (int batch = 0; batch < maxBatches; batch++) {
+            List<Long> resultIds = jdbcTemplate.queryForList(NEXT_RESULTS, Long.class, lastId, batchSize);
+            if (resultIds.isEmpty()) {
+                log.info("Перенос ответов в answer_vector: попыток {}, строк {}, строковых ответов не осталось", results, answers);
+                return new Report(results, answers, true);
+            }
+            Integer migrated = transactionTemplate.execute(status -> migrateBatch(resultIds));
+            results += resultIds.size();
+            answers += migrated != null ? migrated : 0;
+            lastId = resultIds.get(resultIds.size() - 1);
+        }
+        boolean done = jdbcTemplate.queryForList(NEXT_RESULTS, Long.class, lastId, 1).isEmpty();
+        log.info("Перенос ответов в answer_vector: попыток {}, строк {}", results, answers);
+        return new Report(results, answers, done);
+    }
+
+    private int migrateBatch(List<Long> resultIds) {
+        String in = String.join(",", Collections.nCopies(resultIds.size(), "?"));
+        Object[] ids = resultIds.toArray();
+
+        List<Row> rows = jdbcTemplate.query(
+                "select sa.id, sa.test_result_id, sa.question_id, sa.is_correct, sa.earned_points, sa.text_answer " +
+                        "from student_answers sa where sa.test_result_id in (" + in + ") order by sa.test_result_id, sa.id",
+                (rs, i) -> new Row(rs.getLong(1), rs.getLong(2), rs.getLong(3), rs.getBoolean(4), rs.getInt(5), rs.getString(6)),
+                ids);
+
+        Map<Long, Set<Long>> choices = new HashMap<>();
+        jdbcTemplate.query(
+                "select sac.student_answer_id, sac.answer_id from student_answer_choices sac " +
+                        "join student_answers sa on sa.id = sac.student_answer_id where sa.test_result_id in (" + in + ")",
+                rs -> {
+                    choices.computeIfAbsent(rs.getLong(1), id -> new HashSet<>()).add(rs.getLong(2));
+                },
+                ids);
+
+        // Позиции в маске - варианты вопроса по возрастанию id, как в TestSnapshot.QuestionSnapshot.optionIds
+        Map<Long, List<Long>> options = new HashMap<>();
+        jdbcTemplate.query(
+                "select a.question_id, a.id from answers a where a.question_id in " +
+                        "(select sa.question_id from student_answers sa where sa.test_result_id in (" + in + ")) order by a.id",
+                rs -> {
+                    options.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(rs.getLong(2));
+                },
+                ids);
+
+        Map<Long, List<AnswerVectorCodec.Entry>> entries = new LinkedHashMap<>();
+        for (Row row : rows) {
+            BitSet selected = AnswerVectorCodec.toMask(options.getOrDefault(row.questionId(), List.of()),
+                    choices.getOrDefault(row.id(), Set.of()));
+            entries.computeIfAbsent(row.resultId(), id -> new ArrayList<>())
+                    .add(new AnswerVectorCodec.Entry(row.questionId(), row.correct(), row.earnedPoints(), row.text(), selected));
+        }
+
+        List<Object[]> updates = new ArrayList<>(entries.size());
+        entries.forEach((resultId, resultEntries) -> updates.add(new Object[]{AnswerVectorCodec.encode(resultEntries), resultId}));
+        jdbcTemplate.batchUpdate("update test_results set answer_vector = ? where id = ?", updates);
+
+        jdbcTemplate.update("delete from student_answer_choices where student_answer_id in " +
+                "(select sa.id from student_answers sa where sa.test_result_id in (" + in + "))", ids);
+        return jdbcTemplate.update("delete from student_answers where test_result_id in (" + in + ")", ids);
+    }
+}
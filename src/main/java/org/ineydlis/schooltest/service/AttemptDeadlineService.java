@@ -0,0 +1,248 @@
+package org.ineydlis.schooltest.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.ineydlis.schooltest.dto.OpenAttemptDto;
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.repository.TestResultRepository;
+import org.ineydlis.schooltest.util.HashedTimingWheel;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Серверные дедлайны попыток. Все открытые попытки лежат в одном {@link HashedTimingWheel},
+ * который крутит единственный поток; сработавшие таймеры обрабатывает небольшой пул.
+ * <p>
+ * В момент дедлайна ученику уходит событие time-up, и клиент сам отправляет собранные ответы.
+ * Если за app.deadline.grace-seconds ответы не пришли (вкладка закрыта, сеть пропала),
+ * попытка завершается на сервере с временем завершения, равным дедлайну.
+ * <p>
+ * События ученику отправляет отдельный ограниченный пул: зависшее соединение не задерживает ни отправку
+ * ответов, ни завершение попыток по времени. Если очередь пула переполнена, поток ученика закрывается -
+ * клиент переподключится и получит актуальное оставшееся время.
+ */
+@Slf4j
+@Service
+public class AttemptDeadlineService {
+
+    private final TestService testService;
+    private final TestResultRepository testResultRepository;
+    private final HashedTimingWheel<Long> wheel;
+    private final Map<Long, OpenAttemptDto> openAttempts = new ConcurrentHashMap<>();
+    private final Map<Long, SseEmitter> subscribers = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService workers;
+    private final ThreadPoolExecutor senders;
+    private final long graceMillis;
+    private final long streamTimeoutMs;
+
+    @Autowired
+    public AttemptDeadlineService(TestService testService,
+                                  TestResultRepository testResultRepository,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.deadline.tick-ms:1000}") long tickMillis,
+                                  @Value("${app.deadline.wheel-size:512}") int wheelSize,
+                                  @Value("${app.deadline.grace-seconds:30}") long graceSeconds,
+                                  @Value("${app.deadline.workers:2}") int workers,
+                                  @Value("${app.deadline.senders:2}") int senders,
+                                  @Value("${app.deadline.send-queue-capacity:1000}") int sendQueueCapacity,
+                                  @Value("${app.progress-stream.timeout-ms:1800000}") long streamTimeoutMs) {
+        this.testService = testService;
+        this.testResultRepository = testResultRepository;
+        this.wheel = new HashedTimingWheel<>(tickMillis, wheelSize);
+        this.graceMillis = TimeUnit.SECONDS.toMillis(graceSeconds);
+        this.streamTimeoutMs = streamTimeoutMs;
+        this.workers = Executors.newFixedThreadPool(workers, Thread.ofPlatform().name("attempt-deadline-", 0).factory());
+        this.senders = new ThreadPoolExecutor(senders, senders, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(sendQueueCapacity),
+                Thread.ofPlatform().name("attempt-deadline-stream-", 0).daemon().factory());
+        this.ticker = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("attempt-deadline-wheel").daemon().factory());
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+        Gauge.builder("schooltest.attempts.open", openAttempts, Map::size)
+                .description("Незавершённых попыток под контролем времени")
+                .register(meterRegistry);
+    }
+
+    // После перезапуска таймеры восстанавливаются из базы; просроченные сработают на первом тике
+    @EventListener(ApplicationReadyEvent.class)
+    public void restoreOpenAttempts() {
+        testResultRepository.findOpenAttempts().forEach(this::track);
+        log.info("Восстановлено таймеров незавершённых попыток: {}", openAttempts.size());
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAttemptEvent(AttemptEvent event) {
+        TestResultDto result = event.result();
+        if (event.type() == AttemptEvent.Type.STARTED) {
+            if (result.getDeadlineAt() != null) {
+                track(new OpenAttemptDto(result.getId(), result.getTestId(), result.getStudentId(), result.getDeadlineAt()));
+            }
+            return;
+        }
+
+        openAttempts.remove(result.getId());
+        wheel.cancel(result.getId());
+        SseEmitter emitter = subscribers.remove(result.getId());
+        if (emitter != null) {
+            dispatch(result.getId(), emitter, () -> {
+                send(result.getId(), emitter, SseEmitter.event()
+                        .name("finished")
+                        .data(Map.of("type", event.type().name(), "resultId", result.getId()), MediaType.APPLICATION_JSON));
+                emitter.complete();
+            });
+        }
+    }
+
+    /**
+     * Поток оставшегося времени для ученика: remaining при подключении и раз в app.deadline.sync-interval-ms,
+     * time-up в момент дедлайна, finished после завершения попытки
+     */
+    public SseEmitter subscribe(Long resultId, Long studentId) {
+        OpenAttemptDto attempt = openAttempts.get(resultId);
+        if (attempt == null) {
+            throw new RuntimeException("Попытка не найдена или уже завершена");
+        }
+        if (!attempt.studentId().equals(studentId)) {
+            throw new RuntimeException("У вас нет доступа к этому тесту");
+        }
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        // Одна вкладка на попытку: новое подключение вытесняет старое
+        SseEmitter previous = subscribers.put(resultId, emitter);
+        if (previous != null) {
+            previous.complete();
+        }
+        Runnable remove = () -> subscribers.remove(resultId, emitter);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        sendRemaining(resultId, emitter, attempt);
+        return emitter;
+    }
+
+    // Поправка клиентского таймера по серверным часам, заодно keep-alive для прокси
+    @Scheduled(fixedDelayString = "${app.deadline.sync-interval-ms:30000}")
+    public void syncRemainingTime() {
+        subscribers.forEach((resultId, emitter) -> {
+            OpenAttemptDto attempt = openAttempts.get(resultId);
+            if (attempt != null) {
+                sendRemaining(resultId, emitter, attempt);
+            }
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ticker.shutdownNow();
+        workers.shutdown();
+        senders.shutdownNow();
+        subscribers.values().forEach(SseEmitter::complete);
+        subscribers.clear();
+    }
+
+    private void track(OpenAttemptDto attempt) {
+        openAttempts.put(attempt.resultId(), attempt);
+        wheel.schedule(attempt.resultId(), toMillis(attempt.deadline()));
+    }
+
+    private void tick() {
+        // Исключение остановило бы scheduleAtFixedRate, поэтому ловим всё
+        try {
+            for (Long resultId : wheel.advance(System.currentTimeMillis())) {
+                workers.execute(() -> fire(resultId));
+            }
+        } catch (RuntimeException e) {
+            log.error("Ошибка на тике колеса дедлайнов", e);
+        }
+    }
+
+    private void fire(Long resultId) {
+        OpenAttemptDto attempt = openAttempts.get(resultId);
+        if (attempt == null) {
+            return;
+        }
+
+        long finalizeAt = toMillis(attempt.deadline()) + graceMillis;
+        if (System.currentTimeMillis() < finalizeAt) {
+            SseEmitter emitter = subscribers.get(resultId);
+            if (emitter != null) {
+                dispatch(resultId, emitter, () -> send(resultId, emitter, SseEmitter.event()
+                        .name("time-up")
+                        .data(Map.of("graceSeconds", TimeUnit.MILLISECONDS.toSeconds(graceMillis)),
+                                MediaType.APPLICATION_JSON)));
+            }
+            wheel.schedule(resultId, finalizeAt);
+            return;
+        }
+
+        try {
+            // Удачное завершение публикует EXPIRED, и onAttemptEvent снимает попытку с учёта
+            if (testService.expireAttempt(resultId, attempt.deadline()).isEmpty()) {
+                openAttempts.remove(resultId);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Не удалось завершить попытку {} по времени, повтор через {} мс", resultId, graceMillis, e);
+            wheel.schedule(resultId, System.currentTimeMillis() + graceMillis);
+        }
+    }
+
+    private void sendRemaining(Long resultId, SseEmitter emitter, OpenAttemptDto attempt) {
+        dispatch(resultId, emitter, () -> {
+            // Оставшееся время считается в момент отправки, а не постановки в очередь
+            long remainingSeconds = Math.max(0, LocalDateTime.now().until(attempt.deadline(), ChronoUnit.SECONDS));
+            send(resultId, emitter, SseEmitter.event()
+                    .name("remaining")
+                    .data(Map.of("remainingSeconds", remainingSeconds, "deadlineAt", attempt.deadline()),
+                            MediaType.APPLICATION_JSON));
+        });
+    }
+
+    private void dispatch(Long resultId, SseEmitter emitter, Runnable send) {
+        try {
+            senders.execute(send);
+        } catch (RejectedExecutionException e) {
+            log.debug("Очередь отправки событий переполнена, поток попытки {} закрыт", resultId);
+            subscribers.remove(resultId, emitter);
+            emitter.complete();
+        }
+    }
+
+    private void send(Long resultId, SseEmitter emitter, SseEmitter.SseEventBuilder event) {
+        try {
+            emitter.send(event);
+        } catch (IOException | IllegalStateException e) {
+            log.debug("Подписчик таймера попытки {} отключился: {}", resultId, e.getMessage());
+            subscribers.remove(resultId, emitter);
+        }
+    }
+
+    private static long toMillis(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
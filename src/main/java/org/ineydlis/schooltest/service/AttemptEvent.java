@@ -0,0 +1,21 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.dto.TestResultDto;
+
+/**
+ * Событие жизненного цикла попытки, публикуемое сервисами через ApplicationEventPublisher.
+ * Несёт уже собранный DTO и класс ученика, чтобы слушатели не обращались к базе.
+ */
+public record AttemptEvent(Type type, TestResultDto result, Long gradeId) {
+
+    public enum Type {
+        STARTED,
+        SUBMITTED,
+        // Завершена сервером по истечении времени, ответы не пришли
+        EXPIRED
+    }
+
+    public Long testId() {
+        return result.getTestId();
+    }
+}
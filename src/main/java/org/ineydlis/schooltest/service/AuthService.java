@@ -1,5 +1,6 @@
 package org.ineydlis.schooltest.service;
 
+import io.micrometer.core.annotation.Timed;
 import org.ineydlis.schooltest.dto.LoginRequest;
 import org.ineydlis.schooltest.dto.LoginResponse;
 import org.ineydlis.schooltest.dto.UserDto;
@@ -13,7 +14,9 @@ import org.ineydlis.schooltest.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.time.LocalDateTime;
 import java.util.*;
@@ -28,21 +31,46 @@ public class AuthService {
     @Autowired
     private PasswordEncoder passwordEncoder;
 
-    @Transactional
-    public LoginResponse login(LoginRequest request) {
-        Optional<User> userOpt = userRepository.findByUsername(request.getUsername());
+    @Autowired
+    private PasswordHasher passwordHasher;
+
+    @Autowired
+    private LoginActivityBuffer loginActivityBuffer;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public void setTransactionManager(PlatformTransactionManager transactionManager) {
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
 
-        if (userOpt.isEmpty() || !passwordEncoder.matches(request.getPassword(), userOpt.get().getPassword())) {
+    /**
+     * Пароль проверяется вне транзакции, на пуле {@link PasswordHasher}: ожидание очереди BCrypt
+     * не держит соединение с базой. Затем токен записывается одним узким UPDATE,
+     * а время входа - отложенно, пакетом через {@link LoginActivityBuffer}.
+     */
+    @Timed(value = "schooltest.auth.login", description = "Вход по логину и паролю")
+    public LoginResponse login(LoginRequest request) {
+        Optional<User> userOpt = userRepository.findForLoginByUsername(request.getUsername());
+        if (userOpt.isEmpty()) {
             throw new RuntimeException("Неверное имя пользователя или пароль");
         }
 
         User user = userOpt.get();
+        PasswordHasher.Verification verification = passwordHasher.verify(request.getPassword(), user.getPassword());
+        if (!verification.matches()) {
+            throw new RuntimeException("Неверное имя пользователя или пароль");
+        }
 
         // Генерируем уникальный токен
         String token = UUID.randomUUID().toString();
-        user.setToken(token);
-        user.setLastLogin(LocalDateTime.now());
-        userRepository.save(user);
+        transactionTemplate.executeWithoutResult(status -> {
+            userRepository.updateToken(user.getId(), token);
+            if (verification.upgradedHash() != null) {
+                userRepository.updatePassword(user.getId(), verification.upgradedHash());
+            }
+        });
+        loginActivityBuffer.recordLogin(user.getId(), LocalDateTime.now());
 
         // Создаем базовый ответ
         LoginResponse.LoginResponseBuilder responseBuilder = LoginResponse.builder()
@@ -52,6 +80,7 @@ public class AuthService {
                 .fullName(user.getFullName())
                 .role(user.getRole().name())
                 .profileImageUrl(user.getProfileImagePath() != null ? user.getProfileImagePath() : "")
+                .profileThumbnailUrl(user.getProfileImagePath() != null ? ThumbnailService.thumbnailUrl(user.getProfileImagePath()) : "")
                 .email(user.getEmail());
 
         // Добавляем информацию в зависимости от роли пользователя
@@ -80,19 +109,14 @@ public class AuthService {
         return responseBuilder.build();
     }
 
+    @Timed(value = "schooltest.auth.token", description = "Поиск пользователя по токену")
     public Optional<User> findByToken(String token) {
         return userRepository.findByToken(token);
     }
 
     @Transactional
     public void logout(String token) {
-        Optional<User> userOpt = userRepository.findByToken(token);
-
-        if (userOpt.isPresent()) {
-            User user = userOpt.get();
-            user.setToken(null);
-            userRepository.save(user);
-        }
+        userRepository.clearToken(token);
     }
 
     public User getCurrentUser(String token) {
@@ -0,0 +1,283 @@
+package org.ineydlis.schooltest.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ineydlis.schooltest.repository.BlobRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Хранилище загруженных файлов по содержимому: файл лежит под своим SHA-256 (blobs/ab/abcd...),
+ * поэтому один и тот же учебник, загруженный в десятки тестов, хранится на диске один раз.
+ * <p>
+ * Загрузка пишется во временный файл с подсчётом хэша и атомарно переносится на место.
+ * Ссылки считаются в таблице blobs ({@link #acquire}/{@link #release}); файлы без ссылок
+ * удаляет фоновый сборщик, но не раньше app.blobs.gc-grace-minutes после последнего изменения
+ * и файла, и счётчика. Строки удаляемых файлов сборщик держит заблокированными, поэтому
+ * параллельный acquire либо успевает раньше, либо ждёт и создаёт строку заново.
+ * Производные файлы (миниатюры) лежат в derived/ и удаляются вместе с исходным.
+ */
+@Slf4j
+@Service
+public class BlobStore {
+
+    private static final Pattern KEY = Pattern.compile("[0-9a-f]{64}");
+    private static final String TMP_DIR = "tmp";
+    private static final String DERIVED_DIR = "derived";
+    private static final int GC_BATCH = 500;
+
+    public record StoredBlob(String hash, long size) {
+    }
+
+    private final BlobRepository blobRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Path root;
+    private final long gcGraceMillis;
+
+    @Autowired
+    public BlobStore(BlobRepository blobRepository,
+                     PlatformTransactionManager transactionManager,
+                     @Value("${app.blobs.dir:${app.upload.dir:${user.home}/uploads}/blobs}") String dir,
+                     @Value("${app.blobs.gc-grace-minutes:60}") long gcGraceMinutes) {
+        this.blobRepository = blobRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.root = Paths.get(dir).toAbsolutePath();
+        this.gcGraceMillis = TimeUnit.MINUTES.toMillis(gcGraceMinutes);
+    }
+
+    /**
+     * true, если значение - ключ хранилища, а не имя файла в старой схеме хранения
+     */
+    public static boolean isKey(String value) {
+        return value != null && KEY.matcher(value).matches();
+    }
+
+    /**
+     * Ключ из имени файла вида hash.ext, иначе null
+     */
+    public static String keyFromFilename(String filename) {
+        int dot = filename.indexOf('.');
+        String name = dot >= 0 ? filename.substring(0, dot) : filename;
+        return isKey(name) ? name : null;
+    }
+
+    public Path pathOf(String hash) {
+        return root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Производный от блоба файл, например миниатюра: variant различает виды производных файлов
+     */
+    public Path derivedPathOf(String hash, String variant) {
+        return root.resolve(DERIVED_DIR).resolve(hash.substring(0, 2)).resolve(hash + "-" + variant);
+    }
+
+    /**
+     * Атомарно кладёт производный файл на место: читатели видят либо старую версию, либо готовую новую
+     */
+    public void storeDerived(String hash, String variant, byte[] content) throws IOException {
+        Path target = derivedPathOf(hash, variant);
+        Files.createDirectories(target.getParent());
+        Path temp = createTempFile();
+        try {
+            Files.write(temp, content);
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Сохраняет содержимое потока. Ссылку на файл нужно затем взять через {@link #acquire}
+     * в той же транзакции, что и запись ключа в сущность.
+     */
+    public StoredBlob store(InputStream in) throws IOException {
+        Path temp = createTempFile();
+        try {
+            MessageDigest digest = sha256();
+            long size;
+            try (InputStream hashing = new DigestInputStream(in, digest)) {
+                size = Files.copy(hashing, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return commit(temp, HexFormat.of().formatHex(digest.digest()), size);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Берёт ссылку на файл. Первая загрузка файла создаёт строку учёта; одновременные первые
+     * загрузки одного файла не теряют ссылок и не падают на первичном ключе
+     */
+    @Transactional
+    public void acquire(StoredBlob blob) {
+        LocalDateTime now = LocalDateTime.now();
+        blobRepository.insertIfAbsent(blob.hash(), blob.size(), now);
+        blobRepository.incrementRefCount(blob.hash(), now);
+    }
+
+    @Transactional
+    public void release(String hash) {
+        if (isKey(hash)) {
+            blobRepository.decrementRefCount(hash, LocalDateTime.now());
+        }
+    }
+
+    /**
+     * Удаляет файлы без ссылок и брошенные временные файлы старше app.blobs.gc-grace-minutes
+     */
+    @Scheduled(initialDelayString = "${app.blobs.gc-interval-ms:3600000}",
+            fixedDelayString = "${app.blobs.gc-interval-ms:3600000}")
+    public void collectGarbage() {
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        long cutoff = System.currentTimeMillis() - gcGraceMillis;
+        Map<String, Path> candidates = new HashMap<>();
+        int removed = 0;
+        try (Stream<Path> files = Files.walk(root, 2)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (!Files.isRegularFile(file) || Files.getLastModifiedTime(file).toMillis() >= cutoff) {
+                    continue;
+                }
+                if (file.getParent().getFileName().toString().equals(TMP_DIR)) {
+                    Files.deleteIfExists(file);
+                } else if (isKey(file.getFileName().toString())) {
+                    candidates.put(file.getFileName().toString(), file);
+                }
+                if (candidates.size() >= GC_BATCH) {
+                    removed += collect(candidates);
+                    candidates.clear();
+                }
+            }
+            removed += collect(candidates);
+        } catch (IOException e) {
+            log.warn("Сборка мусора в хранилище файлов прервана", e);
+        }
+        if (removed > 0) {
+            log.info("Удалено файлов без ссылок из хранилища: {}", removed);
+        }
+    }
+
+    private int collect(Map<String, Path> candidates) {
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        long cutoffMillis = System.currentTimeMillis() - gcGraceMillis;
+        LocalDateTime cutoff = LocalDateTime.now().minus(Duration.ofMillis(gcGraceMillis));
+        Integer removed = transactionTemplate.execute(status -> {
+            // Файлы без строки учёта (загрузка так и не прикрепилась) и строки без ссылок, освободившиеся давно
+            Set<String> collectable = new HashSet<>(candidates.keySet());
+            blobRepository.findKnown(candidates.keySet()).forEach(collectable::remove);
+            collectable.addAll(blobRepository.lockUnreferenced(candidates.keySet(), cutoff));
+
+            List<String> deleted = new ArrayList<>(collectable.size());
+            for (String hash : collectable) {
+                if (deleteIfStale(hash, candidates.get(hash), cutoffMillis)) {
+                    deleted.add(hash);
+                }
+            }
+            if (!deleted.isEmpty()) {
+                blobRepository.deleteUnreferenced(deleted);
+            }
+            return deleted.size();
+        });
+        return removed != null ? removed : 0;
+    }
+
+    /**
+     * Удаляет файл, если его не трогали после cutoff: повторная загрузка того же содержимого обновляет
+     * время изменения ({@link #commit}), и такой файл сейчас получит ссылку
+     */
+    private boolean deleteIfStale(String hash, Path file, long cutoffMillis) {
+        try {
+            if (Files.exists(file) && Files.getLastModifiedTime(file).toMillis() >= cutoffMillis) {
+                return false;
+            }
+            Files.deleteIfExists(file);
+            deleteDerived(hash);
+            return true;
+        } catch (IOException e) {
+            log.warn("Не удалось удалить файл {} из хранилища", file, e);
+            return false;
+        }
+    }
+
+    private void deleteDerived(String hash) throws IOException {
+        Path dir = root.resolve(DERIVED_DIR).resolve(hash.substring(0, 2));
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        try (DirectoryStream<Path> derived = Files.newDirectoryStream(dir, hash + "-*")) {
+            for (Path file : derived) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    /**
+     * Временный файл в каталоге хранилища: перенос на место через {@link #commit} не копирует данные
+     */
+    Path createTempFile() throws IOException {
+        Path tmp = root.resolve(TMP_DIR);
+        Files.createDirectories(tmp);
+        return Files.createTempFile(tmp, "upload-", ".part");
+    }
+
+    /**
+     * Переносит полностью записанный временный файл под его хэш
+     */
+    StoredBlob commit(Path temp, String hash, long size) throws IOException {
+        Path target = pathOf(hash);
+        if (Files.exists(target)) {
+            // Такой файл уже есть: свежее время изменения защищает его от сборщика до взятия ссылки
+            Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+        } else {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileAlreadyExistsException e) {
+                // Тот же файл параллельно загрузил кто-то ещё - содержимое совпадает
+                Files.setLastModifiedTime(target, FileTime.fromMillis(System.currentTimeMillis()));
+            }
+        }
+        return new StoredBlob(hash, size);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
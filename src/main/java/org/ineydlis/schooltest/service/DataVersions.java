@@ -0,0 +1,117 @@
+package org.ineydlis.schooltest.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Счётчики версий данных для ETag: вместо хэширования тела ответа сравниваются номера версий
+ * каталога тестов и результатов (всех, по тесту, по ученику, по классу).
+ * <p>
+ * Счётчики живут в памяти; эпоха запуска в ETag делает недействительными теги, выданные до перезапуска.
+ * Версия увеличивается после коммита, а ETag не выдаётся, пока с изменения не прошло время
+ * допустимого отставания реплики: иначе ответ, прочитанный со старой реплики, закэшировался бы под новой версией.
+ */
+@Service
+public class DataVersions {
+
+    public enum Scope {
+        // Тесты, вопросы, пользователи, классы - всё, что меняет состав и подписи отчётов
+        CATALOG,
+        ALL_RESULTS,
+        TEST_RESULTS,
+        STUDENT_RESULTS,
+        GRADE_RESULTS
+    }
+
+    private record Key(Scope scope, Long id) {
+    }
+
+    private record Version(long number, long changedAtMillis) {
+    }
+
+    private static final Long GLOBAL = 0L;
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<Key, Version> versions = new ConcurrentHashMap<>();
+    private final long settleMillis;
+
+    public DataVersions(@Value("${app.datasource.replica.max-lag-seconds:5}") long maxReplicaLagSeconds) {
+        this.settleMillis = TimeUnit.SECONDS.toMillis(maxReplicaLagSeconds);
+    }
+
+    public void bump(Scope scope) {
+        bump(scope, GLOBAL);
+    }
+
+    /**
+     * Увеличивает версию после коммита текущей транзакции (или сразу, если транзакции нет)
+     */
+    public void bump(Scope scope, Long id) {
+        if (id == null) {
+            return;
+        }
+        Key key = new Key(scope, id);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    increment(key);
+                }
+            });
+        } else {
+            increment(key);
+        }
+    }
+
+    /**
+     * ETag представления для пользователя: эпоха, версия каталога и версия области scope/id.
+     *
+     * @return null, если данные менялись слишком недавно и ответ пока нельзя кэшировать
+     */
+    public String etag(Long userId, Scope scope, Long id) {
+        Long scopeId = id != null ? id : GLOBAL;
+        Version catalog = versions.get(new Key(Scope.CATALOG, GLOBAL));
+        Version scoped = scope == Scope.CATALOG ? null : versions.get(new Key(scope, scopeId));
+        long now = System.currentTimeMillis();
+        if (isSettling(catalog, now) || isSettling(scoped, now)) {
+            return null;
+        }
+        return "W/\"" + epoch + "-" + numberOf(catalog) + "-" + scope.ordinal() + "." + scopeId + "." + numberOf(scoped)
+                + "-u" + userId + "\"";
+    }
+
+    // Уже после коммита: регистрировать синхронизацию поздно, увеличиваем сразу
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAttemptEvent(AttemptEvent event) {
+        // Начало попытки меняет только список тестов самого ученика (оставшиеся попытки)
+        increment(new Key(Scope.STUDENT_RESULTS, event.result().getStudentId()));
+        if (event.type() == AttemptEvent.Type.STARTED) {
+            return;
+        }
+        increment(new Key(Scope.ALL_RESULTS, GLOBAL));
+        increment(new Key(Scope.TEST_RESULTS, event.testId()));
+        if (event.gradeId() != null) {
+            increment(new Key(Scope.GRADE_RESULTS, event.gradeId()));
+        }
+    }
+
+    private void increment(Key key) {
+        long now = System.currentTimeMillis();
+        versions.merge(key, new Version(1, now), (old, ignored) -> new Version(old.number() + 1, now));
+    }
+
+    private boolean isSettling(Version version, long now) {
+        return version != null && now - version.changedAtMillis() < settleMillis;
+    }
+
+    private static long numberOf(Version version) {
+        return version != null ? version.number() : 0;
+    }
+}
@@ -1,5 +1,6 @@
 package org.ineydlis.schooltest.service;
 
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
@@ -13,7 +14,9 @@ import org.ineydlis.schooltest.model.Test;
 import org.ineydlis.schooltest.repository.GradeRepository;
 import org.ineydlis.schooltest.repository.SubjectRepository;
 import org.ineydlis.schooltest.repository.TestRepository;
+import org.ineydlis.schooltest.repository.UserRepository;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -23,6 +26,7 @@ import java.util.List;
 import java.util.Map;
 
 @Service
+@Transactional(readOnly = true)
 @RequiredArgsConstructor
 public class ExcelExportService {
 
@@ -30,14 +34,15 @@ public class ExcelExportService {
     private final TestRepository testRepository;
     private final GradeRepository gradeRepository;
     private final SubjectRepository subjectRepository;
-    private final AuthService authService;
+    private final UserRepository userRepository;
 
     /**
      * Generate a complete Excel workbook with all available statistics
      */
-    public byte[] generateCompleteStatisticsWorkbook(String token) throws IOException {
+    @Timed(value = "schooltest.export", extraTags = {"workbook", "complete"})
+    public byte[] generateCompleteStatisticsWorkbook(Long userId) throws IOException {
         // Validate user permissions (only admin and teachers can export full statistics)
-        if (!isAuthorizedForFullExport(token)) {
+        if (!isAuthorizedForFullExport(userId)) {
             throw new RuntimeException("У вас нет прав для экспорта полной статистики");
         }
 
@@ -48,16 +53,16 @@ public class ExcelExportService {
             CellStyle dateStyle = createDateStyle(workbook);
 
             // Add top students sheet
-            addTopStudentsSheet(workbook, headerStyle, dateStyle, token);
+            addTopStudentsSheet(workbook, headerStyle, dateStyle, userId);
 
             // Add grade statistics sheets
-            addGradeStatisticsSheets(workbook, headerStyle, dateStyle, token);
+            addGradeStatisticsSheets(workbook, headerStyle, dateStyle, userId);
 
             // Add subject statistics sheets
-            addSubjectStatisticsSheets(workbook, headerStyle, dateStyle, token);
+            addSubjectStatisticsSheets(workbook, headerStyle, dateStyle, userId);
 
             // Add test statistics sheets (limiting to avoid too many sheets)
-            addTestStatisticsSheets(workbook, headerStyle, dateStyle, token);
+            addTestStatisticsSheets(workbook, headerStyle, dateStyle, userId);
 
             // Write to byte array
             ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -69,9 +74,10 @@ public class ExcelExportService {
     /**
      * Generate Excel workbook for a specific student
      */
-    public byte[] generateStudentStatisticsWorkbook(String token, Long studentId) throws IOException {
+    @Timed(value = "schooltest.export", extraTags = {"workbook", "student"})
+    public byte[] generateStudentStatisticsWorkbook(Long userId, Long studentId) throws IOException {
         // Validate user permissions
-        if (!statisticsService.canAccessStatistics(token, studentId, StatisticsService.StatisticsAccessType.STUDENT)) {
+        if (!statisticsService.canAccessStatistics(userId, studentId, StatisticsService.StatisticsAccessType.STUDENT)) {
             throw new RuntimeException("У вас нет прав для просмотра статистики этого ученика");
         }
 
@@ -80,7 +86,7 @@ public class ExcelExportService {
             CellStyle dateStyle = createDateStyle(workbook);
 
             // Add student overall performance sheet
-            Map<String, StatisticViewDto> performance = statisticsService.getStudentOverallPerformance(token, studentId);
+            Map<String, StatisticViewDto> performance = statisticsService.getStudentOverallPerformance(userId, studentId);
 
             if (performance.isEmpty()) {
                 // Create an empty sheet if no data
@@ -158,9 +164,10 @@ public class ExcelExportService {
     }
 
     // Helper methods
-    private boolean isAuthorizedForFullExport(String token) {
-        String cleanToken = token.replace("Bearer ", "");
-        var user = authService.getCurrentUser(cleanToken);
+    private boolean isAuthorizedForFullExport(Long userId) {
+        // Пользователь уже проверен по токену в AuthInterceptor; здесь нужна только роль
+        var user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
         return user.getRole().name().equals("ADMIN") || user.getRole().name().equals("TEACHER");
     }
 
@@ -210,8 +217,8 @@ public class ExcelExportService {
         }
     }
 
-    private void addTopStudentsSheet(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, String token) {
-        StatisticViewDto topStudents = statisticsService.getTopStudentsInSchool(token);
+    private void addTopStudentsSheet(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, Long userId) {
+        StatisticViewDto topStudents = statisticsService.getTopStudentsInSchool(userId);
 
         Sheet sheet = workbook.createSheet("Лучшие ученики");
 
@@ -262,12 +269,12 @@ public class ExcelExportService {
         }
     }
 
-    private void addGradeStatisticsSheets(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, String token) {
+    private void addGradeStatisticsSheets(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, Long userId) {
         List<Grade> allGrades = gradeRepository.findAll();
 
         for (Grade grade : allGrades) {
             try {
-                StatisticViewDto gradeStats = statisticsService.getGradeStatistics(token, grade.getId());
+                StatisticViewDto gradeStats = statisticsService.getGradeStatistics(userId, grade.getId());
 
                 if (gradeStats.getUserStats() == null || gradeStats.getUserStats().isEmpty()) {
                     continue; // Skip grades with no data
@@ -325,12 +332,12 @@ public class ExcelExportService {
         }
     }
 
-    private void addSubjectStatisticsSheets(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, String token) {
+    private void addSubjectStatisticsSheets(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, Long userId) {
         List<Subject> allSubjects = subjectRepository.findAll();
 
         for (Subject subject : allSubjects) {
             try {
-                StatisticViewDto subjectStats = statisticsService.getSubjectStatistics(token, subject.getId());
+                StatisticViewDto subjectStats = statisticsService.getSubjectStatistics(userId, subject.getId());
 
                 if (subjectStats.getUserStats() == null || subjectStats.getUserStats().isEmpty()) {
                     continue; // Skip subjects with no data
@@ -390,13 +397,13 @@ public class ExcelExportService {
         }
     }
 
-    private void addTestStatisticsSheets(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, String token) {
+    private void addTestStatisticsSheets(Workbook workbook, CellStyle headerStyle, CellStyle dateStyle, Long userId) {
         // Get most recent 10 tests to avoid too many sheets
         List<Test> recentTests = testRepository.findTop10ByOrderByCreatedAtDesc();
 
         for (Test test : recentTests) {
             try {
-                StatisticViewDto testStats = statisticsService.getTestStatistics(token, test.getId());
+                StatisticViewDto testStats = statisticsService.getTestStatistics(userId, test.getId());
 
                 if (testStats.getUserStats() == null || testStats.getUserStats().isEmpty()) {
                     continue; // Skip tests with no data
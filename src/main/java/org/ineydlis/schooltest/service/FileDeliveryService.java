@@ -0,0 +1,201 @@
+package org.ineydlis.schooltest.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Отдача файлов с диска: ETag/Last-Modified с ответом 304, один диапазон Range (206) для
+ * просмотрщиков PDF, тело через sendfile Tomcat или {@link FileChannel#transferTo}.
+ * Небольшие часто запрашиваемые файлы держатся в LRU-кэше в памяти, пока не изменились на диске.
+ */
+@Service
+public class FileDeliveryService {
+
+    // Атрибуты Tomcat для отдачи файла через sendfile после выхода из сервлета
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private record CachedKey(Path path, long size, long modifiedMillis) {
+    }
+
+    private record ByteRange(long start, long end) {
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    private final long maxCachedFileBytes;
+    private final long maxCacheBytes;
+    private final LinkedHashMap<CachedKey, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+
+    public FileDeliveryService(@Value("${app.files.cache.max-file-bytes:524288}") long maxCachedFileBytes,
+                               @Value("${app.files.cache.max-bytes:33554432}") long maxCacheBytes) {
+        this.maxCachedFileBytes = maxCachedFileBytes;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    /**
+     * Пишет файл в ответ с учётом условных заголовков и Range.
+     *
+     * @param cacheControl значение Cache-Control, например "private, no-cache"
+     */
+    public void serve(HttpServletRequest request, HttpServletResponse response, Path file,
+                      MediaType contentType, String contentDisposition, String cacheControl) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        long size = attributes.size();
+        long modifiedMillis = attributes.lastModifiedTime().toMillis();
+        String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modifiedMillis) + "\"";
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        // Браузер не угадывает тип по содержимому: загруженный пользователем файл не станет страницей
+        response.setHeader("X-Content-Type-Options", "nosniff");
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        // Ставит ETag и Last-Modified и при совпадении с If-None-Match / If-Modified-Since выставляет 304
+        if (new ServletWebRequest(request, response).checkNotModified(etag, modifiedMillis)) {
+            return;
+        }
+
+        ByteRange range = new ByteRange(0, size - 1);
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        if (rangeHeader != null && size > 0 && isCurrent(request.getHeader(HttpHeaders.IF_RANGE), etag)) {
+            range = parseRange(rangeHeader, size);
+            if (range == null) {
+                response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + range.start() + "-" + range.end() + "/" + size);
+        }
+
+        response.setContentType(contentType.toString());
+        if (contentDisposition != null) {
+            response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+        }
+        response.setContentLengthLong(size == 0 ? 0 : range.length());
+        if ("HEAD".equals(request.getMethod()) || size == 0) {
+            return;
+        }
+
+        if (size <= maxCachedFileBytes) {
+            byte[] content = cachedContent(new CachedKey(file, size, modifiedMillis));
+            if (content != null) {
+                response.getOutputStream().write(content, (int) range.start(), (int) range.length());
+                return;
+            }
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            // Tomcat отправит файл сам, ядро копирует страницы кэша прямо в сокет
+            request.setAttribute(SENDFILE_FILENAME, file.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, range.start());
+            request.setAttribute(SENDFILE_END, range.end() + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            OutputStream out = response.getOutputStream();
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = range.start();
+            long remaining = range.length();
+            while (remaining > 0) {
+                long sent = channel.transferTo(position, remaining, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
+                remaining -= sent;
+            }
+            out.flush();
+        }
+    }
+
+    // Без If-Range или с актуальным ETag - отдаём диапазон, иначе файл изменился и нужен целиком
+    private static boolean isCurrent(String ifRange, String etag) {
+        return ifRange == null || ifRange.equals(etag);
+    }
+
+    /**
+     * Разбирает один диапазон bytes=a-b, bytes=a- или bytes=-n.
+     * Несколько диапазонов отдаём целым файлом - просмотрщикам PDF их хватает по одному.
+     *
+     * @return null, если диапазон не попадает в файл
+     */
+    private static ByteRange parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return new ByteRange(0, size - 1);
+        }
+        String spec = header.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return new ByteRange(0, size - 1);
+        }
+        try {
+            String from = spec.substring(0, dash).trim();
+            String to = spec.substring(dash + 1).trim();
+            if (from.isEmpty()) {
+                long suffix = Long.parseLong(to);
+                return suffix <= 0 ? null : new ByteRange(Math.max(0, size - suffix), size - 1);
+            }
+            long start = Long.parseLong(from);
+            long end = to.isEmpty() ? size - 1 : Math.min(Long.parseLong(to), size - 1);
+            return start >= size || start > end ? null : new ByteRange(start, end);
+        } catch (NumberFormatException e) {
+            return new ByteRange(0, size - 1);
+        }
+    }
+
+    // Ключ включает размер и время изменения, поэтому перезаписанный файл просто не найдётся в кэше
+    private byte[] cachedContent(CachedKey key) throws IOException {
+        synchronized (cache) {
+            byte[] content = cache.get(key);
+            if (content != null) {
+                return content;
+            }
+        }
+
+        byte[] content = Files.readAllBytes(key.path());
+        if (content.length != key.size()) {
+            return null;
+        }
+        synchronized (cache) {
+            if (cache.put(key, content) == null) {
+                cachedBytes += content.length;
+            }
+            Iterator<Map.Entry<CachedKey, byte[]>> eldest = cache.entrySet().iterator();
+            while (cachedBytes > maxCacheBytes && eldest.hasNext()) {
+                cachedBytes -= eldest.next().getValue().length;
+                eldest.remove();
+            }
+        }
+        return content;
+    }
+}
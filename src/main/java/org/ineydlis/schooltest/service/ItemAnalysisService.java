@@ -0,0 +1,404 @@
+package org.ineydlis.schooltest.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ineydlis.schooltest.config.WorkloadClass;
+import org.ineydlis.schooltest.dto.AnswerDistributionDto;
+import org.ineydlis.schooltest.dto.AnswerDto;
+import org.ineydlis.schooltest.dto.QuestionStatsDto;
+import org.ineydlis.schooltest.dto.TestSnapshot;
+import org.ineydlis.schooltest.model.AnswerPickCount;
+import org.ineydlis.schooltest.model.QuestionStats;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.ineydlis.schooltest.model.Test;
+import org.ineydlis.schooltest.model.TestResult;
+import org.ineydlis.schooltest.repository.AnswerPickCountRepository;
+import org.ineydlis.schooltest.repository.QuestionStatsRepository;
+import org.ineydlis.schooltest.repository.TestRepository;
+import org.ineydlis.schooltest.util.AnswerVectorCodec;
+import org.ineydlis.schooltest.util.ItemStatistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Анализ вопросов: трудность и различающая способность каждого вопроса ({@link ItemStatistics})
+ * и распределение выбора вариантов. Суммы хранятся в question_stats, счётчики выбора - в answer_pick_counts;
+ * при отправке попытки они обновляются пакетами UPDATE по показанным вопросам и выбранным вариантам -
+ * O(вопросов попытки), без чтения истории ответов.
+ * <p>
+ * {@link #rebuild()} пересчитывает суммы из всех отправленных попыток (закодированных и строковых ответов),
+ * параллельно по тестам на пуле отчётов.
+ */
+@Slf4j
+@Service
+public class ItemAnalysisService {
+
+    private static final String ADD =
+            "update question_stats set attempts = attempts + ?, correct_count = correct_count + ?, " +
+                    "ratio_sum = ratio_sum + ?, rest_sum = rest_sum + ?, rest_square_sum = rest_square_sum + ?, " +
+                    "correct_rest_sum = correct_rest_sum + ? where question_id = ?";
+    private static final String INSERT =
+            "insert into question_stats (question_id, test_id, attempts, correct_count, ratio_sum, rest_sum, " +
+                    "rest_square_sum, correct_rest_sum) values (?, ?, 0, 0, 0, 0, 0, 0) on conflict do nothing";
+    private static final String INSERT_FULL =
+            "insert into question_stats (question_id, test_id, attempts, correct_count, ratio_sum, rest_sum, " +
+                    "rest_square_sum, correct_rest_sum) values (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String ADD_PICKS = "update answer_pick_counts set picks = picks + ? where answer_id = ?";
+    private static final String INSERT_PICKS =
+            "insert into answer_pick_counts (answer_id, question_id, test_id, picks) values (?, ?, ?, 0) on conflict do nothing";
+    private static final String INSERT_PICKS_FULL =
+            "insert into answer_pick_counts (answer_id, question_id, test_id, picks) values (?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final QuestionStatsRepository questionStatsRepository;
+    private final AnswerPickCountRepository answerPickCountRepository;
+    private final TestRepository testRepository;
+    private final TestSnapshotCache testSnapshotCache;
+    private final int rebuildThreads;
+
+    /**
+     * Ответ ученика на вопрос, как он учтён при проверке
+     *
+     * @param selected позиции выбранных вариантов в {@link TestSnapshot.QuestionSnapshot#optionIds()}
+     */
+    public record Outcome(boolean correct, int earnedPoints, BitSet selected) {
+    }
+
+    public record RebuildReport(int tests, int attempts, long millis) {
+    }
+
+    @Autowired
+    public ItemAnalysisService(JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               QuestionStatsRepository questionStatsRepository,
+                               AnswerPickCountRepository answerPickCountRepository,
+                               TestRepository testRepository,
+                               TestSnapshotCache testSnapshotCache,
+                               @Value("${app.item-analysis.rebuild-threads:2}") int rebuildThreads) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.questionStatsRepository = questionStatsRepository;
+        this.answerPickCountRepository = answerPickCountRepository;
+        this.testRepository = testRepository;
+        this.testSnapshotCache = testSnapshotCache;
+        this.rebuildThreads = rebuildThreads;
+    }
+
+    /**
+     * Учитывает отправленную попытку. Вызывается в транзакции отправки: суммы меняются вместе с результатом
+     *
+     * @param shownQuestionIds вопросы попытки; вопрос без ответа считается неправильным
+     * @param answers          ответы по id вопроса
+     */
+    public void record(TestSnapshot snapshot, Collection<Long> shownQuestionIds, Map<Long, Outcome> answers,
+                       int score, int maxScore) {
+        // По возрастанию id: параллельные отправки блокируют строки в одном порядке и не ждут друг друга по кругу
+        Map<Long, ItemStatistics> deltas = new TreeMap<>();
+        Map<Long, Long> picks = new TreeMap<>();
+        accumulate(deltas, picks, snapshot, shownQuestionIds, answers, score, maxScore);
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        List<Long> questionIds = new ArrayList<>(deltas.keySet());
+        int[] updated = jdbcTemplate.batchUpdate(ADD, addArguments(deltas, questionIds));
+
+        // Первая попытка с этими вопросами: создаём строки и повторяем приращение только для них
+        List<Long> missing = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                missing.add(questionIds.get(i));
+            }
+        }
+        if (!missing.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT, missing.stream()
+                    .map(questionId -> new Object[]{questionId, snapshot.testId()})
+                    .toList());
+            jdbcTemplate.batchUpdate(ADD, addArguments(deltas, missing));
+        }
+        recordPicks(snapshot, picks);
+    }
+
+    private void recordPicks(TestSnapshot snapshot, Map<Long, Long> picks) {
+        if (picks.isEmpty()) {
+            return;
+        }
+        List<Long> answerIds = new ArrayList<>(picks.keySet());
+        int[] updated = jdbcTemplate.batchUpdate(ADD_PICKS, answerIds.stream()
+                .map(answerId -> new Object[]{picks.get(answerId), answerId})
+                .toList());
+
+        List<Long> missing = new ArrayList<>();
+        List<Object[]> missingPicks = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                missing.add(answerIds.get(i));
+                missingPicks.add(new Object[]{picks.get(answerIds.get(i)), answerIds.get(i)});
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<Long, Long> questionOfAnswer = questionOfAnswer(snapshot);
+            jdbcTemplate.batchUpdate(INSERT_PICKS, missing.stream()
+                    .map(answerId -> new Object[]{answerId, questionOfAnswer.get(answerId), snapshot.testId()})
+                    .toList());
+            jdbcTemplate.batchUpdate(ADD_PICKS, missingPicks);
+        }
+    }
+
+    /**
+     * Анализ вопросов текущей версии теста в порядке вопросов; права проверяет вызывающий
+     */
+    public List<QuestionStatsDto> getTestItemAnalysis(Long testId) {
+        Test test = testRepository.findById(testId)
+                .orElseThrow(() -> new RuntimeException("Тест не найден"));
+        TestSnapshot snapshot = testSnapshotCache.get(test);
+
+        Map<Long, ItemStatistics> statistics = new HashMap<>();
+        for (QuestionStats stats : questionStatsRepository.findByTestId(testId)) {
+            statistics.put(stats.getQuestionId(), stats.toStatistics());
+        }
+        return snapshot.questionOrder().stream()
+                .map(questionId -> QuestionStatsDto.of(snapshot.questions().get(questionId),
+                        statistics.getOrDefault(questionId, new ItemStatistics())))
+                .toList();
+    }
+
+    /**
+     * Распределение выбора вариантов по вопросам с выбором ответа текущей версии теста; права проверяет вызывающий.
+     * Счётчики и число показов читаются по индексу test_id, без обхода попыток
+     */
+    public List<AnswerDistributionDto> getAnswerDistribution(Long testId) {
+        Test test = testRepository.findById(testId)
+                .orElseThrow(() -> new RuntimeException("Тест не найден"));
+        TestSnapshot snapshot = testSnapshotCache.get(test);
+
+        Map<Long, Long> picks = new HashMap<>();
+        for (AnswerPickCount count : answerPickCountRepository.findByTestId(testId)) {
+            picks.put(count.getAnswerId(), count.getPicks());
+        }
+        Map<Long, Long> attempts = new HashMap<>();
+        for (QuestionStats stats : questionStatsRepository.findByTestId(testId)) {
+            attempts.put(stats.getQuestionId(), stats.getAttempts());
+        }
+
+        List<AnswerDistributionDto> distribution = new ArrayList<>();
+        for (Long questionId : snapshot.questionOrder()) {
+            TestSnapshot.QuestionSnapshot question = snapshot.questions().get(questionId);
+            if (question.type() == QuestionType.TEXT_ANSWER) {
+                continue;
+            }
+            AnswerDistributionDto dto = new AnswerDistributionDto();
+            dto.setQuestionId(questionId);
+            dto.setQuestionText(question.text());
+            dto.setQuestionType(question.type());
+            dto.setAttempts(attempts.getOrDefault(questionId, 0L));
+            for (Long answerId : question.optionIds()) {
+                AnswerDto option = snapshot.options().get(answerId);
+                long count = picks.getOrDefault(answerId, 0L);
+                Double share = dto.getAttempts() > 0 ? Math.round(1000.0 * count / dto.getAttempts()) / 1000.0 : null;
+                dto.getOptions().add(new AnswerDistributionDto.OptionPicks(answerId, option.getText(),
+                        Boolean.TRUE.equals(option.getIsCorrect()), count, share));
+            }
+            distribution.add(dto);
+        }
+        return distribution;
+    }
+
+    public void forgetTest(Long testId) {
+        jdbcTemplate.update("delete from question_stats where test_id = ?", testId);
+        jdbcTemplate.update("delete from answer_pick_counts where test_id = ?", testId);
+    }
+
+    /**
+     * Пересчитывает суммы всех тестов из истории. Отправки, пришедшие во время пересчёта теста,
+     * могут не попасть в его суммы - запускать в спокойное время
+     */
+    public RebuildReport rebuild() {
+        long started = System.currentTimeMillis();
+        List<Long> testIds = jdbcTemplate.queryForList(
+                "select distinct test_id from test_results where completed = true order by test_id", Long.class);
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, rebuildThreads),
+                Thread.ofPlatform().name("item-analysis-", 0).daemon().factory());
+        int attempts;
+        try {
+            List<CompletableFuture<Integer>> futures = testIds.stream()
+                    .map(testId -> CompletableFuture.supplyAsync(() -> rebuildTestOnReportingPool(testId), pool))
+                    .toList();
+            attempts = futures.stream().mapToInt(CompletableFuture::join).sum();
+        } finally {
+            pool.shutdown();
+        }
+
+        // Вопросы и варианты удалённых тестов и прежних версий
+        jdbcTemplate.update("delete from question_stats where question_id not in (select q.id from questions q)");
+        jdbcTemplate.update("delete from answer_pick_counts where answer_id not in (select a.id from answers a)");
+
+        RebuildReport report = new RebuildReport(testIds.size(), attempts, System.currentTimeMillis() - started);
+        log.info("Анализ вопросов пересчитан: тестов {}, попыток {}, {} мс", report.tests(), report.attempts(), report.millis());
+        return report;
+    }
+
+    private int rebuildTestOnReportingPool(Long testId) {
+        WorkloadClass.set(WorkloadClass.REPORTING);
+        try {
+            Integer attempts = transactionTemplate.execute(status -> rebuildTest(testId));
+            return attempts != null ? attempts : 0;
+        } finally {
+            WorkloadClass.clear();
+        }
+    }
+
+    private int rebuildTest(Long testId) {
+        Test test = testRepository.findById(testId).orElse(null);
+        if (test == null) {
+            return 0;
+        }
+        TestSnapshot snapshot = testSnapshotCache.get(test);
+
+        Map<Long, List<Long>> legacySelections = new HashMap<>();
+        jdbcTemplate.query("select sq.test_result_id, sq.question_id from test_result_selected_questions sq " +
+                        "join test_results tr on tr.id = sq.test_result_id where tr.test_id = ?",
+                rs -> {
+                    legacySelections.computeIfAbsent(rs.getLong(1), id -> new ArrayList<>()).add(rs.getLong(2));
+                },
+                testId);
+
+        Map<Long, Set<Long>> rowChoices = new HashMap<>();
+        jdbcTemplate.query("select sac.student_answer_id, sac.answer_id from student_answer_choices sac " +
+                        "join student_answers sa on sa.id = sac.student_answer_id " +
+                        "join test_results tr on tr.id = sa.test_result_id where tr.test_id = ?",
+                rs -> {
+                    rowChoices.computeIfAbsent(rs.getLong(1), id -> new HashSet<>()).add(rs.getLong(2));
+                },
+                testId);
+
+        Map<Long, Map<Long, Outcome>> rowAnswers = new HashMap<>();
+        jdbcTemplate.query("select sa.id, sa.test_result_id, sa.question_id, sa.is_correct, sa.earned_points from student_answers sa " +
+                        "join test_results tr on tr.id = sa.test_result_id where tr.test_id = ?",
+                rs -> {
+                    long questionId = rs.getLong(3);
+                    TestSnapshot.QuestionSnapshot question = snapshot.questions().get(questionId);
+                    BitSet selected = question != null
+                            ? AnswerVectorCodec.toMask(question.optionIds(), rowChoices.getOrDefault(rs.getLong(1), Set.of()))
+                            : new BitSet();
+                    rowAnswers.computeIfAbsent(rs.getLong(2), id -> new HashMap<>())
+                            .putIfAbsent(questionId, new Outcome(rs.getBoolean(4), rs.getInt(5), selected));
+                },
+                testId);
+
+        Map<Long, ItemStatistics> statistics = new TreeMap<>();
+        Map<Long, Long> picks = new TreeMap<>();
+        int[] attempts = {0};
+        // Учитываются только отправленные попытки: у закрытых по времени без отправки нет ни вектора, ни строк
+        jdbcTemplate.query("select tr.id, tr.score, tr.max_score, tr.question_seed, tr.answer_vector from test_results tr " +
+                        "where tr.test_id = ? and tr.completed = true",
+                rs -> {
+                    long resultId = rs.getLong(1);
+                    byte[] vector = rs.getBytes(5);
+                    Map<Long, Outcome> answers = vector != null ? vectorAnswers(vector) : rowAnswers.get(resultId);
+                    if (answers == null) {
+                        return;
+                    }
+                    TestResult result = new TestResult();
+                    result.setQuestionSeed(rs.getObject(4) != null ? rs.getLong(4) : null);
+                    result.setSelectedQuestionIds(legacySelections.getOrDefault(resultId, List.of()));
+                    List<Long> selected = snapshot.selectedQuestionIds(result);
+
+                    accumulate(statistics, picks, snapshot, selected != null ? selected : snapshot.questionOrder(), answers,
+                            rs.getInt(2), rs.getInt(3));
+                    attempts[0]++;
+                },
+                testId);
+
+        jdbcTemplate.update("delete from question_stats where test_id = ?", testId);
+        jdbcTemplate.batchUpdate(INSERT_FULL, statistics.entrySet().stream()
+                .map(entry -> {
+                    ItemStatistics s = entry.getValue();
+                    return new Object[]{entry.getKey(), testId, s.attempts(), s.correctCount(), s.ratioSum(),
+                            s.restSum(), s.restSquareSum(), s.correctRestSum()};
+                })
+                .toList());
+
+        jdbcTemplate.update("delete from answer_pick_counts where test_id = ?", testId);
+        Map<Long, Long> questionOfAnswer = questionOfAnswer(snapshot);
+        jdbcTemplate.batchUpdate(INSERT_PICKS_FULL, picks.entrySet().stream()
+                .map(entry -> new Object[]{entry.getKey(), questionOfAnswer.get(entry.getKey()), testId, entry.getValue()})
+                .toList());
+        return attempts[0];
+    }
+
+    private static Map<Long, Outcome> vectorAnswers(byte[] vector) {
+        Map<Long, Outcome> answers = new HashMap<>();
+        for (AnswerVectorCodec.Entry entry : AnswerVectorCodec.decode(vector)) {
+            answers.putIfAbsent(entry.questionId(), new Outcome(entry.correct(), entry.earnedPoints(), entry.selected()));
+        }
+        return answers;
+    }
+
+    /**
+     * Добавляет попытку к суммам вопросов и к счётчикам выбора вариантов (по id варианта)
+     */
+    private static void accumulate(Map<Long, ItemStatistics> target, Map<Long, Long> picks, TestSnapshot snapshot,
+                                   Collection<Long> shownQuestionIds, Map<Long, Outcome> answers, int score, int maxScore) {
+        for (Long questionId : shownQuestionIds) {
+            TestSnapshot.QuestionSnapshot question = snapshot.questions().get(questionId);
+            if (question == null) {
+                continue;
+            }
+            Outcome outcome = answers.get(questionId);
+            boolean correct = outcome != null && outcome.correct();
+            int earned = outcome != null ? outcome.earnedPoints() : 0;
+
+            double ratio = question.points() > 0 ? clamp((double) earned / question.points()) : (correct ? 1 : 0);
+            int restMax = maxScore - question.points();
+            double rest = restMax > 0 ? clamp((double) (score - earned) / restMax) : 0;
+            target.computeIfAbsent(questionId, id -> new ItemStatistics()).add(correct, ratio, rest);
+
+            if (outcome != null && outcome.selected() != null) {
+                for (Long answerId : AnswerVectorCodec.fromMask(question.optionIds(), outcome.selected())) {
+                    picks.merge(answerId, 1L, Long::sum);
+                }
+            }
+        }
+    }
+
+    private static Map<Long, Long> questionOfAnswer(TestSnapshot snapshot) {
+        Map<Long, Long> questionOfAnswer = new HashMap<>();
+        for (TestSnapshot.QuestionSnapshot question : snapshot.questions().values()) {
+            question.optionIds().forEach(answerId -> questionOfAnswer.put(answerId, question.id()));
+        }
+        return questionOfAnswer;
+    }
+
+    private static List<Object[]> addArguments(Map<Long, ItemStatistics> deltas, List<Long> questionIds) {
+        return questionIds.stream()
+                .map(questionId -> {
+                    ItemStatistics s = deltas.get(questionId);
+                    return new Object[]{s.attempts(), s.correctCount(), s.ratioSum(), s.restSum(),
+                            s.restSquareSum(), s.correctRestSum(), questionId};
+                })
+                .toList();
+    }
+
+    private static double clamp(double value) {
+        return Math.max(0, Math.min(1, value));
+    }
+}
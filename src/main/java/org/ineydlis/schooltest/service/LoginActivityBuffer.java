@@ -0,0 +1,74 @@
+package org.ineydlis.schooltest.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Буфер времени последнего входа. Вход только отмечает пользователя в памяти, а раз в
+ * app.login-activity.flush-ms все отметки записываются одним JDBC-пакетом UPDATE.
+ * Повторные входы одного пользователя между сбросами схлопываются в одну запись.
+ */
+@Slf4j
+@Service
+public class LoginActivityBuffer {
+
+    private static final String UPDATE_LAST_LOGIN = "update users set last_login = ? where id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Long, LocalDateTime> pending = new ConcurrentHashMap<>();
+
+    @Autowired
+    public LoginActivityBuffer(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        Gauge.builder("schooltest.auth.last-login.pending", pending, Map::size)
+                .description("Входов, ещё не записанных в users.last_login")
+                .register(meterRegistry);
+    }
+
+    public void recordLogin(Long userId, LocalDateTime at) {
+        pending.merge(userId, at, (old, current) -> current.isAfter(old) ? current : old);
+    }
+
+    @Scheduled(fixedDelayString = "${app.login-activity.flush-ms:5000}")
+    public void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>(pending.size());
+        List<Map.Entry<Long, LocalDateTime>> taken = new ArrayList<>(pending.size());
+        for (Map.Entry<Long, LocalDateTime> entry : pending.entrySet()) {
+            // Снимаем только то значение, которое пишем: вход во время сброса останется до следующего
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                taken.add(entry);
+                batch.add(new Object[]{Timestamp.valueOf(entry.getValue()), entry.getKey()});
+            }
+        }
+
+        try {
+            jdbcTemplate.batchUpdate(UPDATE_LAST_LOGIN, batch);
+        } catch (DataAccessException e) {
+            log.warn("Не удалось записать время входа {} пользователей, повтор при следующем сбросе", batch.size(), e);
+            taken.forEach(entry -> recordLogin(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+}
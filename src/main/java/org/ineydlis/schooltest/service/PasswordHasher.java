@@ -0,0 +1,157 @@
+package org.ineydlis.schooltest.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Хэширование и проверка паролей BCrypt на отдельных пулах по числу ядер. Одно хэширование занимает
+ * десятки миллисекунд процессора, поэтому пачки (импорт пользователей) считаются параллельно,
+ * а проверки при входе идут через ограниченную очередь: при утренней волне входов лишние попытки
+ * сразу получают отказ, а не занимают процессор и потоки, нужные прохождению тестов.
+ */
+@Service
+public class PasswordHasher {
+
+    /**
+     * Очередь проверки паролей переполнена или проверка не дождалась своей очереди
+     */
+    @Getter
+    public static class BusyException extends RuntimeException {
+        private final int retryAfterSeconds;
+
+        public BusyException(int retryAfterSeconds) {
+            super("Слишком много одновременных входов, повторите через несколько секунд");
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+    }
+
+    /**
+     * @param upgradedHash новый хэш, если пароль верен и старый хэш слабее текущей стоимости BCrypt, иначе null
+     */
+    public record Verification(boolean matches, String upgradedHash) {
+    }
+
+    private final PasswordEncoder passwordEncoder;
+    private final ExecutorService hashingPool;
+    private final ThreadPoolExecutor verificationPool;
+    private final long verifyTimeoutMs;
+    private final boolean rehashOnLogin;
+    private final int retryAfterSeconds;
+    private final Counter rejected;
+
+    @Autowired
+    public PasswordHasher(PasswordEncoder passwordEncoder,
+                          MeterRegistry meterRegistry,
+                          @Value("${app.password.verify-threads:0}") int verifyThreads,
+                          @Value("${app.password.verify-queue:64}") int verifyQueue,
+                          @Value("${app.password.verify-timeout-ms:3000}") long verifyTimeoutMs,
+                          @Value("${app.password.rehash-on-login:true}") boolean rehashOnLogin,
+                          @Value("${app.workload.retry-after-seconds:10}") int retryAfterSeconds) {
+        this.passwordEncoder = passwordEncoder;
+        this.verifyTimeoutMs = verifyTimeoutMs;
+        this.rehashOnLogin = rehashOnLogin;
+        this.retryAfterSeconds = retryAfterSeconds;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        this.hashingPool = Executors.newFixedThreadPool(cores,
+                Thread.ofPlatform().name("password-hash-", 0).daemon().factory());
+        // 0 - по числу ядер; сверх очереди задача отклоняется сразу (AbortPolicy)
+        int threads = verifyThreads > 0 ? verifyThreads : cores;
+        this.verificationPool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(verifyQueue),
+                Thread.ofPlatform().name("password-verify-", 0).daemon().factory());
+
+        this.rejected = Counter.builder("schooltest.auth.password.rejected")
+                .description("Входов, отклонённых из-за переполненной очереди проверки паролей")
+                .register(meterRegistry);
+        Gauge.builder("schooltest.auth.password.queue", verificationPool, pool -> pool.getQueue().size())
+                .description("Проверок паролей в очереди")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Проверяет пароль на пуле проверки и при необходимости сразу пересчитывает хэш.
+     *
+     * @throws BusyException если очередь переполнена или проверка не уложилась в app.password.verify-timeout-ms
+     */
+    public Verification verify(String rawPassword, String encodedPassword) {
+        Future<Verification> future;
+        try {
+            future = verificationPool.submit(() -> {
+                if (!passwordEncoder.matches(rawPassword, encodedPassword)) {
+                    return new Verification(false, null);
+                }
+                boolean upgrade = rehashOnLogin && passwordEncoder.upgradeEncoding(encodedPassword);
+                return new Verification(true, upgrade ? passwordEncoder.encode(rawPassword) : null);
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new BusyException(retryAfterSeconds);
+        }
+
+        try {
+            return future.get(verifyTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // Клиент всё равно получит отказ - не тратим на эту проверку процессор
+            future.cancel(true);
+            rejected.increment();
+            throw new BusyException(retryAfterSeconds);
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Проверка пароля прервана");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Ошибка проверки пароля", e.getCause());
+        }
+    }
+
+    /**
+     * Хэши паролей в том же порядке
+     */
+    public List<String> encodeAll(List<String> rawPasswords) {
+        List<Future<String>> futures = new ArrayList<>(rawPasswords.size());
+        for (String raw : rawPasswords) {
+            futures.add(hashingPool.submit(() -> passwordEncoder.encode(raw)));
+        }
+
+        List<String> hashes = new ArrayList<>(futures.size());
+        try {
+            for (Future<String> future : futures) {
+                hashes.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Хэширование паролей прервано");
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            throw new RuntimeException("Ошибка хэширования пароля", e.getCause());
+        }
+        return hashes;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hashingPool.shutdownNow();
+        verificationPool.shutdownNow();
+    }
+}
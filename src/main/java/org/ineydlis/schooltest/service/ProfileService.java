@@ -6,21 +6,35 @@ import org.ineydlis.schooltest.model.User;
 import org.ineydlis.schooltest.repository.UserRepository;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.UUID;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
 public class ProfileService {
 
+    // Форматы изображений профиля: формат ImageIO -> расширение в адресе; расширение -> Content-Type ответа
+    private static final Map<String, String> IMAGE_EXTENSIONS = Map.of(
+            "png", ".png", "jpeg", ".jpg", "jpg", ".jpg", "gif", ".gif", "webp", ".webp");
+    private static final Map<String, MediaType> IMAGE_TYPES = Map.of(
+            "png", MediaType.IMAGE_PNG, "jpg", MediaType.IMAGE_JPEG, "jpeg", MediaType.IMAGE_JPEG,
+            "gif", MediaType.IMAGE_GIF, "webp", MediaType.parseMediaType("image/webp"));
+
     @Autowired
     private UserRepository userRepository;
 
@@ -30,6 +44,15 @@ public class ProfileService {
     @Autowired
     private AuthService authService;
 
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    @Autowired
+    private ThumbnailService thumbnailService;
+
     @Value("${app.upload.dir:${user.home}/uploads/profiles}")
     private String uploadDir;
 
@@ -43,7 +66,8 @@ public class ProfileService {
                 .fullName(user.getFullName())
                 .email(user.getEmail())
                 .role(user.getRole())
-                .profileImageUrl(user.getProfileImagePath());
+                .profileImageUrl(user.getProfileImagePath())
+                .profileThumbnailUrl(ThumbnailService.thumbnailUrl(user.getProfileImagePath()));
 
         if (user.getGrade() != null) {
             builder.gradeName(user.getGrade().getFullName());
@@ -99,37 +123,87 @@ public class ProfileService {
     public String uploadProfileImage(String token, MultipartFile file) throws IOException {
         User user = authService.getCurrentUser(token);
 
-        // Создание директории для загрузки, если её нет
-        Path uploadPath = Paths.get(uploadDir);
-        if (!Files.exists(uploadPath)) {
-            Files.createDirectories(uploadPath);
+        // Изображение сохраняется в хранилище по содержимому; расширение в URL задаёт тип содержимого
+        BlobStore.StoredBlob blob;
+        try (InputStream in = file.getInputStream()) {
+            blob = blobStore.store(in);
         }
+        return replaceProfileImage(user, blob);
+    }
 
-        // Удаление старого изображения, если оно существует
-        if (user.getProfileImagePath() != null && !user.getProfileImagePath().isEmpty()) {
-            String oldFilename = user.getProfileImagePath().substring(user.getProfileImagePath().lastIndexOf("/") + 1);
-            Path oldFilePath = uploadPath.resolve(oldFilename);
-            if (Files.exists(oldFilePath)) {
-                Files.delete(oldFilePath);
-            }
-        }
+    /**
+     * Делает изображением профиля файл, загруженный по частям через /api/uploads
+     */
+    @Transactional
+    public String attachUploadedProfileImage(String token, String uploadId) throws IOException {
+        User user = authService.getCurrentUser(token);
+        UploadSessionService.CompletedUpload upload = uploadSessionService.take(uploadId, user.getId());
+        return replaceProfileImage(user, upload.blob());
+    }
 
-        // Генерация уникального имени файла
-        String filename = UUID.randomUUID().toString() + "_" + file.getOriginalFilename();
-        Path filePath = uploadPath.resolve(filename);
+    private String replaceProfileImage(User user, BlobStore.StoredBlob blob) throws IOException {
+        // До взятия ссылки: не-изображение остаётся без ссылок и его удалит сборщик хранилища
+        String extension = imageExtension(blob);
+        blobStore.acquire(blob);
+        // Миниатюра для аватаров строится в фоне, пока клиент ещё получает ответ
+        thumbnailService.generateAsync(blob.hash());
 
-        // Сохранение файла
-        Files.copy(file.getInputStream(), filePath);
+        // Освобождение старого изображения
+        releaseProfileImage(user.getProfileImagePath());
 
         // Обновление пути к изображению в профиле пользователя
-        String relativePath = "/api/profile/image/" + filename;
+        String relativePath = "/api/profile/image/" + blob.hash() + extension;
         user.setProfileImagePath(relativePath);
         userRepository.save(user);
 
         return relativePath;
     }
 
+    /**
+     * Снимает ссылку на изображение профиля; файл старой схемы хранения удаляется сразу
+     */
+    public void releaseProfileImage(String profileImagePath) throws IOException {
+        if (profileImagePath == null || profileImagePath.isEmpty()) {
+            return;
+        }
+        String filename = profileImagePath.substring(profileImagePath.lastIndexOf("/") + 1);
+        String key = BlobStore.keyFromFilename(filename);
+        if (key != null) {
+            blobStore.release(key);
+        } else {
+            Files.deleteIfExists(Paths.get(uploadDir).resolve(filename));
+        }
+    }
+
+    /**
+     * Расширение по настоящему формату файла, а не по имени от клиента: иначе страница .html или .svg
+     * отдавалась бы с адреса приложения как активное содержимое
+     */
+    private String imageExtension(BlobStore.StoredBlob blob) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(blobStore.pathOf(blob.hash()).toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers != null && readers.hasNext()) {
+                String extension = IMAGE_EXTENSIONS.get(readers.next().getFormatName().toLowerCase());
+                if (extension != null) {
+                    return extension;
+                }
+            }
+        }
+        throw new RuntimeException("Изображение профиля должно быть в формате PNG, JPEG, GIF или WebP");
+    }
+
+    /**
+     * Тип содержимого изображения профиля по расширению из адреса; всё, кроме изображений, отдаётся как
+     * application/octet-stream, в том числе ссылки, сохранённые до проверки формата
+     */
+    public static MediaType imageMediaType(String filename) {
+        int dot = filename.lastIndexOf('.');
+        MediaType type = dot >= 0 ? IMAGE_TYPES.get(filename.substring(dot + 1).toLowerCase()) : null;
+        return type != null ? type : MediaType.APPLICATION_OCTET_STREAM;
+    }
+
     public Path getProfileImagePath(String filename) {
-        return Paths.get(uploadDir).resolve(filename);
+        String key = BlobStore.keyFromFilename(filename);
+        return key != null ? blobStore.pathOf(key) : Paths.get(uploadDir).resolve(filename);
     }
 }
\ No newline at end of file
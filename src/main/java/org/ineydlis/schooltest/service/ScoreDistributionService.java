@@ -0,0 +1,224 @@
+package org.ineydlis.schooltest.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.model.ScoreDistribution;
+import org.ineydlis.schooltest.repository.ScoreDistributionRepository;
+import org.ineydlis.schooltest.util.ScoreHistogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Распределения результатов ({@link ScoreHistogram}) по тестам, классам и предметам для квантилей
+ * и гистограмм статистики. Учитывается лучший результат ученика по каждому тесту, как в представлениях
+ * статистики: в распределение теста, класса ученика на момент попытки и предмета теста.
+ * <p>
+ * При завершении попытки распределения меняются только если она улучшила лучший результат ученика
+ * по тесту: прежний лучший убирается, новый добавляется. Строки блокируются в одном порядке
+ * (тест, класс, предмет), поэтому параллельные отправки не ждут друг друга по кругу.
+ * Перед удалением попыток теста (правка, сброс попыток, полное удаление) их вклад убирается
+ * через {@link #forgetResults}. {@link #rebuild()} пересчитывает всё из истории, например после
+ * перевода учеников в другой класс.
+ */
+@Slf4j
+@Service
+public class ScoreDistributionService {
+
+    private static final String LOCK =
+            "select sketch from score_distributions where scope = ? and scope_id = ? for update";
+    private static final String INSERT =
+            "insert into score_distributions (scope, scope_id, sketch) values (?, ?, ?) on conflict do nothing";
+    private static final String UPDATE =
+            "update score_distributions set sketch = ? where scope = ? and scope_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ScoreDistributionRepository scoreDistributionRepository;
+
+    public record RebuildReport(int distributions, int results, long millis) {
+    }
+
+    private record Best(long gradeId, long subjectId, int bucket) {
+    }
+
+    @Autowired
+    public ScoreDistributionService(JdbcTemplate jdbcTemplate,
+                                    PlatformTransactionManager transactionManager,
+                                    ScoreDistributionRepository scoreDistributionRepository) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.scoreDistributionRepository = scoreDistributionRepository;
+    }
+
+    /**
+     * Синхронно, в транзакции завершения попытки: распределения фиксируются вместе с результатом
+     */
+    @EventListener
+    public void onAttemptEvent(AttemptEvent event) {
+        if (event.type() == AttemptEvent.Type.STARTED) {
+            return;
+        }
+        record(event.result(), event.gradeId());
+    }
+
+    private void record(TestResultDto result, Long gradeId) {
+        if (result.getScore() == null || result.getMaxScore() == null || result.getMaxScore() <= 0) {
+            return;
+        }
+        int bucket = ScoreHistogram.bucket(result.getScore(), result.getMaxScore());
+
+        int previousBest = -1;
+        List<int[]> previous = jdbcTemplate.query(
+                "select score, max_score from test_results where test_id = ? and student_id = ? and id <> ? " +
+                        "and completed = true and score is not null and max_score > 0",
+                (rs, i) -> new int[]{rs.getInt(1), rs.getInt(2)},
+                result.getTestId(), result.getStudentId(), result.getId());
+        for (int[] attempt : previous) {
+            previousBest = Math.max(previousBest, ScoreHistogram.bucket(attempt[0], attempt[1]));
+        }
+        if (bucket <= previousBest) {
+            return;
+        }
+
+        int removed = previousBest;
+        Consumer<ScoreHistogram> change = histogram -> {
+            if (removed >= 0) {
+                histogram.remove(removed);
+            }
+            histogram.add(bucket);
+        };
+        Long subjectId = jdbcTemplate.queryForObject("select subject_id from tests where id = ?", Long.class,
+                result.getTestId());
+
+        apply(ScoreDistribution.Scope.TEST, result.getTestId(), change);
+        if (gradeId != null) {
+            apply(ScoreDistribution.Scope.GRADE, gradeId, change);
+        }
+        apply(ScoreDistribution.Scope.SUBJECT, subjectId, change);
+    }
+
+    private void apply(ScoreDistribution.Scope scope, Long scopeId, Consumer<ScoreHistogram> change) {
+        List<byte[]> locked = jdbcTemplate.query(LOCK, (rs, i) -> rs.getBytes(1), scope.name(), scopeId);
+        if (locked.isEmpty()) {
+            // Первый результат: создаём пустое распределение и блокируем его, как существующее
+            jdbcTemplate.update(INSERT, scope.name(), scopeId, new ScoreHistogram().encode());
+            locked = jdbcTemplate.query(LOCK, (rs, i) -> rs.getBytes(1), scope.name(), scopeId);
+        }
+        ScoreHistogram histogram = ScoreHistogram.decode(locked.get(0));
+        change.accept(histogram);
+        jdbcTemplate.update(UPDATE, histogram.encode(), scope.name(), scopeId);
+    }
+
+    /**
+     * Распределение по ключу; пустое, если результатов ещё не было
+     */
+    public ScoreHistogram get(ScoreDistribution.Scope scope, Long scopeId) {
+        return scoreDistributionRepository.findById(new ScoreDistribution.Key(scope, scopeId))
+                .map(distribution -> ScoreHistogram.decode(distribution.getSketch()))
+                .orElseGet(ScoreHistogram::new);
+    }
+
+    public void forgetTest(Long testId) {
+        jdbcTemplate.update("delete from score_distributions where scope = ? and scope_id = ?",
+                ScoreDistribution.Scope.TEST.name(), testId);
+    }
+
+    /**
+     * Убирает из распределений все попытки теста. Вызывается в транзакции удаления, пока попытки ещё в базе:
+     * распределение теста удаляется, из классов и предмета вычитается лучший результат каждого ученика.
+     * Класс берётся текущий, как в {@link #rebuild()}
+     */
+    public void forgetResults(Long testId) {
+        Map<Long, Best> bestByStudent = new HashMap<>();
+        jdbcTemplate.query("select tr.student_id, u.grade_id, t.subject_id, tr.score, tr.max_score " +
+                        "from test_results tr join users u on u.id = tr.student_id join tests t on t.id = tr.test_id " +
+                        "where tr.test_id = ? and tr.completed = true and tr.score is not null and tr.max_score > 0",
+                rs -> {
+                    long gradeId = rs.getLong(2);
+                    Best best = new Best(rs.wasNull() ? -1 : gradeId, rs.getLong(3),
+                            ScoreHistogram.bucket(rs.getInt(4), rs.getInt(5)));
+                    bestByStudent.merge(rs.getLong(1), best, (a, b) -> b.bucket() > a.bucket() ? b : a);
+                },
+                testId);
+
+        // Тот же порядок блокировок, что и при записи: тест, классы по возрастанию id, предмет
+        forgetTest(testId);
+        if (bestByStudent.isEmpty()) {
+            return;
+        }
+        Map<Long, List<Integer>> bucketsByGrade = new TreeMap<>();
+        List<Integer> buckets = new ArrayList<>(bestByStudent.size());
+        for (Best best : bestByStudent.values()) {
+            if (best.gradeId() >= 0) {
+                bucketsByGrade.computeIfAbsent(best.gradeId(), id -> new ArrayList<>()).add(best.bucket());
+            }
+            buckets.add(best.bucket());
+        }
+        bucketsByGrade.forEach((gradeId, gradeBuckets) ->
+                apply(ScoreDistribution.Scope.GRADE, gradeId, histogram -> gradeBuckets.forEach(histogram::remove)));
+        long subjectId = bestByStudent.values().iterator().next().subjectId();
+        apply(ScoreDistribution.Scope.SUBJECT, subjectId, histogram -> buckets.forEach(histogram::remove));
+    }
+
+    /**
+     * Пересчитывает все распределения из завершённых попыток одной транзакцией.
+     * Класс берётся текущий, а не на момент попытки
+     */
+    public RebuildReport rebuild() {
+        long started = System.currentTimeMillis();
+        RebuildReport report = transactionTemplate.execute(status -> rebuildAll(started));
+        log.info("Распределения результатов пересчитаны: распределений {}, лучших результатов {}, {} мс",
+                report.distributions(), report.results(), report.millis());
+        return report;
+    }
+
+    private RebuildReport rebuildAll(long started) {
+        // Лучший результат по паре (тест, ученик)
+        Map<Long, Map<Long, Best>> bestByTest = new HashMap<>();
+        jdbcTemplate.query("select tr.test_id, tr.student_id, u.grade_id, t.subject_id, tr.score, tr.max_score " +
+                        "from test_results tr join users u on u.id = tr.student_id join tests t on t.id = tr.test_id " +
+                        "where tr.completed = true and tr.score is not null and tr.max_score > 0",
+                rs -> {
+                    long gradeId = rs.getLong(3);
+                    Best best = new Best(rs.wasNull() ? -1 : gradeId, rs.getLong(4),
+                            ScoreHistogram.bucket(rs.getInt(5), rs.getInt(6)));
+                    bestByTest.computeIfAbsent(rs.getLong(1), id -> new HashMap<>())
+                            .merge(rs.getLong(2), best, (a, b) -> b.bucket() > a.bucket() ? b : a);
+                });
+
+        Map<ScoreDistribution.Key, ScoreHistogram> histograms = new HashMap<>();
+        int results = 0;
+        for (Map.Entry<Long, Map<Long, Best>> test : bestByTest.entrySet()) {
+            for (Best best : test.getValue().values()) {
+                add(histograms, ScoreDistribution.Scope.TEST, test.getKey(), best.bucket());
+                if (best.gradeId() >= 0) {
+                    add(histograms, ScoreDistribution.Scope.GRADE, best.gradeId(), best.bucket());
+                }
+                add(histograms, ScoreDistribution.Scope.SUBJECT, best.subjectId(), best.bucket());
+                results++;
+            }
+        }
+
+        jdbcTemplate.update("delete from score_distributions");
+        List<Object[]> rows = new ArrayList<>(histograms.size());
+        histograms.forEach((key, histogram) -> rows.add(new Object[]{key.getScope().name(), key.getScopeId(), histogram.encode()}));
+        jdbcTemplate.batchUpdate(INSERT, rows);
+        return new RebuildReport(rows.size(), results, System.currentTimeMillis() - started);
+    }
+
+    private static void add(Map<ScoreDistribution.Key, ScoreHistogram> histograms,
+                            ScoreDistribution.Scope scope, long scopeId, int bucket) {
+        histograms.computeIfAbsent(new ScoreDistribution.Key(scope, scopeId), key -> new ScoreHistogram()).add(bucket);
+    }
+}
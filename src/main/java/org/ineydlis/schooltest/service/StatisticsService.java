@@ -1,5 +1,6 @@
 package org.ineydlis.schooltest.service;
 
+import io.micrometer.core.annotation.Timed;
 import lombok.RequiredArgsConstructor;
 import org.ineydlis.schooltest.dto.StatisticViewDto;
 import org.ineydlis.schooltest.dto.TestResultDetailsDto;
@@ -7,12 +8,15 @@ import org.ineydlis.schooltest.dto.UserStatDto;
 import org.ineydlis.schooltest.dto.SubjectStatDto;
 import org.ineydlis.schooltest.model.*;
 import org.ineydlis.schooltest.repository.*;
+import org.ineydlis.schooltest.util.ScoreHistogram;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
+@Transactional(readOnly = true)
 @RequiredArgsConstructor
 public class StatisticsService {
 
@@ -21,14 +25,16 @@ public class StatisticsService {
     private final SubjectRepository subjectRepository;
     private final GradeRepository gradeRepository;
     private final TestRepository testRepository;
-    private final AuthService authService;
+    private final ScoreDistributionService scoreDistributionService;
 
     /**
      * Check if user has access to view statistics
      */
-    public boolean canAccessStatistics(String token, Long entityId, StatisticsAccessType accessType) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    public boolean canAccessStatistics(Long userId, Long entityId, StatisticsAccessType accessType) {
+        return canAccessStatistics(loadUser(userId), entityId, accessType);
+    }
 
+    private boolean canAccessStatistics(User currentUser, Long entityId, StatisticsAccessType accessType) {
         switch (accessType) {
             case TEST_RESULT:
                 return canAccessTestStatistics(currentUser, entityId);
@@ -43,6 +49,15 @@ public class StatisticsService {
         }
     }
 
+    /**
+     * Пользователь по id, проверенному AuthInterceptor по токену на основной базе. Сам токен здесь
+     * повторно не ищется: в readOnly-транзакции запрос ушёл бы на реплику, где нового токена может ещё не быть
+     */
+    private User loadUser(Long userId) {
+        return userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+    }
+
     private boolean canAccessTestStatistics(User currentUser, Long testResultId) {
         // Admin can access any test result
         if (currentUser.getRole() == UserRole.ADMIN) {
@@ -144,12 +159,14 @@ public class StatisticsService {
     }
 
     /**
-     * Get detailed statistics for a specific test result
+     * Get detailed statistics for a specific test result.
+     * Читается с основной базы: результат обычно открывают сразу после отправки, реплика может отставать
      */
-    public TestResultDetailsDto getTestResultDetails(String token, Long testResultId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    @Transactional
+    public TestResultDetailsDto getTestResultDetails(Long userId, Long testResultId) {
+        User currentUser = loadUser(userId);
 
-        if (!canAccessStatistics(token, testResultId, StatisticsAccessType.TEST_RESULT)) {
+        if (!canAccessStatistics(currentUser, testResultId, StatisticsAccessType.TEST_RESULT)) {
             throw new RuntimeException("You don't have permission to view this test result");
         }
 
@@ -178,8 +195,9 @@ public class StatisticsService {
     /**
      * Get statistics for a specific test (all students' best attempts)
      */
-    public StatisticViewDto getTestStatistics(String token, Long testId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    @Timed(value = "schooltest.statistics", extraTags = {"view", "test"})
+    public StatisticViewDto getTestStatistics(Long userId, Long testId) {
+        User currentUser = loadUser(userId);
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Test not found"));
 
@@ -241,6 +259,7 @@ public class StatisticsService {
         viewDto.setUserStats(studentStats);
         viewDto.setTotalStudents(studentStats.size());
         viewDto.setAverageScore(calculateAverageScore(studentStats));
+        applyDistribution(viewDto, ScoreDistribution.Scope.TEST, testId);
 
         return viewDto;
     }
@@ -249,10 +268,11 @@ public class StatisticsService {
     /**
      * Get statistics for a specific grade (all students' best test attempts)
      */
-    public StatisticViewDto getGradeStatistics(String token, Long gradeId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    @Timed(value = "schooltest.statistics", extraTags = {"view", "grade"})
+    public StatisticViewDto getGradeStatistics(Long userId, Long gradeId) {
+        User currentUser = loadUser(userId);
 
-        if (!canAccessStatistics(token, gradeId, StatisticsAccessType.GRADE)) {
+        if (!canAccessStatistics(currentUser, gradeId, StatisticsAccessType.GRADE)) {
             throw new RuntimeException("You don't have permission to view this grade's statistics");
         }
 
@@ -262,8 +282,12 @@ public class StatisticsService {
         List<User> students = userRepository.findByGradeId(gradeId);
         List<UserStatDto> studentStats = new ArrayList<>();
 
+        // Результаты всего класса одним запросом, а не по запросу на ученика
+        Map<Long, List<TestResult>> resultsByStudent = testResultRepository.findByStudentGradeId(gradeId).stream()
+                .collect(Collectors.groupingBy(r -> r.getStudent().getId()));
+
         for (User student : students) {
-            List<TestResult> allResults = testResultRepository.findByStudentId(student.getId());
+            List<TestResult> allResults = resultsByStudent.getOrDefault(student.getId(), List.of());
 
             // Group results by test and find best attempt for each
             Map<Long, List<TestResult>> resultsByTest = allResults.stream()
@@ -323,6 +347,7 @@ public class StatisticsService {
         viewDto.setUserStats(studentStats);
         viewDto.setTotalStudents(studentStats.size());
         viewDto.setAverageScore(calculateAverageScore(studentStats));
+        applyDistribution(viewDto, ScoreDistribution.Scope.GRADE, gradeId);
 
         return viewDto;
     }
@@ -331,10 +356,11 @@ public class StatisticsService {
     /**
      * Get statistics for a specific subject (all students' best test attempts)
      */
-    public StatisticViewDto getSubjectStatistics(String token, Long subjectId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    @Timed(value = "schooltest.statistics", extraTags = {"view", "subject"})
+    public StatisticViewDto getSubjectStatistics(Long userId, Long subjectId) {
+        User currentUser = loadUser(userId);
 
-        if (!canAccessStatistics(token, subjectId, StatisticsAccessType.SUBJECT)) {
+        if (!canAccessStatistics(currentUser, subjectId, StatisticsAccessType.SUBJECT)) {
             throw new RuntimeException("You don't have permission to view this subject's statistics");
         }
 
@@ -418,6 +444,7 @@ public class StatisticsService {
         viewDto.setUserStats(studentStats);
         viewDto.setTotalStudents(studentStats.size());
         viewDto.setAverageScore(calculateAverageScore(studentStats));
+        applyDistribution(viewDto, ScoreDistribution.Scope.SUBJECT, subjectId);
 
         return viewDto;
     }
@@ -425,10 +452,11 @@ public class StatisticsService {
     /**
      * Get student's statistics for a specific subject
      */
-    public StatisticViewDto getStudentSubjectStatistics(String token, Long studentId, Long subjectId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    @Timed(value = "schooltest.statistics", extraTags = {"view", "student-subject"})
+    public StatisticViewDto getStudentSubjectStatistics(Long userId, Long studentId, Long subjectId) {
+        User currentUser = loadUser(userId);
 
-        if (!canAccessStatistics(token, studentId, StatisticsAccessType.STUDENT)) {
+        if (!canAccessStatistics(currentUser, studentId, StatisticsAccessType.STUDENT)) {
             throw new RuntimeException("You don't have permission to view this student's statistics");
         }
 
@@ -503,10 +531,11 @@ public class StatisticsService {
     /**
      * Get student's overall performance across all subjects
      */
-    public Map<String, StatisticViewDto> getStudentOverallPerformance(String token, Long studentId) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    @Timed(value = "schooltest.statistics", extraTags = {"view", "student-overall"})
+    public Map<String, StatisticViewDto> getStudentOverallPerformance(Long userId, Long studentId) {
+        User currentUser = loadUser(userId);
 
-        if (!canAccessStatistics(token, studentId, StatisticsAccessType.STUDENT)) {
+        if (!canAccessStatistics(currentUser, studentId, StatisticsAccessType.STUDENT)) {
             throw new RuntimeException("You don't have permission to view this student's statistics");
         }
 
@@ -516,12 +545,20 @@ public class StatisticsService {
         List<Subject> subjects = subjectRepository.findAll();
         Map<String, StatisticViewDto> subjectStatistics = new HashMap<>();
 
+        // Все попытки ученика одним запросом вместо запроса на каждый тест;
+        // тесты догружаются пачками по hibernate.default_batch_fetch_size
+        Map<Long, List<TestResult>> resultsByTest = testResultRepository.findByStudentId(studentId).stream()
+                .collect(Collectors.groupingBy(r -> r.getTest().getId()));
+        Map<Long, List<Test>> testsBySubject = resultsByTest.values().stream()
+                .map(results -> results.get(0).getTest())
+                .collect(Collectors.groupingBy(test -> test.getSubject().getId()));
+
         for (Subject subject : subjects) {
-            List<Test> tests = testRepository.findBySubjectId(subject.getId());
+            List<Test> tests = testsBySubject.getOrDefault(subject.getId(), Collections.emptyList());
             List<SubjectStatDto> testStats = new ArrayList<>();
 
             for (Test test : tests) {
-                List<TestResult> results = testResultRepository.findByStudentIdAndTestId(studentId, test.getId());
+                List<TestResult> results = resultsByTest.get(test.getId());
 
                 // Filter only completed attempts
                 List<TestResult> completedResults = results.stream()
@@ -582,8 +619,9 @@ public class StatisticsService {
     /**
      * Get top students in school across all subjects
      */
-    public StatisticViewDto getTopStudentsInSchool(String token) {
-        User currentUser = authService.getCurrentUser(token.replace("Bearer ", ""));
+    @Timed(value = "schooltest.statistics", extraTags = {"view", "top-students"})
+    public StatisticViewDto getTopStudentsInSchool(Long userId) {
+        User currentUser = loadUser(userId);
 
         // Only admin and teachers can view school-wide statistics
         if (currentUser.getRole() != UserRole.ADMIN && currentUser.getRole() != UserRole.TEACHER) {
@@ -671,6 +709,18 @@ public class StatisticsService {
     }
 
     // Helper methods
+
+    /**
+     * Квантили и гистограмма по 10% из хранимого распределения лучших результатов - без обхода попыток
+     */
+    private void applyDistribution(StatisticViewDto viewDto, ScoreDistribution.Scope scope, Long scopeId) {
+        ScoreHistogram histogram = scoreDistributionService.get(scope, scopeId);
+        viewDto.setP10(histogram.quantile(0.1));
+        viewDto.setP50(histogram.quantile(0.5));
+        viewDto.setP90(histogram.quantile(0.9));
+        viewDto.setScoreHistogram(histogram.bins(10));
+    }
+
     private double calculateAverageScore(List<UserStatDto> stats) {
         if (stats.isEmpty()) {
             return 0.0;
@@ -0,0 +1,67 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.User;
+import org.ineydlis.schooltest.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Одноразовые короткоживущие билеты для SSE-потоков. EventSource не умеет передавать заголовки,
+ * поэтому клиент сначала получает билет обычным запросом с токеном в заголовке и открывает поток
+ * с билетом в адресе. В логи и историю браузера попадает только билет: он действует
+ * app.stream-ticket.ttl-seconds и гасится при первом использовании.
+ */
+@Service
+public class StreamTicketService {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final UserRepository userRepository;
+    private final long ttlMillis;
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+
+    private record Ticket(Long userId, long expiresAt) {
+    }
+
+    @Autowired
+    public StreamTicketService(UserRepository userRepository,
+                               @Value("${app.stream-ticket.ttl-seconds:30}") long ttlSeconds) {
+        this.userRepository = userRepository;
+        this.ttlMillis = TimeUnit.SECONDS.toMillis(ttlSeconds);
+    }
+
+    public String issue(User user) {
+        byte[] bytes = new byte[32];
+        RANDOM.nextBytes(bytes);
+        String ticket = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        tickets.put(ticket, new Ticket(user.getId(), System.currentTimeMillis() + ttlMillis));
+        return ticket;
+    }
+
+    /**
+     * Гасит билет и возвращает его владельца, если билет ещё действует, а пользователь активен
+     */
+    public Optional<User> redeem(String ticket) {
+        Ticket redeemed = tickets.remove(ticket);
+        if (redeemed == null || redeemed.expiresAt() < System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        return userRepository.findById(redeemed.userId()).filter(User::isActive);
+    }
+
+    // Неиспользованные билеты не копятся
+    @Scheduled(fixedDelay = 60000)
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        tickets.values().removeIf(ticket -> ticket.expiresAt() < now);
+    }
+}
@@ -0,0 +1,188 @@
+package org.ineydlis.schooltest.service;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Рассылает события попыток ({@link AttemptEvent}) учителям, открывшим поток прогресса теста.
+ * Подписчики хранятся по testId, поэтому событие не трогает базу.
+ * <p>
+ * Отправка идёт на отдельном ограниченном пуле: поток, опубликовавший событие (отправка ответов учеником),
+ * только ставит рассылку в очередь. У каждого подписчика своя очередь, которую разбирает одна задача пула,
+ * поэтому события приходят по порядку; подписчик, отставший больше чем на app.progress-stream.max-pending
+ * событий, отключается - EventSource переподключится и дочитает список обычным запросом.
+ */
+@Slf4j
+@Service
+public class TestProgressHub {
+
+    private final Map<Long, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor senders;
+    private final long timeoutMs;
+    private final int maxPending;
+
+    @Autowired
+    public TestProgressHub(@Value("${app.progress-stream.timeout-ms:1800000}") long timeoutMs,
+                           @Value("${app.progress-stream.senders:4}") int senders,
+                           @Value("${app.progress-stream.queue-capacity:1000}") int queueCapacity,
+                           @Value("${app.progress-stream.max-pending:32}") int maxPending) {
+        this.timeoutMs = timeoutMs;
+        this.maxPending = maxPending;
+        this.senders = new ThreadPoolExecutor(senders, senders, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("progress-stream-", 0).daemon().factory());
+    }
+
+    public SseEmitter subscribe(Long testId) {
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(testId, emitter);
+        subscribers.compute(testId, (id, list) -> {
+            List<Subscriber> result = list != null ? list : new CopyOnWriteArrayList<>();
+            result.add(subscriber);
+            return result;
+        });
+
+        Runnable remove = () -> unsubscribe(subscriber);
+        emitter.onCompletion(remove);
+        emitter.onTimeout(remove);
+        emitter.onError(e -> remove.run());
+
+        // Первый комментарий сразу отправляет заголовки, EventSource переходит в состояние open
+        subscriber.offer(() -> SseEmitter.event().comment("subscribed"));
+        return emitter;
+    }
+
+    // Рассылаем только после коммита: учитель не должен увидеть попытку, которая откатилась
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onAttemptEvent(AttemptEvent event) {
+        List<Subscriber> list = subscribers.get(event.testId());
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+
+        Map<String, Object> payload = Map.of(
+                "type", event.type().name(),
+                "result", event.result());
+        for (Subscriber subscriber : list) {
+            subscriber.offer(() -> SseEmitter.event()
+                    .name("attempt")
+                    .data(payload, MediaType.APPLICATION_JSON));
+        }
+    }
+
+    // Прокси и балансировщики закрывают молчащие соединения, поэтому периодически шлём комментарий
+    @Scheduled(fixedDelayString = "${app.progress-stream.heartbeat-ms:20000}")
+    public void heartbeat() {
+        subscribers.values().forEach(list -> list.forEach(subscriber ->
+                subscriber.offer(() -> SseEmitter.event().comment("ping"))));
+    }
+
+    // При остановке закрываем потоки сами, иначе контейнер ждёт их таймаута
+    @PreDestroy
+    public void completeAll() {
+        senders.shutdownNow();
+        subscribers.values().forEach(list -> list.forEach(subscriber -> subscriber.emitter.complete()));
+        subscribers.clear();
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.values().stream().mapToInt(List::size).sum();
+    }
+
+    private void unsubscribe(Subscriber subscriber) {
+        subscribers.computeIfPresent(subscriber.testId, (id, list) -> {
+            list.remove(subscriber);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    /**
+     * Подписчик со своей очередью событий. Очередь разбирает не больше одной задачи пула одновременно
+     */
+    private final class Subscriber {
+        private final Long testId;
+        private final SseEmitter emitter;
+        private final Queue<Supplier<SseEmitter.SseEventBuilder>> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Subscriber(Long testId, SseEmitter emitter) {
+            this.testId = testId;
+            this.emitter = emitter;
+        }
+
+        private void offer(Supplier<SseEmitter.SseEventBuilder> event) {
+            if (pendingCount.incrementAndGet() > maxPending) {
+                drop("не успевает получать события");
+                return;
+            }
+            pending.add(event);
+            schedule();
+        }
+
+        private void schedule() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                senders.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                draining.set(false);
+                drop("очередь рассылки переполнена");
+            }
+        }
+
+        private void drain() {
+            try {
+                Supplier<SseEmitter.SseEventBuilder> event;
+                while ((event = pending.poll()) != null) {
+                    pendingCount.decrementAndGet();
+                    try {
+                        emitter.send(event.get());
+                    } catch (IOException | IllegalStateException e) {
+                        // Клиент ушёл: соединение уже закрыто, достаточно забыть подписчика
+                        log.debug("Подписчик потока теста {} отключился: {}", testId, e.getMessage());
+                        pending.clear();
+                        unsubscribe(this);
+                        return;
+                    }
+                }
+            } finally {
+                draining.set(false);
+            }
+            // Событие могло прийти между последним poll и сбросом флага
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+
+        private void drop(String reason) {
+            log.debug("Подписчик потока теста {} отключён: {}", testId, reason);
+            pending.clear();
+            unsubscribe(this);
+            emitter.complete();
+        }
+    }
+}
@@ -1,30 +1,43 @@
 package org.ineydlis.schooltest.service;
 
+import io.micrometer.core.annotation.Timed;
 import org.ineydlis.schooltest.dto.*;
+import org.ineydlis.schooltest.interceptor.QueryCounter;
 import org.ineydlis.schooltest.model.*;
 import org.ineydlis.schooltest.repository.*;
+import org.ineydlis.schooltest.util.AnswerVectorCodec;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Isolation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 @Service
 public class TestService {
     @Value("${app.upload.dir:${user.home}/uploads/materials}")
     private String uploadDir;
+    // Новые ответы - одним закодированным значением в test_results.answer_vector, а не строками student_answers.
+    // Включается явно: обратного переноса из векторов в строки нет
+    @Value("${app.answers.vector-storage:false}")
+    private boolean answerVectorStorage;
+    @Value("${app.pagination.max-page-size:100}")
+    private int maxPageSize;
     @Autowired
     private TestRepository testRepository;
 
@@ -40,35 +53,37 @@ public class TestService {
     @Autowired
     private UserRepository userRepository;
 
-    private void createUploadDirectoryIfNeeded() {
-        try {
-            Path dirPath = Paths.get(uploadDir);
-            if (!Files.exists(dirPath)) {
-                Files.createDirectories(dirPath);
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Не удалось создать директорию для загрузки файлов", e);
-        }
-    }
-    private String generateUniqueFilename(Long testId, String originalFilename) {
-        return "test_" + testId + "_" + System.currentTimeMillis() + "_" + originalFilename;
-    }
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
-    private void saveReferenceMaterials(Test test, MultipartFile file) {
-        if (file != null && !file.isEmpty()) {
-            try {
-                createUploadDirectoryIfNeeded();
+    @Autowired
+    private TestSnapshotCache testSnapshotCache;
 
-                // Generate a unique filename
-                String filename = generateUniqueFilename(test.getId(), file.getOriginalFilename());
-                Path targetLocation = Paths.get(uploadDir).resolve(filename);
+    @Autowired
+    private ItemAnalysisService itemAnalysisService;
 
-                // Copy the file to the target location
-                Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+    @Autowired
+    private ScoreDistributionService scoreDistributionService;
+
+    @Autowired
+    private DataVersions dataVersions;
+
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private UploadSessionService uploadSessionService;
+
+    // Файлы справочных материалов лежат в хранилище по содержимому: одинаковые PDF из разных тестов - один файл
+    private void saveReferenceMaterials(Test test, MultipartFile file) {
+        if (file != null && !file.isEmpty()) {
+            try (InputStream in = file.getInputStream()) {
+                BlobStore.StoredBlob blob = blobStore.store(in);
+                blobStore.acquire(blob);
 
                 // Set the reference materials properties
                 test.setReferenceMaterialsFilename(file.getOriginalFilename());
-                test.setReferenceMaterialsPath(filename);
+                test.setReferenceMaterialsPath(blob.hash());
             } catch (IOException e) {
                 throw new RuntimeException("Не удалось сохранить файл справочных материалов", e);
             }
@@ -76,13 +91,26 @@ public class TestService {
     }
 
 
+    // Файл, загруженный по частям через /api/uploads, уже лежит в хранилище - остаётся взять на него ссылку
+    private void attachUploadedReferenceMaterials(Test test, String uploadId, Long userId) {
+        UploadSessionService.CompletedUpload upload = uploadSessionService.take(uploadId, userId);
+        blobStore.acquire(upload.blob());
+
+        test.setReferenceMaterialsFilename(upload.filename());
+        test.setReferenceMaterialsPath(upload.blob().hash());
+    }
+
     @Autowired
     private TestResultRepository testResultRepository;
     private void deleteReferenceMaterials(Test test) {
         if (test.getReferenceMaterialsPath() != null) {
             try {
-                Path filePath = Paths.get(uploadDir).resolve(test.getReferenceMaterialsPath());
-                Files.deleteIfExists(filePath);
+                if (BlobStore.isKey(test.getReferenceMaterialsPath())) {
+                    // Файл удалит сборщик, когда на него не останется ссылок
+                    blobStore.release(test.getReferenceMaterialsPath());
+                } else {
+                    Files.deleteIfExists(Paths.get(uploadDir).resolve(test.getReferenceMaterialsPath()));
+                }
 
                 // Clear the reference materials properties
                 test.setReferenceMaterialsFilename(null);
@@ -93,7 +121,10 @@ public class TestService {
         }
     }
 
-    public Resource getReferenceMaterialsFile(Long testId, Long userId) {
+    /**
+     * Путь к файлу справочных материалов после проверки доступа пользователя к тесту
+     */
+    public Path getReferenceMaterialsFile(Long testId, Long userId) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
 
@@ -124,18 +155,14 @@ public class TestService {
             throw new RuntimeException("У этого теста нет справочных материалов");
         }
 
-        try {
-            Path filePath = Paths.get(uploadDir).resolve(test.getReferenceMaterialsPath());
-            Resource resource = new UrlResource(filePath.toUri());
-
-            if (resource.exists()) {
-                return resource;
-            } else {
-                throw new RuntimeException("Файл справочных материалов не найден");
-            }
-        } catch (IOException e) {
-            throw new RuntimeException("Не удалось получить файл справочных материалов", e);
+        // Файлы, загруженные до хранилища по содержимому, остаются в каталоге загрузок
+        Path filePath = BlobStore.isKey(test.getReferenceMaterialsPath())
+                ? blobStore.pathOf(test.getReferenceMaterialsPath())
+                : Paths.get(uploadDir).resolve(test.getReferenceMaterialsPath());
+        if (!Files.isReadable(filePath)) {
+            throw new RuntimeException("Файл справочных материалов не найден");
         }
+        return filePath;
     }
 
     public String getReferenceMaterialsFilename(Long testId) {
@@ -204,18 +231,18 @@ public class TestService {
 
         // Add available grades
         if (request.getGradeIds() != null && !request.getGradeIds().isEmpty()) {
-            Set<Grade> grades = request.getGradeIds().stream()
-                    .map(id -> gradeRepository.findById(id)
-                            .orElseThrow(() -> new RuntimeException("Класс не найден: " + id)))
-                    .collect(Collectors.toSet());
-            test.setAvailableGrades(grades);
+            test.setAvailableGrades(findGrades(request.getGradeIds()));
         }
+        QueryCounter.addItems(rowsOf(request));
 
         Test savedTest = testRepository.save(test);
 
         if (referenceMaterials != null && !referenceMaterials.isEmpty()) {
             saveReferenceMaterials(savedTest, referenceMaterials);
             testRepository.save(savedTest);
+        } else if (request.getReferenceMaterialsUploadId() != null) {
+            attachUploadedReferenceMaterials(savedTest, request.getReferenceMaterialsUploadId(), creatorId);
+            testRepository.save(savedTest);
         }
 
         // Create questions and answers
@@ -245,11 +272,14 @@ public class TestService {
             }
         }
 
+        dataVersions.bump(DataVersions.Scope.CATALOG);
+
         // Return the created test
         return TestDto.fromEntity(savedTest);
     }
 
     // Get all tests (for admins)
+    @Transactional(readOnly = true)
     public List<TestDto> getAllTests() {
         return testRepository.findAll().stream()
                 .map(TestDto::fromEntity)
@@ -257,6 +287,7 @@ public class TestService {
     }
 
     // Get tests by teacher
+    @Transactional(readOnly = true)
     public List<TestDto> getTestsByTeacher(Long teacherId) {
         User teacher = userRepository.findById(teacherId)
                 .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
@@ -265,6 +296,7 @@ public class TestService {
                 .collect(Collectors.toList());
     }
 
+    @Transactional(readOnly = true)
     public List<TestDto> getTestsForStudent(Long studentId) {
         // Начало метода без изменений
         User student = userRepository.findById(studentId)
@@ -280,12 +312,19 @@ public class TestService {
 
         List<Test> tests = testRepository.findByAvailableGradesAndActive(student.getGrade());
         List<TestDto> testDtos = new ArrayList<>();
+        if (tests.isEmpty()) {
+            return testDtos;
+        }
+
+        // Все попытки ученика по тестам каталога, сгруппированные по тесту
+        Map<Long, List<TestResult>> attemptsByTest = testResultRepository.findByStudentAndTestIn(student, tests).stream()
+                .collect(Collectors.groupingBy(tr -> tr.getTest().getId()));
 
         for (Test test : tests) {
             TestDto testDto = TestDto.fromEntity(test);
 
             // Найдем все попытки для этого теста и этого ученика
-            List<TestResult> attempts = testResultRepository.findByTestAndStudent(test, student);
+            List<TestResult> attempts = attemptsByTest.getOrDefault(test.getId(), Collections.emptyList());
 
             // Найдем лучшую попытку по процентному соотношению (score/maxScore)
             TestResult bestAttempt = attempts.stream()
@@ -392,8 +431,7 @@ public class TestService {
         }
 
         // Delete test results
-        List<TestResult> results = testResultRepository.findByTest(test);
-        testResultRepository.deleteAll(results);
+        deleteResults(test);
 
         // Update test properties instead of recreating
         test.setTitle(request.getTitle());
@@ -411,11 +449,7 @@ public class TestService {
         // Update grades
         if (request.getGradeIds() != null) {
             test.getAvailableGrades().clear();
-            Set<Grade> grades = request.getGradeIds().stream()
-                    .map(id -> gradeRepository.findById(id)
-                            .orElseThrow(() -> new RuntimeException("Класс не найден: " + id)))
-                    .collect(Collectors.toSet());
-            test.setAvailableGrades(grades);
+            test.setAvailableGrades(findGrades(request.getGradeIds()));
         }
         if (removeReferenceMaterials) {
             // Delete existing reference materials
@@ -429,8 +463,14 @@ public class TestService {
             }
             // Save new reference materials
             saveReferenceMaterials(test, referenceMaterials);
+        } else if (request.getReferenceMaterialsUploadId() != null) {
+            deleteReferenceMaterials(test);
+            attachUploadedReferenceMaterials(test, request.getReferenceMaterialsUploadId(), userId);
         }
         // Clear and update questions
+        // Старые вопросы и варианты удаляются по одной строке, новые так же вставляются
+        QueryCounter.addItems(test.getQuestions().stream().mapToInt(q -> 1 + q.getAnswers().size()).sum()
+                + rowsOf(request));
         questionRepository.deleteAll(test.getQuestions());
         test.getQuestions().clear();
 
@@ -459,6 +499,7 @@ public class TestService {
 
         // Save and return
         Test savedTest = testRepository.save(test);
+        dataVersions.bump(DataVersions.Scope.CATALOG);
         return TestDto.fromEntity(savedTest);
     }
     @Transactional
@@ -481,11 +522,12 @@ public class TestService {
         }
 
         // Find and delete all test results associated with this test
-        List<TestResult> results = testResultRepository.findByTest(test);
-        testResultRepository.deleteAll(results);
+        deleteResults(test);
 
         // Delete the test itself
         testRepository.delete(test);
+        dataVersions.bump(DataVersions.Scope.CATALOG);
+        testSnapshotCache.evict(testId);
     }
     // Delete a test (for teachers and admins)
     @Transactional
@@ -506,6 +548,7 @@ public class TestService {
         // Always mark as inactive instead of deleting
         test.setActive(false);
         testRepository.save(test);
+        dataVersions.bump(DataVersions.Scope.CATALOG);
     }
     @Transactional
     public TestDto reactivateTest(Long testId, Long userId, boolean clearAttempts) {
@@ -533,14 +576,47 @@ public class TestService {
 
         // Clear all attempts if requested
         if (clearAttempts) {
-            List<TestResult> results = testResultRepository.findByTest(test);
-            testResultRepository.deleteAll(results);
+            deleteResults(test);
         }
 
         Test savedTest = testRepository.save(test);
+        dataVersions.bump(DataVersions.Scope.CATALOG);
         return TestDto.fromEntity(savedTest);
     }
 
+    // Удаляет все попытки теста вместе с их вкладом в распределения результатов и анализ вопросов,
+    // иначе повторные попытки после правки или сброса учитываются поверх удалённых
+    private void deleteResults(Test test) {
+        scoreDistributionService.forgetResults(test.getId());
+        itemAnalysisService.forgetTest(test.getId());
+        testResultRepository.deleteAnswerChoicesByTestId(test.getId());
+        testResultRepository.deleteStudentAnswersByTestId(test.getId());
+        testResultRepository.deleteSelectedQuestionsByTestId(test.getId());
+        testResultRepository.deleteAllByTestId(test.getId());
+    }
+
+    // Строки, которые сохранение теста пишет по одной (IDENTITY-ключи не батчатся):
+    // вопросы, варианты ответов и связи с классами. Бюджет запросов эндпоинта растёт на каждую
+    private static int rowsOf(TestCreateRequest request) {
+        int rows = request.getGradeIds() != null ? request.getGradeIds().size() : 0;
+        if (request.getQuestions() != null) {
+            for (QuestionDto question : request.getQuestions()) {
+                rows += 1 + (question.getAnswers() != null ? question.getAnswers().size() : 0);
+            }
+        }
+        return rows;
+    }
+
+    private Set<Grade> findGrades(List<Long> gradeIds) {
+        Set<Grade> grades = new HashSet<>(gradeRepository.findAllById(gradeIds));
+        for (Long id : gradeIds) {
+            if (grades.stream().noneMatch(grade -> grade.getId().equals(id))) {
+                throw new RuntimeException("Класс не найден: " + id);
+            }
+        }
+        return grades;
+    }
+
     public TestResultDto getInProgressTest(Long testId, Long studentId) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
@@ -565,6 +641,7 @@ public class TestService {
     }
 
     @Transactional(isolation = Isolation.SERIALIZABLE)
+    @Timed(value = "schooltest.test.start", description = "Начало попытки прохождения теста")
     public TestResultDto startTest(Long testId, Long studentId) {
         Test test = testRepository.findById(testId)
                 .orElseThrow(() -> new RuntimeException("Тест не найден"));
@@ -613,11 +690,14 @@ public class TestService {
             // Check if the most recent test is too old (e.g., abandoned)
             LocalDateTime deadline = mostRecent.getStartedAt().plusMinutes(test.getTimeLimit());
             if (LocalDateTime.now().isAfter(deadline)) {
-                // If the test has expired, mark it as completed with zero score
+                // Ответы так и не пришли: завершаем с нулём на момент дедлайна, как expireAttempt
                 mostRecent.setCompleted(true);
-                mostRecent.setCompletedAt(LocalDateTime.now());
+                mostRecent.setCompletedAt(deadline);
                 mostRecent.setScore(0);
                 testResultRepository.save(mostRecent);
+                TestResultDto expired = TestResultDto.fromEntity(mostRecent);
+                expired.setMessage("Время выполнения теста истекло, ответы не были отправлены.");
+                publishAttemptEvent(AttemptEvent.Type.EXPIRED, mostRecent, expired);
 
                 // Create a new test attempt
                 return createNewTestAttempt(test, student, completedAttempts.size() + 1);
@@ -630,6 +710,25 @@ public class TestService {
         return createNewTestAttempt(test, student, completedAttempts.size() + 1);
     }
 
+    /**
+     * Завершает попытку, время которой вышло, а ответы так и не пришли (вызывается планировщиком дедлайнов)
+     *
+     * @return результат, если попытка была открыта и завершена этим вызовом
+     */
+    @Transactional
+    public Optional<TestResultDto> expireAttempt(Long testResultId, LocalDateTime deadline) {
+        if (testResultRepository.completeIfOpen(testResultId, deadline) == 0) {
+            return Optional.empty();
+        }
+
+        TestResult testResult = testResultRepository.findById(testResultId)
+                .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
+        TestResultDto resultDto = TestResultDto.fromEntity(testResult);
+        resultDto.setMessage("Время выполнения теста истекло, ответы не были отправлены.");
+        publishAttemptEvent(AttemptEvent.Type.EXPIRED, testResult, resultDto);
+        return Optional.of(resultDto);
+    }
+
     // Helper method to create a new test attempt
     private TestResultDto createNewTestAttempt(Test test, User student, int attemptNumber) {
         TestResult testResult = new TestResult();
@@ -639,15 +738,24 @@ public class TestService {
         testResult.setCompleted(false);
         testResult.setAttemptNumber(attemptNumber);
 
-        // НЕ устанавливаем maxScore тут, а сделаем это после выбора вопросов
-        // Изначальное значение будем ставить только для сохранения структуры
-        testResult.setMaxScore(0);
+        // Вопросы попытки определяются зерном, поэтому максимальный балл известен сразу
+        TestSnapshot snapshot = testSnapshotCache.get(test);
+        testResult.setQuestionSeed(ThreadLocalRandom.current().nextLong());
+        testResult.setMaxScore(snapshot.maxScore(snapshot.selectedQuestionIds(testResult)));
 
         TestResult savedResult = testResultRepository.save(testResult);
-        return TestResultDto.fromEntity(savedResult);
+        TestResultDto resultDto = TestResultDto.fromEntity(savedResult);
+        publishAttemptEvent(AttemptEvent.Type.STARTED, savedResult, resultDto);
+        return resultDto;
+    }
+
+    private void publishAttemptEvent(AttemptEvent.Type type, TestResult result, TestResultDto resultDto) {
+        Grade grade = result.getStudent().getGrade();
+        eventPublisher.publishEvent(new AttemptEvent(type, resultDto, grade != null ? grade.getId() : null));
     }
 
     // Get questions for a test (for students taking the test)
+    @Timed(value = "schooltest.test.questions", description = "Выдача вопросов попытки")
     public List<QuestionDto> getTestQuestions(Long testId, Long testResultId, Long studentId) {
         TestResult testResult = testResultRepository.findById(testResultId)
                 .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
@@ -667,83 +775,48 @@ public class TestService {
 
         Test test = testResult.getTest();
         List<Question> allQuestions = test.getQuestions();
+        TestSnapshot snapshot = testSnapshotCache.get(test);
 
-        // If questionsToShow is null or less than or equal to 0, or greater than total questions, show all questions
-        if (test.getQuestionsToShow() == null || test.getQuestionsToShow() <= 0 || test.getQuestionsToShow() >= allQuestions.size()) {
-            // Если отображаются все вопросы, устанавливаем maxScore как сумму баллов всех вопросов
-            int totalMaxScore = allQuestions.stream()
-                    .mapToInt(Question::getPoints)
-                    .sum();
-            testResult.setMaxScore(totalMaxScore);
+        // Попытка, начатая до появления зерна и ещё без выбранных вопросов, получает зерно сейчас
+        if (testResult.getQuestionSeed() == null && snapshot.questionsToShow() > 0
+                && (testResult.getSelectedQuestionIds() == null || testResult.getSelectedQuestionIds().isEmpty())) {
+            testResult.setQuestionSeed(ThreadLocalRandom.current().nextLong());
             testResultRepository.save(testResult);
-
-            return allQuestions.stream()
-                    .map(q -> QuestionDto.fromEntity(q, false))
-                    .collect(Collectors.toList());
         }
 
-        // If this is a new test result without assigned questions, randomly select questions
-        if (testResult.getSelectedQuestionIds() == null || testResult.getSelectedQuestionIds().isEmpty()) {
-            // Create a copy of the questions list and shuffle it
-            List<Question> questionsCopy = new ArrayList<>(allQuestions);
-            Collections.shuffle(questionsCopy);
-
-            // Take only the required number of questions
-            List<Question> selectedQuestions = questionsCopy.subList(0, test.getQuestionsToShow());
-
-            // Store the selected question IDs in the test result for consistency between requests
-            List<Long> selectedQuestionIds = selectedQuestions.stream()
-                    .map(Question::getId)
-                    .collect(Collectors.toList());
-
-            // ВАЖНО: Вычисляем maxScore на основе выбранных вопросов
-            int selectedQuestionsMaxScore = selectedQuestions.stream()
-                    .mapToInt(Question::getPoints)
-                    .sum();
-
-            testResult.setSelectedQuestionIds(selectedQuestionIds);
-            testResult.setMaxScore(selectedQuestionsMaxScore); // Устанавливаем правильный maxScore
-            testResultRepository.save(testResult);
-
-            return selectedQuestions.stream()
-                    .map(q -> QuestionDto.fromEntity(q, false))
-                    .collect(Collectors.toList());
+        // Выборка пересчитывается из зерна - в базу ничего не пишется
+        List<Long> selectedQuestionIds = snapshot.selectedQuestionIds(testResult);
+        List<Question> questions;
+        if (selectedQuestionIds == null) {
+            questions = allQuestions;
         } else {
-            // Use the previously selected questions
-            List<Long> selectedQuestionIds = testResult.getSelectedQuestionIds();
-
-            // Create a map for quick lookup of questions by ID
             Map<Long, Question> questionMap = allQuestions.stream()
                     .collect(Collectors.toMap(Question::getId, q -> q));
-
-            // Retrieve the previously selected questions in the original order
-            List<Question> selectedQuestions = selectedQuestionIds.stream()
+            questions = selectedQuestionIds.stream()
                     .map(questionMap::get)
                     .filter(Objects::nonNull) // Filter out any questions that might have been deleted
                     .collect(Collectors.toList());
+        }
 
-            // ВАЖНО: Проверяем, что maxScore соответствует выбранным вопросам
-            // Это может быть полезно, если вопросы были изменены между запусками теста
-            int selectedQuestionsMaxScore = selectedQuestions.stream()
-                    .mapToInt(Question::getPoints)
-                    .sum();
-
-            // Обновляем maxScore, если он не соответствует выбранным вопросам
-            if (testResult.getMaxScore() != selectedQuestionsMaxScore) {
-                testResult.setMaxScore(selectedQuestionsMaxScore);
-                testResultRepository.save(testResult);
-            }
-
-            return selectedQuestions.stream()
-                    .map(q -> QuestionDto.fromEntity(q, false))
-                    .collect(Collectors.toList());
+        // maxScore ставится при начале попытки; старые попытки со значением 0 исправляются один раз
+        int maxScore = snapshot.maxScore(selectedQuestionIds);
+        if (testResult.getMaxScore() == null || testResult.getMaxScore() != maxScore) {
+            testResult.setMaxScore(maxScore);
+            testResultRepository.save(testResult);
         }
+
+        return questions.stream()
+                .map(q -> QuestionDto.fromEntity(q, false))
+                .collect(Collectors.toList());
     }
 
     // Submit answers for a test
     @Transactional
+    @Timed(value = "schooltest.test.submit", description = "Проверка и сохранение ответов")
     public TestResultDto submitTest(TestSubmissionRequest request, Long studentId) {
-        TestResult testResult = testResultRepository.findById(request.getTestResultId())
+        // Блокировка до конца транзакции: если попытку уже закрыл планировщик дедлайнов, увидим completed,
+        // а его completeIfOpen, пришедший позже, дождётся отправки и ничего не изменит
+        TestResult testResult = testResultRepository.findByIdForUpdate(request.getTestResultId())
                 .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
 
         // Verify that this test result belongs to the student
@@ -768,20 +841,18 @@ public class TestService {
         // Process student answers
         int totalScore = 0;
 
+        TestSnapshot snapshot = testSnapshotCache.get(test);
+
         // Create a map of questionId -> Question for faster access
         Map<Long, Question> questionMap = test.getQuestions().stream()
                 .collect(Collectors.toMap(Question::getId, q -> q));
 
-        // Get the list of questions that should be considered for scoring
-        List<Long> questionIdsToConsider;
-        if (testResult.getSelectedQuestionIds() != null && !testResult.getSelectedQuestionIds().isEmpty()) {
-            questionIdsToConsider = testResult.getSelectedQuestionIds();
-        } else {
-            // If no specific questions were selected, consider all questions
-            questionIdsToConsider = test.getQuestions().stream()
-                    .map(Question::getId)
-                    .collect(Collectors.toList());
-        }
+        // Get the set of questions that should be considered for scoring
+        List<Long> selectedQuestionIds = snapshot.selectedQuestionIds(testResult);
+        Set<Long> questionIdsToConsider = selectedQuestionIds != null
+                ? new HashSet<>(selectedQuestionIds)
+                // If no specific questions were selected, consider all questions
+                : snapshot.questions().keySet();
 
         // ВНИМАНИЕ: maxPossibleScore уже установлен в testResult.getMaxScore()
         // при выборе вопросов, поэтому мы можем его использовать напрямую
@@ -809,13 +880,9 @@ public class TestService {
                 case TEXT_ANSWER:
                     studentAnswer.setTextAnswer(answerRequest.getTextAnswer());
 
-                    // For text answers, we need custom logic to determine correctness
-                    if (question.getAnswers().size() > 0) {
-                        String correctAnswer = question.getAnswers().get(0).getText().trim().toLowerCase();
-                        String providedAnswer = answerRequest.getTextAnswer() != null ?
-                                answerRequest.getTextAnswer().trim().toLowerCase() : "";
-                        isCorrect = correctAnswer.equals(providedAnswer);
-                    }
+                    // Варианты ответа скомпилированы в снимке теста один раз на его версию
+                    isCorrect = snapshot.questions().get(question.getId()).textMatcher()
+                            .matches(answerRequest.getTextAnswer());
                     break;
 
                 case SINGLE_CHOICE:
@@ -911,6 +978,28 @@ public class TestService {
             testResult.getStudentAnswers().add(studentAnswer);
         }
 
+        // Итоги по вопросам с маской выбранных вариантов: для анализа вопросов и для хранения ответов вектором
+        List<AnswerVectorCodec.Entry> entries = new ArrayList<>();
+        Map<Long, ItemAnalysisService.Outcome> outcomes = new HashMap<>();
+        for (StudentAnswer answer : testResult.getStudentAnswers()) {
+            AnswerVectorCodec.Entry entry = toVectorEntry(answer, snapshot.questions().get(answer.getQuestion().getId()));
+            entries.add(entry);
+            outcomes.putIfAbsent(entry.questionId(),
+                    new ItemAnalysisService.Outcome(entry.correct(), entry.earnedPoints(), entry.selected()));
+        }
+        // Суммы анализа и счётчики выбора вариантов меняются в той же транзакции
+        itemAnalysisService.record(snapshot, questionIdsToConsider, outcomes, totalScore, maxPossibleScore);
+
+        if (answerVectorStorage) {
+            testResult.setAnswerVector(AnswerVectorCodec.encode(entries));
+            testResult.getStudentAnswers().clear();
+        } else {
+            // Строками: ответ и каждый выбранный вариант вставляются отдельными запросами
+            QueryCounter.addItems(testResult.getStudentAnswers().stream()
+                    .mapToInt(answer -> 1 + answer.getSelectedAnswers().size())
+                    .sum());
+        }
+
         // Mark test as completed
         testResult.setCompleted(true);
         testResult.setCompletedAt(LocalDateTime.now());
@@ -923,9 +1012,16 @@ public class TestService {
         if (timeExpired) {
             resultDto.setMessage("Время выполнения теста истекло. Учтены только предоставленные ответы.");
         }
+        publishAttemptEvent(AttemptEvent.Type.SUBMITTED, savedResult, resultDto);
 
         return resultDto;
     }
+    private static AnswerVectorCodec.Entry toVectorEntry(StudentAnswer answer, TestSnapshot.QuestionSnapshot question) {
+        Set<Long> selectedIds = answer.getSelectedAnswers().stream().map(Answer::getId).collect(Collectors.toSet());
+        return new AnswerVectorCodec.Entry(question.id(), answer.isCorrect(), answer.getEarnedPoints(),
+                answer.getTextAnswer(), AnswerVectorCodec.toMask(question.optionIds(), selectedIds));
+    }
+
     // Get test results for a student
     public List<TestResultDto> getStudentResults(Long studentId) {
         User student = userRepository.findById(studentId)
@@ -976,7 +1072,7 @@ public class TestService {
      * @return Детальная информация о результате теста
      */
     public TestResultDetailsDto getTestResultDetails(Long resultId, Long userId) {
-        TestResult result = testResultRepository.findById(resultId)
+        TestResult result = testResultRepository.findDetailsById(resultId)
                 .orElseThrow(() -> new RuntimeException("Результат теста не найден"));
 
         User user = userRepository.findById(userId)
@@ -1006,7 +1102,7 @@ public class TestService {
             throw new RuntimeException("Этот тест еще не завершен");
         }
 
-        return TestResultDetailsDto.fromEntity(result);
+        return TestResultDetailsDto.fromEntity(result, testSnapshotCache.get(result.getTest()));
     }
     // Get test results for a test (for teachers and admins)
     public List<TestResultDto> getTestResults(Long testId, Long userId) {
@@ -1016,9 +1112,81 @@ public class TestService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
 
-        // Check permissions
+        checkTestResultsAccess(test, user);
+
+        return testResultRepository.findByTest(test).stream()
+                .map(TestResultDto::fromEntity)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Страница завершённых результатов ученика, от новых к старым
+     *
+     * @param cursor курсор из предыдущей страницы или null для первой
+     */
+    public CursorPageDto<TestResultDto> getStudentResultsPage(Long studentId, String cursor, int size) {
+        User student = userRepository.findById(studentId)
+                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+
+        if (student.getRole() != UserRole.STUDENT) {
+            throw new RuntimeException("Пользователь не является учеником");
+        }
+
+        int pageSize = clampPageSize(size);
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+        List<TestResultDto> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = testResultRepository.findCompletedRowsByStudent(studentId, limit);
+        } else {
+            ResultCursor after = ResultCursor.decode(cursor);
+            rows = testResultRepository.findCompletedRowsByStudentAfter(studentId, after.completedAt(), after.id(), limit);
+        }
+        return CursorPageDto.of(rows, pageSize, ResultCursor::encode);
+    }
+
+    /**
+     * Страница завершённых результатов по тесту (для учителей и администраторов), от новых к старым
+     *
+     * @param cursor курсор из предыдущей страницы или null для первой
+     */
+    public CursorPageDto<TestResultDto> getTestResultsPage(Long testId, Long userId, String cursor, int size) {
+        Test test = testRepository.findById(testId)
+                .orElseThrow(() -> new RuntimeException("Тест не найден"));
+
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+
+        checkTestResultsAccess(test, user);
+
+        int pageSize = clampPageSize(size);
+        Pageable limit = PageRequest.of(0, pageSize + 1);
+        List<TestResultDto> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = testResultRepository.findCompletedRowsByTest(testId, limit);
+        } else {
+            ResultCursor after = ResultCursor.decode(cursor);
+            rows = testResultRepository.findCompletedRowsByTestAfter(testId, after.completedAt(), after.id(), limit);
+        }
+        return CursorPageDto.of(rows, pageSize, ResultCursor::encode);
+    }
+
+    /**
+     * Проверяет, что пользователь может следить за результатами теста (создатель, учитель предмета или администратор)
+     */
+    @Transactional(readOnly = true)
+    public void checkTestResultsAccess(Long testId, Long userId) {
+        Test test = testRepository.findById(testId)
+                .orElseThrow(() -> new RuntimeException("Тест не найден"));
+
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+
+        checkTestResultsAccess(test, user);
+    }
+
+    private void checkTestResultsAccess(Test test, User user) {
         if (user.getRole() == UserRole.TEACHER) {
-            boolean isCreator = test.getCreator().getId().equals(userId);
+            boolean isCreator = test.getCreator().getId().equals(user.getId());
             boolean teachesSubject = user.getSubjects().stream()
                     .anyMatch(s -> s.getId().equals(test.getSubject().getId()));
 
@@ -1028,9 +1196,30 @@ public class TestService {
         } else if (user.getRole() != UserRole.ADMIN) {
             throw new RuntimeException("У вас нет прав на просмотр результатов теста");
         }
+    }
 
-        return testResultRepository.findByTest(test).stream()
-                .map(TestResultDto::fromEntity)
-                .collect(Collectors.toList());
+    private int clampPageSize(int size) {
+        return Math.max(1, Math.min(size, maxPageSize));
+    }
+
+    /**
+     * Позиция в списке результатов: время завершения и id последней показанной строки.
+     * Клиенту отдаётся как непрозрачная base64url-строка
+     */
+    private record ResultCursor(LocalDateTime completedAt, Long id) {
+        static String encode(TestResultDto last) {
+            String raw = last.getCompletedAt() + "_" + last.getId();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static ResultCursor decode(String cursor) {
+            try {
+                String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+                int sep = raw.lastIndexOf('_');
+                return new ResultCursor(LocalDateTime.parse(raw.substring(0, sep)), Long.parseLong(raw.substring(sep + 1)));
+            } catch (IllegalArgumentException | DateTimeParseException | StringIndexOutOfBoundsException e) {
+                throw new RuntimeException("Некорректный курсор страницы");
+            }
+        }
     }
 }
\ No newline at end of file
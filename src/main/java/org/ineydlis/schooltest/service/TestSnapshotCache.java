@@ -0,0 +1,49 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.dto.TestSnapshot;
+import org.ineydlis.schooltest.model.Test;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кэш снимков тестов ({@link TestSnapshot}) по id. Снимок годен, пока совпадает версия теста
+ * (updatedAt): любое редактирование теста меняет её, и следующий запрос соберёт снимок заново.
+ */
+@Service
+public class TestSnapshotCache {
+
+    private final Map<Long, TestSnapshot> snapshots;
+
+    public TestSnapshotCache(@Value("${app.test-snapshot.max-entries:500}") int maxEntries) {
+        this.snapshots = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, TestSnapshot> eldest) {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * Снимок текущей версии теста. При промахе вопросы и варианты читаются через ленивые
+     * коллекции теста, поэтому вызывать нужно при открытой сессии
+     */
+    public TestSnapshot get(Test test) {
+        TestSnapshot cached = snapshots.get(test.getId());
+        if (cached != null && cached.version().equals(TestSnapshot.versionOf(test))) {
+            return cached;
+        }
+
+        // Сборка вне блокировки: два параллельных промаха соберут одинаковые снимки, это дешевле ожидания
+        TestSnapshot compiled = TestSnapshot.compile(test);
+        snapshots.put(test.getId(), compiled);
+        return compiled;
+    }
+
+    public void evict(Long testId) {
+        snapshots.remove(testId);
+    }
+}
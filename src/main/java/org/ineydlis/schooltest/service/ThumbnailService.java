@@ -0,0 +1,235 @@
+package org.ineydlis.schooltest.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Миниатюры изображений профиля: квадрат {@value #SIZE}x{@value #SIZE} по центру, JPEG.
+ * Строятся средствами ImageIO на отдельном ограниченном пуле сразу после загрузки изображения
+ * и лежат рядом с исходным файлом в хранилище ({@link BlobStore#derivedPathOf}).
+ * <p>
+ * Адрес миниатюры содержит хэш исходного файла и размер, поэтому содержимое по адресу не меняется
+ * и браузер кэширует его навсегда (Cache-Control: immutable).
+ */
+@Slf4j
+@Service
+public class ThumbnailService {
+
+    public static final int SIZE = 128;
+    private static final String VARIANT = "thumb" + SIZE + ".jpg";
+    private static final String URL_SUFFIX = "-" + SIZE + ".jpg";
+    private static final float JPEG_QUALITY = 0.85f;
+
+    private final BlobStore blobStore;
+    private final ThreadPoolExecutor pool;
+    private final long maxSourcePixels;
+    private final Counter failed;
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ThumbnailService(BlobStore blobStore,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.thumbnails.threads:1}") int threads,
+                            @Value("${app.thumbnails.queue:100}") int queue,
+                            @Value("${app.thumbnails.max-source-pixels:40000000}") long maxSourcePixels) {
+        this.blobStore = blobStore;
+        this.maxSourcePixels = maxSourcePixels;
+        // Декодирование изображений нагружает процессор - не больше threads одновременно, сверх очереди отказ
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue),
+                Thread.ofPlatform().name("thumbnail-", 0).daemon().factory());
+
+        this.failed = Counter.builder("schooltest.thumbnails.failed")
+                .description("Изображения, для которых не удалось построить миниатюру")
+                .register(meterRegistry);
+        Gauge.builder("schooltest.thumbnails.queue", pool, executor -> executor.getQueue().size())
+                .description("Миниатюры в очереди на построение")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Адрес миниатюры для пути изображения профиля; у файлов старой схемы хранения миниатюр нет - адрес оригинала
+     */
+    public static String thumbnailUrl(String profileImagePath) {
+        if (profileImagePath == null || profileImagePath.isEmpty()) {
+            return profileImagePath;
+        }
+        String key = BlobStore.keyFromFilename(profileImagePath.substring(profileImagePath.lastIndexOf('/') + 1));
+        return key != null ? "/api/profile/thumbnail/" + key + URL_SUFFIX : profileImagePath;
+    }
+
+    /**
+     * Хэш исходного файла из имени миниатюры вида hash-128.jpg, иначе null
+     */
+    public static String keyFromThumbnailFilename(String filename) {
+        if (!filename.endsWith(URL_SUFFIX)) {
+            return null;
+        }
+        String key = filename.substring(0, filename.length() - URL_SUFFIX.length());
+        return BlobStore.isKey(key) ? key : null;
+    }
+
+    /**
+     * Ставит построение миниатюры в очередь; при переполненной очереди она построится при первом запросе
+     */
+    public void generateAsync(String hash) {
+        if (!Files.exists(blobStore.derivedPathOf(hash, VARIANT))) {
+            submit(hash);
+        }
+    }
+
+    /**
+     * Готовая миниатюра. Если её ещё нет, ставит построение и ждёт не дольше waitMillis.
+     *
+     * @return null, если миниатюры нет: исходный файл не изображение, очередь занята или построение не успело
+     */
+    public Path getThumbnail(String hash, long waitMillis) {
+        Path thumbnail = blobStore.derivedPathOf(hash, VARIANT);
+        if (Files.exists(thumbnail)) {
+            return thumbnail;
+        }
+        if (!Files.exists(blobStore.pathOf(hash))) {
+            return null;
+        }
+        CompletableFuture<Path> future = submit(hash);
+        if (future == null) {
+            return null;
+        }
+        try {
+            return future.get(waitMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    // Одновременные запросы одной миниатюры ждут одно и то же построение
+    private CompletableFuture<Path> submit(String hash) {
+        CompletableFuture<Path> future = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(hash, future);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            pool.execute(() -> {
+                try {
+                    future.complete(generate(hash));
+                } catch (Exception | OutOfMemoryError e) {
+                    failed.increment();
+                    log.warn("Не удалось построить миниатюру для {}: {}", hash, e.toString());
+                    future.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(hash, future);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(hash, future);
+            return null;
+        }
+        return future;
+    }
+
+    private Path generate(String hash) throws IOException {
+        Path target = blobStore.derivedPathOf(hash, VARIANT);
+        if (Files.exists(target)) {
+            return target;
+        }
+        BufferedImage thumbnail = cropAndScale(read(blobStore.pathOf(hash)));
+        blobStore.storeDerived(hash, VARIANT, encodeJpeg(thumbnail));
+        return target;
+    }
+
+    private BufferedImage read(Path source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+            Iterator<ImageReader> readers = in != null ? ImageIO.getImageReaders(in) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Формат изображения не поддерживается");
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                // Размеры берутся из заголовка до декодирования: огромная картинка не займёт всю память
+                if ((long) width * height > maxSourcePixels) {
+                    throw new IOException("Изображение слишком большое: " + width + "x" + height);
+                }
+                // Прореживание при чтении: фотография сразу декодируется в размер, близкий к миниатюре
+                int subsampling = Math.max(1, Math.min(width, height) / (SIZE * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage cropAndScale(BufferedImage image) {
+        int side = Math.min(image.getWidth(), image.getHeight());
+        BufferedImage square = image.getSubimage((image.getWidth() - side) / 2, (image.getHeight() - side) / 2, side, side);
+
+        BufferedImage thumbnail = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = thumbnail.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // В JPEG нет прозрачности - прозрачные области PNG становятся белыми, а не чёрными
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, SIZE, SIZE);
+            graphics.drawImage(square, 0, 0, SIZE, SIZE, null);
+        } finally {
+            graphics.dispose();
+        }
+        return thumbnail;
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+}
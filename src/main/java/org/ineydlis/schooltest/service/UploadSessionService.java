@@ -0,0 +1,293 @@
+package org.ineydlis.schooltest.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.ineydlis.schooltest.dto.UploadStatusDto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Потоковая загрузка файлов по частям в обход multipart: тело запроса пишется прямо во временный файл
+ * хранилища ({@link BlobStore}) с подсчётом SHA-256 и проверкой размера, без буферизации в памяти
+ * и без повторного копирования. Части передаются с заголовком Content-Range; после обрыва клиент
+ * узнаёт принятый offset и продолжает с него.
+ * <p>
+ * Сессии живут в памяти узла и после перезапуска теряются - клиент начинает загрузку заново.
+ * Готовый файл забирает тест или профиль через {@link #take}.
+ */
+@Slf4j
+@Service
+public class UploadSessionService {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Часть начинается не с принятого offset или сессия занята другой частью; клиент продолжает с offset из статуса
+     */
+    @Getter
+    public static class OffsetMismatchException extends RuntimeException {
+        private final UploadStatusDto status;
+
+        public OffsetMismatchException(String message, UploadStatusDto status) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    @Getter
+    public static class TooLargeException extends RuntimeException {
+        private final long maxBytes;
+
+        public TooLargeException(long maxBytes) {
+            super("Размер файла превышает допустимый (" + DataSize.ofBytes(maxBytes).toMegabytes() + " МБ)");
+            this.maxBytes = maxBytes;
+        }
+    }
+
+    public record CompletedUpload(BlobStore.StoredBlob blob, String filename) {
+    }
+
+    private static final class Session {
+        private final String id;
+        private final Long userId;
+        private final String filename;
+        private final long size;
+        private final Path temp;
+        private final MessageDigest digest = BlobStore.sha256();
+        private final ReentrantLock lock = new ReentrantLock();
+        private long offset;
+        private BlobStore.StoredBlob blob;
+        private volatile long lastActivityMillis = System.currentTimeMillis();
+
+        private Session(String id, Long userId, String filename, long size, Path temp) {
+            this.id = id;
+            this.userId = userId;
+            this.filename = filename;
+            this.size = size;
+            this.temp = temp;
+        }
+    }
+
+    private final BlobStore blobStore;
+    private final long maxFileBytes;
+    private final long sessionTtlMillis;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public UploadSessionService(BlobStore blobStore,
+                                MeterRegistry meterRegistry,
+                                @Value("${app.uploads.max-file-size:200MB}") String maxFileSize,
+                                @Value("${app.uploads.session-ttl-minutes:30}") long sessionTtlMinutes) {
+        this.blobStore = blobStore;
+        this.maxFileBytes = DataSize.parse(maxFileSize).toBytes();
+        this.sessionTtlMillis = TimeUnit.MINUTES.toMillis(sessionTtlMinutes);
+
+        Gauge.builder("schooltest.uploads.active", sessions, Map::size)
+                .description("Незавершённые и ещё не прикреплённые загрузки")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Открывает сессию загрузки файла заранее известного размера
+     */
+    public UploadStatusDto start(Long userId, String filename, long size) throws IOException {
+        if (size < 0) {
+            throw new RuntimeException("Размер файла указан неверно");
+        }
+        if (size > maxFileBytes) {
+            throw new TooLargeException(maxFileBytes);
+        }
+
+        Session session = new Session(UUID.randomUUID().toString(), userId, cleanFilename(filename), size,
+                blobStore.createTempFile());
+        sessions.put(session.id, session);
+        if (size == 0) {
+            complete(session);
+        }
+        return status(session);
+    }
+
+    /**
+     * Дописывает часть из тела запроса. Без Content-Range тело считается файлом целиком.
+     * При обрыве соединения принятая часть сохраняется, offset в статусе показывает, сколько дошло.
+     */
+    public UploadStatusDto append(String uploadId, Long userId, String contentRange, InputStream body) throws IOException {
+        Session session = find(uploadId, userId);
+        if (!session.lock.tryLock()) {
+            throw new OffsetMismatchException("Часть этого файла уже загружается", status(session));
+        }
+        try {
+            if (session.blob != null) {
+                return status(session);
+            }
+            long[] range = parseContentRange(contentRange, session.size);
+            if (range[0] != session.offset) {
+                throw new OffsetMismatchException("Загрузку нужно продолжить с байта " + session.offset, status(session));
+            }
+
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long remaining = range[1] - range[0] + 1;
+            try (FileChannel channel = FileChannel.open(session.temp, StandardOpenOption.WRITE)) {
+                channel.position(session.offset);
+                while (remaining > 0) {
+                    int read = body.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        break;
+                    }
+                    ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                    // Хэш и offset сдвигаются только после записи, поэтому после обрыва они согласованы с файлом
+                    session.digest.update(buffer, 0, read);
+                    session.offset += read;
+                    remaining -= read;
+                }
+            } finally {
+                session.lastActivityMillis = System.currentTimeMillis();
+            }
+
+            if (session.offset == session.size) {
+                complete(session);
+            }
+            return status(session);
+        } finally {
+            session.lock.unlock();
+        }
+    }
+
+    public UploadStatusDto getStatus(String uploadId, Long userId) {
+        return status(find(uploadId, userId));
+    }
+
+    public void abort(String uploadId, Long userId) throws IOException {
+        Session session = find(uploadId, userId);
+        if (sessions.remove(uploadId, session)) {
+            Files.deleteIfExists(session.temp);
+        }
+    }
+
+    /**
+     * Забирает полностью загруженный файл; ссылку на него нужно взять через {@link BlobStore#acquire}
+     */
+    public CompletedUpload take(String uploadId, Long userId) {
+        Session session = find(uploadId, userId);
+        if (session.blob == null) {
+            throw new RuntimeException("Файл ещё не загружен полностью");
+        }
+        if (!sessions.remove(uploadId, session)) {
+            throw new RuntimeException("Загрузка не найдена");
+        }
+        return new CompletedUpload(session.blob, session.filename);
+    }
+
+    /**
+     * Закрывает брошенные загрузки. Срок должен быть меньше app.blobs.gc-grace-minutes,
+     * иначе временный файл живой сессии может удалить сборщик хранилища.
+     */
+    @Scheduled(fixedDelayString = "${app.uploads.cleanup-interval-ms:60000}")
+    public void expireSessions() {
+        long cutoff = System.currentTimeMillis() - sessionTtlMillis;
+        for (Session session : sessions.values()) {
+            if (session.lastActivityMillis >= cutoff || !session.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (sessions.remove(session.id, session)) {
+                    Files.deleteIfExists(session.temp);
+                }
+            } catch (IOException e) {
+                log.warn("Не удалось удалить временный файл загрузки {}", session.temp, e);
+            } finally {
+                session.lock.unlock();
+            }
+        }
+    }
+
+    private Session find(String uploadId, Long userId) {
+        Session session = uploadId != null ? sessions.get(uploadId) : null;
+        if (session == null || !session.userId.equals(userId)) {
+            throw new RuntimeException("Загрузка не найдена");
+        }
+        return session;
+    }
+
+    private void complete(Session session) throws IOException {
+        String hash = HexFormat.of().formatHex(session.digest.digest());
+        try {
+            session.blob = blobStore.commit(session.temp, hash, session.size);
+        } finally {
+            // Если такой файл уже был в хранилище, временный остаётся на месте
+            Files.deleteIfExists(session.temp);
+        }
+        log.debug("Загрузка {} завершена: {} байт, {}", session.id, session.size, hash);
+    }
+
+    private static UploadStatusDto status(Session session) {
+        BlobStore.StoredBlob blob = session.blob;
+        return new UploadStatusDto(session.id, session.filename, session.size, session.offset,
+                blob != null, blob != null ? blob.hash() : null);
+    }
+
+    /**
+     * Разбирает "bytes start-end/total"; total должен совпадать с объявленным размером файла
+     *
+     * @return {start, end} включительно
+     */
+    private static long[] parseContentRange(String header, long size) {
+        if (header == null || header.isBlank()) {
+            return new long[]{0, size - 1};
+        }
+        String value = header.trim();
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (!value.startsWith("bytes ") || dash < 0 || slash < dash) {
+            throw new RuntimeException("Неверный заголовок Content-Range");
+        }
+        try {
+            long start = Long.parseLong(value.substring("bytes ".length(), dash).trim());
+            long end = Long.parseLong(value.substring(dash + 1, slash).trim());
+            String total = value.substring(slash + 1).trim();
+            if (!total.equals("*") && Long.parseLong(total) != size) {
+                throw new RuntimeException("Размер в Content-Range не совпадает с размером файла");
+            }
+            if (start < 0 || end < start || end >= size) {
+                throw new RuntimeException("Диапазон Content-Range выходит за пределы файла");
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            throw new RuntimeException("Неверный заголовок Content-Range");
+        }
+    }
+
+    private static String cleanFilename(String filename) {
+        if (filename == null) {
+            return "file";
+        }
+        String name = filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1).trim();
+        if (name.length() > 255) {
+            name = name.substring(name.length() - 255);
+        }
+        return name.isEmpty() ? "file" : name;
+    }
+}
@@ -0,0 +1,465 @@
+package org.ineydlis.schooltest.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.ineydlis.schooltest.dto.UserImportReport;
+import org.ineydlis.schooltest.model.Grade;
+import org.ineydlis.schooltest.model.Subject;
+import org.ineydlis.schooltest.model.UserRole;
+import org.ineydlis.schooltest.repository.GradeRepository;
+import org.ineydlis.schooltest.repository.SubjectRepository;
+import org.ineydlis.schooltest.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Массовый импорт пользователей из CSV или XLSX. Файл читается потоково (для XLSX - событийным API POI),
+ * строки обрабатываются пачками по app.user-import.batch-size: классы и предметы берутся из словарей
+ * в памяти, занятые логины проверяются одним запросом, пароли хэшируются параллельно,
+ * а пользователи вставляются JDBC-пакетами. Каждая пачка - своя транзакция, поэтому ошибка
+ * в одной пачке не отменяет уже сохранённые.
+ * <p>
+ * Первая строка - заголовок с колонками username, password, fullName, email, role, gradeName,
+ * subjectNames, teachingGradeNames (порядок любой). Списки предметов и классов учителя - через запятую.
+ */
+@Slf4j
+@Service
+public class UserImportService {
+
+    private static final List<String> REQUIRED_COLUMNS = List.of("username", "password", "fullName", "role");
+
+    private static final String INSERT_USER =
+            "insert into users (username, password, full_name, email, role, grade_id, active) values (?, ?, ?, ?, ?, ?, true)";
+    private static final String INSERT_TEACHER_SUBJECT =
+            "insert into teacher_subjects (user_id, subject_id) values (?, ?)";
+    private static final String INSERT_TEACHING_GRADE =
+            "insert into teacher_teaching_grade (user_id, grade_id) values (?, ?)";
+
+    private final UserRepository userRepository;
+    private final GradeRepository gradeRepository;
+    private final SubjectRepository subjectRepository;
+    private final PasswordHasher passwordHasher;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int batchSize;
+
+    @Autowired
+    public UserImportService(UserRepository userRepository,
+                             GradeRepository gradeRepository,
+                             SubjectRepository subjectRepository,
+                             PasswordHasher passwordHasher,
+                             JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             @Value("${app.user-import.batch-size:500}") int batchSize) {
+        this.userRepository = userRepository;
+        this.gradeRepository = gradeRepository;
+        this.subjectRepository = subjectRepository;
+        this.passwordHasher = passwordHasher;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchSize = batchSize;
+    }
+
+    public UserImportReport importUsers(MultipartFile file) {
+        String filename = file.getOriginalFilename() != null ? file.getOriginalFilename().toLowerCase(Locale.ROOT) : "";
+        ImportRun run = new ImportRun();
+        try (InputStream in = file.getInputStream()) {
+            if (filename.endsWith(".xlsx")) {
+                readXlsx(in, run);
+            } else if (filename.endsWith(".csv")) {
+                readCsv(in, run);
+            } else {
+                throw new RuntimeException("Поддерживаются файлы CSV и XLSX");
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Не удалось прочитать файл импорта", e);
+        }
+        run.finish();
+
+        UserImportReport report = run.report;
+        log.info("Импорт пользователей из {}: строк {}, создано {}, ошибок {}",
+                file.getOriginalFilename(), report.getTotalRows(), report.getCreated(), report.getErrors().size());
+        return report;
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer {
+        /**
+         * @param rowNumber номер строки в файле, начиная с 1
+         */
+        void accept(int rowNumber, List<String> cells);
+    }
+
+    private record PendingUser(int row, String username, String password, String fullName, String email,
+                               UserRole role, Long gradeId, Set<Long> subjectIds, Set<Long> teachingGradeIds) {
+    }
+
+    /**
+     * Состояние одного импорта: заголовок, логины из файла, текущая пачка и отчёт
+     */
+    private class ImportRun implements RowConsumer {
+
+        private final Map<String, Long> gradeIds = gradeRepository.findAll().stream()
+                .collect(Collectors.toMap(Grade::getFullName, Grade::getId, (first, second) -> first));
+        private final Map<String, Long> subjectIds = subjectRepository.findAll().stream()
+                .collect(Collectors.toMap(Subject::getName, Subject::getId, (first, second) -> first));
+        private final Set<String> usernamesInFile = new HashSet<>();
+        private final UserImportReport report = new UserImportReport();
+        private Map<String, Integer> columns;
+        private List<PendingUser> pending = new ArrayList<>();
+
+        @Override
+        public void accept(int rowNumber, List<String> cells) {
+            if (columns == null) {
+                readHeader(cells);
+                return;
+            }
+            if (cells.stream().allMatch(String::isBlank)) {
+                return;
+            }
+
+            report.setTotalRows(report.getTotalRows() + 1);
+            PendingUser user = parseRow(rowNumber, cells);
+            if (user != null) {
+                pending.add(user);
+                if (pending.size() >= batchSize) {
+                    flush();
+                }
+            }
+        }
+
+        void finish() {
+            if (columns == null) {
+                throw new RuntimeException("Файл пуст: нет строки заголовка");
+            }
+            flush();
+            report.getErrors().sort(Comparator.comparingInt(UserImportReport.RowError::row));
+        }
+
+        private void readHeader(List<String> cells) {
+            columns = new HashMap<>();
+            for (int i = 0; i < cells.size(); i++) {
+                columns.putIfAbsent(cells.get(i).trim().toLowerCase(Locale.ROOT), i);
+            }
+            List<String> missing = REQUIRED_COLUMNS.stream()
+                    .filter(column -> !columns.containsKey(column.toLowerCase(Locale.ROOT)))
+                    .toList();
+            if (!missing.isEmpty()) {
+                throw new RuntimeException("В заголовке нет колонок: " + String.join(", ", missing));
+            }
+        }
+
+        private PendingUser parseRow(int row, List<String> cells) {
+            String username = cell(cells, "username");
+            if (username.isEmpty()) {
+                report.addError(row, null, "Не указан логин");
+                return null;
+            }
+            if (!usernamesInFile.add(username)) {
+                report.addError(row, username, "Логин повторяется в файле");
+                return null;
+            }
+
+            String password = cell(cells, "password");
+            String fullName = cell(cells, "fullName");
+            if (password.isEmpty()) {
+                report.addError(row, username, "Не указан пароль");
+                return null;
+            }
+            if (fullName.isEmpty()) {
+                report.addError(row, username, "Не указано полное имя");
+                return null;
+            }
+
+            UserRole role;
+            try {
+                role = UserRole.valueOf(cell(cells, "role").toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                report.addError(row, username, "Неизвестная роль: " + cell(cells, "role"));
+                return null;
+            }
+
+            Long gradeId = null;
+            Set<Long> teacherSubjects = Collections.emptySet();
+            Set<Long> teachingGrades = Collections.emptySet();
+            try {
+                if (role == UserRole.STUDENT && !cell(cells, "gradeName").isEmpty()) {
+                    gradeId = resolve(cell(cells, "gradeName"), gradeIds, "Класс не найден: ");
+                }
+                if (role == UserRole.TEACHER) {
+                    teacherSubjects = resolveAll(cell(cells, "subjectNames"), subjectIds, "Предмет не найден: ");
+                    teachingGrades = resolveAll(cell(cells, "teachingGradeNames"), gradeIds, "Класс не найден: ");
+                }
+            } catch (IllegalArgumentException e) {
+                report.addError(row, username, e.getMessage());
+                return null;
+            }
+
+            String email = cell(cells, "email");
+            return new PendingUser(row, username, password, fullName, email.isEmpty() ? null : email,
+                    role, gradeId, teacherSubjects, teachingGrades);
+        }
+
+        private String cell(List<String> cells, String column) {
+            Integer index = columns.get(column.toLowerCase(Locale.ROOT));
+            if (index == null || index >= cells.size() || cells.get(index) == null) {
+                return "";
+            }
+            return cells.get(index).trim();
+        }
+
+        private void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            List<PendingUser> batch = pending;
+            pending = new ArrayList<>();
+
+            Set<String> taken = new HashSet<>(userRepository.findExistingUsernames(
+                    batch.stream().map(PendingUser::username).toList()));
+            List<PendingUser> accepted = new ArrayList<>(batch.size());
+            for (PendingUser user : batch) {
+                if (taken.contains(user.username())) {
+                    report.addError(user.row(), user.username(), "Логин уже занят");
+                } else {
+                    accepted.add(user);
+                }
+            }
+            if (accepted.isEmpty()) {
+                return;
+            }
+
+            List<String> hashes = passwordHasher.encodeAll(accepted.stream().map(PendingUser::password).toList());
+            try {
+                transactionTemplate.executeWithoutResult(status -> insert(accepted, hashes));
+                report.setCreated(report.getCreated() + accepted.size());
+            } catch (DataAccessException e) {
+                // Например, логин заняли параллельно: пачка откатывается целиком
+                log.warn("Не удалось сохранить пачку импорта из {} пользователей", accepted.size(), e);
+                String message = "Не удалось сохранить: " + e.getMostSpecificCause().getMessage();
+                accepted.forEach(user -> report.addError(user.row(), user.username(), message));
+            }
+        }
+    }
+
+    private void insert(List<PendingUser> users, List<String> hashes) {
+        KeyHolder keys = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(con -> con.prepareStatement(INSERT_USER, new String[]{"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        PendingUser user = users.get(i);
+                        ps.setString(1, user.username());
+                        ps.setString(2, hashes.get(i));
+                        ps.setString(3, user.fullName());
+                        ps.setString(4, user.email());
+                        ps.setString(5, user.role().name());
+                        if (user.gradeId() != null) {
+                            ps.setLong(6, user.gradeId());
+                        } else {
+                            ps.setNull(6, Types.BIGINT);
+                        }
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return users.size();
+                    }
+                }, keys);
+
+        List<Object[]> subjectLinks = new ArrayList<>();
+        List<Object[]> gradeLinks = new ArrayList<>();
+        List<Map<String, Object>> generated = keys.getKeyList();
+        for (int i = 0; i < users.size(); i++) {
+            // Имя колонки ключа зависит от драйвера (id/ID), поэтому берём единственное значение
+            Object userId = generated.get(i).values().iterator().next();
+            users.get(i).subjectIds().forEach(subjectId -> subjectLinks.add(new Object[]{userId, subjectId}));
+            users.get(i).teachingGradeIds().forEach(gradeId -> gradeLinks.add(new Object[]{userId, gradeId}));
+        }
+        if (!subjectLinks.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_TEACHER_SUBJECT, subjectLinks);
+        }
+        if (!gradeLinks.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_TEACHING_GRADE, gradeLinks);
+        }
+    }
+
+    private static Long resolve(String name, Map<String, Long> ids, String notFoundMessage) {
+        Long id = ids.get(name);
+        if (id == null) {
+            throw new IllegalArgumentException(notFoundMessage + name);
+        }
+        return id;
+    }
+
+    private static Set<Long> resolveAll(String names, Map<String, Long> ids, String notFoundMessage) {
+        Set<Long> resolved = new LinkedHashSet<>();
+        for (String name : names.split(",")) {
+            if (!name.isBlank()) {
+                resolved.add(resolve(name.trim(), ids, notFoundMessage));
+            }
+        }
+        return resolved;
+    }
+
+    // CSV с разделителем "," или ";" (определяется по заголовку), кавычки по RFC 4180, UTF-8
+    private static void readCsv(InputStream in, RowConsumer consumer) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Character delimiter = null;
+        int lineNumber = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (delimiter == null) {
+                if (line.startsWith("\uFEFF")) {
+                    line = line.substring(1);
+                }
+                delimiter = count(line, ';') > count(line, ',') ? ';' : ',';
+            }
+
+            int rowNumber = lineNumber;
+            List<String> cells = new ArrayList<>();
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            while (true) {
+                for (int i = 0; i < line.length(); i++) {
+                    char c = line.charAt(i);
+                    if (quoted) {
+                        if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                            value.append('"');
+                            i++;
+                        } else if (c == '"') {
+                            quoted = false;
+                        } else {
+                            value.append(c);
+                        }
+                    } else if (c == '"') {
+                        quoted = true;
+                    } else if (c == delimiter) {
+                        cells.add(value.toString());
+                        value.setLength(0);
+                    } else {
+                        value.append(c);
+                    }
+                }
+                // Перевод строки внутри кавычек - часть значения
+                if (!quoted || (line = reader.readLine()) == null) {
+                    break;
+                }
+                lineNumber++;
+                value.append('\n');
+            }
+            cells.add(value.toString());
+            consumer.accept(rowNumber, cells);
+        }
+    }
+
+    private static int count(String line, char c) {
+        return (int) line.chars().filter(ch -> ch == c).count();
+    }
+
+    // Первый лист XLSX через SAX: в памяти только общие строки и текущая строка листа
+    private static void readXlsx(InputStream in, RowConsumer consumer) throws IOException {
+        OPCPackage pkg;
+        try {
+            pkg = OPCPackage.open(in);
+        } catch (OpenXML4JException e) {
+            throw new RuntimeException("Файл не является книгой XLSX", e);
+        }
+        try {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new RuntimeException("В книге нет листов");
+            }
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(
+                        reader.getStylesTable(), strings, new SheetRows(consumer), new DataFormatter(), false));
+                parser.parse(new InputSource(sheet));
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new RuntimeException("Не удалось прочитать файл XLSX", e);
+        } finally {
+            // Книга открыта только для чтения - закрываем без записи
+            pkg.revert();
+        }
+    }
+
+    /**
+     * Собирает ячейки строки листа по номерам колонок: пустые ячейки в XLSX не записываются
+     */
+    private static class SheetRows implements XSSFSheetXMLHandler.SheetContentsHandler {
+
+        private final RowConsumer consumer;
+        private final List<String> cells = new ArrayList<>();
+        private int nextColumn;
+
+        SheetRows(RowConsumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            cells.clear();
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            consumer.accept(rowNum + 1, new ArrayList<>(cells));
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference != null ? new CellReference(cellReference).getCol() : nextColumn;
+            while (cells.size() < column) {
+                cells.add("");
+            }
+            cells.add(formattedValue != null ? formattedValue : "");
+            nextColumn = column + 1;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.ineydlis.schooltest.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Ответы попытки в одном двоичном значении (test_results.answer_vector) вместо строки student_answers
+ * на вопрос и строки student_answer_choices на выбранный вариант.
+ * <p>
+ * Формат версии 1: байт версии, число ответов, затем для каждого ответа
+ * <ul>
+ *     <li>разность id вопроса с предыдущим ответом (zigzag varint);</li>
+ *     <li>байт флагов: правильный ответ, есть текст, есть выбранные варианты;</li>
+ *     <li>заработанные баллы (zigzag varint);</li>
+ *     <li>текст ответа: длина в байтах UTF-8 (varint) и байты;</li>
+ *     <li>выбранные варианты: битовая маска по вариантам вопроса, упорядоченным по id
+ *     ({@link BitSet#toByteArray()}), - длина (varint) и байты.</li>
+ * </ul>
+ * Варианты вопроса не меняются: при редактировании теста вопросы пересоздаются с новыми id,
+ * поэтому позиция в маске однозначно определяет вариант. Новый формат получает новый номер версии,
+ * а чтение старых версий сохраняется.
+ */
+public final class AnswerVectorCodec {
+
+    public static final int VERSION = 1;
+
+    private static final int CORRECT = 1;
+    private static final int HAS_TEXT = 1 << 1;
+    private static final int HAS_SELECTION = 1 << 2;
+
+    private AnswerVectorCodec() {
+    }
+
+    /**
+     * Ответ на один вопрос
+     *
+     * @param text     текст ответа, null - не текстовый вопрос или ответ не дан
+     * @param selected позиции выбранных вариантов среди вариантов вопроса по возрастанию id
+     */
+    public record Entry(long questionId, boolean correct, int earnedPoints, String text, BitSet selected) {
+    }
+
+    public static byte[] encode(List<Entry> entries) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8 + entries.size() * 4);
+        out.write(VERSION);
+        writeVarint(out, entries.size());
+        long previousQuestionId = 0;
+        for (Entry entry : entries) {
+            boolean hasSelection = entry.selected() != null && !entry.selected().isEmpty();
+            int flags = (entry.correct() ? CORRECT : 0)
+                    | (entry.text() != null ? HAS_TEXT : 0)
+                    | (hasSelection ? HAS_SELECTION : 0);
+
+            writeVarint(out, zigzag(entry.questionId() - previousQuestionId));
+            previousQuestionId = entry.questionId();
+            out.write(flags);
+            writeVarint(out, zigzag(entry.earnedPoints()));
+            if (entry.text() != null) {
+                writeBytes(out, entry.text().getBytes(StandardCharsets.UTF_8));
+            }
+            if (hasSelection) {
+                writeBytes(out, entry.selected().toByteArray());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static List<Entry> decode(byte[] data) {
+        Reader in = new Reader(data);
+        int version = in.readByte();
+        if (version != VERSION) {
+            throw new IllegalStateException("Неизвестная версия формата ответов: " + version);
+        }
+        int count = (int) in.readVarint();
+        List<Entry> entries = new ArrayList<>(count);
+        long questionId = 0;
+        for (int i = 0; i < count; i++) {
+            questionId += unzigzag(in.readVarint());
+            int flags = in.readByte();
+            int earnedPoints = (int) unzigzag(in.readVarint());
+            String text = (flags & HAS_TEXT) != 0 ? new String(in.readBytes(), StandardCharsets.UTF_8) : null;
+            BitSet selected = (flags & HAS_SELECTION) != 0 ? BitSet.valueOf(in.readBytes()) : new BitSet();
+            entries.add(new Entry(questionId, (flags & CORRECT) != 0, earnedPoints, text, selected));
+        }
+        if (in.position != data.length) {
+            throw new IllegalStateException("Лишние байты в записи ответов");
+        }
+        return entries;
+    }
+
+    /**
+     * Маска выбранных вариантов; optionIds - все варианты вопроса по возрастанию id
+     */
+    public static BitSet toMask(List<Long> optionIds, Collection<Long> selectedIds) {
+        BitSet mask = new BitSet(optionIds.size());
+        for (int i = 0; i < optionIds.size(); i++) {
+            if (selectedIds.contains(optionIds.get(i))) {
+                mask.set(i);
+            }
+        }
+        return mask;
+    }
+
+    public static List<Long> fromMask(List<Long> optionIds, BitSet mask) {
+        List<Long> selectedIds = new ArrayList<>(mask.cardinality());
+        for (int i = mask.nextSetBit(0); i >= 0 && i < optionIds.size(); i = mask.nextSetBit(i + 1)) {
+            selectedIds.add(optionIds.get(i));
+        }
+        return selectedIds;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void writeBytes(ByteArrayOutputStream out, byte[] bytes) {
+        writeVarint(out, bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private int position;
+
+        private Reader(byte[] data) {
+            this.data = data;
+        }
+
+        private int readByte() {
+            if (position >= data.length) {
+                throw new IllegalStateException("Запись ответов обрезана");
+            }
+            return data[position++] & 0xFF;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Некорректное число в записи ответов");
+        }
+
+        private byte[] readBytes() {
+            long length = readVarint();
+            if (length > data.length - position) {
+                throw new IllegalStateException("Запись ответов обрезана");
+            }
+            byte[] bytes = new byte[(int) length];
+            System.arraycopy(data, position, bytes, 0, bytes.length);
+            position += bytes.length;
+            return bytes;
+        }
+    }
+}
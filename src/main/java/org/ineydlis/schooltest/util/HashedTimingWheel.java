@@ -0,0 +1,94 @@
+package org.ineydlis.schooltest.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Хэшированное колесо таймеров: ключи раскладываются по корзинам по номеру тика дедлайна,
+ * поэтому постановка и отмена стоят O(1), а один тик просматривает только свою корзину.
+ * Колесо не создаёт потоков - его крутит вызывающий, передавая текущее время в {@link #advance(long)}.
+ * Таймер срабатывает не раньше дедлайна и не позже чем через один тик после него.
+ */
+public class HashedTimingWheel<K> {
+
+    private final long tickMillis;
+    private final int mask;
+    private final List<Map<K, Timeout>> buckets;
+    private final Map<K, Timeout> index = new HashMap<>();
+    private long currentTick = -1;
+
+    /**
+     * @param wheelSize число корзин, округляется вверх до степени двойки
+     */
+    public HashedTimingWheel(long tickMillis, int wheelSize) {
+        if (tickMillis <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException("tickMillis и wheelSize должны быть положительными");
+        }
+        int size = Integer.highestOneBit(wheelSize - 1) << 1;
+        this.tickMillis = tickMillis;
+        this.mask = Math.max(size, 1) - 1;
+        this.buckets = new ArrayList<>(mask + 1);
+        for (int i = 0; i <= mask; i++) {
+            buckets.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Ставит (или переставляет) таймер ключа. Просроченный дедлайн сработает на ближайшем тике.
+     */
+    public synchronized void schedule(K key, long deadlineMillis) {
+        cancel(key);
+        // Округление вверх: таймер не срабатывает раньше дедлайна
+        long tick = Math.max(Math.ceilDiv(deadlineMillis, tickMillis), currentTick + 1);
+        Timeout timeout = new Timeout(tick, (int) (tick & mask));
+        buckets.get(timeout.bucket).put(key, timeout);
+        index.put(key, timeout);
+    }
+
+    /**
+     * @return true, если таймер был и снят
+     */
+    public synchronized boolean cancel(K key) {
+        Timeout timeout = index.remove(key);
+        if (timeout == null) {
+            return false;
+        }
+        buckets.get(timeout.bucket).remove(key);
+        return true;
+    }
+
+    /**
+     * Проходит тики до nowMillis включительно и возвращает ключи, чей дедлайн наступил.
+     * Сработавшие таймеры снимаются.
+     */
+    public synchronized List<K> advance(long nowMillis) {
+        long targetTick = nowMillis / tickMillis;
+        // После долгой паузы (или при первом вызове) достаточно одного полного оборота
+        long fromTick = currentTick < 0 ? targetTick - mask : Math.max(currentTick + 1, targetTick - mask);
+        List<K> expired = new ArrayList<>();
+        for (long tick = fromTick; tick <= targetTick; tick++) {
+            // В корзине лежат и таймеры следующих оборотов - их оставляем до своего тика
+            Iterator<Map.Entry<K, Timeout>> it = buckets.get((int) (tick & mask)).entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K, Timeout> entry = it.next();
+                if (entry.getValue().tick <= targetTick) {
+                    it.remove();
+                    index.remove(entry.getKey());
+                    expired.add(entry.getKey());
+                }
+            }
+        }
+        currentTick = Math.max(currentTick, targetTick);
+        return expired;
+    }
+
+    public synchronized int size() {
+        return index.size();
+    }
+
+    private record Timeout(long tick, int bucket) {
+    }
+}
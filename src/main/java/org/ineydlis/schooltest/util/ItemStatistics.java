@@ -0,0 +1,111 @@
+package org.ineydlis.schooltest.util;
+
+/**
+ * Накопитель анализа одного вопроса: только суммы, поэтому попытки добавляются за O(1),
+ * а накопители частей истории складываются ({@link #merge}).
+ * <p>
+ * Для каждой попытки, в которой вопрос был показан, учитываются правильность ответа, доля баллов
+ * за вопрос и «остаточный» результат попытки - доля баллов за остальные вопросы. Сам вопрос
+ * из результата исключается, иначе он коррелировал бы сам с собой и завышал различающую способность.
+ */
+public final class ItemStatistics {
+
+    private long attempts;
+    private long correctCount;
+    private double ratioSum;
+    private double restSum;
+    private double restSquareSum;
+    private double correctRestSum;
+
+    public ItemStatistics() {
+    }
+
+    public ItemStatistics(long attempts, long correctCount, double ratioSum,
+                          double restSum, double restSquareSum, double correctRestSum) {
+        this.attempts = attempts;
+        this.correctCount = correctCount;
+        this.ratioSum = ratioSum;
+        this.restSum = restSum;
+        this.restSquareSum = restSquareSum;
+        this.correctRestSum = correctRestSum;
+    }
+
+    /**
+     * @param ratio доля баллов за вопрос, 0..1
+     * @param rest  доля баллов за остальные вопросы попытки, 0..1
+     */
+    public void add(boolean correct, double ratio, double rest) {
+        attempts++;
+        ratioSum += ratio;
+        restSum += rest;
+        restSquareSum += rest * rest;
+        if (correct) {
+            correctCount++;
+            correctRestSum += rest;
+        }
+    }
+
+    public void merge(ItemStatistics other) {
+        attempts += other.attempts;
+        correctCount += other.correctCount;
+        ratioSum += other.ratioSum;
+        restSum += other.restSum;
+        restSquareSum += other.restSquareSum;
+        correctRestSum += other.correctRestSum;
+    }
+
+    /**
+     * Трудность - доля правильных ответов; null, пока ответов нет
+     */
+    public Double difficulty() {
+        return attempts > 0 ? (double) correctCount / attempts : null;
+    }
+
+    public Double meanRatio() {
+        return attempts > 0 ? ratioSum / attempts : null;
+    }
+
+    /**
+     * Точечно-бисериальная корреляция правильности ответа с остаточным результатом:
+     * (M1 - M0) / s * sqrt(p * q). Null, если все ответили одинаково или остаточные результаты не различаются
+     */
+    public Double pointBiserial() {
+        long incorrectCount = attempts - correctCount;
+        if (correctCount == 0 || incorrectCount == 0) {
+            return null;
+        }
+        double mean = restSum / attempts;
+        double variance = restSquareSum / attempts - mean * mean;
+        if (variance <= 1e-12) {
+            return null;
+        }
+        double correctMean = correctRestSum / correctCount;
+        double incorrectMean = (restSum - correctRestSum) / incorrectCount;
+        double p = (double) correctCount / attempts;
+        return (correctMean - incorrectMean) / Math.sqrt(variance) * Math.sqrt(p * (1 - p));
+    }
+
+    public long attempts() {
+        return attempts;
+    }
+
+    public long correctCount() {
+        return correctCount;
+    }
+
+    public double ratioSum() {
+        return ratioSum;
+    }
+
+    public double restSum() {
+        return restSum;
+    }
+
+    public double restSquareSum() {
+        return restSquareSum;
+    }
+
+    public double correctRestSum() {
+        return correctRestSum;
+    }
+}
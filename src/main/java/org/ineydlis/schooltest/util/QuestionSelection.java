@@ -0,0 +1,52 @@
+package org.ineydlis.schooltest.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Выборка вопросов попытки как функция зерна: частичная тасовка Фишера–Йетса за O(k)
+ * по времени и памяти - переставленные позиции хранятся в разреженной карте, а не в копии списка.
+ * Генератор - SplitMix64, записанный здесь явно, чтобы выборка по сохранённому зерну
+ * не изменилась при обновлении JDK.
+ */
+public final class QuestionSelection {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private QuestionSelection() {
+    }
+
+    /**
+     * @param ids все вопросы версии теста в постоянном порядке (по id)
+     * @return min(k, ids.size()) различных id в порядке показа
+     */
+    public static List<Long> select(List<Long> ids, int k, long seed) {
+        int n = ids.size();
+        int count = Math.max(0, Math.min(k, n));
+        Map<Integer, Integer> swapped = new HashMap<>(count * 2);
+        List<Long> selected = new ArrayList<>(count);
+        long state = seed;
+        for (int i = 0; i < count; i++) {
+            state += GOLDEN_GAMMA;
+            int j = i + bounded(mix64(state), n - i);
+            // Позиция i дальше не читается, поэтому достаточно перенести её значение на место j
+            int picked = swapped.getOrDefault(j, j);
+            swapped.put(j, swapped.getOrDefault(i, i));
+            selected.add(ids.get(picked));
+        }
+        return selected;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    // Старшие 32 бита, умноженные на bound: равномерно в [0, bound) без деления
+    private static int bounded(long random, int bound) {
+        return (int) (((random >>> 32) * bound) >>> 32);
+    }
+}
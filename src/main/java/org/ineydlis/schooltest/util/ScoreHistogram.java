@@ -0,0 +1,172 @@
+package org.ineydlis.schooltest.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Распределение результатов в процентах: 101 счётчик, по одному на целый процент 0..100
+ * (процент округляется вниз). Добавление и удаление результата - O(1), распределения частей
+ * складываются ({@link #merge}), а квантили и гистограмма считаются обходом счётчиков без сортировки
+ * результатов. Квантиль точен до целого процента.
+ * <p>
+ * Формат хранения версии 1: байт версии, число ненулевых счётчиков (varint), затем для каждого
+ * разность номера с предыдущим ненулевым (varint) и значение (varint). Пустое распределение - два байта.
+ */
+public final class ScoreHistogram {
+
+    public static final int VERSION = 1;
+    public static final int BUCKETS = 101;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+
+    /**
+     * Счётчик результата: процент от максимального балла, округлённый вниз и ограниченный 0..100
+     */
+    public static int bucket(int score, int maxScore) {
+        if (maxScore <= 0) {
+            return 0;
+        }
+        long percent = (long) score * 100 / maxScore;
+        return (int) Math.max(0, Math.min(100, percent));
+    }
+
+    public void add(int bucket) {
+        counts[bucket]++;
+        total++;
+    }
+
+    /**
+     * Убирает результат, если он учтён; распределение, начатое позже истории, иначе ушло бы в минус
+     */
+    public void remove(int bucket) {
+        if (counts[bucket] > 0) {
+            counts[bucket]--;
+            total--;
+        }
+    }
+
+    public void merge(ScoreHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    /**
+     * Квантиль по ближайшему рангу, в процентах; null, пока результатов нет
+     *
+     * @param q доля, 0..1
+     */
+    public Double quantile(double q) {
+        if (total == 0) {
+            return null;
+        }
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return (double) i;
+            }
+        }
+        return 100.0;
+    }
+
+    /**
+     * Гистограмма из интервалов по width процентов: [0, width), [width, 2 * width), ...;
+     * 100% попадает в последний интервал
+     */
+    public List<Long> bins(int width) {
+        int binCount = 100 / width;
+        List<Long> bins = new ArrayList<>(binCount);
+        for (int i = 0; i < binCount; i++) {
+            bins.add(0L);
+        }
+        for (int i = 0; i < BUCKETS; i++) {
+            int bin = Math.min(i / width, binCount - 1);
+            bins.set(bin, bins.get(bin) + counts[i]);
+        }
+        return bins;
+    }
+
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16);
+        out.write(VERSION);
+        int nonZero = 0;
+        for (long count : counts) {
+            if (count > 0) {
+                nonZero++;
+            }
+        }
+        writeVarint(out, nonZero);
+        int previous = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] > 0) {
+                writeVarint(out, i - previous);
+                writeVarint(out, counts[i]);
+                previous = i;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static ScoreHistogram decode(byte[] data) {
+        ScoreHistogram histogram = new ScoreHistogram();
+        if (data == null) {
+            return histogram;
+        }
+        int[] position = {0};
+        int version = readByte(data, position);
+        if (version != VERSION) {
+            throw new IllegalStateException("Неизвестная версия формата распределения: " + version);
+        }
+        long nonZero = readVarint(data, position);
+        int bucket = 0;
+        for (long i = 0; i < nonZero; i++) {
+            bucket += (int) readVarint(data, position);
+            long count = readVarint(data, position);
+            if (bucket >= BUCKETS || count <= 0) {
+                throw new IllegalStateException("Некорректный счётчик в записи распределения");
+            }
+            histogram.counts[bucket] = count;
+            histogram.total += count;
+        }
+        if (position[0] != data.length) {
+            throw new IllegalStateException("Лишние байты в записи распределения");
+        }
+        return histogram;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int readByte(byte[] data, int[] position) {
+        if (position[0] >= data.length) {
+            throw new IllegalStateException("Запись распределения обрезана");
+        }
+        return data[position[0]++] & 0xFF;
+    }
+
+    private static long readVarint(byte[] data, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte(data, position);
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Некорректное число в записи распределения");
+    }
+}
@@ -0,0 +1,213 @@
+package org.ineydlis.schooltest.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Проверка текстового ответа по всем принятым вариантам. Варианты нормализуются и компилируются
+ * один раз при сборке снимка теста, ответ ученика нормализуется один раз при проверке.
+ * <p>
+ * Нормализация: регистр, ё/е, пунктуация, ударения и лишние пробелы не важны; минус перед числом
+ * и десятичный разделитель сохраняются (3,5 и 3.5 совпадают, 35 и -35 - нет).
+ * <p>
+ * Опечатки допускаются в пределах {@link #maxEdits} правок Левенштейна. Расстояние считается
+ * битово-параллельным алгоритмом Майерса (в варианте Хюрё для полного расстояния) сразу для всех
+ * вариантов: варианты упакованы по дорожкам в 64-битные слова, поэтому проверка стоит O(длины ответа)
+ * на слово, а не на каждый вариант. Варианты длиннее 64 символов сравниваются только точно.
+ */
+public final class TextAnswerMatcher {
+
+    private static final int WORD_BITS = Long.SIZE;
+
+    private final Set<String> exact;
+    private final List<Word> words;
+    private final int minTolerantLength;
+    private final int maxTolerantLength;
+
+    /**
+     * Слово из нескольких дорожек: у каждой дорожки свои младший и старший биты
+     */
+    private static final class Word {
+        private final Map<Character, Long> charMasks = new HashMap<>();
+        private final List<int[]> lanes = new ArrayList<>();   // {начальный бит, длина, допуск}
+        private long used;
+        private long starts;
+        private long tops;
+        private int width;
+
+        private boolean fits(int length) {
+            return width + length <= WORD_BITS;
+        }
+
+        private void add(String variant, int maxEdits) {
+            int start = width;
+            for (int i = 0; i < variant.length(); i++) {
+                charMasks.merge(variant.charAt(i), 1L << (start + i), (a, b) -> a | b);
+            }
+            long mask = laneMask(start, variant.length());
+            used |= mask;
+            starts |= 1L << start;
+            tops |= 1L << (start + variant.length() - 1);
+            lanes.add(new int[]{start, variant.length(), maxEdits});
+            width += variant.length();
+        }
+
+        private boolean matches(String answer) {
+            long pv = used;
+            long mv = 0;
+            long notTops = ~tops;
+            for (int j = 0; j < answer.length(); j++) {
+                long eq = charMasks.getOrDefault(answer.charAt(j), 0L);
+                long xv = eq | mv;
+                long x = eq & pv;
+                // Сложение по дорожкам: перенос не переходит из старшего бита дорожки в соседнюю
+                long sum = ((x & notTops) + (pv & notTops)) ^ ((x ^ pv) & tops);
+                long xh = (sum ^ pv) | eq;
+                long ph = mv | ~(xh | pv);
+                long mh = pv & xh;
+                // В нулевой строке D[0][j] = j: каждая дорожка получает +1 снизу, а не бит соседней
+                ph = (ph << 1) & ~starts | starts;
+                mh = (mh << 1) & ~starts;
+                pv = (mh | ~(xv | ph)) & used;
+                mv = ph & xv & used;
+            }
+            // D[m][n] = D[0][n] + сумма вертикальных разностей последнего столбца
+            for (int[] lane : lanes) {
+                long mask = laneMask(lane[0], lane[1]);
+                int distance = answer.length() + Long.bitCount(pv & mask) - Long.bitCount(mv & mask);
+                if (distance <= lane[2]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private TextAnswerMatcher(Set<String> exact, List<Word> words, int minTolerantLength, int maxTolerantLength) {
+        this.exact = exact;
+        this.words = words;
+        this.minTolerantLength = minTolerantLength;
+        this.maxTolerantLength = maxTolerantLength;
+    }
+
+    /**
+     * Компилирует принятые варианты ответа; пустые после нормализации варианты пропускаются
+     */
+    public static TextAnswerMatcher compile(Collection<String> variants) {
+        Set<String> exact = new HashSet<>();
+        List<Word> words = new ArrayList<>();
+        int minLength = Integer.MAX_VALUE;
+        int maxLength = Integer.MIN_VALUE;
+        for (String variant : variants) {
+            String normalized = normalize(variant);
+            if (normalized.isEmpty() || !exact.add(normalized)) {
+                continue;
+            }
+            int maxEdits = maxEdits(normalized);
+            if (maxEdits == 0 || normalized.length() > WORD_BITS) {
+                continue;
+            }
+            Word word = words.isEmpty() ? null : words.get(words.size() - 1);
+            if (word == null || !word.fits(normalized.length())) {
+                word = new Word();
+                words.add(word);
+            }
+            word.add(normalized, maxEdits);
+            minLength = Math.min(minLength, normalized.length() - maxEdits);
+            maxLength = Math.max(maxLength, normalized.length() + maxEdits);
+        }
+        return new TextAnswerMatcher(Set.copyOf(exact), List.copyOf(words), minLength, maxLength);
+    }
+
+    public boolean matches(String answer) {
+        String normalized = normalize(answer);
+        if (normalized.isEmpty()) {
+            return false;
+        }
+        if (exact.contains(normalized)) {
+            return true;
+        }
+        // Ответ, который по длине дальше допуска от всех вариантов, не сравниваем вовсе
+        if (normalized.length() < minTolerantLength || normalized.length() > maxTolerantLength) {
+            return false;
+        }
+        for (Word word : words) {
+            if (word.matches(normalized)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Допустимое число опечаток для нормализованного варианта: числа и короткие слова - только точно
+     */
+    static int maxEdits(String normalized) {
+        for (int i = 0; i < normalized.length(); i++) {
+            if (Character.isDigit(normalized.charAt(i))) {
+                return 0;
+            }
+        }
+        if (normalized.length() <= 4) {
+            return 0;
+        }
+        return normalized.length() <= 10 ? 1 : 2;
+    }
+
+    public static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        String source = Normalizer.normalize(text, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+        StringBuilder out = new StringBuilder(source.length());
+        boolean separator = false;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            if (Character.getType(c) == Character.NON_SPACING_MARK) {
+                continue; // знак ударения
+            }
+            if (c == 'ё') {
+                c = 'е';
+            }
+
+            if (Character.isLetterOrDigit(c)) {
+                appendSeparator(out, separator);
+                separator = false;
+                out.append(c);
+            } else if ((c == '.' || c == ',') && !separator && endsWithDigit(out) && Character.isDigit(next)) {
+                out.append('.');
+            } else if ((c == '-' || c == '−' || c == '–') && Character.isDigit(next)
+                    && (out.isEmpty() || separator)) {
+                appendSeparator(out, separator);
+                separator = false;
+                out.append('-');
+            } else {
+                separator = true;
+            }
+        }
+        return out.toString();
+    }
+
+    private static void appendSeparator(StringBuilder out, boolean separator) {
+        if (separator && !out.isEmpty()) {
+            out.append(' ');
+        }
+    }
+
+    private static boolean endsWithDigit(StringBuilder out) {
+        return !out.isEmpty() && Character.isDigit(out.charAt(out.length() - 1));
+    }
+
+    private static long laneMask(int start, int length) {
+        long bits = length == WORD_BITS ? -1L : (1L << length) - 1;
+        return bits << start;
+    }
+}
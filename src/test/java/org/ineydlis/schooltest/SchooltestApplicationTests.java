@@ -6,6 +6,7 @@ import org.ineydlis.schooltest.dto.TestResultDto;
 import org.ineydlis.schooltest.dto.TestSubmissionRequest;
 import org.ineydlis.schooltest.model.*;
 import org.ineydlis.schooltest.repository.*;
+import org.ineydlis.schooltest.service.DataVersions;
 import org.ineydlis.schooltest.service.TestService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -41,6 +42,9 @@ public class SchooltestApplicationTests {
     @Mock
     private TestResultRepository testResultRepository;
 
+    @Mock
+    private DataVersions dataVersions;
+
     @InjectMocks
     private TestService testService;
 
@@ -99,7 +103,7 @@ public class SchooltestApplicationTests {
 
         when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
         when(subjectRepository.findById(1L)).thenReturn(Optional.of(testSubject));
-        when(gradeRepository.findById(1L)).thenReturn(Optional.of(testGrade));
+        when(gradeRepository.findAllById(Collections.singletonList(1L))).thenReturn(Collections.singletonList(testGrade));
         when(testRepository.save(any(org.ineydlis.schooltest.model.Test.class))).thenReturn(testTest);
         MultipartFile referenceMaterials = null;
         // Действие
@@ -146,7 +150,7 @@ public class SchooltestApplicationTests {
 
         when(userRepository.findById(2L)).thenReturn(Optional.of(student));
         when(testRepository.findByAvailableGradesAndActive(student.getGrade())).thenReturn(tests);
-        when(testResultRepository.findByTestAndStudent(any(org.ineydlis.schooltest.model.Test.class), eq(student))).thenReturn(Collections.emptyList());
+        when(testResultRepository.findByStudentAndTestIn(student, tests)).thenReturn(Collections.emptyList());
 
         // Действие
         List<TestDto> result = testService.getTestsForStudent(2L);
@@ -157,7 +161,7 @@ public class SchooltestApplicationTests {
         assertEquals("Тест по математике", result.get(0).getTitle());
         verify(userRepository).findById(2L);
         verify(testRepository).findByAvailableGradesAndActive(student.getGrade());
-        verify(testResultRepository).findByTestAndStudent(testTest, student);
+        verify(testResultRepository).findByStudentAndTestIn(student, tests);
     }
     @Test
     public void testDeleteTest() {
@@ -0,0 +1,37 @@
+package org.ineydlis.schooltest.config;
+
+import org.ineydlis.schooltest.interceptor.QueryCounter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryCountingDataSourceTests {
+
+    private final JdbcTemplate jdbc = new JdbcTemplate(new QueryCountingDataSource(
+            new DriverManagerDataSource("jdbc:h2:mem:query-counting;DB_CLOSE_DELAY=-1", "sa", "")));
+
+    @AfterEach
+    public void cleanup() {
+        QueryCounter.stop();
+    }
+
+    @Test
+    public void countsJdbcTemplateStatementsOnlyWhileStarted() {
+        jdbc.execute("CREATE TABLE IF NOT EXISTS picks (id INT)");
+
+        QueryCounter.start();
+        jdbc.update("INSERT INTO picks VALUES (?)", 1);
+        jdbc.queryForObject("SELECT COUNT(*) FROM picks", Integer.class);
+        // Пакет - один запрос к базе, сколько бы строк в нём ни было
+        jdbc.batchUpdate("INSERT INTO picks VALUES (?)", List.of(new Object[]{2}, new Object[]{3}, new Object[]{4}));
+        assertEquals(3, QueryCounter.stop());
+
+        jdbc.update("DELETE FROM picks");
+        assertEquals(0, QueryCounter.current());
+    }
+}
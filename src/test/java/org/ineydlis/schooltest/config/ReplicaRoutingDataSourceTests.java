@@ -0,0 +1,82 @@
+package org.ineydlis.schooltest.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Основная база и "реплика" - две базы H2 в памяти, каждая знает своё имя
+ */
+public class ReplicaRoutingDataSourceTests {
+
+    private DataSource primary;
+    private DataSource replica;
+
+    private static DataSource database(String name) {
+        DataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1", "sa", "");
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("CREATE TABLE IF NOT EXISTS whoami (name VARCHAR(20))");
+        jdbc.execute("DELETE FROM whoami");
+        jdbc.update("INSERT INTO whoami VALUES (?)", name);
+        return dataSource;
+    }
+
+    @BeforeEach
+    public void setup() {
+        primary = database("primary");
+        replica = database("replica");
+    }
+
+    private String whoami(DataSource routed, boolean readOnly) {
+        TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(routed));
+        tx.setReadOnly(readOnly);
+        return tx.execute(status -> new JdbcTemplate(routed).queryForObject("SELECT name FROM whoami", String.class));
+    }
+
+    private DataSource routed(ReplicaLagMonitor monitor) {
+        ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primary, replica, monitor);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    @Test
+    public void readOnlyTransactionsGoToReplicaWhenItKeepsUp() {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(replica, "SELECT 0.5", 5);
+        monitor.check();
+        DataSource routed = routed(monitor);
+
+        assertTrue(monitor.isReplicaUsable());
+        assertEquals("replica", whoami(routed, true));
+        assertEquals("primary", whoami(routed, false));
+    }
+
+    @Test
+    public void laggingReplicaFallsBackToPrimary() {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(replica, "SELECT 30", 5);
+        monitor.check();
+
+        assertFalse(monitor.isReplicaUsable());
+        assertEquals(30.0, monitor.getLagSeconds());
+        assertEquals("primary", whoami(routed(monitor), true));
+    }
+
+    @Test
+    public void failingLagCheckFallsBackToPrimary() {
+        ReplicaLagMonitor monitor = new ReplicaLagMonitor(replica, "SELECT 0", 5);
+        monitor.check();
+        assertTrue(monitor.isReplicaUsable());
+
+        monitor = new ReplicaLagMonitor(replica, "SELECT pg_last_xact_replay_timestamp()", 5);
+        monitor.check();
+        assertFalse(monitor.isReplicaUsable());
+        assertEquals("primary", whoami(routed(monitor), true));
+    }
+}
@@ -0,0 +1,270 @@
+package org.ineydlis.schooltest.interceptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.ineydlis.schooltest.dto.AnswerDto;
+import org.ineydlis.schooltest.dto.QuestionDto;
+import org.ineydlis.schooltest.dto.StudentAnswerRequest;
+import org.ineydlis.schooltest.dto.TestCreateRequest;
+import org.ineydlis.schooltest.dto.TestSubmissionRequest;
+import org.ineydlis.schooltest.model.*;
+import org.ineydlis.schooltest.repository.*;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Бюджеты запросов эндпоинтов, на которых раньше появлялись N+1. С app.query-budget.fail-on-exceed=true
+ * превышение бюджета бросает AssertionError из перехватчика, и запрос в тесте падает.
+ * Считаются все JDBC-запросы, включая JdbcTemplate (анализ вопросов, распределения, импорт).
+ * Класс и каталог больше, чем бюджеты эндпоинтов: запрос на ученика или на тест сразу их превысил бы
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:query-budget;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "management.server.port=-1",
+        "app.query-budget.fail-on-exceed=true"
+})
+@AutoConfigureMockMvc
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class QueryBudgetEndpointTests {
+
+    private static final int STUDENTS = 40;
+    private static final int TESTS = 20;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private GradeRepository gradeRepository;
+
+    @Autowired
+    private SubjectRepository subjectRepository;
+
+    @Autowired
+    private TestRepository testRepository;
+
+    @Autowired
+    private TestResultRepository testResultRepository;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private Grade grade;
+    private Subject subject;
+    private User student;
+    private final List<User> students = new ArrayList<>();
+    private final List<org.ineydlis.schooltest.model.Test> tests = new ArrayList<>();
+
+    @BeforeAll
+    public void seed() {
+        grade = new Grade();
+        grade.setNumber(11);
+        grade.setLetter("Я");
+        grade.setFullName("11Я");
+        grade = gradeRepository.save(grade);
+
+        subject = new Subject();
+        subject.setName("Астрономия");
+        subject = subjectRepository.save(subject);
+
+        User teacher = user("budget-teacher", UserRole.TEACHER);
+        teacher.getSubjects().add(subject);
+        teacher.getTeachingGrades().add(grade);
+        teacher = userRepository.save(teacher);
+        userRepository.save(user("budget-admin", UserRole.ADMIN));
+
+        for (int i = 0; i < TESTS; i++) {
+            org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+            test.setTitle("Реакции " + i);
+            test.setSubject(subject);
+            test.setCreator(teacher);
+            test.setCreatedAt(LocalDateTime.now());
+            test.setTimeLimit(30);
+            test.setMaxAttempts(3);
+            test.getAvailableGrades().add(grade);
+            // Первый тест длинный: отправка ответов на него пишет строку на каждый вопрос
+            for (int q = 0; q < (i == 0 ? 30 : 3); q++) {
+                Question question = new Question();
+                question.setText("Вопрос " + q);
+                question.setType(QuestionType.SINGLE_CHOICE);
+                question.setPoints(2);
+                question.setTest(test);
+                question.getAnswers().add(new Answer(null, "да", true, question));
+                question.getAnswers().add(new Answer(null, "нет", false, question));
+                test.getQuestions().add(question);
+            }
+            tests.add(testRepository.save(test));
+        }
+
+        List<TestResult> results = new ArrayList<>();
+        for (int s = 0; s < STUDENTS; s++) {
+            User pupil = user("budget-student-" + s, UserRole.STUDENT);
+            pupil.setGrade(grade);
+            pupil = userRepository.save(pupil);
+            if (s == 0) {
+                student = pupil;
+            }
+            students.add(pupil);
+            for (org.ineydlis.schooltest.model.Test test : tests) {
+                TestResult result = new TestResult();
+                result.setTest(test);
+                result.setStudent(pupil);
+                result.setStartedAt(LocalDateTime.now().minusMinutes(20));
+                result.setCompletedAt(LocalDateTime.now().minusMinutes(10));
+                result.setCompleted(true);
+                result.setAttemptNumber(1);
+                result.setScore(s % 7);
+                result.setMaxScore(6);
+                results.add(result);
+            }
+        }
+        testResultRepository.saveAll(results);
+    }
+
+    private static User user(String username, UserRole role) {
+        User user = new User();
+        user.setUsername(username);
+        user.setPassword("hash");
+        user.setFullName(username);
+        user.setEmail(username + "@school.test");
+        user.setRole(role);
+        user.setToken("token-" + username);
+        return user;
+    }
+
+    @Test
+    public void studentTestListStaysWithinBudget() throws Exception {
+        mockMvc.perform(get("/api/tests").header("Authorization", "token-budget-student-0"))
+                .andExpect(status().isOk());
+    }
+
+    // Отправка пишет анализ вопросов и распределения баллов через JdbcTemplate - они входят в бюджет
+    @Test
+    public void submissionStaysWithinBudget() throws Exception {
+        String token = "token-budget-student-1";
+        Long testId = tests.get(0).getId();
+        String started = mockMvc.perform(post("/api/tests/" + testId + "/start").header("Authorization", token))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        Long resultId = objectMapper.readTree(started).get("id").asLong();
+
+        String body = mockMvc.perform(get("/api/tests/" + testId + "/questions").header("Authorization", token)
+                        .param("testResultId", resultId.toString()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        List<StudentAnswerRequest> answers = new ArrayList<>();
+        for (QuestionDto question : objectMapper.readValue(body, QuestionDto[].class)) {
+            answers.add(new StudentAnswerRequest(question.getId(), null, List.of(question.getAnswers().get(0).getId())));
+        }
+
+        mockMvc.perform(post("/api/tests/submit").header("Authorization", token)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(new TestSubmissionRequest(resultId, answers))))
+                .andExpect(status().isOk());
+    }
+
+    // Пользователи вставляются JDBC-пакетом: строк в файле больше, чем бюджет
+    @Test
+    public void userImportStaysWithinBudget() throws Exception {
+        StringBuilder csv = new StringBuilder("username;password;fullName;role;gradeName\n");
+        for (int i = 0; i < 50; i++) {
+            csv.append("budget-import-").append(i).append(";pw").append(i).append(";Ученик ").append(i)
+                    .append(";STUDENT;11Я\n");
+        }
+        MockMultipartFile file = new MockMultipartFile("file", "users.csv", "text/csv",
+                csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        mockMvc.perform(multipart("/api/admin/users/import").file(file).header("Authorization", "token-budget-admin"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.created").value(50));
+    }
+
+    // Бюджет создания и правки растёт на строку вопроса или варианта: большой тест укладывается,
+    // а попытки, удаляемые при правке, не добавляют запросов
+    @Test
+    public void testEditingStaysWithinPerRowBudget() throws Exception {
+        for (int questions : new int[]{2, 40}) {
+            String created = mockMvc.perform(post("/api/tests").header("Authorization", "token-budget-teacher")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request(questions))))
+                    .andExpect(status().isCreated())
+                    .andReturn().getResponse().getContentAsString();
+            Long testId = objectMapper.readTree(created).get("id").asLong();
+
+            org.ineydlis.schooltest.model.Test test = testRepository.findById(testId).orElseThrow();
+            List<TestResult> results = new ArrayList<>();
+            for (User pupil : students) {
+                TestResult result = new TestResult();
+                result.setTest(test);
+                result.setStudent(pupil);
+                result.setStartedAt(LocalDateTime.now().minusMinutes(5));
+                result.setAttemptNumber(1);
+                results.add(result);
+            }
+            testResultRepository.saveAll(results);
+
+            mockMvc.perform(put("/api/tests/" + testId).header("Authorization", "token-budget-teacher")
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .content(objectMapper.writeValueAsString(request(questions))))
+                    .andExpect(status().isOk());
+        }
+    }
+
+    private TestCreateRequest request(int questions) {
+        List<QuestionDto> list = new ArrayList<>();
+        for (int q = 0; q < questions; q++) {
+            QuestionDto question = new QuestionDto();
+            question.setText("Вопрос " + q);
+            question.setType(QuestionType.SINGLE_CHOICE);
+            question.setPoints(1);
+            question.setAnswers(List.of(new AnswerDto(null, "да", true), new AnswerDto(null, "нет", false),
+                    new AnswerDto(null, "не знаю", false)));
+            list.add(question);
+        }
+        return new TestCreateRequest("Созвездия", null, subject.getId(), List.of(grade.getId()), 20, list,
+                1, null, null, null, false);
+    }
+
+    @Test
+    public void gradeStatisticsStaysWithinBudget() throws Exception {
+        mockMvc.perform(get("/api/statistics/grade/" + grade.getId()).header("Authorization", "token-budget-admin"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/statistics/grade/" + grade.getId()).header("Authorization", "token-budget-teacher"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    public void studentPerformanceStaysWithinBudget() throws Exception {
+        mockMvc.perform(get("/api/statistics/student/" + student.getId() + "/performance")
+                        .header("Authorization", "token-budget-admin"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/statistics/student/" + student.getId() + "/performance")
+                        .header("Authorization", "token-budget-student-0"))
+                .andExpect(status().isOk());
+    }
+}
@@ -0,0 +1,82 @@
+package org.ineydlis.schooltest.interceptor;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueryMetricsInterceptorTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final MockHttpServletRequest request = new MockHttpServletRequest();
+    private final MockHttpServletResponse response = new MockHttpServletResponse();
+
+    @QueryBudget(5)
+    static class SampleController {
+        @QueryBudget(2)
+        public void tight() {
+        }
+
+        public void classDefault() {
+        }
+    }
+
+    @AfterEach
+    public void cleanup() {
+        QueryCounter.stop();
+    }
+
+    private HandlerMethod handler(String name) throws NoSuchMethodException {
+        return new HandlerMethod(new SampleController(), SampleController.class.getMethod(name));
+    }
+
+    private void runQueries(int count) {
+        for (int i = 0; i < count; i++) {
+            QueryCounter.record();
+        }
+    }
+
+    @Test
+    public void budgetIsResolvedFromMethodThenClass() throws Exception {
+        QueryMetricsInterceptor interceptor = new QueryMetricsInterceptor(registry, 20, false);
+
+        assertEquals(2, interceptor.budgetOf(handler("tight")));
+        assertEquals(5, interceptor.budgetOf(handler("classDefault")));
+    }
+
+    @Test
+    public void exceededBudgetIsCountedAndRecorded() throws Exception {
+        QueryMetricsInterceptor interceptor = new QueryMetricsInterceptor(registry, 20, false);
+        HandlerMethod handler = handler("tight");
+
+        interceptor.preHandle(request, response, handler);
+        runQueries(3);
+        interceptor.postHandle(request, response, handler, null);
+        interceptor.afterCompletion(request, response, handler, null);
+
+        assertEquals(1.0, registry.counter("schooltest.query.budget.exceeded",
+                "handler", "SampleController.tight").count());
+        assertEquals(3.0, registry.summary("schooltest.http.queries",
+                "handler", "SampleController.tight").totalAmount());
+        assertEquals(0, QueryCounter.current());
+    }
+
+    @Test
+    public void strictModeFailsWhenBudgetIsExceeded() throws Exception {
+        QueryMetricsInterceptor interceptor = new QueryMetricsInterceptor(registry, 20, true);
+        HandlerMethod handler = handler("tight");
+
+        interceptor.preHandle(request, response, handler);
+        runQueries(2);
+        interceptor.postHandle(request, response, handler, null);
+
+        runQueries(1);
+        AssertionError error = assertThrows(AssertionError.class,
+                () -> interceptor.postHandle(request, response, handler, null));
+        assertTrue(error.getMessage().contains("SampleController.tight"));
+    }
+}
@@ -0,0 +1,65 @@
+package org.ineydlis.schooltest.interceptor;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ineydlis.schooltest.config.WorkloadClass;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WorkloadBulkheadInterceptorTests {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    // Один отчёт одновременно, без очереди; для тестов - без ожидания
+    private final WorkloadBulkheadInterceptor interceptor = new WorkloadBulkheadInterceptor(
+            registry, new ObjectMapper(), 10, 0, 0, 1, 0, 0, 7);
+
+    @Workload(WorkloadClass.REPORTING)
+    static class ReportController {
+        public void export() {
+        }
+    }
+
+    static class ExamController {
+        public void submit() {
+        }
+    }
+
+    @AfterEach
+    public void cleanup() {
+        WorkloadClass.clear();
+    }
+
+    private HandlerMethod handler(Object controller, String name) throws NoSuchMethodException {
+        return new HandlerMethod(controller, controller.getClass().getMethod(name));
+    }
+
+    @Test
+    public void reportingOverLimitIsShedWith429AndExamIsNotAffected() throws Exception {
+        HandlerMethod report = handler(new ReportController(), "export");
+        MockHttpServletRequest firstRequest = new MockHttpServletRequest();
+        assertTrue(interceptor.preHandle(firstRequest, new MockHttpServletResponse(), report));
+        assertEquals(WorkloadClass.REPORTING, WorkloadClass.current());
+
+        MockHttpServletResponse rejected = new MockHttpServletResponse();
+        assertFalse(interceptor.preHandle(new MockHttpServletRequest(), rejected, report));
+        assertEquals(429, rejected.getStatus());
+        assertEquals("7", rejected.getHeader("Retry-After"));
+        assertEquals(1.0, registry.counter("schooltest.workload.rejected", "workload", "reporting").count());
+
+        HandlerMethod exam = handler(new ExamController(), "submit");
+        MockHttpServletRequest examRequest = new MockHttpServletRequest();
+        assertTrue(interceptor.preHandle(examRequest, new MockHttpServletResponse(), exam));
+        assertEquals(WorkloadClass.EXAM, WorkloadClass.current());
+        interceptor.afterCompletion(examRequest, new MockHttpServletResponse(), exam, null);
+
+        // После завершения первого отчёта место освобождается
+        interceptor.afterCompletion(firstRequest, new MockHttpServletResponse(), report, null);
+        assertTrue(interceptor.preHandle(new MockHttpServletRequest(), new MockHttpServletResponse(), report));
+    }
+}
@@ -0,0 +1,159 @@
+package org.ineydlis.schooltest.repository;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.ineydlis.schooltest.dto.TestResultDto;
+import org.ineydlis.schooltest.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DataJpaTest(properties = {
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.properties.hibernate.generate_statistics=true"
+})
+public class TestResultRepositoryTests {
+
+    @Autowired
+    private TestResultRepository testResultRepository;
+
+    @Autowired
+    private EntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private Statistics statistics;
+    private User student;
+    private TestResult result;
+
+    @BeforeEach
+    public void setup() {
+        Subject subject = new Subject();
+        subject.setName("Физика");
+        entityManager.persist(subject);
+
+        Grade grade = new Grade();
+        grade.setNumber(7);
+        grade.setLetter("Б");
+        grade.setFullName("7Б");
+        entityManager.persist(grade);
+
+        User teacher = new User();
+        teacher.setUsername("teacher");
+        teacher.setPassword("hash");
+        teacher.setFullName("Учитель");
+        teacher.setRole(UserRole.TEACHER);
+        teacher.setSubjects(Set.of(subject));
+        teacher.setTeachingGrades(Set.of(grade));
+        entityManager.persist(teacher);
+
+        student = new User();
+        student.setUsername("student");
+        student.setPassword("hash");
+        student.setFullName("Ученик");
+        student.setRole(UserRole.STUDENT);
+        student.setGrade(grade);
+        entityManager.persist(student);
+
+        org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+        test.setTitle("Кинематика");
+        test.setSubject(subject);
+        test.setCreator(teacher);
+        test.setCreatedAt(LocalDateTime.now());
+        test.setTimeLimit(30);
+        entityManager.persist(test);
+
+        Question question = new Question();
+        question.setText("Скорость?");
+        question.setType(QuestionType.SINGLE_CHOICE);
+        question.setTest(test);
+        entityManager.persist(question);
+
+        result = new TestResult();
+        result.setTest(test);
+        result.setStudent(student);
+        result.setStartedAt(LocalDateTime.now());
+        result.setCompletedAt(LocalDateTime.now());
+        result.setCompleted(true);
+        result.setScore(1);
+        result.setMaxScore(1);
+        entityManager.persist(result);
+
+        StudentAnswer answer = new StudentAnswer();
+        answer.setQuestion(question);
+        answer.setTestResult(result);
+        answer.setEarnedPoints(1);
+        answer.setCorrect(true);
+        result.getStudentAnswers().add(answer);
+        entityManager.persist(answer);
+
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    public void testResultsListLoadsInSingleQueryWithoutTeacher() {
+        List<TestResult> results = testResultRepository.findByStudent(student);
+
+        assertEquals(1, results.size());
+        assertEquals("Физика", results.get(0).getTest().getSubject().getName());
+        assertEquals("7Б", results.get(0).getStudent().getGrade().getFullName());
+        assertEquals(1, statistics.getPrepareStatementCount());
+        // Результат, тест, предмет, ученик и класс; автор теста и его предметы не подгружаются
+        assertEquals(5, statistics.getEntityLoadCount());
+        assertEquals(0, statistics.getCollectionLoadCount());
+        assertFalse(Hibernate.isInitialized(results.get(0).getTest().getCreator()));
+    }
+
+    @Test
+    public void testResultDetailsFetchAnswersWithQuestions() {
+        TestResult details = testResultRepository.findDetailsById(result.getId()).orElseThrow();
+
+        assertEquals(1, details.getStudentAnswers().size());
+        assertEquals("Скорость?", details.getStudentAnswers().get(0).getQuestion().getText());
+        assertTrue(Hibernate.isInitialized(details.getStudentAnswers().get(0).getSelectedAnswers()));
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    public void completedResultsArePagedByCompletedAtAndId() {
+        TestResult older = new TestResult();
+        older.setTest(entityManager.getReference(org.ineydlis.schooltest.model.Test.class, result.getTest().getId()));
+        older.setStudent(entityManager.getReference(User.class, student.getId()));
+        older.setStartedAt(result.getStartedAt().minusDays(1));
+        older.setCompletedAt(result.getCompletedAt().minusDays(1));
+        older.setCompleted(true);
+        older.setScore(1);
+        older.setMaxScore(2);
+        entityManager.persist(older);
+        entityManager.flush();
+        entityManager.clear();
+
+        List<TestResultDto> first = testResultRepository.findCompletedRowsByStudent(student.getId(), PageRequest.of(0, 1));
+        assertEquals(1, first.size());
+        assertEquals(result.getId(), first.get(0).getId());
+        assertEquals("Физика", first.get(0).getSubjectName());
+        assertEquals(100.0, first.get(0).getPercentage());
+
+        List<TestResultDto> next = testResultRepository.findCompletedRowsByStudentAfter(
+                student.getId(), first.get(0).getCompletedAt(), first.get(0).getId(), PageRequest.of(0, 2));
+        assertEquals(1, next.size());
+        assertEquals(older.getId(), next.get(0).getId());
+        assertEquals(50.0, next.get(0).getPercentage());
+    }
+}
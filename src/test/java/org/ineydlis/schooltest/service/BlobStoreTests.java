@@ -0,0 +1,139 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.model.Blob;
+import org.ineydlis.schooltest.repository.BlobRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Без общей транзакции теста: параллельные acquire и сборщик должны видеть зафиксированные строки.
+// H2 в режиме PostgreSQL понимает ON CONFLICT DO NOTHING и FOR UPDATE SKIP LOCKED
+@DataJpaTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:blobs;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class BlobStoreTests {
+
+    @Autowired
+    private BlobRepository blobRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path dir;
+
+    private BlobStore blobStore;
+
+    @BeforeEach
+    public void setup() {
+        blobStore = new BlobStore(blobRepository, transactionManager, dir.toString(), 60);
+    }
+
+    @AfterEach
+    public void cleanup() {
+        blobRepository.deleteAll();
+    }
+
+    @Test
+    public void concurrentFirstAcquiresCountEveryReference() throws Exception {
+        BlobStore.StoredBlob blob = store("учебник");
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> acquires = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                acquires.add(executor.submit(() -> {
+                    start.await();
+                    blobStore.acquire(blob);
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> acquire : acquires) {
+                acquire.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads, blobRepository.findById(blob.hash()).orElseThrow().getRefCount());
+    }
+
+    @Test
+    public void collectorWaitsForGraceAfterLastRelease() throws Exception {
+        BlobStore.StoredBlob blob = store("задачник");
+        blobStore.acquire(blob);
+        Path file = blobStore.pathOf(blob.hash());
+        age(file);
+
+        blobStore.collectGarbage();
+        assertTrue(Files.exists(file), "на файл есть ссылка");
+
+        // Ссылку только что отпустили: файл старый, но счётчик изменился недавно
+        blobStore.release(blob.hash());
+        blobStore.collectGarbage();
+        assertTrue(Files.exists(file));
+        assertTrue(blobRepository.existsById(blob.hash()));
+
+        Blob row = blobRepository.findById(blob.hash()).orElseThrow();
+        row.setUpdatedAt(LocalDateTime.now().minusHours(2));
+        blobRepository.save(row);
+        blobStore.collectGarbage();
+        assertFalse(Files.exists(file));
+        assertFalse(blobRepository.existsById(blob.hash()));
+    }
+
+    @Test
+    public void collectorKeepsFileStoredAgainDuringGrace() throws Exception {
+        BlobStore.StoredBlob orphan = store("брошенная загрузка");
+        Path file = blobStore.pathOf(orphan.hash());
+        age(file);
+
+        // Тот же файл загрузили снова: время изменения обновилось, ссылку возьмут следом
+        store("брошенная загрузка");
+        blobStore.collectGarbage();
+        assertTrue(Files.exists(file));
+
+        age(file);
+        blobStore.collectGarbage();
+        assertFalse(Files.exists(file), "файл без строки учёта и без свежих загрузок удаляется");
+    }
+
+    private BlobStore.StoredBlob store(String content) throws Exception {
+        return blobStore.store(new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void age(Path file) throws Exception {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(2)));
+    }
+}
@@ -0,0 +1,173 @@
+package org.ineydlis.schooltest.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FileDeliveryServiceTests {
+
+    private static final String CONTENT = "0123456789";
+    private static final long MODIFIED = 1_700_000_000_000L;
+
+    @TempDir
+    Path dir;
+
+    private Path file;
+    // Без кэша в памяти: тело идёт через FileChannel.transferTo
+    private FileDeliveryService uncached;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        file = write("file.pdf", CONTENT);
+        uncached = new FileDeliveryService(0, 0);
+    }
+
+    @Test
+    public void servesWholeFileWithValidators() throws Exception {
+        MockHttpServletResponse response = serve(uncached, request());
+
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+        assertEquals(CONTENT.length(), response.getContentLengthLong());
+        assertEquals(MediaType.APPLICATION_PDF_VALUE, response.getContentType());
+        assertEquals("nosniff", response.getHeader("X-Content-Type-Options"));
+        assertEquals("bytes", response.getHeader(HttpHeaders.ACCEPT_RANGES));
+        assertNotNull(response.getHeader(HttpHeaders.ETAG));
+        assertEquals(MODIFIED, response.getDateHeader(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    public void answersNotModifiedForMatchingEtagOrDate() throws Exception {
+        String etag = serve(uncached, request()).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletRequest byEtag = request();
+        byEtag.addHeader(HttpHeaders.IF_NONE_MATCH, etag);
+        MockHttpServletResponse response = serve(uncached, byEtag);
+        assertEquals(304, response.getStatus());
+        assertEquals(0, response.getContentAsByteArray().length);
+
+        MockHttpServletRequest byDate = request();
+        byDate.addHeader(HttpHeaders.IF_MODIFIED_SINCE, MODIFIED);
+        assertEquals(304, serve(uncached, byDate).getStatus());
+
+        MockHttpServletRequest staleEtag = request();
+        staleEtag.addHeader(HttpHeaders.IF_NONE_MATCH, "\"other\"");
+        assertEquals(200, serve(uncached, staleEtag).getStatus());
+    }
+
+    @Test
+    public void servesSingleRanges() throws Exception {
+        assertPartial("bytes=2-5", "2345", "bytes 2-5/10");
+        assertPartial("bytes=7-", "789", "bytes 7-9/10");
+        assertPartial("bytes=-3", "789", "bytes 7-9/10");
+        assertPartial("bytes=-50", CONTENT, "bytes 0-9/10");
+        assertPartial("bytes=8-100", "89", "bytes 8-9/10");
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRanges() throws Exception {
+        for (String range : new String[]{"bytes=5-2", "bytes=10-", "bytes=-0"}) {
+            MockHttpServletRequest request = request();
+            request.addHeader(HttpHeaders.RANGE, range);
+            MockHttpServletResponse response = serve(uncached, request);
+
+            assertEquals(416, response.getStatus(), range);
+            assertEquals("bytes */10", response.getHeader(HttpHeaders.CONTENT_RANGE));
+            assertEquals(0, response.getContentAsByteArray().length);
+        }
+    }
+
+    @Test
+    public void servesWholeFileForStaleIfRangeOrMultipleRanges() throws Exception {
+        String etag = serve(uncached, request()).getHeader(HttpHeaders.ETAG);
+
+        MockHttpServletRequest stale = request();
+        stale.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        stale.addHeader(HttpHeaders.IF_RANGE, "\"changed\"");
+        MockHttpServletResponse response = serve(uncached, stale);
+        assertEquals(200, response.getStatus());
+        assertEquals(CONTENT, response.getContentAsString());
+        assertNull(response.getHeader(HttpHeaders.CONTENT_RANGE));
+
+        MockHttpServletRequest current = request();
+        current.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        current.addHeader(HttpHeaders.IF_RANGE, etag);
+        assertEquals(206, serve(uncached, current).getStatus());
+
+        MockHttpServletRequest multiple = request();
+        multiple.addHeader(HttpHeaders.RANGE, "bytes=0-1,4-5");
+        assertEquals(CONTENT, serve(uncached, multiple).getContentAsString());
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsedFile() throws Exception {
+        // Помещаются два файла по 10 байт
+        FileDeliveryService cached = new FileDeliveryService(16, 25);
+        Path a = write("a", "aaaaaaaaaa");
+        Path b = write("b", "bbbbbbbbbb");
+        Path c = write("c", "cccccccccc");
+
+        body(cached, a);
+        body(cached, b);
+        body(cached, a);
+        body(cached, c);
+
+        // Подмена содержимого с тем же размером и временем изменения видна только для вытесненного файла
+        write("a", "AAAAAAAAAA");
+        write("b", "BBBBBBBBBB");
+        assertEquals("aaaaaaaaaa", body(cached, a));
+        assertEquals("BBBBBBBBBB", body(cached, b));
+
+        MockHttpServletRequest range = request();
+        range.addHeader(HttpHeaders.RANGE, "bytes=3-4");
+        assertEquals("cc", serve(cached, range, c).getContentAsString());
+    }
+
+    private void assertPartial(String range, String body, String contentRange) throws Exception {
+        MockHttpServletRequest request = request();
+        request.addHeader(HttpHeaders.RANGE, range);
+        MockHttpServletResponse response = serve(uncached, request);
+
+        assertEquals(206, response.getStatus(), range);
+        assertEquals(body, response.getContentAsString(), range);
+        assertEquals(contentRange, response.getHeader(HttpHeaders.CONTENT_RANGE));
+        assertEquals(body.length(), response.getContentLengthLong());
+    }
+
+    private String body(FileDeliveryService service, Path path) throws Exception {
+        return serve(service, request(), path).getContentAsString();
+    }
+
+    private MockHttpServletResponse serve(FileDeliveryService service, MockHttpServletRequest request) throws Exception {
+        return serve(service, request, file);
+    }
+
+    private static MockHttpServletResponse serve(FileDeliveryService service, MockHttpServletRequest request,
+                                                 Path path) throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.serve(request, response, path, MediaType.APPLICATION_PDF, null, "private, no-cache");
+        return response;
+    }
+
+    private static MockHttpServletRequest request() {
+        return new MockHttpServletRequest("GET", "/files/file.pdf");
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path path = dir.resolve(name);
+        Files.writeString(path, content, StandardCharsets.US_ASCII);
+        Files.setLastModifiedTime(path, FileTime.fromMillis(MODIFIED));
+        return path;
+    }
+}
@@ -0,0 +1,192 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.dto.*;
+import org.ineydlis.schooltest.model.*;
+import org.ineydlis.schooltest.repository.GradeRepository;
+import org.ineydlis.schooltest.repository.SubjectRepository;
+import org.ineydlis.schooltest.repository.TestResultRepository;
+import org.ineydlis.schooltest.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Распределение выбора вариантов: счётчики, накопленные при отправках (первая отправка создаёт строки,
+ * следующие прибавляют к ним), и полный пересчёт по попыткам, хранящимся вектором и строками
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:item-analysis;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "management.server.port=-1"
+})
+public class ItemAnalysisServiceTests {
+
+    @Autowired
+    private TestService testService;
+
+    @Autowired
+    private ItemAnalysisService itemAnalysisService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private GradeRepository gradeRepository;
+
+    @Autowired
+    private SubjectRepository subjectRepository;
+
+    @Autowired
+    private TestResultRepository testResultRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Long adminId;
+    private Grade grade;
+    private Subject subject;
+    private User student;
+
+    @BeforeEach
+    public void setup() {
+        String tag = UUID.randomUUID().toString().substring(0, 8);
+        adminId = userRepository.findByUsername("admin").orElseThrow().getId();
+
+        grade = new Grade();
+        grade.setNumber(9);
+        grade.setLetter(tag);
+        grade.setFullName("9" + tag);
+        grade = gradeRepository.save(grade);
+
+        subject = new Subject();
+        subject.setName("Биология " + tag);
+        subject = subjectRepository.save(subject);
+
+        student = new User();
+        student.setUsername("student-" + tag);
+        student.setPassword("hash");
+        student.setFullName("Ученик " + tag);
+        student.setRole(UserRole.STUDENT);
+        student.setGrade(grade);
+        student = userRepository.save(student);
+    }
+
+    @Test
+    public void distributionCountsPicksPerOption() {
+        Long testId = testService.createTest(request(), null, adminId).getId();
+
+        submit(testId, List.of("клетка"), List.of("ядро", "рибосома"));
+        submit(testId, List.of("ткань"), List.of("ядро", "лизосома"));
+
+        assertDistribution(testId);
+    }
+
+    @Test
+    public void rebuildCountsVectorAndRowAttempts() {
+        Long testId = testService.createTest(request(), null, adminId).getId();
+
+        Object target = AopTestUtils.getTargetObject(testService);
+        ReflectionTestUtils.setField(target, "answerVectorStorage", true);
+        Long vectorResultId;
+        try {
+            vectorResultId = submit(testId, List.of("клетка"), List.of("ядро", "рибосома"));
+        } finally {
+            ReflectionTestUtils.setField(target, "answerVectorStorage", false);
+        }
+        Long rowResultId = submit(testId, List.of("ткань"), List.of("ядро", "лизосома"));
+        assertNotNull(testResultRepository.findById(vectorResultId).orElseThrow().getAnswerVector());
+        assertNull(testResultRepository.findById(rowResultId).orElseThrow().getAnswerVector());
+
+        itemAnalysisService.forgetTest(testId);
+        assertTrue(inSession(() -> itemAnalysisService.getAnswerDistribution(testId)).stream()
+                .allMatch(q -> q.getAttempts() == 0));
+
+        itemAnalysisService.rebuild();
+        assertDistribution(testId);
+    }
+
+    // Две попытки: "клетка" + ядро/рибосома и "ткань" + ядро/лизосома
+    private void assertDistribution(Long testId) {
+        List<AnswerDistributionDto> distribution = inSession(() -> itemAnalysisService.getAnswerDistribution(testId));
+        assertEquals(2, distribution.size());
+
+        AnswerDistributionDto single = distribution.get(0);
+        assertEquals(2, single.getAttempts());
+        assertEquals(Map.of("клетка", 1L, "ткань", 1L, "орган", 0L), picks(single));
+        assertEquals(Map.of("клетка", 0.5, "ткань", 0.5, "орган", 0.0), shares(single));
+
+        AnswerDistributionDto multiple = distribution.get(1);
+        assertEquals(2, multiple.getAttempts());
+        assertEquals(Map.of("ядро", 2L, "рибосома", 1L, "лизосома", 1L), picks(multiple));
+        assertEquals(Map.of("ядро", 1.0, "рибосома", 0.5, "лизосома", 0.5), shares(multiple));
+    }
+
+    private static Map<String, Long> picks(AnswerDistributionDto question) {
+        Map<String, Long> picks = new HashMap<>();
+        question.getOptions().forEach(option -> picks.put(option.text(), option.picks()));
+        return picks;
+    }
+
+    private static Map<String, Double> shares(AnswerDistributionDto question) {
+        Map<String, Double> shares = new HashMap<>();
+        question.getOptions().forEach(option -> shares.put(option.text(), option.share()));
+        return shares;
+    }
+
+    private TestCreateRequest request() {
+        QuestionDto single = new QuestionDto();
+        single.setText("Единица строения живого");
+        single.setType(QuestionType.SINGLE_CHOICE);
+        single.setPoints(1);
+        single.setAnswers(List.of(new AnswerDto(null, "клетка", true), new AnswerDto(null, "ткань", false),
+                new AnswerDto(null, "орган", false)));
+
+        QuestionDto multiple = new QuestionDto();
+        multiple.setText("Органоиды клетки");
+        multiple.setType(QuestionType.MULTIPLE_CHOICE);
+        multiple.setPoints(2);
+        multiple.setAnswers(List.of(new AnswerDto(null, "ядро", true), new AnswerDto(null, "рибосома", true),
+                new AnswerDto(null, "лизосома", false)));
+
+        return new TestCreateRequest("Клетка", null, subject.getId(), List.of(grade.getId()), 10,
+                List.of(single, multiple), 3, null, null, null, false);
+    }
+
+    private Long submit(Long testId, List<String> singleChoice, List<String> multipleChoice) {
+        TestResultDto attempt = testService.startTest(testId, student.getId());
+        List<QuestionDto> questions = inSession(() -> testService.getTestQuestions(testId, attempt.getId(), student.getId()));
+        List<StudentAnswerRequest> answers = questions.stream()
+                .map(question -> {
+                    List<String> chosen = question.getType() == QuestionType.SINGLE_CHOICE ? singleChoice : multipleChoice;
+                    return new StudentAnswerRequest(question.getId(), null, question.getAnswers().stream()
+                            .filter(answer -> chosen.contains(answer.getText()))
+                            .map(AnswerDto::getId)
+                            .toList());
+                })
+                .toList();
+        testService.submitTest(new TestSubmissionRequest(attempt.getId(), answers), student.getId());
+        return attempt.getId();
+    }
+
+    // Вопросы теста читаются лениво: в веб-запросе их держит открытая сессия
+    private <T> T inSession(Supplier<T> call) {
+        return new TransactionTemplate(transactionManager).execute(status -> call.get());
+    }
+}
@@ -0,0 +1,157 @@
+package org.ineydlis.schooltest.service;
+
+import org.ineydlis.schooltest.dto.*;
+import org.ineydlis.schooltest.model.*;
+import org.ineydlis.schooltest.repository.GradeRepository;
+import org.ineydlis.schooltest.repository.SubjectRepository;
+import org.ineydlis.schooltest.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Распределения результатов и анализ вопросов после удаления попыток: повторная попытка после правки теста
+ * или сброса попыток учитывается один раз, а не поверх удалённых
+ */
+@SpringBootTest(properties = {
+        "spring.datasource.url=jdbc:h2:mem:score-distributions;MODE=PostgreSQL;DB_CLOSE_DELAY=-1",
+        "spring.datasource.driver-class-name=org.h2.Driver",
+        "spring.datasource.username=sa",
+        "spring.datasource.password=",
+        "spring.jpa.properties.hibernate.dialect=org.hibernate.dialect.H2Dialect",
+        "spring.jpa.hibernate.ddl-auto=create-drop",
+        "management.server.port=-1"
+})
+public class ScoreDistributionServiceTests {
+
+    @Autowired
+    private TestService testService;
+
+    @Autowired
+    private ScoreDistributionService scoreDistributionService;
+
+    @Autowired
+    private ItemAnalysisService itemAnalysisService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private GradeRepository gradeRepository;
+
+    @Autowired
+    private SubjectRepository subjectRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private Long adminId;
+    private Grade grade;
+    private Subject subject;
+    private User student;
+
+    @BeforeEach
+    public void setup() {
+        String tag = UUID.randomUUID().toString().substring(0, 8);
+        adminId = userRepository.findByUsername("admin").orElseThrow().getId();
+
+        grade = new Grade();
+        grade.setNumber(10);
+        grade.setLetter(tag);
+        grade.setFullName("10" + tag);
+        grade = gradeRepository.save(grade);
+
+        subject = new Subject();
+        subject.setName("Информатика " + tag);
+        subject = subjectRepository.save(subject);
+
+        student = new User();
+        student.setUsername("student-" + tag);
+        student.setPassword("hash");
+        student.setFullName("Ученик " + tag);
+        student.setRole(UserRole.STUDENT);
+        student.setGrade(grade);
+        student = userRepository.save(student);
+    }
+
+    @Test
+    public void editedTestCountsResubmissionOnce() {
+        Long testId = testService.createTest(request(), null, adminId).getId();
+        submit(testId, true);
+        assertCounts(testId, 1);
+
+        testService.updateTest(testId, request(), null, false, adminId);
+        assertCounts(testId, 0);
+        assertTrue(inSession(() -> itemAnalysisService.getTestItemAnalysis(testId)).stream().allMatch(q -> q.getAttempts() == 0));
+
+        submit(testId, false);
+        assertCounts(testId, 1);
+        assertEquals(0.0, scoreDistributionService.get(ScoreDistribution.Scope.GRADE, grade.getId()).quantile(1.0));
+        assertTrue(inSession(() -> itemAnalysisService.getTestItemAnalysis(testId)).stream().allMatch(q -> q.getAttempts() == 1));
+    }
+
+    @Test
+    public void clearedAttemptsLeaveDistributions() {
+        Long testId = testService.createTest(request(), null, adminId).getId();
+        submit(testId, true);
+        submit(testId, false);
+        assertCounts(testId, 1);
+
+        testService.deleteTest(testId, adminId);
+        testService.reactivateTest(testId, adminId, true);
+        assertCounts(testId, 0);
+        assertTrue(inSession(() -> itemAnalysisService.getAnswerDistribution(testId)).stream()
+                .allMatch(q -> q.getAttempts() == 0 && q.getOptions().stream().allMatch(o -> o.picks() == 0)));
+
+        submit(testId, true);
+        testService.permanentlyDeleteTest(testId, adminId);
+        assertCounts(testId, 0);
+    }
+
+    private TestCreateRequest request() {
+        List<QuestionDto> questions = List.of(question("2 + 2"), question("3 * 3"));
+        return new TestCreateRequest("Арифметика", null, subject.getId(), List.of(grade.getId()), 10, questions,
+                3, null, null, null, false);
+    }
+
+    private static QuestionDto question(String text) {
+        QuestionDto question = new QuestionDto();
+        question.setText(text);
+        question.setType(QuestionType.SINGLE_CHOICE);
+        question.setPoints(1);
+        question.setAnswers(List.of(new AnswerDto(null, "верно", true), new AnswerDto(null, "неверно", false)));
+        return question;
+    }
+
+    private void submit(Long testId, boolean correct) {
+        TestResultDto attempt = testService.startTest(testId, student.getId());
+        List<QuestionDto> questions = inSession(() -> testService.getTestQuestions(testId, attempt.getId(), student.getId()));
+        List<StudentAnswerRequest> answers = questions.stream()
+                .map(question -> new StudentAnswerRequest(question.getId(), null, question.getAnswers().stream()
+                        .filter(answer -> answer.getText().equals(correct ? "верно" : "неверно"))
+                        .map(AnswerDto::getId)
+                        .toList()))
+                .toList();
+        testService.submitTest(new TestSubmissionRequest(attempt.getId(), answers), student.getId());
+    }
+
+    // Вопросы теста читаются лениво: в веб-запросе их держит открытая сессия
+    private <T> T inSession(Supplier<T> call) {
+        return new TransactionTemplate(transactionManager).execute(status -> call.get());
+    }
+
+    private void assertCounts(Long testId, long expected) {
+        assertEquals(expected, scoreDistributionService.get(ScoreDistribution.Scope.TEST, testId).count());
+        assertEquals(expected, scoreDistributionService.get(ScoreDistribution.Scope.GRADE, grade.getId()).count());
+        assertEquals(expected, scoreDistributionService.get(ScoreDistribution.Scope.SUBJECT, subject.getId()).count());
+    }
+}
@@ -0,0 +1,129 @@
+package org.ineydlis.schooltest.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.ineydlis.schooltest.dto.UploadStatusDto;
+import org.ineydlis.schooltest.repository.BlobRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class UploadSessionServiceTests {
+
+    private static final Long USER_ID = 7L;
+    private static final byte[] CONTENT = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    @TempDir
+    Path dir;
+
+    private BlobStore blobStore;
+    private UploadSessionService uploads;
+
+    @BeforeEach
+    public void setup() {
+        blobStore = new BlobStore(mock(BlobRepository.class), mock(PlatformTransactionManager.class), dir.toString(), 60);
+        uploads = new UploadSessionService(blobStore, new SimpleMeterRegistry(), "1KB", 30);
+    }
+
+    @Test
+    public void resumesFromAcceptedOffsetAfterBrokenChunk() throws Exception {
+        String id = uploads.start(USER_ID, "../учебник.pdf", CONTENT.length).getUploadId();
+
+        assertEquals(4, append(id, "bytes 0-3/16", part(0, 4)).getOffset());
+        // Соединение оборвалось на середине части: принятые байты остаются в файле
+        assertEquals(7, append(id, "bytes 4-15/16", part(4, 7)).getOffset());
+        assertEquals(7, uploads.getStatus(id, USER_ID).getOffset());
+
+        UploadStatusDto status = append(id, "bytes 7-15/16", part(7, 16));
+
+        assertTrue(status.isComplete());
+        assertEquals(HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(CONTENT)), status.getHash());
+        assertArrayEquals(CONTENT, Files.readAllBytes(blobStore.pathOf(status.getHash())));
+        UploadSessionService.CompletedUpload upload = uploads.take(id, USER_ID);
+        assertEquals("учебник.pdf", upload.filename());
+        assertEquals(CONTENT.length, upload.blob().size());
+    }
+
+    @Test
+    public void rejectsChunkNotStartingAtOffset() throws Exception {
+        String id = uploads.start(USER_ID, "a.txt", CONTENT.length).getUploadId();
+        append(id, "bytes 0-7/16", part(0, 8));
+
+        // Повтор уже принятой части и пропуск байтов одинаково отклоняются с текущим offset
+        for (String range : new String[]{"bytes 0-7/16", "bytes 10-15/16"}) {
+            UploadSessionService.OffsetMismatchException e = assertThrows(UploadSessionService.OffsetMismatchException.class,
+                    () -> append(id, range, part(0, 6)));
+            assertEquals(8, e.getStatus().getOffset());
+        }
+        assertThrows(RuntimeException.class, () -> append(id, "bytes 8-15/20", part(8, 16)));
+        assertThrows(RuntimeException.class, () -> uploads.take(id, USER_ID));
+        assertThrows(RuntimeException.class, () -> uploads.getStatus(id, 8L));
+
+        assertTrue(append(id, "bytes 8-15/16", part(8, 16)).isComplete());
+    }
+
+    @Test
+    public void rejectsSecondChunkWhileFirstIsWriting() throws Exception {
+        String id = uploads.start(USER_ID, "a.txt", CONTENT.length).getUploadId();
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        InputStream slow = new InputStream() {
+            @Override
+            public int read() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                reading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return -1;
+            }
+        };
+        CompletableFuture<UploadStatusDto> first = CompletableFuture.supplyAsync(() -> {
+            try {
+                return append(id, "bytes 0-15/16", slow);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        assertTrue(reading.await(10, TimeUnit.SECONDS));
+
+        assertThrows(UploadSessionService.OffsetMismatchException.class, () -> append(id, "bytes 0-15/16", part(0, 16)));
+        release.countDown();
+        assertEquals(0, first.get(10, TimeUnit.SECONDS).getOffset());
+    }
+
+    @Test
+    public void rejectsFileOverLimit() {
+        assertThrows(UploadSessionService.TooLargeException.class, () -> uploads.start(USER_ID, "big.bin", 2048));
+    }
+
+    private UploadStatusDto append(String id, String range, InputStream body) throws IOException {
+        return uploads.append(id, USER_ID, range, body);
+    }
+
+    private static InputStream part(int from, int to) {
+        return new ByteArrayInputStream(Arrays.copyOfRange(CONTENT, from, to));
+    }
+}
@@ -0,0 +1,58 @@
+package org.ineydlis.schooltest.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AnswerVectorCodecTests {
+
+    @Test
+    public void roundTripKeepsEveryAnswer() {
+        BitSet wide = new BitSet();
+        wide.set(0);
+        wide.set(70);   // вариантов больше 64 - маска длиннее одного слова
+        List<AnswerVectorCodec.Entry> entries = List.of(
+                new AnswerVectorCodec.Entry(1_000_000_007L, true, 5, null, BitSet.valueOf(new long[]{0b101})),
+                new AnswerVectorCodec.Entry(12L, false, 0, "Фотосинтез, ёж", new BitSet()),
+                new AnswerVectorCodec.Entry(13L, true, 3, "", new BitSet()),
+                new AnswerVectorCodec.Entry(13L, false, 2, null, wide));
+
+        byte[] encoded = AnswerVectorCodec.encode(entries);
+
+        assertEquals(AnswerVectorCodec.VERSION, encoded[0]);
+        assertEquals(entries, AnswerVectorCodec.decode(encoded));
+        assertEquals(List.of(), AnswerVectorCodec.decode(AnswerVectorCodec.encode(List.of())));
+    }
+
+    @Test
+    public void masksFollowOptionOrder() {
+        List<Long> options = List.of(40L, 41L, 45L, 50L);
+
+        BitSet mask = AnswerVectorCodec.toMask(options, Set.of(50L, 41L, 99L));
+
+        assertEquals(BitSet.valueOf(new long[]{0b1010}), mask);
+        assertEquals(List.of(41L, 50L), AnswerVectorCodec.fromMask(options, mask));
+        // Десять ответов с одним выбранным вариантом из четырёх - по 5 байт на ответ
+        List<AnswerVectorCodec.Entry> attempt = LongStream.rangeClosed(101, 110)
+                .mapToObj(id -> new AnswerVectorCodec.Entry(id, true, 1, null, AnswerVectorCodec.toMask(options, Set.of(45L))))
+                .toList();
+        assertTrue(AnswerVectorCodec.encode(attempt).length <= 3 + 10 * 5);
+    }
+
+    @Test
+    public void rejectsUnknownVersionAndTruncatedData() {
+        byte[] encoded = AnswerVectorCodec.encode(List.of(new AnswerVectorCodec.Entry(7L, true, 1, "ответ", new BitSet())));
+
+        byte[] future = encoded.clone();
+        future[0] = 2;
+        assertThrows(IllegalStateException.class, () -> AnswerVectorCodec.decode(future));
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length - 1);
+        assertThrows(IllegalStateException.class, () -> AnswerVectorCodec.decode(truncated));
+    }
+}
@@ -0,0 +1,57 @@
+package org.ineydlis.schooltest.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HashedTimingWheelTests {
+
+    // Колесо из 8 корзин по 100 мс: оборот - 800 мс
+    private final HashedTimingWheel<String> wheel = new HashedTimingWheel<>(100, 8);
+
+    @Test
+    public void firesOnDeadlineTickAcrossRounds() {
+        wheel.advance(1_000);
+        wheel.schedule("soon", 1_250);
+        wheel.schedule("nextRound", 2_250); // та же корзина, следующий оборот
+
+        assertEquals(List.of(), wheel.advance(1_100));
+        // Не раньше дедлайна: 1250 округляется вверх до тика, начинающегося в 1300
+        assertEquals(List.of(), wheel.advance(1_250));
+        assertEquals(List.of("soon"), wheel.advance(1_300));
+        assertEquals(List.of(), wheel.advance(2_200));
+        assertEquals(List.of("nextRound"), wheel.advance(2_300));
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void cancelAndRescheduleReplaceTimer() {
+        wheel.advance(0);
+        wheel.schedule("a", 300);
+        wheel.schedule("b", 300);
+        assertTrue(wheel.cancel("a"));
+        assertFalse(wheel.cancel("a"));
+        wheel.schedule("b", 500);
+
+        assertEquals(List.of(), wheel.advance(400));
+        assertEquals(List.of("b"), wheel.advance(500));
+    }
+
+    @Test
+    public void overdueTimersFireAfterLongPause() {
+        wheel.advance(0);
+        wheel.schedule("a", 200);
+        wheel.schedule("b", 5_000);
+
+        // Пауза длиннее нескольких оборотов: оба таймера срабатывают за один вызов
+        List<String> expired = wheel.advance(10_000);
+        assertEquals(2, expired.size());
+        assertTrue(expired.containsAll(List.of("a", "b")));
+
+        // Дедлайн в прошлом срабатывает на ближайшем тике
+        wheel.schedule("late", 1_000);
+        assertEquals(List.of("late"), wheel.advance(10_100));
+    }
+}
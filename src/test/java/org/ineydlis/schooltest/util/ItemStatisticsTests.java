@@ -0,0 +1,84 @@
+package org.ineydlis.schooltest.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ItemStatisticsTests {
+
+    // Точечно-бисериальная корреляция из сумм должна совпадать с корреляцией Пирсона по исходным данным
+    @Test
+    public void pointBiserialMatchesPearsonCorrelation() {
+        Random random = new Random(7);
+        int n = 500;
+        double[] x = new double[n];
+        double[] y = new double[n];
+        ItemStatistics statistics = new ItemStatistics();
+        for (int i = 0; i < n; i++) {
+            y[i] = random.nextDouble();
+            boolean correct = random.nextDouble() < 0.2 + 0.6 * y[i];
+            x[i] = correct ? 1 : 0;
+            statistics.add(correct, x[i], y[i]);
+        }
+
+        assertEquals(pearson(x, y), statistics.pointBiserial(), 1e-9);
+        assertTrue(statistics.pointBiserial() > 0.2);
+        assertEquals(statistics.correctCount() / (double) n, statistics.difficulty(), 1e-12);
+    }
+
+    @Test
+    public void mergedPartsEqualOneAccumulator() {
+        ItemStatistics whole = new ItemStatistics();
+        ItemStatistics first = new ItemStatistics();
+        ItemStatistics second = new ItemStatistics();
+        for (int i = 0; i < 40; i++) {
+            boolean correct = i % 3 != 0;
+            double rest = (i * 7 % 11) / 10.0;
+            whole.add(correct, correct ? 1 : 0.25, rest);
+            (i < 15 ? first : second).add(correct, correct ? 1 : 0.25, rest);
+        }
+        first.merge(second);
+
+        assertEquals(whole.attempts(), first.attempts());
+        assertEquals(whole.meanRatio(), first.meanRatio(), 1e-12);
+        assertEquals(whole.pointBiserial(), first.pointBiserial(), 1e-12);
+    }
+
+    @Test
+    public void undefinedWithoutVariation() {
+        ItemStatistics empty = new ItemStatistics();
+        assertNull(empty.difficulty());
+        assertNull(empty.pointBiserial());
+
+        ItemStatistics allCorrect = new ItemStatistics();
+        allCorrect.add(true, 1, 0.4);
+        allCorrect.add(true, 1, 0.9);
+        assertEquals(1.0, allCorrect.difficulty());
+        assertNull(allCorrect.pointBiserial());
+
+        ItemStatistics sameRest = new ItemStatistics();
+        sameRest.add(true, 1, 0.5);
+        sameRest.add(false, 0, 0.5);
+        assertNull(sameRest.pointBiserial());
+    }
+
+    private static double pearson(double[] x, double[] y) {
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < x.length; i++) {
+            meanX += x[i] / x.length;
+            meanY += y[i] / y.length;
+        }
+        double covariance = 0;
+        double varianceX = 0;
+        double varianceY = 0;
+        for (int i = 0; i < x.length; i++) {
+            covariance += (x[i] - meanX) * (y[i] - meanY);
+            varianceX += (x[i] - meanX) * (x[i] - meanX);
+            varianceY += (y[i] - meanY) * (y[i] - meanY);
+        }
+        return covariance / Math.sqrt(varianceX * varianceY);
+    }
+}
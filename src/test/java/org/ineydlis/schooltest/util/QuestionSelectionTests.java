@@ -0,0 +1,45 @@
+package org.ineydlis.schooltest.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuestionSelectionTests {
+
+    private final List<Long> ids = LongStream.rangeClosed(1, 40).boxed().toList();
+
+    @Test
+    public void sameSeedGivesSameDistinctSelection() {
+        List<Long> first = QuestionSelection.select(ids, 10, 12345L);
+
+        assertEquals(first, QuestionSelection.select(ids, 10, 12345L));
+        assertEquals(10, new HashSet<>(first).size());
+        assertTrue(ids.containsAll(first));
+        assertNotEquals(first, QuestionSelection.select(ids, 10, 12346L));
+    }
+
+    // Выборка зависит только от зерна: сохранённые зерна должны давать те же вопросы и после обновлений
+    @Test
+    public void selectionIsStableForStoredSeeds() {
+        assertEquals(List.of(30L, 8L, 13L, 16L, 6L), QuestionSelection.select(ids, 5, 42L));
+    }
+
+    @Test
+    public void everyQuestionCanBePicked() {
+        int[] picks = new int[ids.size()];
+        for (long seed = 0; seed < 4_000; seed++) {
+            for (Long id : QuestionSelection.select(ids, 5, seed)) {
+                picks[id.intValue() - 1]++;
+            }
+        }
+        // В среднем по 500 раз на вопрос
+        for (int count : picks) {
+            assertTrue(count > 350 && count < 650, "неравномерная выборка: " + count);
+        }
+        assertEquals(ids.size(), QuestionSelection.select(ids, 100, 1L).size());
+    }
+}
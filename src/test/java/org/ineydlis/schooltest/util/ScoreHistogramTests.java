@@ -0,0 +1,69 @@
+package org.ineydlis.schooltest.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ScoreHistogramTests {
+
+    // Квантиль по счётчикам совпадает с точным квантилем по отсортированным процентам
+    @Test
+    public void quantilesMatchSortedPercentages() {
+        Random random = new Random(11);
+        int n = 1_000;
+        int[] percents = new int[n];
+        ScoreHistogram histogram = new ScoreHistogram();
+        for (int i = 0; i < n; i++) {
+            int maxScore = 5 + random.nextInt(40);
+            int score = random.nextInt(maxScore + 1);
+            percents[i] = ScoreHistogram.bucket(score, maxScore);
+            histogram.add(percents[i]);
+        }
+        Arrays.sort(percents);
+
+        for (double q : new double[]{0.1, 0.5, 0.9, 1.0}) {
+            int rank = (int) Math.ceil(q * n);
+            assertEquals(percents[rank - 1], histogram.quantile(q));
+        }
+        assertEquals(n, histogram.bins(10).stream().mapToLong(Long::longValue).sum());
+    }
+
+    @Test
+    public void removeAndMergeKeepCounts() {
+        ScoreHistogram first = new ScoreHistogram();
+        first.add(ScoreHistogram.bucket(7, 10));
+        first.add(ScoreHistogram.bucket(10, 10));
+        first.remove(ScoreHistogram.bucket(7, 10));
+        first.remove(35);   // не учтён - распределение не уходит в минус
+        ScoreHistogram second = new ScoreHistogram();
+        second.add(ScoreHistogram.bucket(1, 3));
+        first.merge(second);
+
+        assertEquals(2, first.count());
+        assertEquals(33.0, first.quantile(0.5));
+        assertEquals(100.0, first.quantile(0.9));
+        assertEquals(List.of(0L, 0L, 0L, 1L, 0L, 0L, 0L, 0L, 0L, 1L), first.bins(10));
+        assertNull(new ScoreHistogram().quantile(0.5));
+    }
+
+    @Test
+    public void encodedFormIsCompactAndRoundTrips() {
+        ScoreHistogram histogram = new ScoreHistogram();
+        for (int i = 0; i < 300; i++) {
+            histogram.add(60 + i % 5);
+        }
+
+        byte[] encoded = histogram.encode();
+
+        assertEquals(ScoreHistogram.VERSION, encoded[0]);
+        assertTrue(encoded.length <= 2 + 5 * 3);
+        ScoreHistogram decoded = ScoreHistogram.decode(encoded);
+        assertEquals(histogram.bins(1), decoded.bins(1));
+        assertEquals(2, new ScoreHistogram().encode().length);
+        assertThrows(IllegalStateException.class, () -> ScoreHistogram.decode(Arrays.copyOf(encoded, encoded.length - 1)));
+    }
+}
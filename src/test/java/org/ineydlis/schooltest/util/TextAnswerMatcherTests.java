@@ -0,0 +1,119 @@
+package org.ineydlis.schooltest.util;
+
+import org.ineydlis.schooltest.dto.TestSnapshot;
+import org.ineydlis.schooltest.model.Answer;
+import org.ineydlis.schooltest.model.Question;
+import org.ineydlis.schooltest.model.QuestionType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TextAnswerMatcherTests {
+
+    @Test
+    public void normalizesCaseYoPunctuationAndSpaces() {
+        assertEquals("еж и елка", TextAnswerMatcher.normalize("  Ёж,  и ЁЛКА! "));
+        assertEquals("северо запад", TextAnswerMatcher.normalize("северо-запад"));
+        assertEquals("замок", TextAnswerMatcher.normalize("за́мок"));
+        // Числа: знак и десятичный разделитель значимы
+        assertEquals("3.5", TextAnswerMatcher.normalize("3,5"));
+        assertEquals("-12", TextAnswerMatcher.normalize("−12."));
+        assertEquals("x 5", TextAnswerMatcher.normalize("x-5"));
+    }
+
+    // В снимке теста принятыми вариантами становятся только ответы, отмеченные правильными
+    @Test
+    public void snapshotIgnoresIncorrectTextVariants() {
+        org.ineydlis.schooltest.model.Test test = new org.ineydlis.schooltest.model.Test();
+        test.setId(1L);
+        Question question = new Question();
+        question.setId(10L);
+        question.setType(QuestionType.TEXT_ANSWER);
+        question.getAnswers().add(new Answer(100L, "Париж", true, question));
+        question.getAnswers().add(new Answer(101L, "Лондон", false, question));
+        test.getQuestions().add(question);
+
+        TextAnswerMatcher matcher = TestSnapshot.compile(test).questions().get(10L).textMatcher();
+
+        assertTrue(matcher.matches("париж"));
+        assertFalse(matcher.matches("Лондон"));
+    }
+
+    @Test
+    public void acceptsAnyVariantWithinEditTolerance() {
+        TextAnswerMatcher matcher = TextAnswerMatcher.compile(List.of("Фотосинтез", "фото-синтез", "3,5", "кот", " "));
+
+        assertTrue(matcher.matches("ФОТОСИНТЕЗ."));
+        assertTrue(matcher.matches("фото синтез"));
+        assertTrue(matcher.matches("фотосинтес"));   // одна опечатка
+        assertFalse(matcher.matches("фатасинтес"));  // три правки
+        assertTrue(matcher.matches("3.5"));
+        assertFalse(matcher.matches("3.6"));         // числа - только точно
+        assertTrue(matcher.matches("Кот"));
+        assertFalse(matcher.matches("кит"));         // короткие слова - только точно
+        assertFalse(matcher.matches(""));
+        assertFalse(matcher.matches(null));
+    }
+
+    // Упакованный по дорожкам алгоритм Майерса должен совпадать с обычной динамикой Левенштейна
+    @Test
+    public void packedLanesAgreeWithPlainEditDistance() {
+        Random random = new Random(42);
+        for (int round = 0; round < 300; round++) {
+            List<String> variants = new ArrayList<>();
+            for (int v = 0; v < 1 + random.nextInt(12); v++) {
+                variants.add(randomWord(random, 5 + random.nextInt(20)));
+            }
+            TextAnswerMatcher matcher = TextAnswerMatcher.compile(variants);
+
+            String answer = mutate(random, variants.get(random.nextInt(variants.size())));
+            boolean expected = variants.stream()
+                    .anyMatch(v -> levenshtein(v, answer) <= TextAnswerMatcher.maxEdits(v));
+            assertEquals(expected, matcher.matches(answer), () -> variants + " / " + answer);
+        }
+    }
+
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('а' + random.nextInt(4)));
+        }
+        return word.toString();
+    }
+
+    private static String mutate(Random random, String word) {
+        StringBuilder result = new StringBuilder(word);
+        for (int edits = random.nextInt(4); edits > 0 && !result.isEmpty(); edits--) {
+            int position = random.nextInt(result.length());
+            switch (random.nextInt(3)) {
+                case 0 -> result.deleteCharAt(position);
+                case 1 -> result.insert(position, (char) ('а' + random.nextInt(4)));
+                default -> result.setCharAt(position, (char) ('а' + random.nextInt(4)));
+            }
+        }
+        return result.toString();
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j - 1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}